@@ -0,0 +1,49 @@
+package suncertify.benchmark;
+
+/**
+ * A benchmark executed by the {@code BenchmarkRunner}.
+ * <p>
+ * The runner calls {@link #setUp} once for each number of threads, then calls
+ * {@link #run} repeatedly from that many threads concurrently and finally
+ * calls {@link #tearDown}. Only the calls of the run method are measured.
+ * 
+ * @author Rasmus Kuschel
+ */
+public interface Benchmark {
+
+	/**
+	 * Returns the name of the benchmark, as displayed in the results.
+	 * 
+	 * @return name of the benchmark
+	 */
+	String getName();
+
+	/**
+	 * Prepares the benchmark to be run by the specified number of threads.
+	 * 
+	 * @param threads
+	 *            number of threads calling the run method concurrently
+	 * @throws Exception
+	 *             if the benchmark cannot be prepared
+	 */
+	void setUp(int threads) throws Exception;
+
+	/**
+	 * Executes the measured operation once.
+	 * 
+	 * @param thread
+	 *            index of the calling thread, from 0 to the number of threads
+	 *            minus 1
+	 * @throws Exception
+	 *             if the operation fails; the benchmark is aborted
+	 */
+	void run(int thread) throws Exception;
+
+	/**
+	 * Releases the resources used by the benchmark.
+	 * 
+	 * @throws Exception
+	 *             if the resources cannot be released
+	 */
+	void tearDown() throws Exception;
+}
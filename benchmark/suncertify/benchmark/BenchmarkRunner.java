@@ -0,0 +1,163 @@
+package suncertify.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs benchmarks and writes their results to the standard output.
+ * <p>
+ * A benchmark is run in iterations of a fixed duration. During an iteration,
+ * each thread calls the run method of the benchmark as often as it can. The
+ * first iterations warm up the virtual machine (class loading, JIT
+ * compilation, caches) and are not reported. For the remaining iterations the
+ * mean throughput and its standard deviation are reported, as well as the
+ * mean time of one operation as seen by a single thread.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class BenchmarkRunner {
+
+	/**
+	 * Number of iterations run before measuring
+	 */
+	private final int warmupIterations;
+
+	/**
+	 * Number of measured iterations
+	 */
+	private final int measurementIterations;
+
+	/**
+	 * Duration of each iteration in milliseconds
+	 */
+	private final long iterationMillis;
+
+	/**
+	 * Creates a new runner.
+	 * 
+	 * @param warmupIterations
+	 *            number of iterations run before measuring
+	 * @param measurementIterations
+	 *            number of measured iterations, at least 1
+	 * @param iterationMillis
+	 *            duration of each iteration in milliseconds
+	 */
+	public BenchmarkRunner(int warmupIterations, int measurementIterations,
+			long iterationMillis) {
+		if (measurementIterations < 1) {
+			throw new IllegalArgumentException(
+					"at least one measured iteration is required");
+		}
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = measurementIterations;
+		this.iterationMillis = iterationMillis;
+	}
+
+	/**
+	 * Writes the header of the result table.
+	 */
+	public void printHeader() {
+		System.out.println(String.format("%-36s %7s %14s %12s %12s",
+				"Benchmark", "Threads", "Ops/s", "Error", "us/op"));
+	}
+
+	/**
+	 * Runs the specified benchmark with the specified number of threads and
+	 * writes the result.
+	 * 
+	 * @param benchmark
+	 *            benchmark to run
+	 * @param threads
+	 *            number of threads
+	 * @throws Exception
+	 *             if the benchmark fails
+	 */
+	public void run(Benchmark benchmark, int threads) throws Exception {
+		benchmark.setUp(threads);
+		try {
+			for (int i = 0; i < warmupIterations; i++) {
+				runIteration(benchmark, threads);
+			}
+
+			final double[] throughput = new double[measurementIterations];
+			double sum = 0;
+			for (int i = 0; i < measurementIterations; i++) {
+				throughput[i] = runIteration(benchmark, threads);
+				sum += throughput[i];
+			}
+
+			final double mean = sum / measurementIterations;
+			double squares = 0;
+			for (final double value : throughput) {
+				squares += (value - mean) * (value - mean);
+			}
+			final double deviation = measurementIterations > 1 ? Math
+					.sqrt(squares / (measurementIterations - 1)) : 0;
+			final double microsPerOperation = mean > 0 ? threads * 1e6 / mean
+					: Double.NaN;
+
+			System.out.println(String.format(
+					"%-36s %7d %14.1f %12.1f %12.2f", benchmark.getName(),
+					threads, mean, deviation, microsPerOperation));
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+
+	/**
+	 * Runs one iteration of the specified benchmark.
+	 * 
+	 * @param benchmark
+	 *            benchmark to run
+	 * @param threads
+	 *            number of threads
+	 * @return number of operations per second executed by all threads
+	 * @throws Exception
+	 *             if the benchmark fails
+	 */
+	private double runIteration(final Benchmark benchmark, int threads)
+			throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final long[] operations = new long[threads];
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		final Thread[] workers = new Thread[threads];
+
+		for (int i = 0; i < threads; i++) {
+			final int thread = i;
+			workers[i] = new Thread("benchmark-" + i) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						final long deadline = System.nanoTime()
+								+ iterationMillis * 1000000L;
+						long count = 0;
+						while (System.nanoTime() < deadline
+								&& failure.get() == null) {
+							benchmark.run(thread);
+							count++;
+						}
+						operations[thread] = count;
+					} catch (final Exception e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			};
+			workers[i].start();
+		}
+
+		final long begin = System.nanoTime();
+		start.countDown();
+		long total = 0;
+		for (int i = 0; i < threads; i++) {
+			workers[i].join();
+			total += operations[i];
+		}
+		final long elapsed = System.nanoTime() - begin;
+
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		return total * 1e9 / elapsed;
+	}
+}
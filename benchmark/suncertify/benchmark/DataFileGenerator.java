@@ -0,0 +1,341 @@
+package suncertify.benchmark;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates data files with synthetic records for tests at scale.
+ * <p>
+ * The records are written one by one with a {@code DataFileWriter}, so the
+ * memory used does not depend on the number of records. The values are chosen
+ * to resemble real data:
+ * <ul>
+ * <li>names combine a family name, a trade and a company suffix, so that names
+ * repeat as they would among many real contractors</li>
+ * <li>locations follow a Zipf distribution, i.e. few locations have most of
+ * the contractors, with a configurable number of locations and skew</li>
+ * <li>each contractor has one to three distinct specialties</li>
+ * <li>sizes are mostly small, rates vary between $20.00 and $150.00</li>
+ * <li>a configurable fraction of the records is booked, i.e. has an owner,
+ * and a configurable fraction is deleted</li>
+ * </ul>
+ * The same seed always generates the same file.
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * java suncertify.benchmark.DataFileGenerator -output path [-records n]
+ *     [-deleted ratio] [-booked ratio] [-locations n] [-skew s] [-seed n]
+ * </pre>
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class DataFileGenerator {
+
+	/**
+	 * Family names used in contractor names
+	 */
+	private static final String[] FAMILY_NAMES = { "Smith", "Johnson",
+			"Miller", "Brown", "Davis", "Wilson", "Moore", "Taylor",
+			"Anderson", "Thomas", "Jackson", "White", "Harris", "Martin",
+			"Garcia", "Clark", "Lewis", "Walker", "Hall", "Young", "King",
+			"Wright", "Scott", "Green", "Baker", "Adams", "Nelson", "Carter",
+			"Mitchell", "Roberts", "Turner", "Phillips", "Campbell", "Parker",
+			"Evans", "Edwards", "Collins", "Stewart", "Morris", "Murphy" };
+
+	/**
+	 * Trades used in contractor names
+	 */
+	private static final String[] TRADES = { "Builders", "Construction",
+			"Roofing", "Plumbing", "Electric", "Painters", "Renovations",
+			"Home Repair", "Carpentry", "Contracting" };
+
+	/**
+	 * Company suffixes used in contractor names
+	 */
+	private static final String[] SUFFIXES = { "", "", "", " & Sons", " Inc",
+			" Ltd", " Co", " Brothers" };
+
+	/**
+	 * Names of the first locations. Further locations are numbered.
+	 */
+	private static final String[] LOCATION_NAMES = { "Smallville",
+			"Whoville", "Pleasantville", "Lendmarch", "Bitsville", "Xanadu",
+			"Hobbiton", "Digitopolis", "Springfield", "Riverton", "Lakeside",
+			"Fairview", "Greenville", "Oakdale", "Millbrook", "Brookfield",
+			"Ashford", "Kingston", "Clearwater", "Westfield" };
+
+	/**
+	 * Specialties of the contractors
+	 */
+	private static final String[] SPECIALTIES = { "Roofing", "Plumbing",
+			"Painting", "Electrical", "Drywall", "Glass", "Heating",
+			"Carpets", "Air Conditioning", "Masonry", "Carpentry", "Flooring" };
+
+	/**
+	 * Length of the owner field, i.e. of the generated customer ids
+	 */
+	private static final int OWNER_LENGTH = 8;
+
+	/**
+	 * Path of the generated file
+	 */
+	private String output;
+
+	/**
+	 * Number of records
+	 */
+	private long records = 1000000;
+
+	/**
+	 * Fraction of deleted records
+	 */
+	private double deletedRatio = 0.05;
+
+	/**
+	 * Fraction of booked records
+	 */
+	private double bookedRatio = 0.2;
+
+	/**
+	 * Number of distinct locations
+	 */
+	private int locations = 200;
+
+	/**
+	 * Exponent of the Zipf distribution of the locations; 0 for a uniform
+	 * distribution
+	 */
+	private double skew = 1.0;
+
+	/**
+	 * Seed of the random number generator
+	 */
+	private long seed = 1;
+
+	/**
+	 * Generates a data file.
+	 * 
+	 * @param args
+	 *            command line options, see the class description
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		final DataFileGenerator generator = new DataFileGenerator();
+		generator.parseArguments(args);
+		if (generator.output == null) {
+			System.err.println("Missing option: -output path");
+			System.exit(-1);
+		}
+
+		final long start = System.currentTimeMillis();
+		generator.generate();
+		System.out.println("Generated " + generator.records + " records in "
+				+ (System.currentTimeMillis() - start) + " ms: "
+				+ generator.output);
+	}
+
+	/**
+	 * Parses the command line options.
+	 * 
+	 * @param args
+	 *            command line options
+	 */
+	private void parseArguments(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			final String option = args[i];
+			final String value = args[i + 1];
+			if ("-output".equals(option)) {
+				output = value;
+			} else if ("-records".equals(option)) {
+				records = Long.parseLong(value);
+			} else if ("-deleted".equals(option)) {
+				deletedRatio = Double.parseDouble(value);
+			} else if ("-booked".equals(option)) {
+				bookedRatio = Double.parseDouble(value);
+			} else if ("-locations".equals(option)) {
+				locations = Integer.parseInt(value);
+			} else if ("-skew".equals(option)) {
+				skew = Double.parseDouble(value);
+			} else if ("-seed".equals(option)) {
+				seed = Long.parseLong(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + option);
+			}
+		}
+	}
+
+	/**
+	 * Writes the data file.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	private void generate() throws IOException {
+		final Random random = new Random(seed);
+		final String[] locationNames = createLocationNames(locations);
+		final ZipfDistribution locationDistribution = new ZipfDistribution(
+				locations, skew);
+		final String[] values = new String[6];
+
+		final DataFileWriter writer = new DataFileWriter(output);
+		try {
+			for (long i = 0; i < records; i++) {
+				values[0] = createName(random);
+				values[1] = locationNames[locationDistribution.next(random)];
+				values[2] = createSpecialties(random);
+				values[3] = String.valueOf(createSize(random));
+				values[4] = createRate(random);
+				values[5] = random.nextDouble() < bookedRatio ? createOwner(random)
+						: "";
+				writer.write(values, random.nextDouble() < deletedRatio);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Creates the names of the locations, most frequent first.
+	 * 
+	 * @param count
+	 *            number of locations
+	 * @return names of the locations
+	 */
+	private static String[] createLocationNames(int count) {
+		final String[] names = new String[count];
+		for (int i = 0; i < count; i++) {
+			if (i < LOCATION_NAMES.length) {
+				names[i] = LOCATION_NAMES[i];
+			} else {
+				names[i] = LOCATION_NAMES[i % LOCATION_NAMES.length] + " "
+						+ (i / LOCATION_NAMES.length + 1);
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Creates a contractor name, e.g. "Miller & Sons Roofing".
+	 * 
+	 * @param random
+	 *            random number generator
+	 * @return contractor name
+	 */
+	private static String createName(Random random) {
+		return FAMILY_NAMES[random.nextInt(FAMILY_NAMES.length)]
+				+ SUFFIXES[random.nextInt(SUFFIXES.length)] + " "
+				+ TRADES[random.nextInt(TRADES.length)];
+	}
+
+	/**
+	 * Creates a comma separated list of one to three distinct specialties.
+	 * 
+	 * @param random
+	 *            random number generator
+	 * @return specialties
+	 */
+	private static String createSpecialties(Random random) {
+		final int count = 1 + random.nextInt(3);
+		final int first = random.nextInt(SPECIALTIES.length);
+		final StringBuilder specialties = new StringBuilder(
+				SPECIALTIES[first]);
+		// distinct specialties at a random stride from the first one
+		final int stride = 1 + random.nextInt(SPECIALTIES.length - 1);
+		for (int i = 1; i < count; i++) {
+			specialties.append(", ").append(
+					SPECIALTIES[(first + i * stride) % SPECIALTIES.length]);
+			if ((i * stride) % SPECIALTIES.length == 0) {
+				break;
+			}
+		}
+		return specialties.toString();
+	}
+
+	/**
+	 * Creates the number of staff of a contractor, exponentially distributed
+	 * with a mean of about 8.
+	 * 
+	 * @param random
+	 *            random number generator
+	 * @return number of staff
+	 */
+	private static int createSize(Random random) {
+		return 1 + (int) Math.min(99999, -Math.log(1 - random.nextDouble()) * 8);
+	}
+
+	/**
+	 * Creates an hourly rate between $20.00 and $150.00.
+	 * 
+	 * @param random
+	 *            random number generator
+	 * @return rate, e.g. "$42.50"
+	 */
+	private static String createRate(Random random) {
+		final int cents = 2000 + random.nextInt(13001);
+		final int fraction = cents % 100;
+		return "$" + (cents / 100) + (fraction < 10 ? ".0" : ".") + fraction;
+	}
+
+	/**
+	 * Creates a customer id of eight digits.
+	 * 
+	 * @param random
+	 *            random number generator
+	 * @return customer id
+	 */
+	private static String createOwner(Random random) {
+		final String digits = String.valueOf(10000000 + random
+				.nextInt(90000000));
+		return digits.substring(0, OWNER_LENGTH);
+	}
+
+	/**
+	 * Zipf distribution over the indices 0 to n-1, i.e. index k is chosen
+	 * with a probability proportional to 1/(k+1)^s.
+	 */
+	private static final class ZipfDistribution {
+
+		/**
+		 * Cumulative probability of each index
+		 */
+		private final double[] cumulative;
+
+		/**
+		 * Creates the distribution.
+		 * 
+		 * @param n
+		 *            number of indices, at least 1
+		 * @param s
+		 *            exponent; 0 for a uniform distribution
+		 */
+		ZipfDistribution(int n, double s) {
+			cumulative = new double[n];
+			double sum = 0;
+			for (int k = 0; k < n; k++) {
+				sum += 1 / Math.pow(k + 1, s);
+				cumulative[k] = sum;
+			}
+			for (int k = 0; k < n; k++) {
+				cumulative[k] /= sum;
+			}
+		}
+
+		/**
+		 * Chooses an index.
+		 * 
+		 * @param random
+		 *            random number generator
+		 * @return chosen index
+		 */
+		int next(Random random) {
+			final int index = Arrays.binarySearch(cumulative, random
+					.nextDouble());
+			// binarySearch returns -(insertion point) - 1 if not found
+			final int k = index >= 0 ? index : -index - 1;
+			return Math.min(k, cumulative.length - 1);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package suncertify.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import suncertify.db.domain.DataRecordState;
+import suncertify.db.domain.FileMetaData;
+
+/**
+ * Writes a data file in the format read by {@code FileAccess}, i.e. the header
+ * with the fixed schema of the assignment followed by the records.
+ * <p>
+ * Records are appended to a buffered stream, so that files of any size can be
+ * written quickly and without holding the records in memory. Each record is
+ * encoded into a reusable buffer and written with a single call.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class DataFileWriter implements Closeable {
+
+	/**
+	 * Charset of the field names and values
+	 */
+	private static final String CHARSET = "US-ASCII";
+
+	/**
+	 * Size of the output buffer
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Stream the data file is written to
+	 */
+	private final DataOutputStream out;
+
+	/**
+	 * Buffer holding the encoded record being written
+	 */
+	private final byte[] recordBuffer;
+
+	/**
+	 * Number of records written
+	 */
+	private long recordCount;
+
+	/**
+	 * Creates the data file at the specified location, replacing an existing
+	 * file, and writes its header.
+	 * 
+	 * @param path
+	 *            location of the data file
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public DataFileWriter(String path) throws IOException {
+		int recordLength = 2;
+		for (final int fieldLength : FileMetaData.EXPECTED_FIELD_LENGTHS) {
+			recordLength += fieldLength;
+		}
+		recordBuffer = new byte[recordLength];
+
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(path), BUFFER_SIZE));
+		try {
+			writeHeader();
+		} catch (final IOException e) {
+			out.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the header: magic cookie, offset of the first record, field count
+	 * and the name and length of each field.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	private void writeHeader() throws IOException {
+		out.writeInt(FileMetaData.EXPECTED_MAGIC_COOKIE_VALUE);
+		out.writeInt(FileMetaData.EXPECTED_OFFSET);
+		out.writeShort(FileMetaData.EXPECTED_FIELD_COUNT);
+		for (int i = 0; i < FileMetaData.EXPECTED_FIELD_COUNT; i++) {
+			final byte[] name = FileMetaData.EXPECTED_FIELD_NAMES[i]
+					.getBytes(CHARSET);
+			out.writeShort(name.length);
+			out.write(name);
+			out.writeShort(FileMetaData.EXPECTED_FIELD_LENGTHS[i]);
+		}
+	}
+
+	/**
+	 * Appends a record. Field values are truncated or padded with blanks to
+	 * the length of their field. Characters outside of US-ASCII are written as
+	 * '?'.
+	 * 
+	 * @param data
+	 *            field values of the record
+	 * @param deleted
+	 *            true if the record is written as deleted
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void write(String[] data, boolean deleted) throws IOException {
+		final short state = (deleted ? DataRecordState.DELETED
+				: DataRecordState.VALID).getEncoding();
+		recordBuffer[0] = (byte) (state >> 8);
+		recordBuffer[1] = (byte) state;
+
+		int position = 2;
+		for (int i = 0; i < FileMetaData.EXPECTED_FIELD_COUNT; i++) {
+			final int fieldLength = FileMetaData.EXPECTED_FIELD_LENGTHS[i];
+			final String value = data[i] != null ? data[i] : "";
+			final int length = Math.min(value.length(), fieldLength);
+			for (int j = 0; j < length; j++) {
+				final char c = value.charAt(j);
+				recordBuffer[position + j] = (byte) (c < 0x80 ? c : '?');
+			}
+			Arrays.fill(recordBuffer, position + length, position
+					+ fieldLength, (byte) ' ');
+			position += fieldLength;
+		}
+		out.write(recordBuffer);
+		recordCount++;
+	}
+
+	/**
+	 * Returns the number of records written so far.
+	 * 
+	 * @return number of records
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Flushes and closes the data file.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
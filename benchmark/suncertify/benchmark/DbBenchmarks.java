@@ -0,0 +1,448 @@
+package suncertify.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import suncertify.db.Data;
+import suncertify.db.FileAccess;
+import suncertify.db.domain.FileMetaData;
+import suncertify.db.lock.LockManager;
+
+/**
+ * Benchmarks of the database layer.
+ * <p>
+ * The benchmarks run against a data file generated before they are started,
+ * with a configurable number of records of which a configurable fraction is
+ * deleted. As {@code FileAccess} operates on one data file per virtual machine,
+ * all benchmarks of a run share this file; to compare different deleted
+ * ratios, the benchmarks are run once per ratio.
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * java suncertify.benchmark.DbBenchmarks [-records n] [-deleted ratio]
+ *     [-threads n,n,...] [-warmup n] [-iterations n] [-time seconds]
+ *     [-benchmarks name,name,...]
+ * </pre>
+ * 
+ * Each benchmark is run once for each number of threads. Every thread uses a
+ * Data instance of its own, i.e. represents a separate client.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class DbBenchmarks {
+
+	/**
+	 * Locations of the generated records
+	 */
+	private static final String[] LOCATIONS = { "Smallville", "Whoville",
+			"Pleasantville", "Lendmarch", "Bitsville", "Xanadu", "Hobbiton",
+			"Digitopolis" };
+
+	/**
+	 * Specialties of the generated records
+	 */
+	private static final String[] SPECIALTIES = { "Roofing",
+			"Plumbing, Painting", "Electrical", "Drywall, Glass, Painting",
+			"Heating, Carpets", "Air Conditioning" };
+
+	/**
+	 * Number of records in the data file
+	 */
+	private int records = 10000;
+
+	/**
+	 * Fraction of deleted records in the data file
+	 */
+	private double deletedRatio = 0.1;
+
+	/**
+	 * Numbers of threads each benchmark is run with
+	 */
+	private int[] threadCounts = { 1, 2, 4, 8 };
+
+	/**
+	 * Number of warmup iterations
+	 */
+	private int warmupIterations = 3;
+
+	/**
+	 * Number of measured iterations
+	 */
+	private int measurementIterations = 5;
+
+	/**
+	 * Duration of an iteration in seconds
+	 */
+	private int iterationSeconds = 2;
+
+	/**
+	 * Names of the benchmarks to run, or null to run all
+	 */
+	private List<String> selected;
+
+	/**
+	 * Numbers of the records that are not deleted
+	 */
+	private long[] validRecNos;
+
+	/**
+	 * Path of the generated data file
+	 */
+	private String databaseLocation;
+
+	/**
+	 * Runs the benchmarks.
+	 * 
+	 * @param args
+	 *            command line options, see the class description
+	 * @throws Exception
+	 *             if a benchmark fails
+	 */
+	public static void main(String[] args) throws Exception {
+		final DbBenchmarks benchmarks = new DbBenchmarks();
+		benchmarks.parseArguments(args);
+		benchmarks.generateDataFile();
+		benchmarks.runAll();
+	}
+
+	/**
+	 * Parses the command line options.
+	 * 
+	 * @param args
+	 *            command line options
+	 */
+	private void parseArguments(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			final String option = args[i];
+			final String value = args[i + 1];
+			if ("-records".equals(option)) {
+				records = Integer.parseInt(value);
+			} else if ("-deleted".equals(option)) {
+				deletedRatio = Double.parseDouble(value);
+			} else if ("-threads".equals(option)) {
+				final String[] values = value.split(",");
+				threadCounts = new int[values.length];
+				for (int j = 0; j < values.length; j++) {
+					threadCounts[j] = Integer.parseInt(values[j].trim());
+				}
+			} else if ("-warmup".equals(option)) {
+				warmupIterations = Integer.parseInt(value);
+			} else if ("-iterations".equals(option)) {
+				measurementIterations = Integer.parseInt(value);
+			} else if ("-time".equals(option)) {
+				iterationSeconds = Integer.parseInt(value);
+			} else if ("-benchmarks".equals(option)) {
+				selected = new ArrayList<String>();
+				for (final String name : value.split(",")) {
+					selected.add(name.trim());
+				}
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + option);
+			}
+		}
+	}
+
+	/**
+	 * Generates the data file in the temporary directory and opens it.
+	 * 
+	 * @throws Exception
+	 *             if the file cannot be written or opened
+	 */
+	private void generateDataFile() throws Exception {
+		final File file = File.createTempFile("benchmark", ".db");
+		file.deleteOnExit();
+		databaseLocation = file.getPath();
+
+		final Random random = new Random(42);
+		final List<Long> valid = new ArrayList<Long>();
+		final DataFileWriter writer = new DataFileWriter(databaseLocation);
+		try {
+			for (int i = 0; i < records; i++) {
+				final boolean deleted = random.nextDouble() < deletedRatio;
+				writer.write(createValues(i), deleted);
+				if (!deleted) {
+					valid.add(Long.valueOf(i));
+				}
+			}
+		} finally {
+			writer.close();
+		}
+
+		validRecNos = new long[valid.size()];
+		for (int i = 0; i < validRecNos.length; i++) {
+			validRecNos[i] = valid.get(i);
+		}
+		if (validRecNos.length == 0) {
+			throw new IllegalStateException("all records are deleted");
+		}
+
+		FileAccess.openFile(databaseLocation);
+		System.out.println("Data file: " + records + " records, "
+				+ (records - validRecNos.length) + " deleted");
+	}
+
+	/**
+	 * Returns the field values of the generated record with the specified
+	 * number. Names are unique and of equal length, so that a name selects
+	 * exactly one record.
+	 * 
+	 * @param recNo
+	 *            number of the record
+	 * @return field values
+	 */
+	private static String[] createValues(long recNo) {
+		final int i = (int) recNo;
+		return new String[] { String.format("Contractor %08d", recNo),
+				LOCATIONS[i % LOCATIONS.length],
+				SPECIALTIES[i % SPECIALTIES.length],
+				String.valueOf(1 + i % 20), "$" + (20 + i % 80) + ".00", "" };
+	}
+
+	/**
+	 * Runs all selected benchmarks with all numbers of threads.
+	 * 
+	 * @throws Exception
+	 *             if a benchmark fails
+	 */
+	private void runAll() throws Exception {
+		final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new ReadRecord());
+		benchmarks.add(new FindSelective());
+		benchmarks.add(new FindAll());
+		benchmarks.add(new CreateRecord());
+		benchmarks.add(new UpdateRecord());
+		benchmarks.add(new LockUnlock(false));
+		benchmarks.add(new LockUnlock(true));
+
+		final BenchmarkRunner runner = new BenchmarkRunner(warmupIterations,
+				measurementIterations, iterationSeconds * 1000L);
+		runner.printHeader();
+		for (final Benchmark benchmark : benchmarks) {
+			if (selected == null || selected.contains(benchmark.getName())) {
+				for (final int threads : threadCounts) {
+					runner.run(benchmark, threads);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Base class of the benchmarks using a Data instance and a random number
+	 * generator per thread.
+	 */
+	private abstract class DataBenchmark implements Benchmark {
+
+		/**
+		 * Data instance of each thread
+		 */
+		protected Data[] data;
+
+		/**
+		 * Random number generator of each thread
+		 */
+		protected Random[] random;
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void setUp(int threads) throws Exception {
+			data = new Data[threads];
+			random = new Random[threads];
+			for (int i = 0; i < threads; i++) {
+				data[i] = new Data(databaseLocation);
+				random[i] = new Random(i);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void tearDown() throws Exception {
+			data = null;
+			random = null;
+		}
+
+		/**
+		 * Returns the number of a random record that is not deleted.
+		 * 
+		 * @param thread
+		 *            index of the calling thread
+		 * @return record number
+		 */
+		protected long randomRecNo(int thread) {
+			return validRecNos[random[thread].nextInt(validRecNos.length)];
+		}
+
+		/**
+		 * Returns the number of a random record that is not deleted and is
+		 * used by the calling thread only.
+		 * 
+		 * @param thread
+		 *            index of the calling thread
+		 * @return record number
+		 */
+		protected long randomOwnRecNo(int thread) {
+			final int threads = data.length;
+			final int perThread = Math.max(1, validRecNos.length / threads);
+			final int index = random[thread].nextInt(perThread) * threads
+					+ thread;
+			return validRecNos[index % validRecNos.length];
+		}
+	}
+
+	/**
+	 * Reads random records.
+	 */
+	private final class ReadRecord extends DataBenchmark {
+
+		@Override
+		public String getName() {
+			return "readRecord";
+		}
+
+		@Override
+		public void run(int thread) throws Exception {
+			data[thread].readRecord(randomRecNo(thread));
+		}
+	}
+
+	/**
+	 * Searches a random record by its name, i.e. finds exactly one record.
+	 */
+	private final class FindSelective extends DataBenchmark {
+
+		@Override
+		public String getName() {
+			return "findByCriteria.selective";
+		}
+
+		@Override
+		public void run(int thread) throws Exception {
+			final String[] criteria = new String[FileMetaData.EXPECTED_FIELD_COUNT];
+			criteria[0] = createValues(randomRecNo(thread))[0];
+			if (data[thread].findByCriteria(criteria).length != 1) {
+				throw new IllegalStateException("unexpected search result");
+			}
+		}
+	}
+
+	/**
+	 * Searches without criteria, i.e. finds all records.
+	 */
+	private final class FindAll extends DataBenchmark {
+
+		@Override
+		public String getName() {
+			return "findByCriteria.full";
+		}
+
+		@Override
+		public void run(int thread) throws Exception {
+			data[thread]
+					.findByCriteria(new String[FileMetaData.EXPECTED_FIELD_COUNT]);
+		}
+	}
+
+	/**
+	 * Creates a record and deletes it again, so that the number of records
+	 * and deleted slots does not change during the benchmark. The measured
+	 * time includes locking, deleting and unlocking the created record.
+	 */
+	private final class CreateRecord extends DataBenchmark {
+
+		@Override
+		public String getName() {
+			return "createRecord";
+		}
+
+		@Override
+		public void run(int thread) throws Exception {
+			final Data db = data[thread];
+			final long recNo = db.createRecord(createValues(records));
+			final long cookie = db.lockRecord(recNo);
+			try {
+				db.deleteRecord(recNo, cookie);
+			} finally {
+				db.unlock(recNo, cookie);
+			}
+		}
+	}
+
+	/**
+	 * Locks, updates and unlocks random records. Each thread updates distinct
+	 * records, so threads do not wait for each other's locks.
+	 */
+	private final class UpdateRecord extends DataBenchmark {
+
+		@Override
+		public String getName() {
+			return "updateRecord";
+		}
+
+		@Override
+		public void run(int thread) throws Exception {
+			final Data db = data[thread];
+			final long recNo = randomOwnRecNo(thread);
+			final long cookie = db.lockRecord(recNo);
+			try {
+				db.updateRecord(recNo, createValues(recNo), cookie);
+			} finally {
+				db.unlock(recNo, cookie);
+			}
+		}
+	}
+
+	/**
+	 * Locks and unlocks records with the LockManager only, either records
+	 * used by the calling thread only or one record shared by all threads.
+	 */
+	private final class LockUnlock extends DataBenchmark {
+
+		/**
+		 * Flag set if all threads lock the same record
+		 */
+		private final boolean shared;
+
+		/**
+		 * LockManager of each thread
+		 */
+		private LockManager[] lockManagers;
+
+		/**
+		 * Creates the benchmark.
+		 * 
+		 * @param shared
+		 *            true if all threads lock the same record
+		 */
+		LockUnlock(boolean shared) {
+			this.shared = shared;
+		}
+
+		@Override
+		public String getName() {
+			return shared ? "lockUnlock.shared" : "lockUnlock.private";
+		}
+
+		@Override
+		public void setUp(int threads) throws Exception {
+			super.setUp(threads);
+			lockManagers = new LockManager[threads];
+			for (int i = 0; i < threads; i++) {
+				lockManagers[i] = new LockManager();
+			}
+		}
+
+		@Override
+		public void run(int thread) throws Exception {
+			final long recNo = shared ? validRecNos[0]
+					: randomOwnRecNo(thread);
+			final long cookie = lockManagers[thread].lock(recNo);
+			lockManagers[thread].unlock(recNo, cookie);
+		}
+	}
+}
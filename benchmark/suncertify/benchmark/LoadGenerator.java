@@ -0,0 +1,521 @@
+package suncertify.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import suncertify.application.BusinessService;
+import suncertify.application.DBAccessFactory;
+import suncertify.application.RecordCursor;
+import suncertify.application.Transport;
+import suncertify.db.DBAccess;
+import suncertify.db.RecordAlreadyBookedException;
+import suncertify.db.RecordNotFoundException;
+import suncertify.db.SecurityException;
+import suncertify.db.ServerBusyException;
+import suncertify.db.domain.DataRecord;
+import suncertify.db.domain.FileMetaData;
+import suncertify.db.metrics.OperationStats;
+
+/**
+ * Headless load generator simulating many clients of a running server.
+ * <p>
+ * Each simulated client opens a connection of its own with the
+ * {@code DBAccessFactory} and repeatedly executes one of three operations,
+ * chosen at random according to configurable weights:
+ * <ul>
+ * <li>search: searches by the location, or by name and location, of a known
+ * record and reads the first page of the result</li>
+ * <li>list: lists all records, reading a configurable number of pages</li>
+ * <li>book: books a record with {@code BusinessService.bookRecord}</li>
+ * </ul>
+ * To reproduce contention, a configurable fraction of the bookings targets a
+ * small set of hot records. Bookings of records that are already booked count
+ * as conflicts; requests rejected by the server count as rejected. After each
+ * successful booking, the client clears the owner again, so that the hot
+ * records can be booked repeatedly. This release is not part of the measured
+ * latency.
+ * <p>
+ * After a warmup period, the operations are measured for a fixed duration.
+ * Then the throughput and latency percentiles of each operation are reported.
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * java suncertify.benchmark.LoadGenerator [-host name] [-port n]
+ *     [-transport rmi|nio] [-clients n] [-warmup seconds] [-duration seconds]
+ *     [-search weight] [-list weight] [-book weight] [-hot ratio]
+ *     [-hotRecords n] [-pages n] [-think millis] [-compression true|false]
+ * </pre>
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class LoadGenerator {
+
+	/**
+	 * Number of records per page read by searches and listings, the same as
+	 * used by the client GUI
+	 */
+	private static final int PAGE_SIZE = 100;
+
+	/**
+	 * Number of records read to obtain the names and locations searched for
+	 */
+	private static final int SAMPLE_SIZE = 200;
+
+	/**
+	 * Address of the server
+	 */
+	private String host = "localhost";
+
+	/**
+	 * Port of the server
+	 */
+	private String port = "1099";
+
+	/**
+	 * Transport used to connect to the server
+	 */
+	private Transport transport = Transport.RMI;
+
+	/**
+	 * Flag set if compressed bulk results are requested
+	 */
+	private boolean compression = true;
+
+	/**
+	 * Number of simulated clients
+	 */
+	private int clients = 10;
+
+	/**
+	 * Duration of the warmup period in seconds
+	 */
+	private int warmupSeconds = 10;
+
+	/**
+	 * Duration of the measurement in seconds
+	 */
+	private int durationSeconds = 60;
+
+	/**
+	 * Weight of searches
+	 */
+	private int searchWeight = 70;
+
+	/**
+	 * Weight of listings
+	 */
+	private int listWeight = 10;
+
+	/**
+	 * Weight of bookings
+	 */
+	private int bookWeight = 20;
+
+	/**
+	 * Fraction of the bookings that target hot records
+	 */
+	private double hotRatio = 0.5;
+
+	/**
+	 * Number of hot records
+	 */
+	private int hotRecords = 10;
+
+	/**
+	 * Number of pages read by a listing; 0 to read all pages
+	 */
+	private int listPages = 1;
+
+	/**
+	 * Pause of a client between two operations in milliseconds
+	 */
+	private long thinkMillis;
+
+	/**
+	 * Numbers of all records present when the load generator started
+	 */
+	private long[] recNos;
+
+	/**
+	 * Names and locations searched for
+	 */
+	private final List<String[]> searchTerms = new ArrayList<String[]>();
+
+	/**
+	 * Latency statistics of searches
+	 */
+	private final OperationStats searchStats = new OperationStats("search");
+
+	/**
+	 * Latency statistics of listings
+	 */
+	private final OperationStats listStats = new OperationStats("list");
+
+	/**
+	 * Latency statistics of bookings
+	 */
+	private final OperationStats bookStats = new OperationStats("book");
+
+	/**
+	 * Number of bookings of records that were already booked
+	 */
+	private final AtomicLong conflicts = new AtomicLong();
+
+	/**
+	 * Number of requests rejected by the server
+	 */
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Number of operations that failed otherwise
+	 */
+	private final AtomicLong errors = new AtomicLong();
+
+	/**
+	 * Flag set while the clients keep executing operations
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Runs the load generator.
+	 * 
+	 * @param args
+	 *            command line options, see the class description
+	 * @throws Exception
+	 *             if the load generator cannot connect to the server
+	 */
+	public static void main(String[] args) throws Exception {
+		final LoadGenerator generator = new LoadGenerator();
+		generator.parseArguments(args);
+		generator.run();
+		// remote references of the clients keep the RMI runtime alive
+		System.exit(0);
+	}
+
+	/**
+	 * Parses the command line options.
+	 * 
+	 * @param args
+	 *            command line options
+	 */
+	private void parseArguments(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			final String option = args[i];
+			final String value = args[i + 1];
+			if ("-host".equals(option)) {
+				host = value;
+			} else if ("-port".equals(option)) {
+				port = value;
+			} else if ("-transport".equals(option)) {
+				transport = Transport.forValue(value);
+			} else if ("-compression".equals(option)) {
+				compression = Boolean.parseBoolean(value);
+			} else if ("-clients".equals(option)) {
+				clients = Integer.parseInt(value);
+			} else if ("-warmup".equals(option)) {
+				warmupSeconds = Integer.parseInt(value);
+			} else if ("-duration".equals(option)) {
+				durationSeconds = Integer.parseInt(value);
+			} else if ("-search".equals(option)) {
+				searchWeight = Integer.parseInt(value);
+			} else if ("-list".equals(option)) {
+				listWeight = Integer.parseInt(value);
+			} else if ("-book".equals(option)) {
+				bookWeight = Integer.parseInt(value);
+			} else if ("-hot".equals(option)) {
+				hotRatio = Double.parseDouble(value);
+			} else if ("-hotRecords".equals(option)) {
+				hotRecords = Integer.parseInt(value);
+			} else if ("-pages".equals(option)) {
+				listPages = Integer.parseInt(value);
+			} else if ("-think".equals(option)) {
+				thinkMillis = Long.parseLong(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + option);
+			}
+		}
+		if (searchWeight + listWeight + bookWeight <= 0) {
+			throw new IllegalArgumentException("no operations to execute");
+		}
+	}
+
+	/**
+	 * Connects the clients, runs the warmup and the measurement and reports
+	 * the results.
+	 * 
+	 * @throws Exception
+	 *             if the clients cannot connect to the server
+	 */
+	private void run() throws Exception {
+		final Random random = new Random();
+		final List<DBAccess> connections = new ArrayList<DBAccess>();
+		for (int i = 0; i < clients; i++) {
+			connections.add(connect());
+		}
+		prepare(connect(), random);
+
+		final CountDownLatch finished = new CountDownLatch(clients);
+		for (int i = 0; i < clients; i++) {
+			final DBAccess dbAccess = connections.get(i);
+			final long seed = random.nextLong();
+			final Thread client = new Thread("client-" + i) {
+				@Override
+				public void run() {
+					try {
+						runClient(dbAccess, new Random(seed));
+					} finally {
+						finished.countDown();
+					}
+				}
+			};
+			client.setDaemon(true);
+			client.start();
+		}
+
+		System.out.println("Warming up " + clients + " clients for "
+				+ warmupSeconds + " s");
+		Thread.sleep(warmupSeconds * 1000L);
+		searchStats.reset();
+		listStats.reset();
+		bookStats.reset();
+		conflicts.set(0);
+		rejected.set(0);
+		errors.set(0);
+
+		System.out.println("Measuring for " + durationSeconds + " s");
+		final long start = System.nanoTime();
+		Thread.sleep(durationSeconds * 1000L);
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		final long[] counts = { searchStats.getCount(), listStats.getCount(),
+				bookStats.getCount() };
+		running = false;
+		finished.await();
+
+		report(seconds, counts);
+	}
+
+	/**
+	 * Opens a connection to the server.
+	 * 
+	 * @return DBAccess instance connected to the server
+	 * @throws Exception
+	 *             if the connection cannot be opened
+	 */
+	private DBAccess connect() throws Exception {
+		return DBAccessFactory.getRemoteDBAccess(host, port, transport,
+				compression);
+	}
+
+	/**
+	 * Reads the numbers of all records and the names and locations of a
+	 * sample of them, and chooses the hot records.
+	 * 
+	 * @param dbAccess
+	 *            DBAccess instance connected to the server
+	 * @param random
+	 *            random number generator
+	 * @throws RecordNotFoundException
+	 *             never; deleted records are skipped
+	 */
+	private void prepare(DBAccess dbAccess, Random random)
+			throws RecordNotFoundException {
+		recNos = dbAccess
+				.findByCriteria(new String[FileMetaData.EXPECTED_FIELD_COUNT]);
+		if (recNos.length == 0) {
+			throw new IllegalStateException("the database has no records");
+		}
+
+		// shuffle, so that the first records are random hot records
+		for (int i = recNos.length - 1; i > 0; i--) {
+			final int j = random.nextInt(i + 1);
+			final long swap = recNos[i];
+			recNos[i] = recNos[j];
+			recNos[j] = swap;
+		}
+		hotRecords = Math.max(1, Math.min(hotRecords, recNos.length));
+
+		for (int i = 0; i < Math.min(SAMPLE_SIZE, recNos.length); i++) {
+			try {
+				final DataRecord record = new DataRecord(recNos[i], dbAccess
+						.readRecord(recNos[i]));
+				searchTerms.add(new String[] { record.getName(),
+						record.getLocation() });
+			} catch (final RecordNotFoundException ignored) {
+				// deleted in the meantime
+			}
+		}
+		System.out.println("Database: " + recNos.length + " records");
+	}
+
+	/**
+	 * Executes operations until the load generator stops.
+	 * 
+	 * @param dbAccess
+	 *            connection of the client
+	 * @param random
+	 *            random number generator of the client
+	 */
+	private void runClient(DBAccess dbAccess, Random random) {
+		final BusinessService service = new BusinessService(dbAccess);
+		final int totalWeight = searchWeight + listWeight + bookWeight;
+		while (running) {
+			final int choice = random.nextInt(totalWeight);
+			final long start = System.nanoTime();
+			try {
+				if (choice < searchWeight) {
+					search(service, random);
+					searchStats.record(System.nanoTime() - start);
+				} else if (choice < searchWeight + listWeight) {
+					list(service);
+					listStats.record(System.nanoTime() - start);
+				} else {
+					final long recNo = book(service, random);
+					if (recNo >= 0) {
+						bookStats.record(System.nanoTime() - start);
+						release(dbAccess, recNo);
+					}
+				}
+			} catch (final ServerBusyException e) {
+				rejected.incrementAndGet();
+			} catch (final RuntimeException e) {
+				errors.incrementAndGet();
+			}
+
+			if (thinkMillis > 0) {
+				try {
+					Thread.sleep(thinkMillis);
+				} catch (final InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Searches by the location, or by the name and location, of a sample
+	 * record and reads the first page of the result.
+	 * 
+	 * @param service
+	 *            business service of the client
+	 * @param random
+	 *            random number generator of the client
+	 */
+	private void search(BusinessService service, Random random) {
+		final String[] terms = searchTerms.get(random.nextInt(searchTerms
+				.size()));
+		final String name = random.nextBoolean() ? terms[0] : null;
+		final RecordCursor cursor = service.openSearch(name, terms[1]);
+		try {
+			cursor.nextPage(PAGE_SIZE);
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Lists all records, reading the configured number of pages.
+	 * 
+	 * @param service
+	 *            business service of the client
+	 */
+	private void list(BusinessService service) {
+		final RecordCursor cursor = service.openSearch(null, null);
+		try {
+			int pages = 0;
+			do {
+				cursor.nextPage(PAGE_SIZE);
+				pages++;
+			} while (cursor.hasMore() && (listPages <= 0 || pages < listPages));
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Books a hot record or any other record.
+	 * 
+	 * @param service
+	 *            business service of the client
+	 * @param random
+	 *            random number generator of the client
+	 * @return number of the booked record, or -1 if the booking has failed
+	 */
+	private long book(BusinessService service, Random random) {
+		final long recNo = random.nextDouble() < hotRatio ? recNos[random
+				.nextInt(hotRecords)] : recNos[random.nextInt(recNos.length)];
+		try {
+			service.bookRecord(new DataRecord(recNo,
+					new String[FileMetaData.EXPECTED_FIELD_COUNT]),
+					new ArrayList<DataRecord>());
+			return recNo;
+		} catch (final RecordAlreadyBookedException e) {
+			conflicts.incrementAndGet();
+		} catch (final RecordNotFoundException e) {
+			errors.incrementAndGet();
+		}
+		return -1;
+	}
+
+	/**
+	 * Clears the owner of a booked record, so that it can be booked again.
+	 * 
+	 * @param dbAccess
+	 *            connection of the client
+	 * @param recNo
+	 *            number of the booked record
+	 */
+	private void release(DBAccess dbAccess, long recNo) {
+		try {
+			final long cookie = dbAccess.lockRecord(recNo);
+			try {
+				final DataRecord record = new DataRecord(recNo, dbAccess
+						.readRecord(recNo));
+				record.setOwner("");
+				dbAccess.updateRecord(recNo, record.getData(), cookie);
+			} finally {
+				dbAccess.unlock(recNo, cookie);
+			}
+		} catch (final RecordNotFoundException e) {
+			errors.incrementAndGet();
+		} catch (final SecurityException e) {
+			errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes the results of the measurement.
+	 * 
+	 * @param seconds
+	 *            duration of the measurement in seconds
+	 * @param counts
+	 *            number of searches, listings and bookings completed during
+	 *            the measurement
+	 */
+	private void report(double seconds, long[] counts) {
+		System.out.println(String.format("%-8s %10s %10s %10s %10s %10s %10s",
+				"", "Ops/s", "Mean ms", "p50 ms", "p95 ms", "p99 ms",
+				"Max ms"));
+		final OperationStats[] stats = { searchStats, listStats, bookStats };
+		long total = 0;
+		for (int i = 0; i < stats.length; i++) {
+			total += counts[i];
+			System.out.println(String.format(
+					"%-8s %10.1f %10.2f %10.2f %10.2f %10.2f %10.2f", stats[i]
+							.getOperation(), counts[i] / seconds, stats[i]
+							.getMeanMicros() / 1000, stats[i]
+							.getMedianMicros() / 1000.0, stats[i]
+							.getPercentile95Micros() / 1000.0, stats[i]
+							.getPercentile99Micros() / 1000.0, stats[i]
+							.getMaxMicros() / 1000.0));
+		}
+		System.out.println(String.format("%-8s %10.1f", "total", total
+				/ seconds));
+		System.out.println("Booking conflicts: " + conflicts.get()
+				+ ", rejected requests: " + rejected.get() + ", errors: "
+				+ errors.get());
+	}
+}
@@ -1,13 +1,19 @@
 package suncertify.application;
 
 import java.io.IOException;
+import java.rmi.registry.Registry;
 
 import suncertify.client.ClientController;
 import suncertify.client.ClientPropertiesDialog;
 import suncertify.client.ClientView;
 import suncertify.db.DBAccess;
 import suncertify.db.NetworkErrorException;
+import suncertify.db.LogShipper;
 import suncertify.db.TechnicalErrorException;
+import suncertify.db.metrics.Metrics;
+import suncertify.remote.TunedClientSocketFactory;
+import suncertify.remote.TunedServerSocketFactory;
+import suncertify.remote.nio.NioServer;
 import suncertify.server.ServerController;
 import suncertify.server.ServerPropertiesDialog;
 import suncertify.server.ServerView;
@@ -15,7 +21,8 @@ import suncertify.server.ServerView;
 /**
  * Main class of the application.
  * <p>
- * Holds information about the mode (Server, Client, Standalone) and properties
+ * Holds information about the mode (Server, Replica, Client, Standalone) and
+ * properties
  * used by this application instance. The main method determines application
  * mode and properties and starts the appropriate components.
  * 
@@ -61,7 +68,9 @@ public final class Application {
 
 		// dispatch to appropriate start method
 		if (ApplicationMode.SERVER.equals(applicationMode)) {
-			startServer();
+			startServer(false);
+		} else if (ApplicationMode.REPLICA.equals(applicationMode)) {
+			startServer(true);
 		} else if (ApplicationMode.CLIENT.equals(applicationMode)) {
 			startClient();
 		} else if (ApplicationMode.STANDALONE.equals(applicationMode)) {
@@ -78,9 +87,14 @@ public final class Application {
 	 * instance are displayed in a dialog and can be changed.
 	 * <p>
 	 * When started, the server exposes a defined endpoint, to which clients can
-	 * connect.
+	 * connect. A replica reads the change log of the primary on the same host
+	 * from the replication port; it needs its own properties file, as its data
+	 * file and ports differ from those of the primary.
+	 * 
+	 * @param replica
+	 *            true to start a replica, false to start a primary
 	 */
-	private static void startServer() {
+	private static void startServer(boolean replica) {
 
 		final ServerPropertiesDialog dialog = new ServerPropertiesDialog(
 				properties);
@@ -88,13 +102,108 @@ public final class Application {
 
 		final String databaseLocation = properties.getDatabaseLocation();
 
+		// Each endpoint uses its default port, unless a valid port is
+		// configured. The registry uses the same port property as the client.
+		final int registryPort = parsePort(properties.getServerPort(),
+				Registry.REGISTRY_PORT, "registry");
+		final int exportPort = parsePort(properties.getExportPort(), 0,
+				"export");
+		final int nioServerPort = parsePort(properties.getNioServerPort(),
+				NioServer.DEFAULT_PORT, "binary protocol");
+		// A primary ships its log only if a port is configured
+		final int replicationPort = parsePort(properties.getReplicationPort(),
+				replica ? LogShipper.DEFAULT_PORT : 0, "replication");
+
+		// Operation statistics are written periodically only if configured
+		final String metricsLogInterval = properties.getMetricsLogInterval();
+		if (metricsLogInterval != null) {
+			try {
+				final long seconds = Long.parseLong(metricsLogInterval);
+				if (seconds > 0) {
+					Metrics.startLogging(seconds * 1000);
+				}
+			} catch (final NumberFormatException ignored) {
+				System.err.println("Invalid metrics log interval: "
+						+ metricsLogInterval);
+			}
+		}
+
+		// The RMI sockets use the default settings, unless valid values are
+		// configured. The client socket factory is sent to the clients.
+		final int bufferSize = parseSetting(properties.getSocketBufferSize(),
+				TunedClientSocketFactory.DEFAULT_BUFFER_SIZE,
+				"socket buffer size");
+		// Keepalive is enabled unless disabled explicitly
+		final boolean keepAlive = !"false".equalsIgnoreCase(properties
+				.getSocketKeepAlive());
+		final int connectTimeout = parseSetting(properties
+				.getConnectTimeout(),
+				TunedClientSocketFactory.DEFAULT_CONNECT_TIMEOUT,
+				"connect timeout");
+		final int readTimeout = parseSetting(properties.getReadTimeout(),
+				TunedClientSocketFactory.DEFAULT_READ_TIMEOUT, "read timeout");
+
 		final ServerController controller = new ServerController(
-				databaseLocation);
+				databaseLocation, registryPort, exportPort, nioServerPort,
+				replicationPort, replica, new TunedClientSocketFactory(
+						connectTimeout, readTimeout, bufferSize, keepAlive),
+				new TunedServerSocketFactory(bufferSize, keepAlive));
 
 		final ServerView view = new ServerView(controller);
 		view.setVisible(true);
 	}
 
+	/**
+	 * Parses a configured port number.
+	 * 
+	 * @param value
+	 *            configured value, may be null
+	 * @param defaultPort
+	 *            port used if no valid value is configured
+	 * @param description
+	 *            description of the port used in the error message
+	 * @return configured port, or the default port
+	 */
+	private static int parsePort(String value, int defaultPort,
+			String description) {
+		if (value != null) {
+			try {
+				return Integer.parseInt(value);
+			} catch (final NumberFormatException ignored) {
+				System.err.println("Invalid " + description + " port: "
+						+ value);
+			}
+		}
+		return defaultPort;
+	}
+
+	/**
+	 * Parses a configured non-negative number, e.g. a timeout.
+	 * 
+	 * @param value
+	 *            configured value, may be null
+	 * @param defaultValue
+	 *            value used if no valid value is configured
+	 * @param description
+	 *            description of the setting used in the error message
+	 * @return configured value, or the default value
+	 */
+	private static int parseSetting(String value, int defaultValue,
+			String description) {
+		if (value != null) {
+			try {
+				final int setting = Integer.parseInt(value);
+				if (setting >= 0) {
+					return setting;
+				}
+			} catch (final NumberFormatException ignored) {
+				// reported below
+			}
+			System.err.println("Invalid " + description + ": " + value);
+		}
+		return defaultValue;
+	}
+
 	/**
 	 * Starts the client component.
 	 * <p>
@@ -112,13 +221,20 @@ public final class Application {
 
 		final String serverAddress = properties.getServerAddress();
 		final String serverPort = properties.getServerPort();
+		final Transport transport = Transport.forValue(properties
+				.getTransport());
+
+		// Bulk results are compressed unless disabled explicitly
+		final boolean compression = !"false".equalsIgnoreCase(properties
+				.getCompression());
 
 		// Fetch a DBAccess instance that encapsulates communication with the
-		// server.
+		// server. Reads are routed to a replica, if any is configured.
 		DBAccess dbAccess = null;
 		try {
-			dbAccess = DBAccessFactory.getRemoteDBAccess(serverAddress,
-					serverPort);
+			dbAccess = DBAccessFactory.getReplicatedDBAccess(serverAddress,
+					serverPort, properties.getReplicas(), transport,
+					compression);
 		} catch (final NetworkErrorException e) {
 			System.err.println("Cannot start communication with the server: "
 					+ e.getMessage());
@@ -245,7 +361,8 @@ public final class Application {
 	 */
 	public static void printUsageAndExit() {
 		System.out.println("usage: application [" + ApplicationMode.SERVER
-				+ "|" + ApplicationMode.STANDALONE + "]");
+				+ "|" + ApplicationMode.REPLICA + "|"
+				+ ApplicationMode.STANDALONE + "]");
 		System.exit(0);
 	}
 
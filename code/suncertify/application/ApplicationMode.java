@@ -11,6 +11,11 @@ public enum ApplicationMode {
 	 * Server mode. The server program must be run.
 	 */
 	SERVER("server"),
+	/**
+	 * Replica mode. A server program serving reads from a copy of the data
+	 * file of a server on the same host must be run.
+	 */
+	REPLICA("replica"),
 	/**
 	 * Client mode. Network client and GUI must be run.
 	 */
@@ -55,6 +60,15 @@ public enum ApplicationMode {
 		return ApplicationMode.SERVER == this;
 	}
 
+	/**
+	 * Checks if this enum value is REPLICA
+	 * 
+	 * @return true if this enum value is REPLICA
+	 */
+	public boolean isReplica() {
+		return ApplicationMode.REPLICA == this;
+	}
+
 	/**
 	 * Checks if this enum value is CLIENT
 	 * 
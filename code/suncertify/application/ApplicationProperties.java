@@ -44,6 +44,68 @@ public final class ApplicationProperties extends Properties {
 	 */
 	public static final String SERVER_PORT = "serverPort";
 
+	/**
+	 * Key for the transport property, i.e. the network transport used by the
+	 * client.
+	 */
+	public static final String TRANSPORT = "transport";
+
+	/**
+	 * Key for the port property of the server's binary protocol endpoint.
+	 */
+	public static final String NIO_SERVER_PORT = "nioServerPort";
+
+	/**
+	 * Key for the property enabling compressed bulk results.
+	 */
+	public static final String COMPRESSION = "compression";
+
+	/**
+	 * Key for the port property the server exports its remote objects on.
+	 */
+	public static final String EXPORT_PORT = "exportPort";
+
+	/**
+	 * Key for the property defining the size in bytes of the send and receive
+	 * buffers of the server's RMI sockets.
+	 */
+	public static final String SOCKET_BUFFER_SIZE = "socketBufferSize";
+
+	/**
+	 * Key for the property enabling keepalive on the server's RMI sockets.
+	 */
+	public static final String SOCKET_KEEP_ALIVE = "socketKeepAlive";
+
+	/**
+	 * Key for the property defining the timeout in milliseconds, after which
+	 * clients stop connecting to the server's RMI endpoints.
+	 */
+	public static final String CONNECT_TIMEOUT = "connectTimeout";
+
+	/**
+	 * Key for the property defining the timeout in milliseconds, after which
+	 * clients stop waiting for a response of the server's RMI endpoints.
+	 */
+	public static final String READ_TIMEOUT = "readTimeout";
+
+	/**
+	 * Key for the property defining the interval in seconds, at which the
+	 * server writes its operation statistics to the standard output.
+	 */
+	public static final String METRICS_LOG_INTERVAL = "metricsLogInterval";
+
+	/**
+	 * Key for the port property the primary server ships its change log on and
+	 * replicas on the same host connect to.
+	 */
+	public static final String REPLICATION_PORT = "replicationPort";
+
+	/**
+	 * Key for the property listing the replicas a client reads from, as
+	 * comma-separated address:port pairs.
+	 */
+	public static final String REPLICAS = "replicas";
+
 	/**
 	 * Tries to load the properties from the properties file, if it exists. The
 	 * file is searched in the current working directory.
@@ -143,4 +205,214 @@ public final class ApplicationProperties extends Properties {
 	public void setServerPort(String serverPort) {
 		setProperty(ApplicationProperties.SERVER_PORT, serverPort);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Returns the value of the transport property.
+	 * 
+	 * @return transport property value
+	 */
+	public String getTransport() {
+		return getProperty(ApplicationProperties.TRANSPORT);
+	}
+
+	/**
+	 * Sets the value of the transport property.
+	 * 
+	 * @param transport
+	 *            new transport property value.
+	 */
+	public void setTransport(String transport) {
+		setProperty(ApplicationProperties.TRANSPORT, transport);
+	}
+
+	/**
+	 * Returns the value of the binary protocol server port property.
+	 * 
+	 * @return binary protocol server port property value.
+	 */
+	public String getNioServerPort() {
+		return getProperty(ApplicationProperties.NIO_SERVER_PORT);
+	}
+
+	/**
+	 * Sets the value of the binary protocol server port property.
+	 * 
+	 * @param nioServerPort
+	 *            new binary protocol server port property value.
+	 */
+	public void setNioServerPort(String nioServerPort) {
+		setProperty(ApplicationProperties.NIO_SERVER_PORT, nioServerPort);
+	}
+
+	/**
+	 * Returns the value of the compression property.
+	 * 
+	 * @return compression property value
+	 */
+	public String getCompression() {
+		return getProperty(ApplicationProperties.COMPRESSION);
+	}
+
+	/**
+	 * Sets the value of the compression property.
+	 * 
+	 * @param compression
+	 *            new compression property value.
+	 */
+	public void setCompression(String compression) {
+		setProperty(ApplicationProperties.COMPRESSION, compression);
+	}
+
+	/**
+	 * Returns the value of the export port property.
+	 * 
+	 * @return export port property value
+	 */
+	public String getExportPort() {
+		return getProperty(ApplicationProperties.EXPORT_PORT);
+	}
+
+	/**
+	 * Sets the value of the export port property.
+	 * 
+	 * @param exportPort
+	 *            new export port property value.
+	 */
+	public void setExportPort(String exportPort) {
+		setProperty(ApplicationProperties.EXPORT_PORT, exportPort);
+	}
+
+	/**
+	 * Returns the value of the socket buffer size property.
+	 * 
+	 * @return socket buffer size property value
+	 */
+	public String getSocketBufferSize() {
+		return getProperty(ApplicationProperties.SOCKET_BUFFER_SIZE);
+	}
+
+	/**
+	 * Sets the value of the socket buffer size property.
+	 * 
+	 * @param socketBufferSize
+	 *            new socket buffer size property value.
+	 */
+	public void setSocketBufferSize(String socketBufferSize) {
+		setProperty(ApplicationProperties.SOCKET_BUFFER_SIZE, socketBufferSize);
+	}
+
+	/**
+	 * Returns the value of the socket keepalive property.
+	 * 
+	 * @return socket keepalive property value
+	 */
+	public String getSocketKeepAlive() {
+		return getProperty(ApplicationProperties.SOCKET_KEEP_ALIVE);
+	}
+
+	/**
+	 * Sets the value of the socket keepalive property.
+	 * 
+	 * @param socketKeepAlive
+	 *            new socket keepalive property value.
+	 */
+	public void setSocketKeepAlive(String socketKeepAlive) {
+		setProperty(ApplicationProperties.SOCKET_KEEP_ALIVE, socketKeepAlive);
+	}
+
+	/**
+	 * Returns the value of the connect timeout property.
+	 * 
+	 * @return connect timeout property value
+	 */
+	public String getConnectTimeout() {
+		return getProperty(ApplicationProperties.CONNECT_TIMEOUT);
+	}
+
+	/**
+	 * Sets the value of the connect timeout property.
+	 * 
+	 * @param connectTimeout
+	 *            new connect timeout property value.
+	 */
+	public void setConnectTimeout(String connectTimeout) {
+		setProperty(ApplicationProperties.CONNECT_TIMEOUT, connectTimeout);
+	}
+
+	/**
+	 * Returns the value of the read timeout property.
+	 * 
+	 * @return read timeout property value
+	 */
+	public String getReadTimeout() {
+		return getProperty(ApplicationProperties.READ_TIMEOUT);
+	}
+
+	/**
+	 * Sets the value of the read timeout property.
+	 * 
+	 * @param readTimeout
+	 *            new read timeout property value.
+	 */
+	public void setReadTimeout(String readTimeout) {
+		setProperty(ApplicationProperties.READ_TIMEOUT, readTimeout);
+	}
+
+	/**
+	 * Returns the value of the metrics log interval property.
+	 * 
+	 * @return metrics log interval property value
+	 */
+	public String getMetricsLogInterval() {
+		return getProperty(ApplicationProperties.METRICS_LOG_INTERVAL);
+	}
+
+	/**
+	 * Sets the value of the metrics log interval property.
+	 * 
+	 * @param metricsLogInterval
+	 *            new metrics log interval property value.
+	 */
+	public void setMetricsLogInterval(String metricsLogInterval) {
+		setProperty(ApplicationProperties.METRICS_LOG_INTERVAL,
+				metricsLogInterval);
+	}
+
+	/**
+	 * Returns the value of the replication port property.
+	 * 
+	 * @return replication port property value
+	 */
+	public String getReplicationPort() {
+		return getProperty(ApplicationProperties.REPLICATION_PORT);
+	}
+
+	/**
+	 * Sets the value of the replication port property.
+	 * 
+	 * @param replicationPort
+	 *            new replication port property value.
+	 */
+	public void setReplicationPort(String replicationPort) {
+		setProperty(ApplicationProperties.REPLICATION_PORT, replicationPort);
+	}
+
+	/**
+	 * Returns the value of the replicas property.
+	 * 
+	 * @return replicas property value
+	 */
+	public String getReplicas() {
+		return getProperty(ApplicationProperties.REPLICAS);
+	}
+
+	/**
+	 * Sets the value of the replicas property.
+	 * 
+	 * @param replicas
+	 *            new replicas property value.
+	 */
+	public void setReplicas(String replicas) {
+		setProperty(ApplicationProperties.REPLICAS, replicas);
+	}
+}
@@ -1,14 +1,35 @@
 package suncertify.application;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import suncertify.db.AsyncDBAccess;
+import suncertify.db.CursorExpiredException;
 import suncertify.db.DBAccess;
+import suncertify.db.MatchMode;
+import suncertify.db.MatchingDBAccess;
+import suncertify.db.PagedDBAccess;
+import suncertify.db.QueryDBAccess;
 import suncertify.db.RecordAlreadyBookedException;
 import suncertify.db.RecordNotFoundException;
+import suncertify.db.RecordPage;
+import suncertify.db.RecordQuery;
 import suncertify.db.SecurityException;
+import suncertify.db.SortKey;
 import suncertify.db.TechnicalErrorException;
 import suncertify.db.domain.DataRecord;
+import suncertify.db.event.RecordChangeListener;
+import suncertify.db.event.RecordChangeSource;
 
 /**
  * Provides a business method for each use case of the application: listing all
@@ -23,6 +44,30 @@ import suncertify.db.domain.DataRecord;
  * <p>
  * The business methods manage the flow of activities and provide the necessary
  * synchronisation for calls to the DBAccess instance.
+ * <p>
+ * If the DBAccess instance also implements the {@code AsyncDBAccess}
+ * interface, the records found by a search are read concurrently, keeping many
+ * read requests in flight instead of waiting for each of them in turn.
+ * <p>
+ * If it also implements the {@code MatchingDBAccess} interface, searches ask
+ * for exact matches, so that records that merely begin with the criteria are
+ * neither returned nor read.
+ * <p>
+ * Queries with numeric ranges, sort order and limit are evaluated by the
+ * DBAccess instance, if it implements the {@code QueryDBAccess} interface, and
+ * by reading all records matching the criteria otherwise.
+ * <p>
+ * If it also implements the {@code RecordChangeSource} interface, clients can
+ * subscribe to changes of data records instead of repeating their searches.
+ * <p>
+ * Search results can also be retrieved page by page through a
+ * {@code RecordCursor}. If the DBAccess instance implements the
+ * {@code PagedDBAccess} interface, the cursor is kept by the data source and
+ * each page is fetched with a single call; otherwise the record numbers are
+ * kept by the cursor and the records of each page are read individually. A
+ * cursor may return the records sorted by several fields; the sorting is done
+ * by the data source if it evaluates queries, so that only the requested pages
+ * are read.
  * 
  * @author Rasmus Kuschel
  */
@@ -33,6 +78,44 @@ public final class BusinessService {
 	 */
 	private final DBAccess dbAccess;
 
+	/**
+	 * Maximum number of asynchronous read requests that are in flight at the
+	 * same time.
+	 */
+	private static final int MAX_PENDING_READS = 256;
+
+	/**
+	 * Asynchronous view of the DBAccess instance, or null if it does not
+	 * support asynchronous access
+	 */
+	private final AsyncDBAccess asyncDBAccess;
+
+	/**
+	 * Paged view of the DBAccess instance, or null if it does not support
+	 * cursors
+	 */
+	private final PagedDBAccess pagedDBAccess;
+
+	/**
+	 * View of the DBAccess instance supporting match modes, or null if it
+	 * only supports prefix searches
+	 */
+	private final MatchingDBAccess matchingDBAccess;
+
+	/**
+	 * View of the DBAccess instance evaluating queries, or null if it does not
+	 * support queries
+	 */
+	private final QueryDBAccess queryDBAccess;
+
+	/**
+	 * Match modes of the criteria of a search: exact matches of name and
+	 * location
+	 */
+	private static final MatchMode[] EXACT_MODES = { MatchMode.EXACT,
+			MatchMode.EXACT, MatchMode.PREFIX, MatchMode.PREFIX,
+			MatchMode.PREFIX, MatchMode.PREFIX };
+
 	/**
 	 * Creates a new BusinessService instance.
 	 * 
@@ -40,6 +123,26 @@ public final class BusinessService {
 	 */
 	public BusinessService(DBAccess dbAccess) {
 		this.dbAccess = dbAccess;
+		if (dbAccess instanceof AsyncDBAccess) {
+			this.asyncDBAccess = (AsyncDBAccess) dbAccess;
+		} else {
+			this.asyncDBAccess = null;
+		}
+		if (dbAccess instanceof PagedDBAccess) {
+			this.pagedDBAccess = (PagedDBAccess) dbAccess;
+		} else {
+			this.pagedDBAccess = null;
+		}
+		if (dbAccess instanceof MatchingDBAccess) {
+			this.matchingDBAccess = (MatchingDBAccess) dbAccess;
+		} else {
+			this.matchingDBAccess = null;
+		}
+		if (dbAccess instanceof QueryDBAccess) {
+			this.queryDBAccess = (QueryDBAccess) dbAccess;
+		} else {
+			this.queryDBAccess = null;
+		}
 	}
 
 	/**
@@ -74,7 +177,172 @@ public final class BusinessService {
 		final String[] criteria = new String[] { name, location, null, null,
 				null, null };
 
-		final long[] indices = dbAccess.findByCriteria(criteria);
+		final long[] indices = findByCriteria(criteria);
+
+		return readRecords(indices, name, location);
+	}
+
+	/**
+	 * Returns the numbers of the records matching the specified criteria,
+	 * exactly if supported by the DBAccess instance, otherwise by prefix.
+	 * 
+	 * @param criteria
+	 *            criteria for the search
+	 * @return numbers of the matching records
+	 */
+	private long[] findByCriteria(String[] criteria) {
+		if (matchingDBAccess != null) {
+			return matchingDBAccess.findByCriteria(criteria, EXACT_MODES);
+		}
+		return dbAccess.findByCriteria(criteria);
+	}
+
+	/**
+	 * Returns a list of the data records that match the specified query, in
+	 * the order and up to the limit specified by the query.
+	 * 
+	 * @param query
+	 *            query to be evaluated
+	 * @return data records matching the query
+	 */
+	public List<DataRecord> queryRecords(final RecordQuery query) {
+
+		if (queryDBAccess != null) {
+			final List<DataRecord> records = readRecords(queryDBAccess
+					.findByQuery(query), null, null);
+
+			// Discard records that have been changed since the query was
+			// evaluated and do no longer match
+			for (final Iterator<DataRecord> i = records.iterator(); i
+					.hasNext();) {
+				if (!query.matches(i.next().getData())) {
+					i.remove();
+				}
+			}
+			return records;
+		}
+
+		// Evaluate the query locally on the records found by the criteria
+		final String[] criteria = query.getCriteria();
+		final MatchMode[] modes = query.getModes();
+		final long[] indices;
+		if (matchingDBAccess != null) {
+			indices = matchingDBAccess.findByCriteria(criteria, modes);
+		} else {
+			// A case-insensitive criterion is not a prefix of the value
+			for (int i = 0; modes != null && i < modes.length; i++) {
+				if (modes[i] == MatchMode.IGNORE_CASE) {
+					criteria[i] = null;
+				}
+			}
+			indices = dbAccess.findByCriteria(criteria);
+		}
+
+		final List<DataRecord> records = new ArrayList<DataRecord>();
+		for (final DataRecord record : readRecords(indices, null, null)) {
+			if (query.matches(record.getData())) {
+				records.add(record);
+			}
+		}
+		Collections.sort(records, new Comparator<DataRecord>() {
+			@Override
+			public int compare(DataRecord record1, DataRecord record2) {
+				return query.compare(record1.getData(), record2.getData());
+			}
+		});
+		if (query.getLimit() != RecordQuery.NO_LIMIT
+				&& records.size() > query.getLimit()) {
+			return new ArrayList<DataRecord>(records.subList(0, query
+					.getLimit()));
+		}
+		return records;
+	}
+
+	/**
+	 * Opens a cursor over the data records that exactly match the specified
+	 * criteria.
+	 * <p>
+	 * A criteria value of null matches any field value.
+	 * 
+	 * @param name
+	 *            Criteria for the name field
+	 * @param location
+	 *            Criteria for the location field
+	 * @return cursor over the matching data records
+	 */
+	public RecordCursor openSearch(final String name, final String location) {
+		return openSearch(name, location, null);
+	}
+
+	/**
+	 * Opens a cursor over the data records that exactly match the specified
+	 * criteria, sorted by the specified keys.
+	 * <p>
+	 * A criteria value of null matches any field value. If the DBAccess
+	 * instance evaluates queries, the records are matched exactly and sorted
+	 * by it, otherwise all matching records are read and sorted here.
+	 * 
+	 * @param name
+	 *            Criteria for the name field
+	 * @param location
+	 *            Criteria for the location field
+	 * @param sortKeys
+	 *            keys the records are sorted by, most significant first; null
+	 *            or empty to sort them by number
+	 * @return cursor over the matching data records
+	 */
+	public RecordCursor openSearch(final String name, final String location,
+			final SortKey[] sortKeys) {
+		final String[] criteria = new String[] { name, location, null, null,
+				null, null };
+
+		final RecordQuery query = new RecordQuery(criteria, EXACT_MODES);
+		if (sortKeys != null) {
+			query.setSortOrder(sortKeys);
+		}
+		if (pagedDBAccess != null && queryDBAccess != null) {
+			return new PagedRecordCursor(null, query, name, location);
+		}
+
+		if (sortKeys == null || sortKeys.length == 0) {
+			if (pagedDBAccess != null) {
+				return new PagedRecordCursor(criteria, null, name, location);
+			}
+			return new IndexRecordCursor(findByCriteria(criteria), name,
+					location);
+		}
+
+		if (queryDBAccess != null) {
+			return new IndexRecordCursor(queryDBAccess.findByQuery(query),
+					name, location);
+		}
+
+		final List<DataRecord> records = queryRecords(query);
+		final long[] indices = new long[records.size()];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = records.get(i).getRecNo();
+		}
+		return new IndexRecordCursor(indices, name, location);
+	}
+
+	/**
+	 * Reads the records with the specified numbers and returns those exactly
+	 * matching the specified criteria.
+	 * 
+	 * @param indices
+	 *            numbers of the records to read, may be null
+	 * @param name
+	 *            Criteria for the name field
+	 * @param location
+	 *            Criteria for the location field
+	 * @return all data records exactly matching the criteria
+	 */
+	private List<DataRecord> readRecords(final long[] indices,
+			final String name, final String location) {
+
+		if (asyncDBAccess != null && indices != null) {
+			return readRecordsAsync(indices, name, location);
+		}
 
 		final List<DataRecord> records = new ArrayList<DataRecord>();
 
@@ -86,8 +354,9 @@ public final class BusinessService {
 					final String[] recordData = dbAccess.readRecord(index);
 					final DataRecord record = new DataRecord(index, recordData);
 
-					// findByCriteria returns records where the respective
-					// fields start with the specified criteria.
+					// findByCriteria may return records where the respective
+					// fields start with the specified criteria, and the record
+					// may have been changed since.
 					// We want only those records, where the fields exactly
 					// match the criteria.
 					if (isExactMatch(record, name, location)) {
@@ -106,6 +375,103 @@ public final class BusinessService {
 		return records;
 	}
 
+	/**
+	 * Reads the records with the specified numbers and returns those exactly
+	 * matching the specified criteria.
+	 * <p>
+	 * The read requests are issued asynchronously. Up to
+	 * {@code MAX_PENDING_READS} requests are in flight at the same time; the
+	 * results are collected in the order of the specified record numbers.
+	 * 
+	 * @param indices
+	 *            numbers of the records to read
+	 * @param name
+	 *            Criteria for the name field
+	 * @param location
+	 *            Criteria for the location field
+	 * @return all data records exactly matching the criteria
+	 */
+	private List<DataRecord> readRecordsAsync(final long[] indices,
+			final String name, final String location) {
+
+		final List<DataRecord> records = new ArrayList<DataRecord>();
+		final Queue<Long> pendingIndices = new LinkedList<Long>();
+		final Queue<Future<String[]>> pendingReads = new LinkedList<Future<String[]>>();
+
+		for (final long index : indices) {
+			// Collect the oldest result first, if the maximum number of pending
+			// requests is reached
+			if (pendingReads.size() >= MAX_PENDING_READS) {
+				addIfExactMatch(records, awaitRecord(pendingIndices.remove(),
+						pendingReads.remove()), name, location);
+			}
+
+			pendingIndices.add(index);
+			pendingReads.add(asyncDBAccess.readRecordAsync(index));
+		}
+
+		// Collect the remaining results
+		while (!pendingReads.isEmpty()) {
+			addIfExactMatch(records, awaitRecord(pendingIndices.remove(),
+					pendingReads.remove()), name, location);
+		}
+
+		return records;
+	}
+
+	/**
+	 * Adds the specified record to the list of records, if it is not null and
+	 * exactly matches the specified criteria.
+	 * 
+	 * @param records
+	 *            list of data records
+	 * @param record
+	 *            data record, may be null
+	 * @param name
+	 *            Criteria for the name field
+	 * @param location
+	 *            Criteria for the location field
+	 */
+	private void addIfExactMatch(final List<DataRecord> records,
+			final DataRecord record, final String name, final String location) {
+		if (record != null && isExactMatch(record, name, location)) {
+			records.add(record);
+		}
+	}
+
+	/**
+	 * Waits for the result of an asynchronous read request.
+	 * <p>
+	 * If the record cannot be found, because another client deleted it after
+	 * the search, null is returned.
+	 * 
+	 * @param index
+	 *            number of the record
+	 * @param pendingRead
+	 *            future of the read request
+	 * @return data record or null if it was not found
+	 */
+	private DataRecord awaitRecord(final long index,
+			final Future<String[]> pendingRead) {
+		try {
+			return new DataRecord(index, pendingRead.get());
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RecordNotFoundException) {
+				// Ignore this exception, as in the synchronous case.
+				return null;
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new TechnicalErrorException("Cannot read record " + index,
+					e.getCause());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TechnicalErrorException(
+					"Interrupted while reading record " + index, e);
+		}
+	}
+
 	/**
 	 * Tries to book the record with the specified record number.
 	 * <p>
@@ -197,6 +563,36 @@ public final class BusinessService {
 		return records;
 	}
 
+	/**
+	 * Registers a listener to be notified about all changes of data records,
+	 * including those made by other clients.
+	 * 
+	 * @param listener
+	 *            listener to be registered
+	 * @return true if the listener was registered, false if the data source
+	 *         does not report changes
+	 */
+	public boolean addRecordChangeListener(RecordChangeListener listener) {
+		if (dbAccess instanceof RecordChangeSource) {
+			((RecordChangeSource) dbAccess).addRecordChangeListener(listener);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes a registered listener.
+	 * 
+	 * @param listener
+	 *            listener to be removed
+	 */
+	public void removeRecordChangeListener(RecordChangeListener listener) {
+		if (dbAccess instanceof RecordChangeSource) {
+			((RecordChangeSource) dbAccess)
+					.removeRecordChangeListener(listener);
+		}
+	}
+
 	/**
 	 * Checks whether the specified name and location exactly match the name and
 	 * location field in the specified data record.
@@ -212,7 +608,7 @@ public final class BusinessService {
 	 * @return true if all non-null values match the values in the respective
 	 *         record fields.
 	 */
-	private boolean isExactMatch(final DataRecord record, final String name,
+	public boolean isExactMatch(final DataRecord record, final String name,
 			final String location) {
 
 		boolean exactMatch = true;
@@ -248,4 +644,187 @@ public final class BusinessService {
 			}
 		}
 	}
+
+	/**
+	 * Cursor that fetches the pages from a {@code PagedDBAccess}.
+	 * <p>
+	 * If the cursor of the PagedDBAccess has expired, e.g. because the server
+	 * closed it when too many other cursors were opened, the search is opened
+	 * again. The records returned before are skipped, so the new cursor
+	 * continues with the records not yet returned.
+	 */
+	private final class PagedRecordCursor implements RecordCursor {
+
+		/**
+		 * Criteria of the search, null if it is a query
+		 */
+		private final String[] criteria;
+
+		/**
+		 * Query of the search, null if it uses criteria only
+		 */
+		private final RecordQuery query;
+
+		/**
+		 * Id of the cursor of the PagedDBAccess
+		 */
+		private long cursorId;
+
+		/**
+		 * Numbers of the records returned by the cursor so far
+		 */
+		private final Set<Long> returnedRecords = new HashSet<Long>();
+
+		/**
+		 * Criteria for the name field
+		 */
+		private final String name;
+
+		/**
+		 * Criteria for the location field
+		 */
+		private final String location;
+
+		/**
+		 * Flag signifying whether the last page was fetched or the cursor was
+		 * closed
+		 */
+		private boolean exhausted;
+
+		/**
+		 * Creates a new cursor and opens the search.
+		 * 
+		 * @param criteria
+		 *            criteria of the search, null if it is a query
+		 * @param query
+		 *            query of the search, null if it uses criteria only
+		 * @param name
+		 *            Criteria for the name field
+		 * @param location
+		 *            Criteria for the location field
+		 */
+		PagedRecordCursor(String[] criteria, RecordQuery query, String name,
+				String location) {
+			this.criteria = criteria;
+			this.query = query;
+			this.name = name;
+			this.location = location;
+			this.cursorId = open();
+		}
+
+		/**
+		 * Opens a cursor of the PagedDBAccess for the search.
+		 * 
+		 * @return id of the cursor
+		 */
+		private long open() {
+			if (query != null) {
+				return pagedDBAccess.openCursor(query);
+			}
+			return pagedDBAccess.openCursor(criteria);
+		}
+
+		@Override
+		public List<DataRecord> nextPage(int maxRecords) {
+			final List<DataRecord> records = new ArrayList<DataRecord>();
+			if (exhausted) {
+				return records;
+			}
+
+			RecordPage page;
+			try {
+				page = pagedDBAccess.fetchPage(cursorId, maxRecords);
+			} catch (final CursorExpiredException e) {
+				cursorId = open();
+				page = pagedDBAccess.fetchPage(cursorId, maxRecords);
+			}
+			for (int i = 0; i < page.size(); i++) {
+				// a reopened cursor returns the same records again first
+				if (returnedRecords.add(page.getRecNo(i))) {
+					addIfExactMatch(records, new DataRecord(page.getRecNo(i),
+							page.getData(i)), name, location);
+				}
+			}
+
+			if (page.isLast()) {
+				close();
+			}
+			return records;
+		}
+
+		@Override
+		public boolean hasMore() {
+			return !exhausted;
+		}
+
+		@Override
+		public void close() {
+			if (!exhausted) {
+				exhausted = true;
+				pagedDBAccess.closeCursor(cursorId);
+			}
+		}
+	}
+
+	/**
+	 * Cursor that keeps the numbers of the matching records and reads the
+	 * records of each page individually.
+	 */
+	private final class IndexRecordCursor implements RecordCursor {
+
+		/**
+		 * Numbers of the matching records
+		 */
+		private final long[] indices;
+
+		/**
+		 * Criteria for the name field
+		 */
+		private final String name;
+
+		/**
+		 * Criteria for the location field
+		 */
+		private final String location;
+
+		/**
+		 * Position of the next record number
+		 */
+		private int position;
+
+		/**
+		 * Creates a new cursor.
+		 * 
+		 * @param indices
+		 *            numbers of the matching records, may be null
+		 * @param name
+		 *            Criteria for the name field
+		 * @param location
+		 *            Criteria for the location field
+		 */
+		IndexRecordCursor(long[] indices, String name, String location) {
+			this.indices = indices != null ? indices : new long[0];
+			this.name = name;
+			this.location = location;
+		}
+
+		@Override
+		public List<DataRecord> nextPage(int maxRecords) {
+			final int end = Math.min(indices.length, position + maxRecords);
+			final long[] pageIndices = Arrays.copyOfRange(indices, position,
+					end);
+			position = end;
+			return readRecords(pageIndices, name, location);
+		}
+
+		@Override
+		public boolean hasMore() {
+			return position < indices.length;
+		}
+
+		@Override
+		public void close() {
+			position = indices.length;
+		}
+	}
 }
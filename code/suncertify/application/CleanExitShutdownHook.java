@@ -33,7 +33,7 @@ public final class CleanExitShutdownHook extends Thread {
 		// respective components
 
 		if (mode != null) {
-			if (mode.isServer()) {
+			if (mode.isServer() || mode.isReplica()) {
 				// Unbind the RemoteDBAccessFactory
 				try {
 					final Registry registry = LocateRegistry
@@ -51,7 +51,7 @@ public final class CleanExitShutdownHook extends Thread {
 				}
 			}
 
-			if (mode.isServer() || mode.isStandalone()) {
+			if (mode.isServer() || mode.isReplica() || mode.isStandalone()) {
 				// Flush and close the data file
 				try {
 					FileAccess.closeFile();
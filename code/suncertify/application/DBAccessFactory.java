@@ -4,6 +4,10 @@ import java.net.MalformedURLException;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import suncertify.db.DBAccess;
 import suncertify.db.Data;
@@ -11,6 +15,7 @@ import suncertify.db.NetworkErrorException;
 import suncertify.remote.RemoteDBAccess;
 import suncertify.remote.RemoteDBAccessFactory;
 import suncertify.remote.RemoteDataAdapter;
+import suncertify.remote.nio.NioDataAdapter;
 
 /**
  * Factory that can create instances implementing the {@code DBAccess}
@@ -44,6 +49,140 @@ public final class DBAccessFactory {
 		return dbAccess;
 	}
 
+	/**
+	 * Creates a remote DBAccess instance that communicates with a server at the
+	 * specified endpoint using the specified transport.
+	 * 
+	 * @param serverAddress
+	 *            Address of the server endpoint
+	 * @param serverPort
+	 *            Port of the server endpoint
+	 * @param transport
+	 *            network transport used to communicate with the server
+	 * @return DBAccess instance
+	 * @throws NetworkErrorException
+	 *             if an error occurs in the communication with the server
+	 */
+	public static DBAccess getRemoteDBAccess(String serverAddress,
+			String serverPort, Transport transport)
+			throws NetworkErrorException {
+
+		return getRemoteDBAccess(serverAddress, serverPort, transport, false);
+	}
+
+	/**
+	 * Creates a remote DBAccess instance that communicates with a server at the
+	 * specified endpoint using the specified transport.
+	 * <p>
+	 * If compression is requested, the server is asked to compress bulk results
+	 * (pages of search results). The binary protocol does not support
+	 * compression and ignores the request.
+	 * 
+	 * @param serverAddress
+	 *            Address of the server endpoint
+	 * @param serverPort
+	 *            Port of the server endpoint
+	 * @param transport
+	 *            network transport used to communicate with the server
+	 * @param compression
+	 *            true to request compressed bulk results
+	 * @return DBAccess instance
+	 * @throws NetworkErrorException
+	 *             if an error occurs in the communication with the server
+	 */
+	public static DBAccess getRemoteDBAccess(String serverAddress,
+			String serverPort, Transport transport, boolean compression)
+			throws NetworkErrorException {
+
+		if (Transport.NIO.equals(transport)) {
+			return getNioDBAccess(serverAddress, serverPort);
+		}
+		return getRemoteDBAccess(serverAddress, serverPort, compression);
+	}
+
+	/**
+	 * Creates a remote DBAccess instance that sends all writes to the primary
+	 * server at the specified endpoint and routes reads to one of the
+	 * specified replicas, using the specified transport.
+	 * <p>
+	 * The replicas are tried in random order, so that the clients are spread
+	 * across them. If no replica is specified or none can be reached, all
+	 * requests are sent to the primary.
+	 * 
+	 * @param serverAddress
+	 *            Address of the primary server endpoint
+	 * @param serverPort
+	 *            Port of the primary server endpoint
+	 * @param replicas
+	 *            endpoints of the replicas as comma-separated address:port
+	 *            pairs, may be null
+	 * @param transport
+	 *            network transport used to communicate with the servers
+	 * @param compression
+	 *            true to request compressed bulk results
+	 * @return DBAccess instance
+	 * @throws NetworkErrorException
+	 *             if an error occurs in the communication with the primary
+	 */
+	public static DBAccess getReplicatedDBAccess(String serverAddress,
+			String serverPort, String replicas, Transport transport,
+			boolean compression) throws NetworkErrorException {
+
+		final DBAccess primary = getRemoteDBAccess(serverAddress, serverPort,
+				transport, compression);
+		if (replicas == null || replicas.trim().length() == 0) {
+			return primary;
+		}
+
+		final List<String> endpoints = new ArrayList<String>(Arrays
+				.asList(replicas.split(",")));
+		Collections.shuffle(endpoints);
+		for (final String endpoint : endpoints) {
+			final int separator = endpoint.lastIndexOf(':');
+			if (separator < 0) {
+				System.err.println("Invalid replica: " + endpoint);
+				continue;
+			}
+			try {
+				final DBAccess replica = getRemoteDBAccess(endpoint.substring(
+						0, separator).trim(), endpoint.substring(separator + 1)
+						.trim(), transport, compression);
+				return ReplicatedDBAccess.create(primary, replica);
+			} catch (final NetworkErrorException e) {
+				System.err.println("Cannot connect to replica " + endpoint
+						+ ": " + e.getMessage());
+			}
+		}
+		return primary;
+	}
+
+	/**
+	 * Creates a remote DBAccess instance that communicates with a server at the
+	 * specified endpoint using the binary protocol over NIO sockets.
+	 * 
+	 * @param serverAddress
+	 *            Address of the server endpoint
+	 * @param serverPort
+	 *            Port of the server endpoint
+	 * @return DBAccess instance
+	 * @throws NetworkErrorException
+	 *             if an error occurs in the communication with the server
+	 */
+	public static DBAccess getNioDBAccess(String serverAddress,
+			String serverPort) throws NetworkErrorException {
+
+		int port;
+		try {
+			port = Integer.parseInt(serverPort);
+		} catch (final NumberFormatException e) {
+			throw new NetworkErrorException("Server port invalid", e);
+		}
+
+		final DBAccess dbAccess = new NioDataAdapter(serverAddress, port);
+
+		return dbAccess;
+	}
+
 	/**
 	 * Creates a remote DBAccess instance, i.e. one that communicates with a
 	 * server at the specified endpoint to provide data access.
@@ -58,6 +197,27 @@ public final class DBAccessFactory {
 	 */
 	public static DBAccess getRemoteDBAccess(String serverAddress,
 			String serverPort) throws NetworkErrorException {
+		return getRemoteDBAccess(serverAddress, serverPort, false);
+	}
+
+	/**
+	 * Creates a remote DBAccess instance, i.e. one that communicates with a
+	 * server at the specified endpoint via RMI to provide data access, and
+	 * requests compressed bulk results, if specified.
+	 * 
+	 * @param serverAddress
+	 *            Address of the server endpoint
+	 * @param serverPort
+	 *            Port of the server endpoint
+	 * @param compression
+	 *            true to request compressed bulk results
+	 * @return DBAccess instance
+	 * @throws NetworkErrorException
+	 *             if an error occurs in the communication with the server
+	 */
+	public static DBAccess getRemoteDBAccess(String serverAddress,
+			String serverPort, boolean compression)
+			throws NetworkErrorException {
 
 		final RemoteDBAccessFactory factory = getRemoteDBAccessFactory(
 				serverAddress, serverPort);
@@ -70,7 +230,8 @@ public final class DBAccessFactory {
 					"Cannot create RemoteDBAccess instance", e);
 		}
 
-		final DBAccess dbAccess = new RemoteDataAdapter(remoteDBAccess);
+		final DBAccess dbAccess = new RemoteDataAdapter(remoteDBAccess,
+				compression);
 
 		return dbAccess;
 	}
@@ -0,0 +1,40 @@
+package suncertify.application;
+
+import java.util.List;
+
+import suncertify.db.domain.DataRecord;
+
+/**
+ * Cursor over the data records found by a search, which are retrieved page by
+ * page.
+ * <p>
+ * Cursors are created by {@link BusinessService#openSearch(String, String)}
+ * and must be closed when they are no longer needed.
+ * 
+ * @author Rasmus Kuschel
+ */
+public interface RecordCursor {
+
+	/**
+	 * Returns the next data records that exactly match the criteria of the
+	 * search. The returned list may contain fewer records than requested (even
+	 * none) although more records follow.
+	 * 
+	 * @param maxRecords
+	 *            maximum number of records to be returned
+	 * @return next data records
+	 */
+	public List<DataRecord> nextPage(int maxRecords);
+
+	/**
+	 * Returns whether more records may follow.
+	 * 
+	 * @return true if the cursor is not exhausted
+	 */
+	public boolean hasMore();
+
+	/**
+	 * Closes the cursor and releases its resources.
+	 */
+	public void close();
+}
@@ -0,0 +1,466 @@
+package suncertify.application;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import suncertify.db.AsyncDBAccess;
+import suncertify.db.DBAccess;
+import suncertify.db.DuplicateKeyException;
+import suncertify.db.MatchMode;
+import suncertify.db.MatchingDBAccess;
+import suncertify.db.PagedDBAccess;
+import suncertify.db.QueryDBAccess;
+import suncertify.db.RecordNotFoundException;
+import suncertify.db.RecordPage;
+import suncertify.db.RecordQuery;
+import suncertify.db.SecurityException;
+import suncertify.db.UnsupportedRequestException;
+import suncertify.db.event.RecordChangeListener;
+import suncertify.db.event.RecordChangeSource;
+
+/**
+ * DBAccess implementation routing reads to a replica server and all other
+ * requests to the primary server.
+ * <p>
+ * Searches and reads are answered by the replica, which applies the writes of
+ * the primary with a short delay. A record locked through this instance is
+ * read from the primary, so that a booking checks the current state of the
+ * record. Changes of records are reported by the primary, if it reports them.
+ * <p>
+ * Searches with match modes and queries are supported if the replica or else
+ * the primary supports them. Cursors are opened on the replica, if it
+ * supports them; asynchronous requests are supported if both servers support
+ * them, and routed like the synchronous ones.
+ * 
+ * @author Rasmus Kuschel
+ */
+class ReplicatedDBAccess implements DBAccess, MatchingDBAccess, QueryDBAccess {
+
+	/**
+	 * Connection to the primary server
+	 */
+	private final DBAccess primary;
+
+	/**
+	 * Connection to the replica server
+	 */
+	private final DBAccess replica;
+
+	/**
+	 * Numbers of the records locked through this instance
+	 */
+	private final Set<Long> lockedRecords = new HashSet<Long>();
+
+	/**
+	 * Creates a new instance.
+	 * 
+	 * @param primary
+	 *            connection to the primary server
+	 * @param replica
+	 *            connection to the replica server
+	 */
+	private ReplicatedDBAccess(DBAccess primary, DBAccess replica) {
+		this.primary = primary;
+		this.replica = replica;
+	}
+
+	/**
+	 * Creates a new instance, which is a {@code RecordChangeSource} if the
+	 * primary is one, a {@code PagedDBAccess} if the replica is one and an
+	 * {@code AsyncDBAccess} if both are.
+	 * 
+	 * @param primary
+	 *            connection to the primary server
+	 * @param replica
+	 *            connection to the replica server
+	 * @return DBAccess instance routing reads to the replica
+	 */
+	static DBAccess create(DBAccess primary, DBAccess replica) {
+		if (primary instanceof RecordChangeSource) {
+			if (replica instanceof PagedDBAccess) {
+				return new PagedChangeSource(primary, replica);
+			}
+			return new ChangeSource(primary, replica);
+		}
+		if (replica instanceof PagedDBAccess) {
+			return new Paged(primary, replica);
+		}
+		if (primary instanceof AsyncDBAccess
+				&& replica instanceof AsyncDBAccess) {
+			return new Async(primary, replica);
+		}
+		return new ReplicatedDBAccess(primary, replica);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String[] readRecord(long recNo) throws RecordNotFoundException {
+		if (isLocked(recNo)) {
+			return primary.readRecord(recNo);
+		}
+		return replica.readRecord(recNo);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void updateRecord(long recNo, String[] data, long lockCookie)
+			throws RecordNotFoundException, SecurityException {
+		primary.updateRecord(recNo, data, lockCookie);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void deleteRecord(long recNo, long lockCookie)
+			throws RecordNotFoundException, SecurityException {
+		primary.deleteRecord(recNo, lockCookie);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long[] findByCriteria(String[] criteria) {
+		return replica.findByCriteria(criteria);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long[] findByCriteria(String[] criteria, MatchMode[] modes) {
+		if (replica instanceof MatchingDBAccess) {
+			return ((MatchingDBAccess) replica).findByCriteria(criteria, modes);
+		}
+		if (primary instanceof MatchingDBAccess) {
+			return ((MatchingDBAccess) primary).findByCriteria(criteria, modes);
+		}
+		throw new UnsupportedRequestException(
+				"Match modes are not supported by the server");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long[] findByQuery(RecordQuery query) {
+		if (replica instanceof QueryDBAccess) {
+			return ((QueryDBAccess) replica).findByQuery(query);
+		}
+		if (primary instanceof QueryDBAccess) {
+			return ((QueryDBAccess) primary).findByQuery(query);
+		}
+		throw new UnsupportedRequestException(
+				"Queries are not supported by the server");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long createRecord(String[] data) throws DuplicateKeyException {
+		return primary.createRecord(data);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long lockRecord(long recNo) throws RecordNotFoundException {
+		final long cookie = primary.lockRecord(recNo);
+		setLocked(recNo, true);
+		return cookie;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void unlock(long recNo, long cookie) throws SecurityException {
+		try {
+			primary.unlock(recNo, cookie);
+		} finally {
+			setLocked(recNo, false);
+		}
+	}
+
+	/**
+	 * Checks whether the specified record is locked through this instance.
+	 * 
+	 * @param recNo
+	 *            number of the record
+	 * @return true if the record is locked
+	 */
+	private boolean isLocked(long recNo) {
+		synchronized (lockedRecords) {
+			return lockedRecords.contains(recNo);
+		}
+	}
+
+	/**
+	 * Records that the specified record is locked or unlocked through this
+	 * instance.
+	 * 
+	 * @param recNo
+	 *            number of the record
+	 * @param locked
+	 *            true if the record is locked
+	 */
+	private void setLocked(long recNo, boolean locked) {
+		synchronized (lockedRecords) {
+			if (locked) {
+				lockedRecords.add(recNo);
+			} else {
+				lockedRecords.remove(recNo);
+			}
+		}
+	}
+
+	/**
+	 * Instance routing reads to a replica, that reports the changes of records
+	 * reported by the primary.
+	 */
+	private static final class ChangeSource extends ReplicatedDBAccess
+			implements RecordChangeSource {
+
+		/**
+		 * Primary server reporting the changes
+		 */
+		private final RecordChangeSource source;
+
+		/**
+		 * Creates a new instance.
+		 * 
+		 * @param primary
+		 *            connection to the primary server, reporting changes
+		 * @param replica
+		 *            connection to the replica server
+		 */
+		ChangeSource(DBAccess primary, DBAccess replica) {
+			super(primary, replica);
+			this.source = (RecordChangeSource) primary;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void addRecordChangeListener(RecordChangeListener listener) {
+			source.addRecordChangeListener(listener);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void removeRecordChangeListener(RecordChangeListener listener) {
+			source.removeRecordChangeListener(listener);
+		}
+	}
+
+	/**
+	 * Instance routing reads to a replica, that opens cursors on the replica.
+	 */
+	private static class Paged extends ReplicatedDBAccess implements
+			PagedDBAccess {
+
+		/**
+		 * Replica server supporting cursors
+		 */
+		private final PagedDBAccess pagedReplica;
+
+		/**
+		 * Creates a new instance.
+		 * 
+		 * @param primary
+		 *            connection to the primary server
+		 * @param replica
+		 *            connection to the replica server, supporting cursors
+		 */
+		Paged(DBAccess primary, DBAccess replica) {
+			super(primary, replica);
+			this.pagedReplica = (PagedDBAccess) replica;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public long openCursor(String[] criteria) {
+			return pagedReplica.openCursor(criteria);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public long openCursor(RecordQuery query) {
+			return pagedReplica.openCursor(query);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public RecordPage fetchPage(long cursorId, int maxRecords) {
+			return pagedReplica.fetchPage(cursorId, maxRecords);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void closeCursor(long cursorId) {
+			pagedReplica.closeCursor(cursorId);
+		}
+	}
+
+	/**
+	 * Instance routing reads to a replica, that opens cursors on the replica
+	 * and reports the changes of records reported by the primary.
+	 */
+	private static final class PagedChangeSource extends Paged implements
+			RecordChangeSource {
+
+		/**
+		 * Primary server reporting the changes
+		 */
+		private final RecordChangeSource source;
+
+		/**
+		 * Creates a new instance.
+		 * 
+		 * @param primary
+		 *            connection to the primary server, reporting changes
+		 * @param replica
+		 *            connection to the replica server, supporting cursors
+		 */
+		PagedChangeSource(DBAccess primary, DBAccess replica) {
+			super(primary, replica);
+			this.source = (RecordChangeSource) primary;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void addRecordChangeListener(RecordChangeListener listener) {
+			source.addRecordChangeListener(listener);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void removeRecordChangeListener(RecordChangeListener listener) {
+			source.removeRecordChangeListener(listener);
+		}
+	}
+
+	/**
+	 * Instance routing reads to a replica, that also sends requests
+	 * asynchronously. A record is regarded as locked from the request of its
+	 * lock until it is unlocked, so that it is read from the primary while the
+	 * request is pending.
+	 */
+	private static final class Async extends ReplicatedDBAccess implements
+			AsyncDBAccess {
+
+		/**
+		 * Primary server supporting asynchronous requests
+		 */
+		private final AsyncDBAccess asyncPrimary;
+
+		/**
+		 * Replica server supporting asynchronous requests
+		 */
+		private final AsyncDBAccess asyncReplica;
+
+		/**
+		 * Creates a new instance.
+		 * 
+		 * @param primary
+		 *            connection to the primary server, supporting
+		 *            asynchronous requests
+		 * @param replica
+		 *            connection to the replica server, supporting
+		 *            asynchronous requests
+		 */
+		Async(DBAccess primary, DBAccess replica) {
+			super(primary, replica);
+			this.asyncPrimary = (AsyncDBAccess) primary;
+			this.asyncReplica = (AsyncDBAccess) replica;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Future<String[]> readRecordAsync(long recNo) {
+			if (super.isLocked(recNo)) {
+				return asyncPrimary.readRecordAsync(recNo);
+			}
+			return asyncReplica.readRecordAsync(recNo);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Future<Void> updateRecordAsync(long recNo, String[] data,
+				long lockCookie) {
+			return asyncPrimary.updateRecordAsync(recNo, data, lockCookie);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Future<Void> deleteRecordAsync(long recNo, long lockCookie) {
+			return asyncPrimary.deleteRecordAsync(recNo, lockCookie);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Future<long[]> findByCriteriaAsync(String[] criteria) {
+			return asyncReplica.findByCriteriaAsync(criteria);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Future<Long> createRecordAsync(String[] data) {
+			return asyncPrimary.createRecordAsync(data);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Future<Long> lockRecordAsync(long recNo) {
+			super.setLocked(recNo, true);
+			return asyncPrimary.lockRecordAsync(recNo);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Future<Void> unlockAsync(long recNo, long cookie) {
+			try {
+				return asyncPrimary.unlockAsync(recNo, cookie);
+			} finally {
+				super.setLocked(recNo, false);
+			}
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package suncertify.application;
+
+/**
+ * Enumeration of the network transports a client can use to communicate with
+ * the server.
+ * 
+ * @author Rasmus Kuschel
+ */
+public enum Transport {
+
+	/**
+	 * Remote method invocation via the RMI registry of the server.
+	 */
+	RMI("rmi"),
+	/**
+	 * Binary protocol over NIO sockets.
+	 */
+	NIO("nio");
+
+	/**
+	 * Property value identifying this transport.
+	 */
+	private final String propertyValue;
+
+	/**
+	 * Constructor for Transport. Allows to specify the property value
+	 * identifying the transport.
+	 * 
+	 * @param propertyValue
+	 *            property value identifying this transport
+	 */
+	Transport(String propertyValue) {
+		this.propertyValue = propertyValue;
+	}
+
+	/**
+	 * Returns the property value identifying this transport.
+	 * 
+	 * @return property value
+	 */
+	public String getPropertyValue() {
+		return propertyValue;
+	}
+
+	/**
+	 * Returns the transport identified by the specified property value. If the
+	 * value is null or unknown, RMI is returned.
+	 * 
+	 * @param propertyValue
+	 *            property value
+	 * @return corresponding transport
+	 */
+	public static Transport forValue(String propertyValue) {
+		for (Transport transport : values()) {
+			if (transport.getPropertyValue().equalsIgnoreCase(propertyValue)) {
+				return transport;
+			}
+		}
+
+		return RMI;
+	}
+}
@@ -1,11 +1,18 @@
 package suncertify.client;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import suncertify.application.BusinessService;
+import suncertify.application.RecordCursor;
 import suncertify.db.RecordAlreadyBookedException;
 import suncertify.db.RecordNotFoundException;
+import suncertify.db.SortKey;
 import suncertify.db.domain.DataRecord;
+import suncertify.db.event.RecordChangeEvent;
+import suncertify.db.event.RecordChangeListener;
+import suncertify.db.event.RecordChangeType;
 
 /**
  * Controller for the client component of the application.
@@ -16,7 +23,18 @@ import suncertify.db.domain.DataRecord;
  * The controller works as an adapter between the business interface and the
  * client view. It calls the methods on a {@code BusinessInterface} object that
  * actually provides the business method implementations and wraps the result in
- * a {@code ClientModel} instance.
+ * a {@code ClientModel} instance. Search results are wrapped as a cursor, so
+ * that the model loads the records page by page. Sorting a result repeats its
+ * search with sort keys, so that the records are sorted by the server and
+ * still loaded page by page.
+ * <p>
+ * Except for {@link #applyChange(ClientModel, RecordChangeEvent)}, the methods
+ * call the server and may block for the duration of the request. The view
+ * therefore calls them on background threads.
+ * <p>
+ * Changes of data records made by other clients can be subscribed to and
+ * applied to an existing model, so that the view does not need to repeat its
+ * search to show them.
  * 
  * @author Rasmus Kuschel
  */
@@ -45,12 +63,10 @@ public final class ClientController {
 	 */
 	public ClientModel retrieveAllRecords() {
 
-		// Retrieve a list of all data records from the business service
-		final List<DataRecord> allRecords = businessService
-				.retrieveAllRecords();
-
-		// Wrap the list in a ClientModel instance
-		final ClientModel clientModel = new ClientModel(allRecords);
+		// Open a cursor over all data records. The model loads them page by
+		// page.
+		final RecordCursor cursor = businessService.openSearch(null, null);
+		final ClientModel clientModel = new ClientModel(cursor, null, null);
 
 		return clientModel;
 	}
@@ -70,52 +86,136 @@ public final class ClientController {
 	 */
 	public ClientModel searchRecords(final String name, final String location) {
 
-		// Retrieve a list of all data records that match the criteria from the
-		// business service.
-		final List<DataRecord> records = businessService.searchRecords(name,
-				location);
-
-		// Wrap the list in a ClientModel instance
-		final ClientModel clientModel = new ClientModel(records);
+		// Open a cursor over the data records that match the criteria. The
+		// model loads them page by page.
+		final RecordCursor cursor = businessService.openSearch(name, location);
+		final ClientModel clientModel = new ClientModel(cursor, name, location);
 
 		return clientModel;
 	}
 
 	/**
-	 * Tries to book the record with the specified record number.
+	 * Returns a model containing the data records of the specified model,
+	 * sorted by the specified column.
 	 * <p>
-	 * Throws a RecordAlreadyBookedException if the record was already booked.
+	 * If the column is to replace the current sort keys and the records are
+	 * already sorted by it first, its direction is reversed; otherwise the
+	 * records are sorted by it in ascending order. If the column is to be
+	 * added to the current sort keys, the direction of its key is reversed if
+	 * it already is one of them; otherwise it is added as the least
+	 * significant key.
 	 * 
-	 * @param record
-	 *            data record that shall be booked.
 	 * @param model
 	 *            model currently used in the view
-	 * @return model updated model
+	 * @param column
+	 *            column the records are to be sorted by
+	 * @param addKey
+	 *            true to add the column to the current sort keys, false to
+	 *            replace them
+	 * @return model containing the sorted records
+	 */
+	public ClientModel sortRecords(final ClientModel model, final int column,
+			final boolean addKey) {
+
+		final SortKey[] currentKeys = model.getSortKeys();
+		SortKey[] sortKeys = null;
+		for (int i = 0; i < currentKeys.length; i++) {
+			if (currentKeys[i].getField() == column) {
+				if (addKey) {
+					sortKeys = currentKeys;
+					sortKeys[i] = currentKeys[i].reverse();
+				} else if (i == 0) {
+					sortKeys = new SortKey[] { currentKeys[i].reverse() };
+				}
+			}
+		}
+		if (sortKeys == null && addKey) {
+			sortKeys = Arrays.copyOf(currentKeys, currentKeys.length + 1);
+			sortKeys[currentKeys.length] = new SortKey(column, false);
+		} else if (sortKeys == null) {
+			sortKeys = new SortKey[] { new SortKey(column, false) };
+		}
+
+		// Open a cursor over the records sorted by the server. The model
+		// loads them page by page.
+		final RecordCursor cursor = businessService.openSearch(
+				model.getName(), model.getLocation(), sortKeys);
+		return new ClientModel(cursor, model.getName(), model.getLocation(),
+				sortKeys);
+	}
+
+	/**
+	 * Tries to book the specified record.
+	 * <p>
+	 * The specified record is updated with the current values of the record,
+	 * whether booking succeeds or fails, so that the caller can update its
+	 * model with it. It should therefore not be a record of a model displayed
+	 * in the view.
+	 * 
+	 * @param record
+	 *            data record that shall be booked.
 	 * @throws RecordAlreadyBookedException
 	 *             if the record was already booked.
 	 * @throws RecordNotFoundException
 	 *             if no record with the given record number exists or if it is
 	 *             marked as deleted
 	 */
-	public ClientModel bookRecord(final DataRecord record,
-			final ClientModel model) throws RecordAlreadyBookedException,
-			RecordNotFoundException {
-
-		try {
-			// Try to book the record. The business service method returns a
-			// list of records that reflect the modifications.
-			final List<DataRecord> records = businessService.bookRecord(record,
-					model.getRecords());
-
-			// Wrap the list in a ClientModel instance
-			final ClientModel clientModel = new ClientModel(records);
-
-			return clientModel;
-		} finally {
-			// Update the model to reflect the changed record
-			// This needs to be done, when booking the record has failed and we
-			// do not return a new model.
+	public void bookRecord(final DataRecord record)
+			throws RecordAlreadyBookedException, RecordNotFoundException {
+
+		// The business service method updates the list of records to reflect
+		// the modifications, whether booking succeeds or fails.
+		final List<DataRecord> records = new ArrayList<DataRecord>(1);
+		records.add(record);
+		businessService.bookRecord(record, records);
+	}
+
+	/**
+	 * Subscribes to changes of data records, including those made by other
+	 * clients.
+	 * 
+	 * @param listener
+	 *            listener to be notified about the changes
+	 * @return true if the subscription succeeded, false if changes are not
+	 *         reported
+	 */
+	public boolean subscribeRecordChanges(final RecordChangeListener listener) {
+		return businessService.addRecordChangeListener(listener);
+	}
+
+	/**
+	 * Applies a change of a data record to the specified model.
+	 * <p>
+	 * Created or updated records are added to the model if they match its
+	 * search criteria, or removed from it if they no longer do. Deleted
+	 * records are removed. The model keeps added and updated records in the
+	 * order of its sort keys, if it has any.
+	 * 
+	 * @param model
+	 *            model currently used in the view
+	 * @param event
+	 *            event describing the change
+	 */
+	public void applyChange(final ClientModel model,
+			final RecordChangeEvent event) {
+
+		final long recNo = event.getRecNo();
+		if (event.getType() == RecordChangeType.DELETED) {
+			model.removeRecord(recNo);
+			return;
+		}
+
+		final DataRecord record = new DataRecord(recNo, event.getData());
+		final boolean matches = businessService.isExactMatch(record, model
+				.getName(), model.getLocation());
+
+		if (!matches) {
+			// removes the record also if it is held back by the model
+			model.removeRecord(recNo);
+		} else if (model.indexOf(recNo) != -1) {
 			model.updateRecord(record);
+		} else {
+			model.addRecord(record);
 		}
 	}
 }
@@ -1,12 +1,21 @@
 package suncertify.client;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
+import javax.swing.SwingWorker;
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
 import javax.swing.table.TableModel;
 
+import suncertify.application.RecordCursor;
+import suncertify.db.SortKey;
 import suncertify.db.domain.DataRecord;
 
 /**
@@ -15,6 +24,27 @@ import suncertify.db.domain.DataRecord;
  * {@code ClientModel} implements the {@code TableModel} interface. An instance
  * of this class can be created from a list of data records and can be passed as
  * the model to a {@code JTable} component.
+ * <p>
+ * The model remembers the criteria of the search that produced it, so that
+ * records changed by other clients can be added, updated or removed
+ * incrementally. Listeners are notified about the affected rows only. The row
+ * of each record is kept in an index by record number, so that the row of a
+ * changed record is found without searching the records.
+ * <p>
+ * A model can also be created from a {@code RecordCursor}. It then loads only
+ * the first page of records and fetches further pages when rows near the end
+ * of the loaded records are displayed, i.e. when the table is scrolled down.
+ * Pages are fetched by a {@code SwingWorker}, so the event dispatch thread
+ * does not wait for the server; the rows are inserted when they arrive.
+ * If a page cannot be loaded, a {@code PageLoadListener} is notified and the
+ * page is fetched again when rows near the end are displayed after a delay.
+ * The records of a cursor may be sorted by the server; the model remembers the
+ * sort keys and marks the sorted columns in their names. Records added or
+ * changed by other clients are kept in the order of the sort keys. A record
+ * whose position lies behind the loaded records is held back until the page
+ * covering its position has been loaded, so that it does not appear before
+ * records sorted before it. Likewise, records added to an unsorted model are
+ * held back until the cursor delivers them or is exhausted.
  * 
  * @author Rasmus Kuschel
  */
@@ -31,16 +61,86 @@ public final class ClientModel implements TableModel {
 	public static final String[] COLUMN_NAMES = { "Name", "Location",
 			"Specialties", "Size", "Rate", "Owner" };
 
+	/**
+	 * Number of records fetched from the cursor at a time.
+	 */
+	private static final int PAGE_SIZE = 100;
+
+	/**
+	 * Distance from the end of the loaded records at which the next page is
+	 * fetched.
+	 */
+	private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+	/**
+	 * Time (in milliseconds) after a failed page, before the next page is
+	 * fetched again when rows near the end are displayed.
+	 */
+	private static final long RETRY_DELAY = 5 * 1000;
+
 	/**
 	 * Records that are represented by this table model
 	 */
-	private List<DataRecord> records;
+	private final List<DataRecord> records;
+
+	/**
+	 * Row of each record of the model by record number
+	 */
+	private final Map<Long, Integer> rows = new HashMap<Long, Integer>();
+
+	/**
+	 * Records added by change notifications whose position lies behind the
+	 * loaded records, by record number. They are inserted when the page
+	 * covering their position has been loaded, or, if the records are not
+	 * sorted, when a page contains them or the cursor is exhausted.
+	 */
+	private final Map<Long, DataRecord> pendingRecords = new LinkedHashMap<Long, DataRecord>();
 
 	/**
 	 * List of all listeners that need to be modified about model updates.
 	 */
 	private List<TableModelListener> listeners;
 
+	/**
+	 * Name criteria of the search that produced the records, null if the
+	 * records were not filtered by name.
+	 */
+	private final String name;
+
+	/**
+	 * Location criteria of the search that produced the records, null if the
+	 * records were not filtered by location.
+	 */
+	private final String location;
+
+	/**
+	 * Keys the records are sorted by, most significant first; empty if the
+	 * records are sorted by number.
+	 */
+	private final SortKey[] sortKeys;
+
+	/**
+	 * Cursor providing further records, or null if all records are loaded.
+	 */
+	private RecordCursor cursor;
+
+	/**
+	 * Worker fetching the next page from the cursor, or null if no page is
+	 * being fetched.
+	 */
+	private PageLoader loader;
+
+	/**
+	 * Listener notified if a page cannot be loaded, or null.
+	 */
+	private PageLoadListener pageLoadListener;
+
+	/**
+	 * Time (in milliseconds) before which displayed rows do not trigger
+	 * fetching the next page, after a page could not be loaded.
+	 */
+	private long retryTime;
+
 	/**
 	 * Constructs a new table model that contains the data of the specified
 	 * records
@@ -49,8 +149,402 @@ public final class ClientModel implements TableModel {
 	 *            Records that are represented by this table model
 	 */
 	public ClientModel(List<DataRecord> records) {
-		this.records = records;
+		this(records, null, null);
+	}
+
+	/**
+	 * Constructs a new table model that contains the data of the specified
+	 * records, which were found by a search with the specified criteria.
+	 * 
+	 * @param records
+	 *            Records that are represented by this table model
+	 * @param name
+	 *            name criteria of the search, null if not used
+	 * @param location
+	 *            location criteria of the search, null if not used
+	 */
+	public ClientModel(List<DataRecord> records, String name, String location) {
+		this.records = new ArrayList<DataRecord>();
+		for (final DataRecord record : records) {
+			append(record);
+		}
 		this.listeners = new ArrayList<TableModelListener>();
+		this.name = name;
+		this.location = location;
+		this.sortKeys = new SortKey[0];
+	}
+
+	/**
+	 * Constructs a new table model that loads the records from the specified
+	 * cursor page by page. The model is empty until the first page is loaded
+	 * by {@link #loadNextPage()}.
+	 * 
+	 * @param cursor
+	 *            cursor over the records found by the search
+	 * @param name
+	 *            name criteria of the search, null if not used
+	 * @param location
+	 *            location criteria of the search, null if not used
+	 */
+	public ClientModel(RecordCursor cursor, String name, String location) {
+		this(cursor, name, location, null);
+	}
+
+	/**
+	 * Constructs a new table model that loads the records from the specified
+	 * cursor page by page, sorted by the specified keys. The model is empty
+	 * until the first page is loaded by {@link #loadNextPage()}.
+	 * 
+	 * @param cursor
+	 *            cursor over the records found by the search, in the order of
+	 *            the sort keys
+	 * @param name
+	 *            name criteria of the search, null if not used
+	 * @param location
+	 *            location criteria of the search, null if not used
+	 * @param sortKeys
+	 *            keys the records are sorted by, null if they are sorted by
+	 *            number
+	 */
+	public ClientModel(RecordCursor cursor, String name, String location,
+			SortKey[] sortKeys) {
+		this.records = new ArrayList<DataRecord>();
+		this.listeners = new ArrayList<TableModelListener>();
+		this.name = name;
+		this.location = location;
+		this.sortKeys = sortKeys == null ? new SortKey[0] : sortKeys.clone();
+		this.cursor = cursor;
+	}
+
+	/**
+	 * Closes the cursor of this model, if it has one. No further records are
+	 * loaded afterwards; a page that is being fetched is discarded.
+	 * <p>
+	 * The cursor is closed in the background, after the page being fetched, if
+	 * any, has arrived.
+	 */
+	public void close() {
+		if (loader != null) {
+			// Cancelling runs done() at once, which ignores a replaced loader
+			final PageLoader cancelledLoader = loader;
+			loader = null;
+			cancelledLoader.cancel(false);
+		}
+		if (cursor != null) {
+			final RecordCursor closedCursor = cursor;
+			cursor = null;
+			new SwingWorker<Void, Void>() {
+				@Override
+				protected Void doInBackground() {
+					synchronized (closedCursor) {
+						closedCursor.close();
+					}
+					return null;
+				}
+
+				@Override
+				protected void done() {
+					try {
+						get();
+					} catch (final ExecutionException ignored) {
+						// The server releases the cursor with the session
+						// anyway.
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}.execute();
+		}
+	}
+
+	/**
+	 * Sets the listener notified if a page cannot be loaded, e.g. to report
+	 * the error to the user.
+	 * 
+	 * @param listener
+	 *            listener to be notified, or null
+	 */
+	public void setPageLoadListener(PageLoadListener listener) {
+		this.pageLoadListener = listener;
+	}
+
+	/**
+	 * Starts fetching the next page from the cursor in the background, unless
+	 * all records are loaded or a page is already being fetched. The records
+	 * are appended when they arrive.
+	 * <p>
+	 * If the page cannot be loaded, the page load listener is notified and
+	 * the cursor is kept, so that the page can be loaded by calling this
+	 * method again. Displayed rows trigger loading it again only after a
+	 * delay.
+	 * <p>
+	 * Must be called on the event dispatch thread, like all other methods of
+	 * the model that access the records.
+	 */
+	public void loadNextPage() {
+		if (cursor == null || loader != null) {
+			return;
+		}
+
+		retryTime = 0;
+		loader = new PageLoader(cursor);
+		loader.execute();
+	}
+
+	/**
+	 * Appends the specified records. Records that are already contained or
+	 * held back (e.g. because they were added by a change notification) are
+	 * skipped, as the page may contain an older version of them; if the
+	 * records are not sorted, a held back record is appended in place of its
+	 * older version. Listeners are notified about the inserted rows.
+	 * <p>
+	 * Then the held back records whose position now lies within the loaded
+	 * records are inserted.
+	 * 
+	 * @param page
+	 *            records to be appended
+	 */
+	private void appendRecords(List<DataRecord> page) {
+		final int firstRow = records.size();
+		for (final DataRecord record : page) {
+			final long recNo = record.getRecNo();
+			if (indexOf(recNo) != -1) {
+				continue;
+			}
+			final DataRecord pending = pendingRecords.get(recNo);
+			if (pending == null) {
+				append(record);
+			} else if (sortKeys.length == 0) {
+				pendingRecords.remove(recNo);
+				append(pending);
+			}
+		}
+
+		if (records.size() > firstRow) {
+			fireTableChanged(new TableModelEvent(this, firstRow, records
+					.size() - 1, TableModelEvent.ALL_COLUMNS,
+					TableModelEvent.INSERT));
+		}
+		insertPendingRecords();
+	}
+
+	/**
+	 * Inserts the held back records whose position lies within the loaded
+	 * records, or all of them if all records are loaded.
+	 */
+	private void insertPendingRecords() {
+		final Iterator<DataRecord> pending = pendingRecords.values()
+				.iterator();
+		while (pending.hasNext()) {
+			final DataRecord record = pending.next();
+			final int row = sortedRow(record);
+			if (cursor == null || row < records.size()) {
+				pending.remove();
+				insertRecord(row, record);
+			}
+		}
+	}
+
+	/**
+	 * Returns the name criteria of the search that produced the records.
+	 * 
+	 * @return name criteria, or null if not used
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the location criteria of the search that produced the records.
+	 * 
+	 * @return location criteria, or null if not used
+	 */
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * Returns the keys the records are sorted by.
+	 * 
+	 * @return sort keys, most significant first; empty if the records are
+	 *         sorted by number
+	 */
+	public SortKey[] getSortKeys() {
+		return sortKeys.clone();
+	}
+
+	/**
+	 * Returns the index of the data record with the specified record number.
+	 * 
+	 * @param recNo
+	 *            record number
+	 * @return index of the data record, or -1 if the model does not contain it
+	 */
+	public int indexOf(long recNo) {
+		final Integer row = rows.get(recNo);
+		return row == null ? -1 : row;
+	}
+
+	/**
+	 * Appends the specified data record to the records and the index of their
+	 * rows, without notifying the listeners.
+	 * 
+	 * @param record
+	 *            data record to be appended
+	 */
+	private void append(DataRecord record) {
+		rows.put(record.getRecNo(), records.size());
+		records.add(record);
+	}
+
+	/**
+	 * Adds the specified data record to the model. If the records are sorted,
+	 * it is inserted at its position in the order of the sort keys; otherwise
+	 * it is appended.
+	 * <p>
+	 * If the position of the record lies behind the loaded records and further
+	 * records are still to be loaded from the cursor, the record is held back
+	 * until the page covering its position has been loaded, as records sorted
+	 * before it may follow. This applies to all records added to an unsorted
+	 * model, as their position is unknown until the cursor delivers them.
+	 * <p>
+	 * Listeners of this model instance are notified of the inserted row.
+	 * 
+	 * @param record
+	 *            data record to be added
+	 */
+	public void addRecord(DataRecord record) {
+		pendingRecords.remove(record.getRecNo());
+		// without sort keys, the row is always behind the loaded records
+		final int row = sortedRow(record);
+		if (row == records.size() && cursor != null) {
+			pendingRecords.put(record.getRecNo(), record);
+		} else {
+			insertRecord(row, record);
+		}
+	}
+
+	/**
+	 * Inserts the specified data record into the model at the specified row.
+	 * <p>
+	 * Listeners of this model instance are notified of the inserted row.
+	 * 
+	 * @param row
+	 *            row of the inserted record
+	 * @param record
+	 *            data record to be inserted
+	 */
+	private void insertRecord(int row, DataRecord record) {
+		records.add(row, record);
+
+		// The following records move down by one row
+		for (int i = row; i < records.size(); i++) {
+			rows.put(records.get(i).getRecNo(), i);
+		}
+
+		fireTableChanged(new TableModelEvent(this, row, row,
+				TableModelEvent.ALL_COLUMNS, TableModelEvent.INSERT));
+	}
+
+	/**
+	 * Removes the data record with the specified record number from the model,
+	 * or discards it if it is held back.
+	 * <p>
+	 * Listeners of this model instance are notified of the deleted row.
+	 * 
+	 * @param recNo
+	 *            record number
+	 */
+	public void removeRecord(long recNo) {
+		pendingRecords.remove(recNo);
+		final int row = indexOf(recNo);
+		if (row == -1) {
+			return;
+		}
+		records.remove(row);
+		rows.remove(recNo);
+
+		// The following records move up by one row
+		for (int i = row; i < records.size(); i++) {
+			rows.put(records.get(i).getRecNo(), i);
+		}
+
+		fireTableChanged(new TableModelEvent(this, row, row,
+				TableModelEvent.ALL_COLUMNS, TableModelEvent.DELETE));
+	}
+
+	/**
+	 * Compares two records by the sort keys of this model.
+	 * 
+	 * @param record1
+	 *            first record
+	 * @param record2
+	 *            second record
+	 * @return a negative number, zero or a positive number if the first record
+	 *         is sorted before, with or after the second record
+	 */
+	private int compare(DataRecord record1, DataRecord record2) {
+		for (final SortKey sortKey : sortKeys) {
+			final int result = sortKey.compare(record1.getData(), record2
+					.getData());
+			if (result != 0) {
+				return result;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Checks whether the record at the specified row is in the order of the
+	 * sort keys with respect to its neighbours.
+	 * 
+	 * @param row
+	 *            row of the record
+	 * @return true if the record is in order, or if the model is not sorted
+	 */
+	private boolean isSorted(int row) {
+		final DataRecord record = records.get(row);
+		if (row > 0 && compare(records.get(row - 1), record) > 0) {
+			return false;
+		}
+		return row == records.size() - 1
+				|| compare(record, records.get(row + 1)) <= 0;
+	}
+
+	/**
+	 * Determines the row at which a record is to be inserted into the sorted
+	 * records, i.e. after all records sorted before or with it, like the server
+	 * keeps records with equal values in their order. If the records are not
+	 * sorted, this is the row behind the loaded records.
+	 * 
+	 * @param record
+	 *            record to be inserted, not contained in the model
+	 * @return row of the record
+	 */
+	private int sortedRow(DataRecord record) {
+		int low = 0;
+		int high = records.size();
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (compare(records.get(middle), record) <= 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Notifies all listeners of this model about the specified event.
+	 * 
+	 * @param event
+	 *            event describing the change
+	 */
+	private void fireTableChanged(TableModelEvent event) {
+		for (TableModelListener listener : listeners) {
+			listener.tableChanged(event);
+		}
 	}
 
 	/**
@@ -65,19 +559,20 @@ public final class ClientModel implements TableModel {
 	 */
 	public DataRecord getDataRecord(int index) {
 		DataRecord record = null;
-		if (records != null && records.size() > index) {
+		if (records.size() > index) {
 			record = records.get(index);
 		}
 		return record;
 	}
 
 	/**
-	 * Returns the list of data record wrapped in the model.
+	 * Returns the list of data record wrapped in the model. The list cannot be
+	 * modified, as the model keeps an index of the rows of the records.
 	 * 
-	 * @return list of data records
+	 * @return unmodifiable list of data records
 	 */
 	public List<DataRecord> getRecords() {
-		return records;
+		return Collections.unmodifiableList(records);
 	}
 
 	/**
@@ -85,31 +580,37 @@ public final class ClientModel implements TableModel {
 	 * <p>
 	 * If the collection contains a data record with the same record number as
 	 * that of the specified data record, the values of the specified data
-	 * record are transferred into the collection.
-	 * 
-	 * Listeners of this model instance are notified of the update.
+	 * record are transferred into the collection. If the records are sorted and
+	 * the record is no longer in order, it is moved to its new position, or
+	 * held back if that lies behind the loaded records (see
+	 * {@link #addRecord(DataRecord)}).
+	 * <p>
+	 * Listeners of this model instance are notified of the updated row.
 	 * 
 	 * @param updateRecord
 	 *            Data record instance
 	 */
 	public void updateRecord(DataRecord updateRecord) {
-		final long recNo = updateRecord.getRecNo();
-		if (records != null) {
-			for (DataRecord record : records) {
-				if (record.getRecNo() == recNo) {
-					record.setName(updateRecord.getName());
-					record.setLocation(updateRecord.getLocation());
-					record.setSpecialties(updateRecord.getSpecialties());
-					record.setRate(updateRecord.getRate());
-					record.setSize(updateRecord.getSize());
-					record.setOwner(updateRecord.getOwner());
-				}
-			}
+		final int row = indexOf(updateRecord.getRecNo());
+		if (row == -1) {
+			return;
 		}
 
-		// notify listeners
-		for (TableModelListener listener : listeners) {
-			listener.tableChanged(new TableModelEvent(this));
+		final DataRecord record = records.get(row);
+		record.setName(updateRecord.getName());
+		record.setLocation(updateRecord.getLocation());
+		record.setSpecialties(updateRecord.getSpecialties());
+		record.setRate(updateRecord.getRate());
+		record.setSize(updateRecord.getSize());
+		record.setOwner(updateRecord.getOwner());
+
+		// notify listeners about the changed row
+		fireTableChanged(new TableModelEvent(this, row));
+
+		if (!isSorted(row)) {
+			// the sort fields have changed
+			removeRecord(record.getRecNo());
+			addRecord(record);
 		}
 	}
 
@@ -150,6 +651,13 @@ public final class ClientModel implements TableModel {
 	@Override
 	public String getColumnName(int columnIndex) {
 		if (columnIndex < COLUMN_NAMES.length) {
+			// Mark the columns the records are sorted by
+			for (final SortKey sortKey : sortKeys) {
+				if (sortKey.getField() == columnIndex) {
+					return COLUMN_NAMES[columnIndex]
+							+ (sortKey.isDescending() ? " \u25BC" : " \u25B2");
+				}
+			}
 			return COLUMN_NAMES[columnIndex];
 		}
 		return null;
@@ -159,16 +667,15 @@ public final class ClientModel implements TableModel {
 	 * Returns the number of rows in the model. A JTable uses this method to
 	 * determine how many rows it should display. This method should be quick,
 	 * as it is called frequently during rendering.
+	 * <p>
+	 * If the model loads its records from a cursor, only the loaded records
+	 * are counted.
 	 * 
 	 * @return the number of rows in the model
 	 */
 	@Override
 	public int getRowCount() {
-		int rowCount = 0;
-		if (records != null) {
-			rowCount = records.size();
-		}
-		return rowCount;
+		return records.size();
 	}
 
 	/**
@@ -183,7 +690,7 @@ public final class ClientModel implements TableModel {
 	@Override
 	public Object getValueAt(int rowIndex, int columnIndex) {
 		Object value = null;
-		if (records != null && records.size() > rowIndex) {
+		if (records.size() > rowIndex) {
 			DataRecord record = records.get(rowIndex);
 			switch (columnIndex) {
 			case DataRecord.INDEX_NAME:
@@ -207,6 +714,13 @@ public final class ClientModel implements TableModel {
 			// no default
 			}
 		}
+
+		// The table displays rows near the end of the loaded records, so
+		// fetch the next page, unless the last page failed just now.
+		if (rowIndex >= getRowCount() - PREFETCH_DISTANCE
+				&& System.currentTimeMillis() >= retryTime) {
+			loadNextPage();
+		}
 		return value;
 	}
 
@@ -263,4 +777,93 @@ public final class ClientModel implements TableModel {
 	public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
 		// not used
 	}
+
+	/**
+	 * Worker fetching the next page from the cursor in the background.
+	 * <p>
+	 * The cursor is only accessed while holding its lock, so that it is not
+	 * closed while a page is fetched. Pages arriving after the model was
+	 * closed are discarded.
+	 */
+	private final class PageLoader extends
+			SwingWorker<Boolean, List<DataRecord>> {
+
+		/**
+		 * Cursor the page is fetched from
+		 */
+		private final RecordCursor pageCursor;
+
+		/**
+		 * Creates a new worker.
+		 * 
+		 * @param pageCursor
+		 *            cursor the page is fetched from
+		 */
+		PageLoader(RecordCursor pageCursor) {
+			this.pageCursor = pageCursor;
+		}
+
+		/**
+		 * Fetches pages until records are found or the cursor is exhausted;
+		 * pages may be empty after filtering.
+		 * 
+		 * @return true if more records may follow
+		 */
+		@Override
+		protected Boolean doInBackground() {
+			synchronized (pageCursor) {
+				while (!isCancelled() && pageCursor.hasMore()) {
+					final List<DataRecord> page = pageCursor
+							.nextPage(PAGE_SIZE);
+					if (!page.isEmpty()) {
+						publish(page);
+						break;
+					}
+				}
+				return pageCursor.hasMore();
+			}
+		}
+
+		@Override
+		protected void process(List<List<DataRecord>> pages) {
+			if (loader != this) {
+				// The model was closed
+				return;
+			}
+			for (final List<DataRecord> page : pages) {
+				appendRecords(page);
+			}
+		}
+
+		@Override
+		protected void done() {
+			if (loader != this) {
+				// The model was closed
+				return;
+			}
+
+			loader = null;
+			try {
+				if (!get()) {
+					close();
+					insertPendingRecords();
+				}
+			} catch (final ExecutionException e) {
+				// Keep the cursor, so that the page can be loaded again. The
+				// listener may show a dialog, during which the table is
+				// repainted, so the delay starts after it has returned.
+				retryTime = Long.MAX_VALUE;
+				if (pageLoadListener != null) {
+					pageLoadListener.pageLoadFailed(ClientModel.this, e
+							.getCause());
+				} else {
+					System.err.println("Cannot load records: "
+							+ e.getCause().getMessage());
+				}
+				retryTime = System.currentTimeMillis() + RETRY_DELAY;
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
 }
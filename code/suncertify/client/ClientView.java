@@ -11,6 +11,8 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -21,10 +23,13 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableModel;
 
@@ -32,6 +37,8 @@ import suncertify.db.RecordAlreadyBookedException;
 import suncertify.db.RecordNotFoundException;
 import suncertify.db.TechnicalErrorException;
 import suncertify.db.domain.DataRecord;
+import suncertify.db.event.RecordChangeEvent;
+import suncertify.db.event.RecordChangeListener;
 
 /**
  * View of the client.
@@ -39,6 +46,15 @@ import suncertify.db.domain.DataRecord;
  * Provides a graphical interface that allow users to perform the use cases of
  * the client: showing all records, searching for records and booking a record.
  * The result of each operation is displayed in a {@code JTable} instance.
+ * <p>
+ * Searches and bookings call the server, so they are executed by
+ * {@code SwingWorker} instances and the view stays responsive meanwhile; a
+ * progress bar indicates that they are running. Starting a search supersedes
+ * a search that is still running, whose result is then discarded. The records
+ * found are inserted into the table page by page as they arrive.
+ * <p>
+ * Changes of data records made by other clients are applied to the displayed
+ * result as they are reported, so the result does not become outdated.
  * 
  * @author Rasmus Kuschel
  */
@@ -94,11 +110,31 @@ public final class ClientView extends JFrame implements ActionListener {
 	 */
 	private static final String TOOLTIP_TABLE = "This table displays the result of the last search operation. Doubleclick on an entry to book it.";
 
+	/**
+	 * Tooltip text of the header of the result table.
+	 */
+	private static final String TOOLTIP_TABLE_HEADER = "Click to sort by this column, shift-click to add it to the sort order.";
+
 	/**
 	 * Message used to ask to confirmation about booking a record
 	 */
 	private static final String BOOK_CONFIRMATION = "Do you want to book the selected record?";
 
+	/**
+	 * Text of the progress bar while a search is running
+	 */
+	private static final String PROGRESS_SEARCH = "Searching...";
+
+	/**
+	 * Text of the progress bar while a booking is running
+	 */
+	private static final String PROGRESS_BOOKING = "Booking...";
+
+	/**
+	 * Text of the progress bar while no task is running
+	 */
+	private static final String PROGRESS_IDLE = " ";
+
 	/**
 	 * Title of the frame.
 	 */
@@ -129,6 +165,21 @@ public final class ClientView extends JFrame implements ActionListener {
 	 */
 	private final JTable resultTable;
 
+	/**
+	 * Progress bar indicating running searches and bookings
+	 */
+	private final JProgressBar progressBar;
+
+	/**
+	 * Number of running searches and bookings
+	 */
+	private int runningTasks;
+
+	/**
+	 * Search that is running, or null if no search is running
+	 */
+	private SearchWorker searchWorker;
+
 	/**
 	 * Controller for this view.
 	 */
@@ -197,7 +248,30 @@ public final class ClientView extends JFrame implements ActionListener {
 
 		panel.setFocusTraversalPolicy(createPanelFocusTraversalPolicy());
 		panel.setFocusTraversalPolicyProvider(true);
-		add(panel, BorderLayout.SOUTH);
+
+		progressBar = new JProgressBar();
+		progressBar.setStringPainted(true);
+		progressBar.setString(PROGRESS_IDLE);
+
+		JPanel southPanel = new JPanel(new BorderLayout());
+		southPanel.add(panel, BorderLayout.CENTER);
+		southPanel.add(progressBar, BorderLayout.SOUTH);
+		add(southPanel, BorderLayout.SOUTH);
+
+		// Keep the displayed result up to date. Change notifications arrive on
+		// other threads and are applied to the model on the event dispatch
+		// thread.
+		controller.subscribeRecordChanges(new RecordChangeListener() {
+			@Override
+			public void recordChanged(final RecordChangeEvent event) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						applyChange(event);
+					}
+				});
+			}
+		});
 
 		JMenuBar menubar = createMenuBar();
 		setJMenuBar(menubar);
@@ -235,6 +309,20 @@ public final class ClientView extends JFrame implements ActionListener {
 			}
 		});
 
+		// Clicking a column header sorts the result by the column, holding
+		// down shift adds the column to the current sort order.
+		table.getTableHeader().addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				final int column = table.convertColumnIndexToModel(table
+						.columnAtPoint(e.getPoint()));
+				if (column != -1) {
+					sort(column, e.isShiftDown());
+				}
+			}
+		});
+		table.getTableHeader().setToolTipText(TOOLTIP_TABLE_HEADER);
+
 		table.setCellSelectionEnabled(false);
 		table.setColumnSelectionAllowed(false);
 		table.setRowSelectionAllowed(true);
@@ -374,17 +462,15 @@ public final class ClientView extends JFrame implements ActionListener {
 			location = null;
 		}
 
-		try {
-			// Call to the controller business method
-			final ClientModel model = controller.searchRecords(name, location);
-
-			// Update the model and force a repaint of the component
-			resultTable.setModel(model);
-			invalidate();
-		} catch (final TechnicalErrorException e) {
-			// If a technical error occurs, display the error in a dialog
-			showError(e.getMessage());
-		}
+		// Call to the controller business method in the background
+		final String searchName = name;
+		final String searchLocation = location;
+		startSearch(new SearchWorker() {
+			@Override
+			protected ClientModel search() {
+				return controller.searchRecords(searchName, searchLocation);
+			}
+		});
 	}
 
 	/**
@@ -396,17 +482,57 @@ public final class ClientView extends JFrame implements ActionListener {
 		nameTextField.setText("");
 		locationTextField.setText("");
 
-		try {
-			// Call to the business method
-			final ClientModel model = controller.retrieveAllRecords();
+		// Call to the business method in the background
+		startSearch(new SearchWorker() {
+			@Override
+			protected ClientModel search() {
+				return controller.retrieveAllRecords();
+			}
+		});
+	}
 
-			// Update the model and force a repaint of the component
-			resultTable.setModel(model);
-			invalidate();
-		} catch (final TechnicalErrorException e) {
-			// If a technical error occurs, display the error in a dialog
-			showError(e.getMessage());
+	/**
+	 * Command handler method for sorting the displayed result by a column.
+	 * 
+	 * @param column
+	 *            index of the column in the model
+	 * @param addKey
+	 *            true to add the column to the current sort order, false to
+	 *            sort by this column only
+	 */
+	private void sort(final int column, final boolean addKey) {
+
+		final TableModel model = resultTable.getModel();
+		if (!(model instanceof ClientModel)) {
+			// Nothing has been searched yet
+			return;
+		}
+
+		// Repeat the search in the background, sorted by the server
+		final ClientModel currentModel = (ClientModel) model;
+		startSearch(new SearchWorker() {
+			@Override
+			protected ClientModel search() {
+				return controller.sortRecords(currentModel, column, addKey);
+			}
+		});
+	}
+
+	/**
+	 * Starts the specified search. A search that is still running is
+	 * superseded: its result will be discarded.
+	 * 
+	 * @param worker
+	 *            worker executing the search
+	 */
+	private void startSearch(final SearchWorker worker) {
+		if (searchWorker != null) {
+			searchWorker.supersede();
+			stopProgress();
 		}
+		searchWorker = worker;
+		startProgress(PROGRESS_SEARCH);
+		worker.execute();
 	}
 
 	/**
@@ -433,28 +559,140 @@ public final class ClientView extends JFrame implements ActionListener {
 				return;
 			}
 
-			try {
-				// Call to the business method
-				ClientModel updatedModel = controller.bookRecord(record,
-						clientModel);
-				resultTable.setModel(updatedModel);
-
-				// If no error occured, the record was booked
-				showMessage("The record was successfully booked");
-			} catch (final RecordAlreadyBookedException e) {
+			// Call to the business method in the background. It updates a
+			// copy of the record, which is transferred into the displayed
+			// model when the call has finished.
+			final DataRecord bookedRecord = new DataRecord(record.getRecNo(),
+					record.getData());
+			startProgress(PROGRESS_BOOKING);
+			new SwingWorker<Void, Void>() {
+				@Override
+				protected Void doInBackground()
+						throws RecordAlreadyBookedException,
+						RecordNotFoundException {
+					controller.bookRecord(bookedRecord);
+					return null;
+				}
+
+				@Override
+				protected void done() {
+					stopProgress();
+					finishBooking(this, bookedRecord);
+				}
+			}.execute();
+		}
+	}
+
+	/**
+	 * Processes the result of a booking, after the business method has
+	 * finished.
+	 * 
+	 * @param booking
+	 *            worker that executed the business method
+	 * @param bookedRecord
+	 *            record updated by the business method
+	 */
+	private void finishBooking(final Future<Void> booking,
+			final DataRecord bookedRecord) {
+
+		// Update the displayed record, whether booking has succeeded or failed
+		final TableModel model = resultTable.getModel();
+		if (model instanceof ClientModel) {
+			((ClientModel) model).updateRecord(bookedRecord);
+		}
+
+		try {
+			booking.get();
+
+			// If no error occured, the record was booked
+			showMessage("The record was successfully booked");
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RecordAlreadyBookedException) {
 				// May occur, if another client has already booked the record
 				showError("This record is already booked.");
-			} catch (final RecordNotFoundException e) {
+			} else if (cause instanceof RecordNotFoundException) {
 				// May occur, if another client has deleted the record
 				showError("The record cannot be found. It may have been deleted by another client.");
-			} catch (final TechnicalErrorException e) {
+			} else if (cause instanceof TechnicalErrorException) {
 				// Some general technical error occured, e.g. networking or file
 				// problems.
-				showError(e.getMessage());
-			} finally {
-				// force a repaint of the component
-				invalidate();
+				showError(cause.getMessage());
+			} else {
+				throw new IllegalStateException("Booking failed", cause);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// force a repaint of the component
+			invalidate();
+		}
+	}
+
+	/**
+	 * Shows that a task has started in the progress bar.
+	 * 
+	 * @param text
+	 *            description of the task
+	 */
+	private void startProgress(final String text) {
+		runningTasks++;
+		progressBar.setIndeterminate(true);
+		progressBar.setString(text);
+	}
+
+	/**
+	 * Shows that a task has finished in the progress bar.
+	 */
+	private void stopProgress() {
+		runningTasks--;
+		if (runningTasks == 0) {
+			progressBar.setIndeterminate(false);
+			progressBar.setString(PROGRESS_IDLE);
+		}
+	}
+
+	/**
+	 * Sets the model of the result table. The cursor of the previous model is
+	 * closed, unless the model is kept. Pages of the model that cannot be
+	 * loaded are reported in a dialog.
+	 * 
+	 * @param model
+	 *            new model of the result table
+	 */
+	private void setResultModel(ClientModel model) {
+		final TableModel previousModel = resultTable.getModel();
+		if (previousModel instanceof ClientModel && previousModel != model) {
+			((ClientModel) previousModel).close();
+		}
+		model.setPageLoadListener(new PageLoadListener() {
+			@Override
+			public void pageLoadFailed(ClientModel failedModel,
+					Throwable cause) {
+				if (cause instanceof TechnicalErrorException) {
+					// e.g. the server is busy; the records loaded so far
+					// remain displayed and the page is loaded again later
+					showError("Cannot load further records: "
+							+ cause.getMessage());
+				} else {
+					throw new IllegalStateException("Loading records failed",
+							cause);
+				}
 			}
+		});
+		resultTable.setModel(model);
+	}
+
+	/**
+	 * Applies a reported change of a data record to the displayed result.
+	 * 
+	 * @param event
+	 *            event describing the change
+	 */
+	private void applyChange(RecordChangeEvent event) {
+		final TableModel model = resultTable.getModel();
+		if (model instanceof ClientModel) {
+			controller.applyChange((ClientModel) model, event);
 		}
 	}
 
@@ -500,4 +738,79 @@ public final class ClientView extends JFrame implements ActionListener {
 		JOptionPane.showConfirmDialog(this, message, "Message",
 				JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE);
 	}
+
+	/**
+	 * Worker executing a search in the background and displaying its result.
+	 * <p>
+	 * A search is superseded when another search is started before it has
+	 * finished. Its result is then discarded and its cursor closed; if it has
+	 * not started yet, it is skipped.
+	 */
+	private abstract class SearchWorker extends SwingWorker<ClientModel, Void> {
+
+		/**
+		 * Flag signifying whether another search has been started since
+		 */
+		private volatile boolean superseded;
+
+		/**
+		 * Executes the search by calling the controller.
+		 * 
+		 * @return model of the search result
+		 */
+		protected abstract ClientModel search();
+
+		/**
+		 * Marks this search as superseded by another one.
+		 */
+		void supersede() {
+			superseded = true;
+		}
+
+		@Override
+		protected ClientModel doInBackground() {
+			if (superseded) {
+				return null;
+			}
+			return search();
+		}
+
+		@Override
+		protected void done() {
+			try {
+				final ClientModel model = get();
+				if (superseded) {
+					if (model != null) {
+						model.close();
+					}
+					return;
+				}
+
+				// Update the model, start loading the records and force a
+				// repaint of the component
+				setResultModel(model);
+				model.loadNextPage();
+				invalidate();
+			} catch (final ExecutionException e) {
+				if (superseded) {
+					return;
+				}
+				final Throwable cause = e.getCause();
+				if (cause instanceof TechnicalErrorException) {
+					// If a technical error occurs, display the error in a
+					// dialog
+					showError(cause.getMessage());
+				} else {
+					throw new IllegalStateException("Search failed", cause);
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				if (!superseded) {
+					searchWorker = null;
+					stopProgress();
+				}
+			}
+		}
+	}
 }
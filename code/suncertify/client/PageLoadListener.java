@@ -0,0 +1,24 @@
+package suncertify.client;
+
+/**
+ * Listener notified if a {@code ClientModel} cannot load a page of records
+ * from its cursor, e.g. because the server is busy or cannot be reached.
+ * <p>
+ * The model keeps the records loaded so far and its cursor, so that loading
+ * can be retried.
+ * 
+ * @author Rasmus Kuschel
+ * @see ClientModel#setPageLoadListener(PageLoadListener)
+ */
+public interface PageLoadListener {
+
+	/**
+	 * Invoked on the event dispatch thread after fetching a page has failed.
+	 * 
+	 * @param model
+	 *            model whose page could not be loaded
+	 * @param cause
+	 *            exception thrown while fetching the page
+	 */
+	public void pageLoadFailed(ClientModel model, Throwable cause);
+}
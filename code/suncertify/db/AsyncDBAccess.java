@@ -0,0 +1,108 @@
+package suncertify.db;
+
+import java.util.concurrent.Future;
+
+/**
+ * Asynchronous counterpart of the {@code DBAccess} interface.
+ * <p>
+ * Each method corresponds to a method from the {@code DBAccess} interface with
+ * the same parameters. Instead of waiting for the operation to complete, it
+ * returns immediately with a {@code Future} of the result. This allows callers
+ * to issue many operations before waiting for the first result, e.g. to read a
+ * large number of records without paying the latency of a network round trip
+ * for each of them.
+ * <p>
+ * Exceptions that the corresponding DBAccess method would throw, are thrown by
+ * the {@code get} method of the returned future, wrapped in an
+ * {@code ExecutionException}. If an operation cannot be issued at all, e.g.
+ * because the connection to the server is lost, a
+ * {@code TechnicalErrorException} may be thrown immediately.
+ * <p>
+ * As operations may be executed concurrently, callers that depend on the
+ * order of operations (e.g. lock, update, unlock) must wait for the result of
+ * one operation before issuing the next.
+ * 
+ * @author Rasmus Kuschel
+ */
+public interface AsyncDBAccess {
+
+	/**
+	 * Reads a record asynchronously.
+	 * 
+	 * @param recNo
+	 *            number of the record to be read
+	 * @return future of the field values of the record
+	 * @see DBAccess#readRecord(long)
+	 */
+	public Future<String[]> readRecordAsync(long recNo);
+
+	/**
+	 * Modifies the fields of a record asynchronously.
+	 * 
+	 * @param recNo
+	 *            number of the record to be updated
+	 * @param data
+	 *            data to be updated
+	 * @param lockCookie
+	 *            lock cookie value
+	 * @return future signalling the completion of the operation
+	 * @see DBAccess#updateRecord(long, String[], long)
+	 */
+	public Future<Void> updateRecordAsync(long recNo, String[] data,
+			long lockCookie);
+
+	/**
+	 * Deletes a record asynchronously.
+	 * 
+	 * @param recNo
+	 *            number of the record to be deleted
+	 * @param lockCookie
+	 *            lock cookie value
+	 * @return future signalling the completion of the operation
+	 * @see DBAccess#deleteRecord(long, long)
+	 */
+	public Future<Void> deleteRecordAsync(long recNo, long lockCookie);
+
+	/**
+	 * Searches for records matching the specified criteria asynchronously.
+	 * 
+	 * @param criteria
+	 *            criteria for the search
+	 * @return future of the numbers of the matching records
+	 * @see DBAccess#findByCriteria(String[])
+	 */
+	public Future<long[]> findByCriteriaAsync(String[] criteria);
+
+	/**
+	 * Creates a new record asynchronously.
+	 * 
+	 * @param data
+	 *            data of the record
+	 * @return future of the number of the new record
+	 * @see DBAccess#createRecord(String[])
+	 */
+	public Future<Long> createRecordAsync(String[] data);
+
+	/**
+	 * Locks a record asynchronously. The returned future completes when the
+	 * lock has been acquired.
+	 * 
+	 * @param recNo
+	 *            number of the record
+	 * @return future of the lock cookie value
+	 * @see DBAccess#lockRecord(long)
+	 */
+	public Future<Long> lockRecordAsync(long recNo);
+
+	/**
+	 * Releases the lock on a record asynchronously.
+	 * 
+	 * @param recNo
+	 *            number of the record
+	 * @param cookie
+	 *            lock cookie value
+	 * @return future signalling the completion of the operation
+	 * @see DBAccess#unlock(long, long)
+	 */
+	public Future<Void> unlockAsync(long recNo, long cookie);
+}
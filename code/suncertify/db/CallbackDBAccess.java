@@ -0,0 +1,30 @@
+package suncertify.db;
+
+/**
+ * Extension of the {@code DBAccess} interface for locking records without
+ * blocking the calling thread.
+ * <p>
+ * {@link DBAccess#lockRecord(long)} blocks the calling thread until the lock
+ * is available, so that each waiting client occupies a thread. A server that
+ * executes requests on a small number of threads uses this interface instead:
+ * the lock request is queued and the callback is notified when the lock has
+ * been acquired. A waiting client then costs a queue entry instead of a
+ * thread.
+ * 
+ * @author Rasmus Kuschel
+ */
+public interface CallbackDBAccess {
+
+	/**
+	 * Requests the lock of a record. Returns immediately; the callback is
+	 * notified when the lock has been acquired or cannot be acquired. If the
+	 * lock is available, the callback is notified before this method returns.
+	 * 
+	 * @param recNo
+	 *            number of the record
+	 * @param callback
+	 *            callback to be notified
+	 * @see DBAccess#lockRecord(long)
+	 */
+	public void lockRecord(long recNo, LockCallback callback);
+}
@@ -0,0 +1,258 @@
+package suncertify.db;
+
+import java.io.IOException;
+
+import suncertify.db.domain.DataRecord;
+import suncertify.db.domain.DataRecordState;
+import suncertify.db.event.ChangeNotifier;
+import suncertify.db.event.RecordChangeType;
+import suncertify.db.index.FileIndex;
+import suncertify.db.index.RecordRemapping;
+import suncertify.db.lock.LockManager;
+
+/**
+ * Compacts the data file while it is in use, by moving records from the end of
+ * the file into the slots of deleted records and truncating the file.
+ * <p>
+ * Deleted records are only reused one at a time by {@code createRecord}. After
+ * many deletions, the data file mostly consists of deleted slots, which every
+ * search still has to read. The compactor runs in a background thread and
+ * compacts the file whenever the fraction of deleted slots exceeds a
+ * threshold.
+ * <p>
+ * Each record is moved while holding the monitor of the Data class, so moves
+ * are atomic for all clients. Locked records are not moved, as their locks
+ * are bound to their numbers. The old number of a moved record is added to the
+ * {@code RecordRemapping}, so that clients can keep using it, and listeners
+ * are notified that the record was deleted from its old slot and created in
+ * its new slot.
+ * <p>
+ * To limit the delay of requests of clients, only a few records are moved at
+ * a time, with a pause in between.
+ * <p>
+ * The compactor requires the {@code FileIndex} of the data file to find
+ * deleted slots; while it is rebuilt, the file is not compacted.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class Compactor {
+
+	/**
+	 * Default fraction of deleted slots above which the file is compacted
+	 */
+	public static final double DEFAULT_THRESHOLD = 0.25;
+
+	/**
+	 * Default pause between two steps in milliseconds
+	 */
+	public static final long DEFAULT_PAUSE = 10;
+
+	/**
+	 * Interval in milliseconds in which the fraction of deleted slots is
+	 * checked
+	 */
+	private static final long CHECK_INTERVAL = 30000;
+
+	/**
+	 * Maximum number of records moved in one step, i.e. while holding the
+	 * monitor of the Data class
+	 */
+	private static final int MOVES_PER_STEP = 16;
+
+	/**
+	 * Fraction of deleted slots above which the file is compacted
+	 */
+	private final double threshold;
+
+	/**
+	 * Pause between two steps in milliseconds
+	 */
+	private final long pause;
+
+	/**
+	 * Component used for low-level file access
+	 */
+	private final FileAccess fileAccess = new FileAccess();
+
+	/**
+	 * Component used to notify listeners about moved records
+	 */
+	private final ChangeNotifier changeNotifier = new ChangeNotifier();
+
+	/**
+	 * Background thread, or null if not started
+	 */
+	private Thread thread;
+
+	/**
+	 * Creates a new compactor for the active data file.
+	 * 
+	 * @param threshold
+	 *            fraction of deleted slots above which the file is compacted
+	 * @param pause
+	 *            pause between two steps in milliseconds
+	 */
+	public Compactor(double threshold, long pause) {
+		this.threshold = threshold;
+		this.pause = pause;
+	}
+
+	/**
+	 * Starts compacting the file in the background whenever the fraction of
+	 * deleted slots exceeds the threshold.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		thread = new Thread("compactor") {
+			@Override
+			public void run() {
+				try {
+					while (!isInterrupted()) {
+						Thread.sleep(CHECK_INTERVAL);
+						try {
+							if (isCompactionNeeded()) {
+								compact();
+							}
+						} catch (final IOException e) {
+							// retried at the next check
+							System.err.println("Compaction failed: "
+									+ e.getMessage());
+						}
+					}
+				} catch (final InterruptedException e) {
+					// stopped
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops compacting the file in the background.
+	 */
+	public synchronized void stop() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	/**
+	 * Checks whether the fraction of deleted slots exceeds the threshold.
+	 * 
+	 * @return true if the file should be compacted
+	 */
+	public boolean isCompactionNeeded() {
+		final FileIndex index = FileAccess.getIndex();
+		if (index == null || index.getRecordCount() == 0) {
+			return false;
+		}
+		return index.getDeletedCount() > threshold * index.getRecordCount();
+	}
+
+	/**
+	 * Compacts the file: moves records into deleted slots until no more
+	 * records can be moved, then truncates the file behind the last record.
+	 * 
+	 * @return number of moved records
+	 * @throws IOException
+	 *             if the data file cannot be accessed
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while pausing
+	 */
+	public int compact() throws IOException, InterruptedException {
+		int moved = 0;
+		while (true) {
+			final int movedInStep = moveStep();
+			moved += movedInStep;
+			if (movedInStep < MOVES_PER_STEP) {
+				break;
+			}
+			Thread.sleep(pause);
+		}
+		truncate();
+		return moved;
+	}
+
+	/**
+	 * Moves up to {@code MOVES_PER_STEP} records from the end of the file into
+	 * the first deleted slots.
+	 * 
+	 * @return number of moved records
+	 * @throws IOException
+	 *             if the data file cannot be accessed
+	 */
+	private int moveStep() throws IOException {
+		synchronized (Data.class) {
+			final FileIndex index = FileAccess.getIndex();
+			if (index == null) {
+				return 0;
+			}
+
+			int moved = 0;
+			long candidate = index.getLastLiveSlot();
+			while (moved < MOVES_PER_STEP) {
+				final long hole = index.getFirstFreeSlot();
+				// skip deleted and locked records at the end
+				while (candidate > hole
+						&& (index.isDeleted(candidate) || LockManager
+								.isLocked(candidate))) {
+					candidate--;
+				}
+				if (hole < 0 || candidate <= hole) {
+					break;
+				}
+				move(candidate, hole);
+				moved++;
+				candidate--;
+			}
+			return moved;
+		}
+	}
+
+	/**
+	 * Moves a record to a deleted slot. Must be called while holding the
+	 * monitor of the Data class.
+	 * 
+	 * @param from
+	 *            number of the record
+	 * @param to
+	 *            number of the deleted slot
+	 * @throws IOException
+	 *             if the data file cannot be accessed
+	 */
+	private void move(long from, long to) throws IOException {
+		final DataRecord record = fileAccess.readRecord(from);
+		final String[] data = record.getData();
+
+		// Write the copy first, so that the record is never lost
+		fileAccess.writeRecord(to, new DataRecord(to, data));
+		record.setState(DataRecordState.DELETED);
+		fileAccess.writeRecord(from, record);
+		final long oldNumber = RecordRemapping.number(from);
+		fileAccess.recordMoved(from, to);
+
+		changeNotifier.fireRecordChanged(RecordChangeType.DELETED, oldNumber,
+				null);
+		changeNotifier.fireRecordChanged(RecordChangeType.CREATED,
+				RecordRemapping.number(to), data);
+	}
+
+	/**
+	 * Truncates the file behind the last record that is not deleted.
+	 * 
+	 * @throws IOException
+	 *             if the data file cannot be accessed
+	 */
+	private void truncate() throws IOException {
+		synchronized (Data.class) {
+			final FileIndex index = FileAccess.getIndex();
+			if (index != null) {
+				fileAccess.truncate((int) index.getLastLiveSlot() + 1);
+			}
+		}
+	}
+}
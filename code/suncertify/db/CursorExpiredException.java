@@ -0,0 +1,36 @@
+package suncertify.db;
+
+/**
+ * Exception thrown if a page is fetched from a cursor that is not open,
+ * because it has been closed, e.g. by the server after the client opened too
+ * many other cursors.
+ * <p>
+ * Clients may open a new cursor for the same search and continue with it.
+ * 
+ * @author Rasmus Kuschel
+ * @see PagedDBAccess#fetchPage(long, int)
+ */
+public class CursorExpiredException extends TechnicalErrorException {
+
+	/**
+	 * Serial version UID
+	 */
+	private static final long serialVersionUID = 4690616345703728108L;
+
+	/**
+	 * Creates a new exception instance.
+	 */
+	public CursorExpiredException() {
+		super();
+	}
+
+	/**
+	 * Creates a new exception instance with the specified description.
+	 * 
+	 * @param description
+	 *            description of the exception
+	 */
+	public CursorExpiredException(String description) {
+		super(description);
+	}
+}
@@ -2,20 +2,57 @@ package suncertify.db;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
+import suncertify.db.VersionStore.Snapshot;
 import suncertify.db.domain.DataRecord;
 import suncertify.db.domain.DataRecordState;
 import suncertify.db.domain.FileMetaData;
+import suncertify.db.event.ChangeNotifier;
+import suncertify.db.event.RecordChangeListener;
+import suncertify.db.event.RecordChangeSource;
+import suncertify.db.event.RecordChangeType;
+import suncertify.db.index.FieldIndex;
+import suncertify.db.index.FileIndex;
+import suncertify.db.index.NumericIndex;
+import suncertify.db.index.RecordRemapping;
+import suncertify.db.index.TokenIndex;
 import suncertify.db.lock.LockManager;
+import suncertify.db.metrics.Metrics;
+import suncertify.db.metrics.Operation;
 
 /**
  * Implementation of the DBAccess interface that operates directly on a data
  * file.
+ * <p>
+ * Listeners registered with any Data instance are notified about all changes
+ * of data records made through any Data instance.
+ * <p>
+ * Besides the blocking lockRecord method, records can be locked with a
+ * callback, so that a waiting client does not occupy a thread.
+ * <p>
+ * Searches may match the criteria exactly or ignoring case instead of by
+ * prefix. Such searches on the name or location are answered from an index.
+ * Queries restricting the size or rate to a range, or sorted by one of them,
+ * are answered from a sorted index of the numeric values, and queries for
+ * specialties from an inverted index of the specialties.
+ * <p>
+ * Searches read a snapshot of the data file and do not hold the lock of the
+ * writers while reading, so that they neither block nor are blocked by
+ * bookings. The result is consistent with the state of the file when the
+ * search started.
+ * <p>
+ * On a replica server, whose data file is written by a {@code LogReplica}
+ * only, the data file is read-only: all methods creating, modifying or
+ * locking records throw a {@code ReadOnlyReplicaException}.
  * 
  * @author Rasmus Kuschel
  */
-public final class Data implements DBAccess {
+public final class Data implements DBAccess, CallbackDBAccess,
+		MatchingDBAccess, QueryDBAccess, RecordChangeSource {
 
 	/**
 	 * Component used for low-level file access
@@ -27,6 +64,16 @@ public final class Data implements DBAccess {
 	 */
 	private LockManager lockManager;
 
+	/**
+	 * Component used to notify listeners about changes of records
+	 */
+	private ChangeNotifier changeNotifier;
+
+	/**
+	 * Flag signifying whether clients must not modify or lock records
+	 */
+	private static volatile boolean readOnly;
+
 	/**
 	 * Creates a new instance and initializes all components.
 	 * <p>
@@ -60,6 +107,7 @@ public final class Data implements DBAccess {
 		}
 
 		lockManager = new LockManager();
+		changeNotifier = new ChangeNotifier();
 	}
 
 	/**
@@ -81,21 +129,28 @@ public final class Data implements DBAccess {
 	@Override
 	public String[] readRecord(long recNo) throws RecordNotFoundException {
 
-		// Validation and access of the record must be handled atomically.
-		// Otherwise another client might change/delete the record, after it was
-		// successfully validated, resulting in a dirty read.
-		synchronized (Data.class) {
-			// check if record exists and is not deleted
-			validateRecord(recNo);
-			try {
-				final DataRecord record = fileAccess.readRecord(recNo);
-				final String[] result = record.getData();
+		final long start = System.nanoTime();
+		try {
+			// Validation and access of the record must be handled atomically.
+			// Otherwise another client might change/delete the record, after it
+			// was successfully validated, resulting in a dirty read.
+			synchronized (Data.class) {
+				// The record may have been moved by the compaction
+				final long slot = RecordRemapping.resolve(recNo);
+				// check if record exists and is not deleted
+				validateRecord(slot);
+				try {
+					final DataRecord record = fileAccess.readRecord(slot);
+					final String[] result = record.getData();
 
-				return result;
-			} catch (final IOException e) {
-				throw new TechnicalErrorException("Cannot read record: "
-						+ recNo, e);
+					return result;
+				} catch (final IOException e) {
+					throw new TechnicalErrorException("Cannot read record: "
+							+ slot, e);
+				}
 			}
+		} finally {
+			Metrics.record(Operation.READ, start);
 		}
 	}
 
@@ -106,22 +161,32 @@ public final class Data implements DBAccess {
 	public void updateRecord(long recNo, String[] data, long lockCookie)
 			throws RecordNotFoundException, SecurityException {
 
-		// Validation and record access must be handled atomically.
-		// Otherwise another client might change/delete the record, after it was
-		// successfully validated, resulting in a lost write.
-		synchronized (Data.class) {
-			// check if record exists and is not deleted
-			validateRecord(recNo);
-			// check lock cookie value
-			lockManager.validateCookie(recNo, lockCookie);
-
-			final DataRecord record = new DataRecord(recNo, data);
-			try {
-				fileAccess.writeRecord(recNo, record);
-			} catch (final IOException e) {
-				throw new TechnicalErrorException("Cannot update record "
-						+ recNo, e);
+		checkWritable();
+		final long start = System.nanoTime();
+		try {
+			// Validation and record access must be handled atomically.
+			// Otherwise another client might change/delete the record, after it
+			// was successfully validated, resulting in a lost write.
+			synchronized (Data.class) {
+				// The record may have been moved by the compaction
+				final long slot = RecordRemapping.resolve(recNo);
+				// check if record exists and is not deleted
+				validateRecord(slot);
+				// check lock cookie value
+				lockManager.validateCookie(slot, lockCookie);
+
+				final DataRecord record = new DataRecord(slot, data);
+				try {
+					fileAccess.writeRecord(slot, record);
+					changeNotifier.fireRecordChanged(RecordChangeType.UPDATED,
+							RecordRemapping.number(slot), record.getData());
+				} catch (final IOException e) {
+					throw new TechnicalErrorException("Cannot update record "
+							+ slot, e);
+				}
 			}
+		} finally {
+			Metrics.record(Operation.UPDATE, start);
 		}
 	}
 
@@ -132,24 +197,37 @@ public final class Data implements DBAccess {
 	public void deleteRecord(long recNo, long cookie)
 			throws RecordNotFoundException, SecurityException {
 
-		// Validation and record access must be handled atomically.
-		// Otherwise another client might change/delete the record, after it was
-		// successfully validated, resulting in a lost write.
-		synchronized (Data.class) {
-			// check if record exists and is not deleted
-			validateRecord(recNo);
-			// check lock cookie value
-			lockManager.validateCookie(recNo, cookie);
-
-			try {
-				final DataRecord record = fileAccess.readRecord(recNo);
-				record.setState(DataRecordState.DELETED);
+		checkWritable();
+		final long start = System.nanoTime();
+		try {
+			// Validation and record access must be handled atomically.
+			// Otherwise another client might change/delete the record, after it
+			// was successfully validated, resulting in a lost write.
+			synchronized (Data.class) {
+				// The record may have been moved by the compaction
+				final long slot = RecordRemapping.resolve(recNo);
+				// check if record exists and is not deleted
+				validateRecord(slot);
+				// check lock cookie value
+				lockManager.validateCookie(slot, cookie);
 
-				fileAccess.writeRecord(recNo, record);
-			} catch (final IOException e) {
-				throw new TechnicalErrorException("Cannot deleted record "
-						+ recNo, e);
+				try {
+					final DataRecord record = fileAccess.readRecord(slot);
+					record.setState(DataRecordState.DELETED);
+
+					fileAccess.writeRecord(slot, record);
+					// old numbers must not resolve to a later record in this
+					// slot
+					fileAccess.recordRemoved(slot);
+					changeNotifier.fireRecordChanged(RecordChangeType.DELETED,
+							RecordRemapping.number(slot), null);
+				} catch (final IOException e) {
+					throw new TechnicalErrorException("Cannot deleted record "
+							+ slot, e);
+				}
 			}
+		} finally {
+			Metrics.record(Operation.DELETE, start);
 		}
 	}
 
@@ -158,136 +236,628 @@ public final class Data implements DBAccess {
 	 */
 	@Override
 	public long[] findByCriteria(String[] criteria) {
+		return findByCriteria(criteria, null);
+	}
 
-		// The complex findByCriteria method must be handled atomically.
-		// Otherwise other clients might change/delete records, after they have
-		// been read and before they were stored in the return value.
-		synchronized (Data.class) {
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * If an exact or case-insensitive criterion is specified for the name or
+	 * the location, only the records found in the {@code FieldIndex} of this
+	 * field are read. Otherwise all records are read.
+	 */
+	@Override
+	public long[] findByCriteria(String[] criteria, MatchMode[] modes) {
+
+		if (criteria != null && modes != null
+				&& modes.length != criteria.length) {
+			throw new IllegalArgumentException("Expected " + criteria.length
+					+ " match modes, got " + modes.length);
+		}
+
+		final long start = System.nanoTime();
+		try {
 			final List<Long> found = new ArrayList<Long>();
 			if (criteria != null
 					&& criteria.length == FileMetaData.EXPECTED_FIELD_COUNT) {
+				final Snapshot snapshot = openSnapshot();
 				try {
-					final List<DataRecord> allRecords = fileAccess
-							.readAllRecords();
-					for (final DataRecord record : allRecords) {
-						if (record.getState() != DataRecordState.DELETED) {
-
-							// Compare all criteria that are non-null
-							boolean criteriaMatch = true;
-							final String[] data = record.getData();
-
-							for (int i = 0; i < criteria.length; i++) {
-								final String criterion = criteria[i];
-								// Use the criterion only, if it is not null
-								if (criterion != null) {
-									// Check if the respective field starts with
-									// the criterion's value
-									if (!data[i].startsWith(criterion)) {
-										criteriaMatch = false;
-									}
-								}
-							}
-
-							// Add only records to the result set, when criteria
-							// match
-							if (criteriaMatch) {
+					final long[] candidates = findCandidates(criteria, modes,
+							snapshot);
+					if (candidates == null) {
+						for (final DataRecord record : fileAccess
+								.readAllRecords(snapshot)) {
+							if (matches(record, criteria, modes)) {
 								found.add(record.getRecNo());
 							}
 						}
+					} else {
+						for (final long recNo : candidates) {
+							final DataRecord record = fileAccess.readRecord(
+									recNo, snapshot);
+							if (matches(record, criteria, modes)) {
+								found.add(recNo);
+							}
+						}
 					}
 				} catch (final IOException e) {
 					throw new TechnicalErrorException(
 							"Cannot access data file", e);
+				} finally {
+					fileAccess.closeSnapshot(snapshot);
 				}
 			}
 
 			final long[] result = new long[found.size()];
 			for (int i = 0; i < result.length; i++) {
-				result[i] = found.get(i);
+				result[i] = RecordRemapping.number(found.get(i));
 			}
 
 			return result;
+		} finally {
+			Metrics.record(Operation.FIND, start);
 		}
 	}
 
 	/**
 	 * {@inheritDoc}
+	 * <p>
+	 * The candidates are looked up in the {@code FieldIndex} of the name or
+	 * location, if possible, or else in the {@code TokenIndex} of the
+	 * specialties. Otherwise, if the first sort key is a numeric or indexed
+	 * field, the records are read in the order of its {@code NumericIndex} or
+	 * {@code FieldIndex}, so that reading stops as soon as the limit is
+	 * reached and no further record has the same value as the last one found.
+	 * Otherwise the candidates are looked up in the index of a numeric field
+	 * restricted to a range, or all records are read.
 	 */
 	@Override
-	public long createRecord(String[] data) throws DuplicateKeyException {
-
-		// The createRecord method needs to be handled atomically.
-		// Otherwise clients that are concurrently searching for an empty slot
-		// to write a record, may see the same state of the data file and choose
-		// the same slot for writing.
-		synchronized (Data.class) {
-			// We need to find an empty slot, in which to save the record.
-			// This can either be a slot, where the record was deleted and that
-			// can
-			// be reused or if no such slot can be found, the record will be
-			// appended at the data file's end
-			final long NOT_FOUND = -1;
-			long emptySlotNo = NOT_FOUND;
+	public long[] findByQuery(final RecordQuery query) {
 
+		final long start = System.nanoTime();
+		try {
+			int limit = query.getLimit();
+			if (limit == RecordQuery.NO_LIMIT) {
+				limit = Integer.MAX_VALUE;
+			}
+			final List<DataRecord> found = new ArrayList<DataRecord>();
+			final Snapshot snapshot = openSnapshot();
 			try {
-				// Check all existant slots for one, where the record was
-				// deleted
-				List<DataRecord> records = fileAccess.readAllRecords();
-				for (int i = 0; i < records.size(); i++) {
-					DataRecord record = records.get(i);
-					if (record.getState() == DataRecordState.DELETED
-							&& emptySlotNo == NOT_FOUND) {
-						emptySlotNo = i;
+				long[] candidates = findCandidates(query.getCriteria(), query
+						.getModes(), snapshot);
+				if (candidates == null && query.getSpecialties() != null) {
+					final TokenIndex specialtiesIndex = FileAccess
+							.getSpecialtiesIndex();
+					if (specialtiesIndex != null) {
+						candidates = merge(specialtiesIndex.lookup(query
+								.getSpecialties(), query.isAllSpecialties()),
+								fileAccess.writtenSince(snapshot));
+					}
+				}
+				final SortKey[] sortKeys = query.getSortKeys();
+				long[] written = null;
+				if (candidates == null && sortKeys.length > 0) {
+					candidates = findOrdered(query, sortKeys[0]);
+					if (candidates != null) {
+						written = fileAccess.writtenSince(snapshot);
 					}
 				}
+				if (candidates == null) {
+					candidates = findInRange(query, snapshot);
+				}
+
+				if (candidates == null) {
+					for (final DataRecord record : fileAccess
+							.readAllRecords(snapshot)) {
+						if (matches(record, query)) {
+							found.add(record);
+						}
+					}
+				} else if (written == null) {
+					for (final long recNo : candidates) {
+						final DataRecord record = fileAccess.readRecord(recNo,
+								snapshot);
+						if (matches(record, query)) {
+							found.add(record);
+						}
+					}
+				} else {
+					readOrdered(candidates, written, snapshot, query, limit,
+							found);
+				}
+			} catch (final IOException e) {
+				throw new TechnicalErrorException("Cannot access data file", e);
+			} finally {
+				fileAccess.closeSnapshot(snapshot);
+			}
+
+			if (query.getSortField() != RecordQuery.NO_SORT_FIELD) {
+				// stable, keeps records with equal values ordered by number
+				Collections.sort(found, new Comparator<DataRecord>() {
+					@Override
+					public int compare(DataRecord record1, DataRecord record2) {
+						return query.compare(record1.getData(), record2
+								.getData());
+					}
+				});
+			}
+
+			final long[] result = new long[Math.min(limit, found.size())];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = RecordRemapping.number(found.get(i).getRecNo());
+			}
+			return result;
+		} finally {
+			Metrics.record(Operation.FIND, start);
+		}
+	}
+
+	/**
+	 * Opens a snapshot of the data file for a search. No record is written
+	 * while it is opened, so that the snapshot does not see a change made by
+	 * several writes, e.g. a move of a record by the {@code Compactor}, half
+	 * done.
+	 * 
+	 * @return open snapshot, to be closed when the search is complete
+	 */
+	private Snapshot openSnapshot() {
+		try {
+			synchronized (Data.class) {
+				return fileAccess.openSnapshot();
+			}
+		} catch (final IOException e) {
+			throw new TechnicalErrorException("Cannot access data file", e);
+		}
+	}
+
+	/**
+	 * Reads the candidates of a query in the order of the first sort key and
+	 * adds the matching records to the result. Reading stops as soon as the
+	 * limit is reached and the next record has a different value than the
+	 * last one found. The position of a record written since the snapshot
+	 * was opened is taken from its value at the snapshot, not from the index.
+	 * 
+	 * @param candidates
+	 *            numbers of the candidates in the order of the first sort key
+	 * @param written
+	 *            numbers of the records written since the snapshot was opened
+	 *            in ascending order
+	 * @param snapshot
+	 *            open snapshot
+	 * @param query
+	 *            query to be evaluated
+	 * @param limit
+	 *            maximum number of records returned by the query
+	 * @param found
+	 *            matching records, in no particular order after the call
+	 * @throws IOException
+	 *             if the data file cannot be read
+	 */
+	private void readOrdered(long[] candidates, long[] written,
+			Snapshot snapshot, RecordQuery query, int limit,
+			List<DataRecord> found) throws IOException {
+		final SortKey sortKey = query.getSortKeys()[0];
+		for (final long recNo : candidates) {
+			if (Arrays.binarySearch(written, recNo) >= 0) {
+				continue;
+			}
+			final DataRecord record = fileAccess.readRecord(recNo, snapshot);
+			// Records with the same value of the first key may still be
+			// sorted first by the other keys
+			if (found.size() >= limit
+					&& sortKey.compare(found.get(found.size() - 1).getData(),
+							record.getData()) != 0) {
+				break;
+			}
+			if (matches(record, query)) {
+				found.add(record);
+			}
+		}
+		for (final long recNo : written) {
+			final DataRecord record = fileAccess.readRecord(recNo, snapshot);
+			if (matches(record, query)) {
+				found.add(record);
+			}
+		}
+	}
+
+	/**
+	 * Merges two arrays of record numbers in ascending order.
+	 * 
+	 * @param recNos1
+	 *            first record numbers in ascending order
+	 * @param recNos2
+	 *            second record numbers in ascending order
+	 * @return record numbers contained in either array in ascending order,
+	 *         without duplicates
+	 */
+	private static long[] merge(long[] recNos1, long[] recNos2) {
+		final long[] result = new long[recNos1.length + recNos2.length];
+		int i = 0;
+		int j = 0;
+		int count = 0;
+		while (i < recNos1.length || j < recNos2.length) {
+			if (j == recNos2.length
+					|| (i < recNos1.length && recNos1[i] < recNos2[j])) {
+				result[count++] = recNos1[i++];
+			} else {
+				if (i < recNos1.length && recNos1[i] == recNos2[j]) {
+					i++;
+				}
+				result[count++] = recNos2[j++];
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Returns the candidates of a query in the order of the field of the
+	 * specified sort key, if the field is numeric or indexed. Records whose
+	 * numeric value is not a number are appended, unless the field is
+	 * restricted to a range.
+	 * 
+	 * @param query
+	 *            query to be evaluated
+	 * @param sortKey
+	 *            first key the records are sorted by
+	 * @return numbers of the candidates in the order of the sort key, or null
+	 *         if the field has no complete index
+	 */
+	private long[] findOrdered(RecordQuery query, SortKey sortKey) {
+		final NumericField sortField = NumericField.forField(sortKey
+				.getField());
+		if (sortField == null) {
+			final FieldIndex fieldIndex = FileAccess.getFieldIndex(sortKey
+					.getField());
+			return fieldIndex == null ? null : fieldIndex.ordered(sortKey
+					.isDescending());
+		}
+
+		final NumericIndex numericIndex = FileAccess.getNumericIndex(sortField);
+		if (numericIndex == null) {
+			return null;
+		}
+		final long[] inRange = numericIndex.range(query.getMinimum(sortField),
+				query.getMaximum(sortField), sortKey.isDescending());
+		if (query.hasRange(sortField)) {
+			return inRange;
+		}
+
+		final long[] unparsed = numericIndex.getUnparsed();
+		final long[] candidates = new long[inRange.length + unparsed.length];
+		System.arraycopy(inRange, 0, candidates, 0, inRange.length);
+		System.arraycopy(unparsed, 0, candidates, inRange.length,
+				unparsed.length);
+		return candidates;
+	}
+
+	/**
+	 * Looks up the candidates of a query in the index of a numeric field that
+	 * is restricted to a range.
+	 * 
+	 * @param query
+	 *            query to be evaluated
+	 * @param snapshot
+	 *            open snapshot; records written since are candidates as well
+	 * @return numbers of the records in the range in ascending order, or null
+	 *         if no numeric field is restricted or its index is not complete
+	 */
+	private long[] findInRange(RecordQuery query, Snapshot snapshot) {
+		for (final NumericField field : NumericField.values()) {
+			if (query.hasRange(field)) {
+				final NumericIndex numericIndex = FileAccess
+						.getNumericIndex(field);
+				if (numericIndex == null) {
+					return null;
+				}
+				final long[] candidates = numericIndex.range(query
+						.getMinimum(field), query.getMaximum(field), false);
+				Arrays.sort(candidates);
+				return merge(candidates, fileAccess.writtenSince(snapshot));
+			}
+		}
+		return null;
+	}
 
-				// If no empty slot was found, append the record to the end of
-				// the file
-				if (emptySlotNo == NOT_FOUND) {
-					emptySlotNo = records.size();
+	/**
+	 * Checks whether the specified record is valid and matches the specified
+	 * query.
+	 * 
+	 * @param record
+	 *            data record, null if it did not exist
+	 * @param query
+	 *            query to be evaluated
+	 * @return true if the record matches
+	 */
+	private static boolean matches(DataRecord record, RecordQuery query) {
+		return record != null && record.getState() != DataRecordState.DELETED
+				&& query.matches(record.getData());
+	}
+
+	/**
+	 * Looks up the candidates of a search in the index of a field, for which
+	 * an exact or case-insensitive criterion is specified.
+	 * 
+	 * @param criteria
+	 *            criteria for the search
+	 * @param modes
+	 *            match mode of each criterion, may be null
+	 * @param snapshot
+	 *            open snapshot; records written since are candidates as well
+	 * @return numbers of the records having the value of the criterion in the
+	 *         indexed field in ascending order, or null if no index can be
+	 *         used
+	 */
+	private long[] findCandidates(String[] criteria, MatchMode[] modes,
+			Snapshot snapshot) {
+		if (modes == null) {
+			return null;
+		}
+
+		for (int i = 0; i < criteria.length; i++) {
+			final MatchMode mode = modes[i];
+			if (criteria[i] != null
+					&& (mode == MatchMode.EXACT
+							|| mode == MatchMode.IGNORE_CASE)) {
+				final FieldIndex fieldIndex = FileAccess.getFieldIndex(i);
+				if (fieldIndex != null) {
+					// the index is not read at the snapshot
+					return merge(fieldIndex.lookup(criteria[i]), fileAccess
+							.writtenSince(snapshot));
 				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks whether the specified record is valid and matches all criteria
+	 * that are non-null.
+	 * 
+	 * @param record
+	 *            data record, null if it did not exist
+	 * @param criteria
+	 *            criteria for the search
+	 * @param modes
+	 *            match mode of each criterion; if null, all criteria are
+	 *            matched by prefix
+	 * @return true if the record matches
+	 */
+	private static boolean matches(DataRecord record, String[] criteria,
+			MatchMode[] modes) {
+		if (record == null || record.getState() == DataRecordState.DELETED) {
+			return false;
+		}
 
-				// Write the record to the data file
-				DataRecord newRecord = new DataRecord(data);
-				fileAccess.writeRecord(emptySlotNo, newRecord);
-			} catch (IOException e) {
-				// ignore I/O exception
-				e.printStackTrace();
+		final String[] data = record.getData();
+		for (int i = 0; i < criteria.length; i++) {
+			// Use the criterion only, if it is not null
+			if (criteria[i] != null) {
+				MatchMode mode = MatchMode.PREFIX;
+				if (modes != null && modes[i] != null) {
+					mode = modes[i];
+				}
+				if (!mode.matches(data[i], criteria[i])) {
+					return false;
+				}
 			}
+		}
+		return true;
+	}
 
-			return emptySlotNo;
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long createRecord(String[] data) throws DuplicateKeyException {
+
+		checkWritable();
+		final long start = System.nanoTime();
+		try {
+			// The createRecord method needs to be handled atomically. Otherwise
+			// clients that are concurrently searching for an empty slot to
+			// write a record, may see the same state of the data file and
+			// choose the same slot for writing.
+			synchronized (Data.class) {
+				// We need to find an empty slot, in which to save the record.
+				// This can either be a slot, where the record was deleted and
+				// that can be reused or if no such slot can be found, the
+				// record will be appended at the data file's end
+				final long NOT_FOUND = -1;
+				long emptySlotNo = NOT_FOUND;
+
+				try {
+					final FileIndex index = FileAccess.getIndex();
+					if (index != null) {
+						// The index knows the deleted slots, no need to read
+						// the file
+						emptySlotNo = index.getFirstFreeSlot();
+						if (emptySlotNo == NOT_FOUND) {
+							emptySlotNo = index.getRecordCount();
+						}
+					} else {
+						// Check all existant slots for one, where the record
+						// was deleted
+						List<DataRecord> records = fileAccess.readAllRecords();
+						for (int i = 0; i < records.size(); i++) {
+							DataRecord record = records.get(i);
+							if (record.getState() == DataRecordState.DELETED
+									&& emptySlotNo == NOT_FOUND) {
+								emptySlotNo = i;
+							}
+						}
+
+						// If no empty slot was found, append the record to the
+						// end of the file
+						if (emptySlotNo == NOT_FOUND) {
+							emptySlotNo = records.size();
+						}
+					}
+
+					// A number that a moved record had before keeps referring
+					// to it, the new record gets a number of its own
+					fileAccess.slotReused(emptySlotNo);
+
+					// Write the record to the data file
+					DataRecord newRecord = new DataRecord(data);
+					fileAccess.writeRecord(emptySlotNo, newRecord);
+					changeNotifier.fireRecordChanged(RecordChangeType.CREATED,
+							RecordRemapping.number(emptySlotNo), newRecord
+									.getData());
+				} catch (IOException e) {
+					// ignore I/O exception
+					e.printStackTrace();
+				}
+
+				return RecordRemapping.number(emptySlotNo);
+			}
+		} finally {
+			Metrics.record(Operation.CREATE, start);
 		}
 	}
 
 	/**
 	 * {@inheritDoc}
+	 * <p>
+	 * If the record is moved by the compaction while waiting for the lock, the
+	 * lock is released and the record is locked in its new slot.
+	 * 
+	 * @throws DeadlockException
+	 *             if waiting for the lock would result in a deadlock
 	 */
 	@Override
 	public long lockRecord(long recNo) throws RecordNotFoundException {
 
-		// The lock operation cannot be called from within the synchronized
-		// block because it is a blocking call.
-		// We lock the record first and then check if it is valid (existent and
-		// not deleted) at all. If it is not, we need to unlock it again.
-		final long lockCookie = lockManager.lock(recNo);
-
-		synchronized (Data.class) {
-			try {
-				validateRecord(recNo);
-			} catch (final RecordNotFoundException e) {
-				// Validation failed. We need to rethrow this exception, but
-				// first unlock the record.
+		checkWritable();
+		long slot = RecordRemapping.resolve(recNo);
+		while (true) {
+			// The lock operation cannot be called from within the synchronized
+			// block because it is a blocking call.
+			// We lock the record first and then check if it is valid (existent
+			// and not deleted) at all. If it is not, we need to unlock it
+			// again.
+			final long lockCookie = lockManager.lock(slot);
+
+			synchronized (Data.class) {
 				try {
-					lockManager.unlock(recNo, lockCookie);
-				} catch (final SecurityException securityException) {
-					throw new TechnicalErrorException("Cannot unlock record "
-							+ recNo, securityException);
+					final long current = RecordRemapping.resolve(recNo);
+					if (current != slot) {
+						// The record was moved while we were waiting
+						unlockSlot(slot, lockCookie);
+						slot = current;
+						continue;
+					}
+					validateRecord(slot);
+				} catch (final RecordNotFoundException e) {
+					// Validation failed. We need to rethrow this exception,
+					// but first unlock the record.
+					unlockSlot(slot, lockCookie);
+					throw e;
 				}
-				throw e;
 			}
+
+			return lockCookie;
 		}
+	}
 
-		return lockCookie;
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * As in the blocking variant, the record is validated after the lock has
+	 * been acquired. If it does not exist, the lock is released again and the
+	 * callback is notified with a {@code RecordNotFoundException}.
+	 */
+	@Override
+	public void lockRecord(final long recNo, final LockCallback callback) {
+		if (readOnly) {
+			callback.lockFailed(new ReadOnlyReplicaException(
+					"Records of a replica cannot be locked"));
+			return;
+		}
+		try {
+			lockSlot(recNo, RecordRemapping.resolve(recNo), callback);
+		} catch (final RecordNotFoundException e) {
+			callback.lockFailed(e);
+		}
+	}
+
+	/**
+	 * Locks the specified slot with a callback, on behalf of a request to lock
+	 * the record with the specified number. If the record is moved to another
+	 * slot while waiting, that slot is locked instead.
+	 * 
+	 * @param recNo
+	 *            record number requested by the client
+	 * @param slot
+	 *            current number of the record
+	 * @param callback
+	 *            callback to be notified
+	 */
+	private void lockSlot(final long recNo, final long slot,
+			final LockCallback callback) {
+		try {
+			lockManager.lock(slot, new LockCallback() {
+				@Override
+				public void lockAcquired(long cookie) {
+					final long current;
+					try {
+						synchronized (Data.class) {
+							try {
+								current = RecordRemapping.resolve(recNo);
+								if (current != slot) {
+									// The record was moved while we were
+									// waiting
+									unlockSlot(slot, cookie);
+								} else {
+									validateRecord(slot);
+								}
+							} catch (final RecordNotFoundException e) {
+								unlockSlot(slot, cookie);
+								throw e;
+							}
+						}
+					} catch (final RecordNotFoundException e) {
+						callback.lockFailed(e);
+						return;
+					} catch (final TechnicalErrorException e) {
+						callback.lockFailed(e);
+						return;
+					}
+
+					if (current != slot) {
+						lockSlot(recNo, current, callback);
+					} else {
+						callback.lockAcquired(cookie);
+					}
+				}
+
+				@Override
+				public void lockFailed(Exception exception) {
+					callback.lockFailed(exception);
+				}
+			});
+		} catch (final DeadlockException e) {
+			callback.lockFailed(e);
+		}
+	}
+
+	/**
+	 * Releases the lock on the specified slot after locking it failed.
+	 * 
+	 * @param slot
+	 *            number of the locked slot
+	 * @param cookie
+	 *            cookie of the lock
+	 * @throws TechnicalErrorException
+	 *             if the lock cannot be released
+	 */
+	private void unlockSlot(long slot, long cookie) {
+		try {
+			lockManager.unlock(slot, cookie);
+		} catch (final SecurityException securityException) {
+			throw new TechnicalErrorException("Cannot unlock record " + slot,
+					securityException);
+		}
 	}
 
 	/**
@@ -296,7 +866,52 @@ public final class Data implements DBAccess {
 	@Override
 	public void unlock(long recNo, long cookie) throws SecurityException {
 		synchronized (Data.class) {
-			lockManager.unlock(recNo, cookie);
+			try {
+				lockManager.unlock(RecordRemapping.resolve(recNo), cookie);
+			} catch (final RecordNotFoundException e) {
+				throw new SecurityException("Record " + recNo
+						+ " is not locked: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void addRecordChangeListener(RecordChangeListener listener) {
+		changeNotifier.addListener(listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void removeRecordChangeListener(RecordChangeListener listener) {
+		changeNotifier.removeListener(listener);
+	}
+
+	/**
+	 * Makes the data file read-only for all Data instances, e.g. because it is
+	 * written by a {@code LogReplica}.
+	 * 
+	 * @param readOnly
+	 *            true if clients must not modify or lock records
+	 */
+	static void setReadOnly(boolean readOnly) {
+		Data.readOnly = readOnly;
+	}
+
+	/**
+	 * Checks that clients may modify and lock records.
+	 * 
+	 * @throws ReadOnlyReplicaException
+	 *             if the data file is read-only
+	 */
+	private static void checkWritable() {
+		if (readOnly) {
+			throw new ReadOnlyReplicaException(
+					"Records of a replica cannot be modified or locked");
 		}
 	}
 
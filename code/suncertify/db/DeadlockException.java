@@ -0,0 +1,38 @@
+package suncertify.db;
+
+/**
+ * Exception thrown if a record cannot be locked because waiting for its lock
+ * would result in a deadlock, i.e. the current owner of the record lock is
+ * itself (directly or indirectly) waiting for a lock held by the caller.
+ * <p>
+ * The {@code lockRecord} method of the {@code DBAccess} interface does not
+ * declare an exception for this situation. As a {@code RuntimeException} it
+ * need not be declared and callers may choose to release the locks they hold
+ * and to retry the operation.
+ * 
+ * @author Rasmus Kuschel
+ */
+public class DeadlockException extends TechnicalErrorException {
+
+	/**
+	 * Serial version UID
+	 */
+	private static final long serialVersionUID = -2973305918470284736L;
+
+	/**
+	 * Creates a new exception instance.
+	 */
+	public DeadlockException() {
+		super();
+	}
+
+	/**
+	 * Creates a new exception instance with the specified description.
+	 * 
+	 * @param description
+	 *            description of the exception
+	 */
+	public DeadlockException(String description) {
+		super(description);
+	}
+}
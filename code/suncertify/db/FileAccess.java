@@ -4,12 +4,22 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
+import suncertify.db.VersionStore.Snapshot;
 import suncertify.db.domain.DataRecord;
 import suncertify.db.domain.DataRecordState;
 import suncertify.db.domain.FileMetaData;
 import suncertify.db.domain.SchemaDescription;
+import suncertify.db.index.FieldIndex;
+import suncertify.db.index.FileIndex;
+import suncertify.db.index.IndexSnapshot;
+import suncertify.db.index.NumericIndex;
+import suncertify.db.index.RecordRemapping;
+import suncertify.db.index.TokenIndex;
+import suncertify.db.index.ValueIndexes;
 
 /**
  * Component used to manage the low-level accesses to the data file.
@@ -21,6 +31,32 @@ import suncertify.db.domain.SchemaDescription;
  * <p>
  * Trying to invoke any access methods before the initialization completes
  * results in an {@code IllegalStateException} to be thrown.
+ * <p>
+ * The file access maintains a {@code FileIndex} of the data file, so that
+ * deleted records and free slots are known without reading the file. When the
+ * file is opened, the index is loaded from its snapshot, if it is current.
+ * Otherwise it is rebuilt by a background thread, reading a chunk of records
+ * at a time, so that other accesses to the file are not blocked for long.
+ * Until the index is complete, {@code getIndex} returns null. The snapshot is
+ * deleted when the file is modified and written again when it is closed.
+ * <p>
+ * For the name and location fields, a {@code FieldIndex} is maintained as
+ * well, for each {@code NumericField} a {@code NumericIndex}, and a
+ * {@code TokenIndex} of the specialties. As they contain the field values,
+ * they cannot be rebuilt from the state flags alone; when one of them is first
+ * requested, they are built by reading all records in chunks in the
+ * background, and null is returned until they are complete.
+ * <p>
+ * Searches read a snapshot of the data file, opened with {@code openSnapshot},
+ * so that they see the records as they were at one point in time while other
+ * clients continue to write. Until the snapshot is closed, the old content of
+ * every record overwritten or truncated is retained in a {@code VersionStore}.
+ * <p>
+ * A {@code FileWriteListener} registered together with a snapshot is notified
+ * about every write after the snapshot, so that a replica can copy the records
+ * at the snapshot and then apply the later writes. The changes of the
+ * {@code RecordRemapping} are made through this class as well, so that the
+ * listener receives them in the order of the writes.
  * 
  * @author Rasmus Kuschel
  */
@@ -45,6 +81,105 @@ public final class FileAccess {
 	 */
 	private static FileMetaData activeFileMetaData;
 
+	/**
+	 * Number of records read by the index rebuild while holding the lock on
+	 * the data file
+	 */
+	private static final int REBUILD_CHUNK_SIZE = 4096;
+
+	/**
+	 * Complete index of the data file, or null while it is rebuilt
+	 */
+	private static volatile FileIndex index;
+
+	/**
+	 * Index being rebuilt, or null. Guarded by the lock on the data file.
+	 */
+	private static FileIndex rebuildIndex;
+
+	/**
+	 * Number of records already added to the index being rebuilt. Guarded by
+	 * the lock on the data file.
+	 */
+	private static long rebuiltRecords;
+
+	/**
+	 * Flag set while the snapshot of the index matches the data file. Guarded
+	 * by the lock on the data file.
+	 */
+	private static boolean snapshotCurrent;
+
+	/**
+	 * Flag set while the snapshot of the index also contains the indexes of
+	 * the field values. Guarded by the lock on the data file.
+	 */
+	private static boolean snapshotValueIndexes;
+
+	/**
+	 * Flag set while the indexes of the field values are loaded from the
+	 * snapshot. Guarded by the lock on the data file.
+	 */
+	private static boolean valueIndexesLoading;
+
+	/**
+	 * Positions of the fields for which a FieldIndex is maintained
+	 */
+	private static final int[] INDEXED_FIELDS = { DataRecord.INDEX_NAME,
+			DataRecord.INDEX_LOCATION };
+
+	/**
+	 * Indexes of the values of the indexed fields, or null until they have
+	 * been built. Guarded by the lock on the data file.
+	 */
+	private static FieldIndex[] fieldIndexes;
+
+	/**
+	 * Indexes of the values of the numeric fields, or null until they have
+	 * been built. Guarded by the lock on the data file.
+	 */
+	private static Map<NumericField, NumericIndex> numericIndexes;
+
+	/**
+	 * Index of the tokens of the specialties, or null until it has been
+	 * built. Guarded by the lock on the data file.
+	 */
+	private static TokenIndex specialtiesIndex;
+
+	/**
+	 * Indexes of the values of the indexed fields being built, or null.
+	 * Guarded by the lock on the data file.
+	 */
+	private static FieldIndex[] pendingFieldIndexes;
+
+	/**
+	 * Indexes of the values of the numeric fields being built, or null.
+	 * Guarded by the lock on the data file.
+	 */
+	private static Map<NumericField, NumericIndex> pendingNumericIndexes;
+
+	/**
+	 * Index of the tokens of the specialties being built, or null. Guarded by
+	 * the lock on the data file.
+	 */
+	private static TokenIndex pendingSpecialtiesIndex;
+
+	/**
+	 * Number of records already added to the indexes of the field values
+	 * being built. Guarded by the lock on the data file.
+	 */
+	private static long indexedValueRecords;
+
+	/**
+	 * Old contents of the records retained for open snapshots
+	 */
+	private static final VersionStore versions = new VersionStore();
+
+	/**
+	 * Listeners notified about every write, guarded by the lock on the data
+	 * file
+	 */
+	private static final List<FileWriteListener> writeListeners = new ArrayList<FileWriteListener>();
+
 	/**
 	 * Opens the file to be used by this file access instance.
 	 * <p>
@@ -78,6 +213,7 @@ public final class FileAccess {
 			dbFile = new RandomAccessFile(file, "rw");
 
 			validateFile(databaseLocation);
+			openIndex();
 		}
 	}
 
@@ -91,7 +227,459 @@ public final class FileAccess {
 	 */
 	public static void closeFile() throws IOException {
 		if (dbFile != null) {
-			dbFile.close();
+			synchronized (dbFile) {
+				dbFile.close();
+
+				// Keep the indexes for the next start, unless the index is
+				// still being rebuilt or the snapshot is up to date
+				final FileIndex current = index;
+				if (current != null
+						&& (!snapshotCurrent || fieldIndexes != null
+								&& !snapshotValueIndexes)) {
+					saveSnapshot(current);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the snapshot of the index and, if they have been built, of the
+	 * indexes of the field values. Must be called while holding the lock on
+	 * the data file.
+	 * 
+	 * @param current
+	 *            complete index of the data file
+	 * @throws IOException
+	 *             if the snapshot cannot be written
+	 */
+	private static void saveSnapshot(FileIndex current) throws IOException {
+		NumericIndex[] numerics = null;
+		if (fieldIndexes != null) {
+			// in the order of the NumericField constants
+			numerics = numericIndexes.values().toArray(
+					new NumericIndex[numericIndexes.size()]);
+		}
+		IndexSnapshot.save(current, fieldIndexes, numerics,
+				specialtiesIndex, new File(activeFileMetaData
+						.getDataFilePath()));
+		snapshotCurrent = true;
+		snapshotValueIndexes = fieldIndexes != null;
+	}
+
+	/**
+	 * Returns the index of the data file.
+	 * 
+	 * @return index of the data file, or null if it is not complete yet
+	 */
+	public static FileIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns the index of the values of the specified field. If the indexes
+	 * of the field values have not been built yet, they are built in the
+	 * background.
+	 * 
+	 * @param field
+	 *            position of the field
+	 * @return index of the field values, or null if the field is not indexed
+	 *         or the index is not complete yet
+	 */
+	public static FieldIndex getFieldIndex(int field) {
+		if (dbFile == null) {
+			throw new IllegalStateException("no active file for access");
+		}
+
+		synchronized (dbFile) {
+			if (!buildValueIndexes()) {
+				return null;
+			}
+			for (final FieldIndex fieldIndex : fieldIndexes) {
+				if (fieldIndex.getField() == field) {
+					return fieldIndex;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the index of the values of the specified numeric field. If the
+	 * indexes of the field values have not been built yet, they are built in
+	 * the background.
+	 * 
+	 * @param field
+	 *            numeric field
+	 * @return index of the field values, or null if the index is not complete
+	 *         yet
+	 */
+	public static NumericIndex getNumericIndex(NumericField field) {
+		if (dbFile == null) {
+			throw new IllegalStateException("no active file for access");
+		}
+
+		synchronized (dbFile) {
+			if (!buildValueIndexes()) {
+				return null;
+			}
+			return numericIndexes.get(field);
+		}
+	}
+
+	/**
+	 * Returns the index of the tokens of the specialties. If the indexes of
+	 * the field values have not been built yet, they are built in the
+	 * background.
+	 * 
+	 * @return index of the specialties, or null if the index is not complete
+	 *         yet
+	 */
+	public static TokenIndex getSpecialtiesIndex() {
+		if (dbFile == null) {
+			throw new IllegalStateException("no active file for access");
+		}
+
+		synchronized (dbFile) {
+			if (!buildValueIndexes()) {
+				return null;
+			}
+			return specialtiesIndex;
+		}
+	}
+
+	/**
+	 * Starts building the indexes of the field values in the background,
+	 * unless they have already been built or are being built. Must be called
+	 * while holding the lock on the data file.
+	 * <p>
+	 * Like the index of the data file, the indexes are built in chunks of
+	 * records, so that other accesses to the file are not blocked for the
+	 * time it takes to read all records.
+	 * 
+	 * @return true if the indexes have been built
+	 */
+	private static boolean buildValueIndexes() {
+		if (fieldIndexes != null) {
+			return true;
+		}
+		if (pendingFieldIndexes != null || valueIndexesLoading) {
+			return false;
+		}
+
+		pendingFieldIndexes = new FieldIndex[INDEXED_FIELDS.length];
+		for (int i = 0; i < pendingFieldIndexes.length; i++) {
+			pendingFieldIndexes[i] = new FieldIndex(INDEXED_FIELDS[i]);
+		}
+		pendingNumericIndexes = new EnumMap<NumericField, NumericIndex>(
+				NumericField.class);
+		for (final NumericField field : NumericField.values()) {
+			pendingNumericIndexes.put(field, new NumericIndex());
+		}
+		pendingSpecialtiesIndex = new TokenIndex();
+		indexedValueRecords = 0;
+
+		final Thread build = new Thread("value-index-build") {
+			@Override
+			public void run() {
+				try {
+					while (!buildNextValueChunk()) {
+						// let waiting accesses to the file proceed
+						Thread.yield();
+					}
+				} catch (final IOException e) {
+					// without indexes, callers keep reading the data file
+					System.err.println("Cannot build value indexes: "
+							+ e.getMessage());
+				}
+			}
+		};
+		build.setDaemon(true);
+		build.start();
+		return false;
+	}
+
+	/**
+	 * Adds the next chunk of records to the indexes of the field values being
+	 * built. When all records have been added, the indexes are published.
+	 * 
+	 * @return true if the indexes are complete
+	 * @throws IOException
+	 *             if the data file cannot be read
+	 */
+	private static boolean buildNextValueChunk() throws IOException {
+		synchronized (dbFile) {
+			final FileAccess fileAccess = new FileAccess();
+			final int recordCount = fileAccess.getRecordCount();
+			final long end = Math.min(recordCount, indexedValueRecords
+					+ REBUILD_CHUNK_SIZE);
+			for (long recNo = indexedValueRecords; recNo < end; recNo++) {
+				final DataRecord record = fileAccess.readRecord(recNo);
+				updateValueIndexes(pendingFieldIndexes, pendingNumericIndexes,
+						pendingSpecialtiesIndex, recNo, record.getData(),
+						record.isDeleted());
+			}
+			indexedValueRecords = end;
+
+			if (end < recordCount) {
+				return false;
+			}
+			fieldIndexes = pendingFieldIndexes;
+			numericIndexes = pendingNumericIndexes;
+			specialtiesIndex = pendingSpecialtiesIndex;
+			pendingFieldIndexes = null;
+			pendingNumericIndexes = null;
+			pendingSpecialtiesIndex = null;
+			return true;
+		}
+	}
+
+	/**
+	 * Updates the specified indexes of the field values after a record has
+	 * been written.
+	 * 
+	 * @param fields
+	 *            indexes of the indexed fields
+	 * @param numerics
+	 *            indexes of the numeric fields
+	 * @param specialties
+	 *            index of the specialties
+	 * @param recNo
+	 *            number of the written record
+	 * @param values
+	 *            field values as written to the data file
+	 * @param deleted
+	 *            true if the record was written as deleted
+	 */
+	private static void updateValueIndexes(FieldIndex[] fields,
+			Map<NumericField, NumericIndex> numerics, TokenIndex specialties,
+			long recNo, String[] values, boolean deleted) {
+		for (final FieldIndex fieldIndex : fields) {
+			fieldIndex.recordWritten(recNo, values[fieldIndex.getField()],
+					deleted);
+		}
+		for (final Map.Entry<NumericField, NumericIndex> entry : numerics
+				.entrySet()) {
+			final NumericField field = entry.getKey();
+			final Long value = deleted ? null : field.parse(values[field
+					.getField()]);
+			entry.getValue().recordWritten(recNo, value, deleted);
+		}
+		specialties.recordWritten(recNo,
+				values[DataRecord.INDEX_SPECIALTIES], deleted);
+	}
+
+	/**
+	 * Removes the records beyond the specified number of records from the
+	 * specified indexes of the field values.
+	 * 
+	 * @param fields
+	 *            indexes of the indexed fields
+	 * @param numerics
+	 *            indexes of the numeric fields
+	 * @param specialties
+	 *            index of the specialties
+	 * @param recordCount
+	 *            new number of records
+	 */
+	private static void truncateValueIndexes(FieldIndex[] fields,
+			Map<NumericField, NumericIndex> numerics, TokenIndex specialties,
+			int recordCount) {
+		for (final FieldIndex fieldIndex : fields) {
+			fieldIndex.truncate(recordCount);
+		}
+		for (final NumericIndex numericIndex : numerics.values()) {
+			numericIndex.truncate(recordCount);
+		}
+		specialties.truncate(recordCount);
+	}
+
+	/**
+	 * Loads the index of the active file from its snapshot, or starts
+	 * rebuilding it if there is no current snapshot. If the snapshot contains
+	 * the indexes of the field values, they are loaded in the background;
+	 * otherwise they are built when they are first used.
+	 * 
+	 * @throws IOException
+	 *             if the size of the data file cannot be determined
+	 */
+	private static void openIndex() throws IOException {
+		final File file = new File(activeFileMetaData.getDataFilePath());
+		final int recordCount = new FileAccess().getRecordCount();
+		final FileIndex loaded = IndexSnapshot.load(file, recordCount);
+		if (loaded != null) {
+			index = loaded;
+			snapshotCurrent = true;
+			loadValueIndexes(file, recordCount, loaded);
+			return;
+		}
+
+		rebuildIndex = new FileIndex();
+		rebuiltRecords = 0;
+		final Thread rebuild = new Thread("index-rebuild") {
+			@Override
+			public void run() {
+				try {
+					while (!rebuildNextChunk()) {
+						// let waiting accesses to the file proceed
+						Thread.yield();
+					}
+				} catch (final IOException e) {
+					// without index, callers keep reading the data file
+					System.err.println("Cannot rebuild index: "
+							+ e.getMessage());
+				}
+			}
+		};
+		rebuild.setDaemon(true);
+		rebuild.start();
+	}
+
+	/**
+	 * Starts loading the indexes of the field values from the snapshot of the
+	 * active file. Until they are loaded, searches read the data file; if the
+	 * file is modified in the meantime, the loaded indexes are discarded and
+	 * built from the data file instead.
+	 * 
+	 * @param file
+	 *            active data file
+	 * @param recordCount
+	 *            number of records of the data file
+	 * @param loaded
+	 *            index of the data file loaded from the same snapshot
+	 */
+	private static void loadValueIndexes(final File file,
+			final int recordCount, final FileIndex loaded) {
+		valueIndexesLoading = true;
+		final Object lock = dbFile;
+		final Thread load = new Thread("value-index-load") {
+			@Override
+			public void run() {
+				final ValueIndexes values = IndexSnapshot.loadValueIndexes(
+						file, recordCount);
+				synchronized (lock) {
+					valueIndexesLoading = false;
+					// the file may have been modified or reopened meanwhile
+					if (values != null && snapshotCurrent && index == loaded
+							&& fieldIndexes == null
+							&& pendingFieldIndexes == null) {
+						snapshotValueIndexes = restoreValueIndexes(values);
+					}
+				}
+			}
+		};
+		load.setDaemon(true);
+		load.start();
+	}
+
+	/**
+	 * Publishes the indexes of the field values loaded from a snapshot, if
+	 * they match the indexed fields.
+	 * 
+	 * @param values
+	 *            loaded indexes
+	 * @return true if the indexes have been published
+	 */
+	private static boolean restoreValueIndexes(ValueIndexes values) {
+		final FieldIndex[] fields = values.getFieldIndexes();
+		final NumericIndex[] numerics = values.getNumericIndexes();
+		final NumericField[] numericFields = NumericField.values();
+		if (fields.length != INDEXED_FIELDS.length
+				|| numerics.length != numericFields.length) {
+			return false;
+		}
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].getField() != INDEXED_FIELDS[i]) {
+				return false;
+			}
+		}
+
+		fieldIndexes = fields;
+		numericIndexes = new EnumMap<NumericField, NumericIndex>(
+				NumericField.class);
+		for (int i = 0; i < numerics.length; i++) {
+			numericIndexes.put(numericFields[i], numerics[i]);
+		}
+		specialtiesIndex = values.getSpecialtiesIndex();
+		return true;
+	}
+
+	/**
+	 * Adds the next chunk of records to the index being rebuilt. When all
+	 * records have been added, the index is published.
+	 * 
+	 * @return true if the index is complete
+	 * @throws IOException
+	 *             if the data file cannot be read
+	 */
+	private static boolean rebuildNextChunk() throws IOException {
+		synchronized (dbFile) {
+			final int recordCount = new FileAccess().getRecordCount();
+			final long end = Math.min(recordCount, rebuiltRecords
+					+ REBUILD_CHUNK_SIZE);
+			for (long recNo = rebuiltRecords; recNo < end; recNo++) {
+				dbFile.seek(activeFileMetaData.getRecordOffset(recNo));
+				final DataRecordState state = DataRecordState.forValue(dbFile
+						.readShort());
+				rebuildIndex.recordWritten(recNo,
+						state == DataRecordState.DELETED);
+			}
+			rebuiltRecords = end;
+
+			if (end < recordCount) {
+				return false;
+			}
+			index = rebuildIndex;
+			rebuildIndex = null;
+			return true;
+		}
+	}
+
+	/**
+	 * Updates the index after a record has been written. Must be called while
+	 * holding the lock on the data file.
+	 * 
+	 * @param recNo
+	 *            number of the written record
+	 * @param state
+	 *            state of the written record
+	 * @param values
+	 *            field values as written to the data file
+	 */
+	private static void updateIndex(long recNo, DataRecordState state,
+			String[] values) {
+		final boolean deleted = state == DataRecordState.DELETED;
+		if (index != null) {
+			index.recordWritten(recNo, deleted);
+		} else if (rebuildIndex != null && recNo < rebuiltRecords) {
+			// records not rebuilt yet are read by the rebuild later
+			rebuildIndex.recordWritten(recNo, deleted);
+		}
+		if (fieldIndexes != null) {
+			updateValueIndexes(fieldIndexes, numericIndexes,
+					specialtiesIndex, recNo, values, deleted);
+		} else if (pendingFieldIndexes != null
+				&& recNo < indexedValueRecords) {
+			// records not indexed yet are read by the build later
+			updateValueIndexes(pendingFieldIndexes, pendingNumericIndexes,
+					pendingSpecialtiesIndex, recNo, values, deleted);
+		}
+
+		invalidateSnapshot();
+	}
+
+	/**
+	 * Deletes the snapshot of the index when the data file is modified for
+	 * the first time after it was written. Must be called while holding the
+	 * lock on the data file.
+	 */
+	private static void invalidateSnapshot() {
+		if (snapshotCurrent) {
+			// After a crash, a snapshot might not be recognized as stale, if
+			// the size and the modification time of the file did not change
+			IndexSnapshot.delete(new File(activeFileMetaData
+					.getDataFilePath()));
+			snapshotCurrent = false;
+			snapshotValueIndexes = false;
 		}
 	}
 
@@ -239,15 +827,24 @@ public final class FileAccess {
 		// We have to synchronize on dbFile, to ensure that no concurrent
 		// operations change the file pointer during this write operation
 		synchronized (dbFile) {
+			DataRecord previous = null;
+			if (versions.isRetaining() && recNo < getRecordCount()) {
+				previous = readRecord(recNo);
+			}
+			versions.recordWritten(recNo, previous);
+
 			final int pos = activeFileMetaData.getRecordOffset(recNo);
 			dbFile.seek(pos);
 
 			dbFile.writeShort(record.getState().getEncoding());
 			final String[] data = record.getData();
+			final String[] values = new String[data.length];
 
 			for (int i = 0; i < activeFileMetaData.getFieldCount(); i++) {
 				final short fieldLength = activeFileMetaData.getFieldLength(i);
 				final byte[] fieldValueBytes = data[i].getBytes(CHARSET);
+				values[i] = new String(fieldValueBytes, 0, Math.min(
+						fieldLength, fieldValueBytes.length), CHARSET);
 
 				// write exactly "fieldLength" bytes.
 				// If fieldValueBytes is longer, skip the last bytes.
@@ -260,6 +857,126 @@ public final class FileAccess {
 					}
 				}
 			}
+			updateIndex(recNo, record.getState(), values);
+			for (final FileWriteListener listener : writeListeners) {
+				listener.recordWritten(recNo, record.getState(), values);
+			}
+		}
+	}
+
+	/**
+	 * Truncates the data file to the specified number of records. Records
+	 * behind are removed.
+	 * 
+	 * @param recordCount
+	 *            new number of records
+	 * @throws IOException
+	 *             error while accessing the file
+	 */
+	public void truncate(int recordCount) throws IOException {
+
+		if (dbFile == null) {
+			throw new IllegalStateException("no active file for access");
+		}
+
+		synchronized (dbFile) {
+			final int oldCount = getRecordCount();
+			if (recordCount >= oldCount) {
+				return;
+			}
+			if (versions.isRetaining()) {
+				// a slot appended later must not appear in open snapshots
+				for (int recNo = recordCount; recNo < oldCount; recNo++) {
+					versions.recordWritten(recNo, readRecord(recNo));
+				}
+			}
+			dbFile.setLength(activeFileMetaData.getRecordOffset(recordCount));
+
+			if (index != null) {
+				index.truncate(recordCount);
+			} else if (rebuildIndex != null) {
+				rebuildIndex.truncate(recordCount);
+				rebuiltRecords = Math.min(rebuiltRecords, recordCount);
+			}
+			if (fieldIndexes != null) {
+				truncateValueIndexes(fieldIndexes, numericIndexes,
+						specialtiesIndex, recordCount);
+			} else if (pendingFieldIndexes != null) {
+				truncateValueIndexes(pendingFieldIndexes,
+						pendingNumericIndexes, pendingSpecialtiesIndex,
+						recordCount);
+				indexedValueRecords = Math.min(indexedValueRecords,
+						recordCount);
+			}
+			invalidateSnapshot();
+			for (final FileWriteListener listener : writeListeners) {
+				listener.fileTruncated(recordCount);
+			}
+		}
+	}
+
+	/**
+	 * Records in the {@code RecordRemapping} that the record in slot
+	 * {@code from} has been moved to slot {@code to}.
+	 * 
+	 * @param from
+	 *            previous slot of the record
+	 * @param to
+	 *            new slot of the record
+	 */
+	void recordMoved(long from, long to) {
+
+		if (dbFile == null) {
+			throw new IllegalStateException("no active file for access");
+		}
+
+		synchronized (dbFile) {
+			RecordRemapping.moved(from, to);
+			for (final FileWriteListener listener : writeListeners) {
+				listener.recordMoved(from, to);
+			}
+		}
+	}
+
+	/**
+	 * Records in the {@code RecordRemapping} that the specified slot is used
+	 * for a new record.
+	 * 
+	 * @param slot
+	 *            reused slot
+	 */
+	void slotReused(long slot) {
+
+		if (dbFile == null) {
+			throw new IllegalStateException("no active file for access");
+		}
+
+		synchronized (dbFile) {
+			RecordRemapping.reused(slot);
+			for (final FileWriteListener listener : writeListeners) {
+				listener.slotReused(slot);
+			}
+		}
+	}
+
+	/**
+	 * Removes the entries of the {@code RecordRemapping} mapping to the
+	 * specified deleted record.
+	 * 
+	 * @param slot
+	 *            slot of the deleted record
+	 */
+	void recordRemoved(long slot) {
+
+		if (dbFile == null) {
+			throw new IllegalStateException("no active file for access");
+		}
+
+		synchronized (dbFile) {
+			RecordRemapping.removed(slot);
+			for (final FileWriteListener listener : writeListeners) {
+				listener.recordRemoved(slot);
+			}
 		}
 	}
 
@@ -311,6 +1028,140 @@ public final class FileAccess {
 		return allRecords;
 	}
 
+	/**
+	 * Opens a snapshot of the data file. The records are read at the snapshot
+	 * by the methods taking a {@code Snapshot} until it is closed by {@code
+	 * closeSnapshot}.
+	 * 
+	 * @return open snapshot
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	Snapshot openSnapshot() throws IOException {
+
+		if (dbFile == null) {
+			throw new IllegalStateException("no active file for access");
+		}
+
+		// No record must be written between counting and opening
+		synchronized (dbFile) {
+			return versions.open(getRecordCount());
+		}
+	}
+
+	/**
+	 * Opens a snapshot of the data file and registers a listener to be
+	 * notified about all writes after it, until it is removed by {@code
+	 * removeWriteListener}.
+	 * 
+	 * @param listener
+	 *            listener to be registered
+	 * @return open snapshot
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	Snapshot openSnapshot(FileWriteListener listener) throws IOException {
+
+		if (dbFile == null) {
+			throw new IllegalStateException("no active file for access");
+		}
+
+		// No write must be missed or notified twice
+		synchronized (dbFile) {
+			writeListeners.add(listener);
+			return openSnapshot();
+		}
+	}
+
+	/**
+	 * Removes a registered write listener.
+	 * 
+	 * @param listener
+	 *            listener to be removed
+	 */
+	void removeWriteListener(FileWriteListener listener) {
+		synchronized (dbFile) {
+			writeListeners.remove(listener);
+		}
+	}
+
+	/**
+	 * Closes the specified snapshot. Old contents of records are discarded
+	 * once no open snapshot needs them.
+	 * 
+	 * @param snapshot
+	 *            snapshot to be closed
+	 */
+	void closeSnapshot(Snapshot snapshot) {
+		versions.close(snapshot);
+	}
+
+	/**
+	 * Reads the record at the given position as it was when the specified
+	 * snapshot was opened.
+	 * 
+	 * @param recNo
+	 *            position of the record to read
+	 * @param snapshot
+	 *            open snapshot
+	 * @return content of the record at the snapshot, or null if the position
+	 *         was behind the end of the file
+	 * @throws IOException
+	 *             error while accessing the file
+	 */
+	DataRecord readRecord(long recNo, Snapshot snapshot) throws IOException {
+
+		if (recNo >= snapshot.getRecordCount()) {
+			return null;
+		}
+
+		// A record retained after reading from the file would be missed
+		synchronized (dbFile) {
+			final DataRecord retained = versions.read(recNo, snapshot);
+			if (retained != null) {
+				return retained;
+			}
+			return recNo < getRecordCount() ? readRecord(recNo) : null;
+		}
+	}
+
+	/**
+	 * Returns a list of all data records in the data file as they were when
+	 * the specified snapshot was opened.
+	 * 
+	 * @param snapshot
+	 *            open snapshot
+	 * @return list of all records at the snapshot
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	List<DataRecord> readAllRecords(Snapshot snapshot) throws IOException {
+
+		final List<DataRecord> allRecords = new ArrayList<DataRecord>();
+
+		for (int i = 0; i < snapshot.getRecordCount(); i++) {
+			final DataRecord record = readRecord(i, snapshot);
+			if (record != null) {
+				allRecords.add(record);
+			}
+		}
+
+		return allRecords;
+	}
+
+	/**
+	 * Returns the numbers of the records written since the specified snapshot
+	 * was opened. Their entries in the value indexes may differ from their
+	 * content at the snapshot.
+	 * 
+	 * @param snapshot
+	 *            open snapshot
+	 * @return numbers of the written records in ascending order
+	 */
+	long[] writtenSince(Snapshot snapshot) {
+		return versions.writtenSince(snapshot);
+	}
+
 	/**
 	 * Checks if the specified record number is valid, i.e. if it points to a
 	 * record inside the data file.
@@ -339,6 +1190,10 @@ public final class FileAccess {
 	 * @return true if the record is deleted
 	 */
 	public boolean isDeleted(long recNo) {
+		final FileIndex current = index;
+		if (current != null) {
+			return current.isDeleted(recNo);
+		}
 		try {
 			DataRecord record = readRecord(recNo);
 			return record.isDeleted();
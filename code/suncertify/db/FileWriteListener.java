@@ -0,0 +1,66 @@
+package suncertify.db;
+
+import suncertify.db.domain.DataRecordState;
+
+/**
+ * Listener notified about every write to the data file by {@code FileAccess}
+ * and every change of the record remapping, e.g. to ship them to a replica.
+ * <p>
+ * The listener is notified while the lock on the data file is held, in the
+ * order of the writes. It must therefore return quickly and must not access
+ * the data file itself.
+ * 
+ * @author Rasmus Kuschel
+ * @see FileAccess#openSnapshot(FileWriteListener)
+ */
+interface FileWriteListener {
+
+	/**
+	 * Invoked after a record has been written.
+	 * 
+	 * @param recNo
+	 *            number of the written record
+	 * @param state
+	 *            state of the written record
+	 * @param values
+	 *            field values as written to the data file
+	 */
+	void recordWritten(long recNo, DataRecordState state, String[] values);
+
+	/**
+	 * Invoked after the data file has been truncated.
+	 * 
+	 * @param recordCount
+	 *            new number of records
+	 */
+	void fileTruncated(int recordCount);
+
+	/**
+	 * Invoked after the compaction has moved a record and remapped its number.
+	 * 
+	 * @param from
+	 *            previous slot of the record
+	 * @param to
+	 *            new slot of the record
+	 * @see suncertify.db.index.RecordRemapping#moved(long, long)
+	 */
+	void recordMoved(long from, long to);
+
+	/**
+	 * Invoked before a slot is used for a new record.
+	 * 
+	 * @param slot
+	 *            reused slot
+	 * @see suncertify.db.index.RecordRemapping#reused(long)
+	 */
+	void slotReused(long slot);
+
+	/**
+	 * Invoked after the remapped numbers of a deleted record were removed.
+	 * 
+	 * @param slot
+	 *            slot of the deleted record
+	 * @see suncertify.db.index.RecordRemapping#removed(long)
+	 */
+	void recordRemoved(long slot);
+}
@@ -0,0 +1,31 @@
+package suncertify.db;
+
+/**
+ * Callback that is notified when a record lock requested without blocking has
+ * been acquired or could not be acquired.
+ * <p>
+ * The callback is invoked on the thread that makes the lock available, e.g.
+ * the thread releasing it, and must therefore return quickly.
+ * 
+ * @author Rasmus Kuschel
+ * @see CallbackDBAccess
+ */
+public interface LockCallback {
+
+	/**
+	 * Called when the lock has been acquired.
+	 * 
+	 * @param cookie
+	 *            lock cookie value
+	 */
+	public void lockAcquired(long cookie);
+
+	/**
+	 * Called when the lock cannot be acquired, e.g. because the record does
+	 * not exist or because waiting for it would result in a deadlock.
+	 * 
+	 * @param exception
+	 *            exception describing the failure
+	 */
+	public void lockFailed(Exception exception);
+}
@@ -0,0 +1,516 @@
+package suncertify.db;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import suncertify.db.domain.DataRecord;
+import suncertify.db.domain.DataRecordState;
+import suncertify.db.domain.FileMetaData;
+import suncertify.db.event.ChangeNotifier;
+import suncertify.db.event.RecordChangeEvent;
+import suncertify.db.event.RecordChangeType;
+import suncertify.db.index.RecordRemapping;
+
+/**
+ * Entry of the change log shipped from a primary server to its replicas: a
+ * record written to or the truncation of the data file, a change or copy of
+ * the record remapping, or a change of a record reported to listeners.
+ * <p>
+ * An entry is encoded as a type byte followed by the number and the state of
+ * the record and its field values, by the new number of records, by the slots
+ * of a change of the remapping, by the entries of a copy of it, or by the
+ * number of the changed record, the kind of the change and the new field
+ * values.
+ * 
+ * @author Rasmus Kuschel
+ * @see LogShipper
+ * @see LogReplica
+ */
+final class LogEntry {
+
+	/**
+	 * Type of an entry of a written record
+	 */
+	private static final byte WRITE = 1;
+
+	/**
+	 * Type of an entry of a truncation
+	 */
+	private static final byte TRUNCATE = 2;
+
+	/**
+	 * Type of an entry of a record moved by the compaction
+	 */
+	private static final byte MOVE = 3;
+
+	/**
+	 * Type of an entry of a slot reused for a new record
+	 */
+	private static final byte REUSE = 4;
+
+	/**
+	 * Type of an entry of the remapped numbers of a deleted record removed
+	 */
+	private static final byte REMOVE = 5;
+
+	/**
+	 * Type of an entry of a copy of the remapping
+	 */
+	private static final byte REMAPPING = 6;
+
+	/**
+	 * Type of an entry of a change reported to listeners
+	 */
+	private static final byte CHANGE = 7;
+
+	/**
+	 * Type of this entry
+	 */
+	private final byte type;
+
+	/**
+	 * Number of the written or changed record, the new number of records, or
+	 * the slot a change of the remapping refers to
+	 */
+	private final long recNo;
+
+	/**
+	 * New slot of a moved record, -1 for other entries
+	 */
+	private final long target;
+
+	/**
+	 * State of the written record, null for a truncation
+	 */
+	private final DataRecordState state;
+
+	/**
+	 * Field values of the written or changed record, null for a truncation or
+	 * a deletion
+	 */
+	private final String[] values;
+
+	/**
+	 * Kind of a change reported to listeners, null for other entries
+	 */
+	private final RecordChangeType change;
+
+	/**
+	 * Old record numbers and their slots of a copy of the remapping, null for
+	 * other entries
+	 */
+	private final Map<Long, Long> mapping;
+
+	/**
+	 * Slots and their generations of a copy of the remapping, null for other
+	 * entries
+	 */
+	private final Map<Long, Long> generations;
+
+	/**
+	 * Creates a new entry.
+	 * 
+	 * @param type
+	 *            type of the entry
+	 * @param recNo
+	 *            number of the written record, the new number of records, or
+	 *            the slot a change of the remapping refers to
+	 * @param state
+	 *            state of the written record
+	 * @param values
+	 *            field values of the written record
+	 */
+	private LogEntry(byte type, long recNo, DataRecordState state,
+			String[] values) {
+		this(type, recNo, -1, state, values, null, null, null);
+	}
+
+	/**
+	 * Creates a new entry.
+	 * 
+	 * @param type
+	 *            type of the entry
+	 * @param recNo
+	 *            number of the written or changed record, the new number of
+	 *            records, or the slot a change of the remapping refers to
+	 * @param target
+	 *            new slot of a moved record
+	 * @param state
+	 *            state of the written record
+	 * @param values
+	 *            field values of the written or changed record
+	 * @param mapping
+	 *            old record numbers and their slots of a copy of the
+	 *            remapping
+	 * @param generations
+	 *            slots and their generations of a copy of the remapping
+	 * @param change
+	 *            kind of a change reported to listeners
+	 */
+	private LogEntry(byte type, long recNo, long target,
+			DataRecordState state, String[] values, Map<Long, Long> mapping,
+			Map<Long, Long> generations, RecordChangeType change) {
+		this.type = type;
+		this.recNo = recNo;
+		this.target = target;
+		this.state = state;
+		this.values = values;
+		this.mapping = mapping;
+		this.generations = generations;
+		this.change = change;
+	}
+
+	/**
+	 * Creates an entry of a written record.
+	 * 
+	 * @param recNo
+	 *            number of the written record
+	 * @param state
+	 *            state of the written record
+	 * @param values
+	 *            field values as written to the data file
+	 * @return new entry
+	 */
+	static LogEntry written(long recNo, DataRecordState state,
+			String[] values) {
+		return new LogEntry(WRITE, recNo, state, values);
+	}
+
+	/**
+	 * Creates an entry of a truncation.
+	 * 
+	 * @param recordCount
+	 *            new number of records
+	 * @return new entry
+	 */
+	static LogEntry truncated(int recordCount) {
+		return new LogEntry(TRUNCATE, recordCount, null, null);
+	}
+
+	/**
+	 * Creates an entry of a record moved by the compaction.
+	 * 
+	 * @param from
+	 *            previous slot of the record
+	 * @param to
+	 *            new slot of the record
+	 * @return new entry
+	 */
+	static LogEntry moved(long from, long to) {
+		return new LogEntry(MOVE, from, to, null, null, null, null, null);
+	}
+
+	/**
+	 * Creates an entry of a slot reused for a new record.
+	 * 
+	 * @param slot
+	 *            reused slot
+	 * @return new entry
+	 */
+	static LogEntry reused(long slot) {
+		return new LogEntry(REUSE, slot, null, null);
+	}
+
+	/**
+	 * Creates an entry of the remapped numbers of a deleted record removed.
+	 * 
+	 * @param slot
+	 *            slot of the deleted record
+	 * @return new entry
+	 */
+	static LogEntry removed(long slot) {
+		return new LogEntry(REMOVE, slot, null, null);
+	}
+
+	/**
+	 * Creates an entry of a copy of the current remapping. Must be invoked
+	 * while holding the monitor of the Data class, so that the remapping does
+	 * not change.
+	 * 
+	 * @return new entry
+	 */
+	static LogEntry remapping() {
+		final Map<Long, Long> mapping = new HashMap<Long, Long>();
+		final Map<Long, Long> generations = new HashMap<Long, Long>();
+		RecordRemapping.copy(mapping, generations);
+		return new LogEntry(REMAPPING, -1, -1, null, null, mapping,
+				generations, null);
+	}
+
+	/**
+	 * Creates an entry of a change reported to listeners.
+	 * 
+	 * @param event
+	 *            reported change
+	 * @return new entry
+	 */
+	static LogEntry changed(RecordChangeEvent event) {
+		return new LogEntry(CHANGE, event.getRecNo(), -1, null, event
+				.getData(), null, null, event.getType());
+	}
+
+	/**
+	 * Writes this entry to a stream.
+	 * 
+	 * @param out
+	 *            stream to write to
+	 * @throws IOException
+	 *             if the stream cannot be written
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeByte(type);
+		if (type == TRUNCATE) {
+			out.writeInt((int) recNo);
+			return;
+		}
+		if (type == REMAPPING) {
+			writeMap(out, mapping);
+			writeMap(out, generations);
+			return;
+		}
+		out.writeLong(recNo);
+		if (type == MOVE) {
+			out.writeLong(target);
+			return;
+		}
+		if (type == REUSE || type == REMOVE) {
+			return;
+		}
+		if (type == CHANGE) {
+			out.writeByte(change.ordinal());
+		} else {
+			out.writeShort(state.getEncoding());
+		}
+		if (values == null) {
+			out.writeByte(0);
+			return;
+		}
+		out.writeByte(values.length);
+		for (final String value : values) {
+			out.writeUTF(value);
+		}
+	}
+
+	/**
+	 * Reads an entry from a stream.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @return entry read
+	 * @throws IOException
+	 *             if the stream cannot be read or contains an invalid entry
+	 */
+	static LogEntry read(DataInput in) throws IOException {
+		final byte type = in.readByte();
+		if (type == TRUNCATE) {
+			return truncated(in.readInt());
+		}
+		if (type == MOVE) {
+			return moved(in.readLong(), in.readLong());
+		}
+		if (type == REUSE) {
+			return reused(in.readLong());
+		}
+		if (type == REMOVE) {
+			return removed(in.readLong());
+		}
+		if (type == REMAPPING) {
+			return new LogEntry(REMAPPING, -1, -1, null, null, readMap(in),
+					readMap(in), null);
+		}
+		if (type == CHANGE) {
+			final long recNo = in.readLong();
+			final int change = in.readUnsignedByte();
+			final RecordChangeType[] changes = RecordChangeType.values();
+			if (change >= changes.length) {
+				throw new IOException("Invalid log entry of record " + recNo);
+			}
+			final String[] values = readValues(in, recNo);
+			final boolean deleted = changes[change] == RecordChangeType.DELETED;
+			if ((values == null) != deleted) {
+				throw new IOException("Invalid log entry of record " + recNo);
+			}
+			return new LogEntry(CHANGE, recNo, -1, null, values, null, null,
+					changes[change]);
+		}
+		if (type != WRITE) {
+			throw new IOException("Invalid log entry type " + type);
+		}
+
+		final long recNo = in.readLong();
+		final DataRecordState state = DataRecordState.forValue(in
+				.readShort());
+		final String[] values = readValues(in, recNo);
+		if (state == null || values == null) {
+			throw new IOException("Invalid log entry of record " + recNo);
+		}
+		return written(recNo, state, values);
+	}
+
+	/**
+	 * Reads the field values of a record from a stream.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @param recNo
+	 *            number of the record
+	 * @return field values read, or null if the entry has none
+	 * @throws IOException
+	 *             if the stream cannot be read or contains an invalid number
+	 *             of values
+	 */
+	private static String[] readValues(DataInput in, long recNo)
+			throws IOException {
+		final int count = in.readUnsignedByte();
+		if (count == 0) {
+			return null;
+		}
+		if (count != FileMetaData.EXPECTED_FIELD_COUNT) {
+			throw new IOException("Invalid log entry of record " + recNo);
+		}
+		final String[] values = new String[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = in.readUTF();
+		}
+		return values;
+	}
+
+	/**
+	 * Applies this entry to the data file, or reports the change of this
+	 * entry to the listeners of the replica.
+	 * 
+	 * @param fileAccess
+	 *            component used for low-level file access
+	 * @param changeNotifier
+	 *            component used to notify listeners about changes of records
+	 * @throws IOException
+	 *             if the data file cannot be written
+	 */
+	void apply(FileAccess fileAccess, ChangeNotifier changeNotifier)
+			throws IOException {
+		if (type == CHANGE) {
+			changeNotifier.fireRecordChanged(change, recNo, values);
+		} else if (type == TRUNCATE) {
+			fileAccess.truncate((int) recNo);
+		} else if (type == MOVE) {
+			fileAccess.recordMoved(recNo, target);
+		} else if (type == REUSE) {
+			fileAccess.slotReused(recNo);
+		} else if (type == REMOVE) {
+			fileAccess.recordRemoved(recNo);
+		} else if (type == REMAPPING) {
+			RecordRemapping.restore(mapping, generations);
+		} else {
+			fileAccess.writeRecord(recNo, new DataRecord(recNo, state, values));
+		}
+	}
+
+	/**
+	 * Applies this entry of the copy of the data file sent to a replica. As the
+	 * changes made while the replica was disconnected have not been reported,
+	 * the records that differ from the previous copy of the replica are
+	 * reported to its listeners.
+	 * 
+	 * @param fileAccess
+	 *            component used for low-level file access
+	 * @param changeNotifier
+	 *            component used to notify listeners about changes of records
+	 * @throws IOException
+	 *             if the data file cannot be written
+	 */
+	void applyCopy(FileAccess fileAccess, ChangeNotifier changeNotifier)
+			throws IOException {
+		if (type == TRUNCATE) {
+			long slot = recNo;
+			for (; fileAccess.isValidRecordNumber(slot); slot++) {
+				if (!fileAccess.readRecord(slot).isDeleted()) {
+					changeNotifier.fireRecordChanged(RecordChangeType.DELETED,
+							RecordRemapping.number(slot), null);
+				}
+			}
+			apply(fileAccess, changeNotifier);
+			return;
+		}
+		if (type != WRITE) {
+			apply(fileAccess, changeNotifier);
+			return;
+		}
+
+		DataRecord previous = null;
+		if (fileAccess.isValidRecordNumber(recNo)) {
+			previous = fileAccess.readRecord(recNo);
+			if (previous.isDeleted()) {
+				previous = null;
+			}
+		}
+		apply(fileAccess, changeNotifier);
+
+		final long number = RecordRemapping.number(recNo);
+		if (state == DataRecordState.DELETED) {
+			if (previous != null) {
+				changeNotifier.fireRecordChanged(RecordChangeType.DELETED,
+						number, null);
+			}
+		} else if (previous == null) {
+			changeNotifier.fireRecordChanged(RecordChangeType.CREATED, number,
+					values);
+		} else if (!Arrays.equals(previous.getData(), values)) {
+			changeNotifier.fireRecordChanged(RecordChangeType.UPDATED, number,
+					values);
+		}
+	}
+
+	/**
+	 * Checks whether this entry ends the copy of the data file sent to a
+	 * replica, i.e. whether it is a truncation.
+	 * 
+	 * @return true if this entry is a truncation
+	 */
+	boolean isTruncation() {
+		return type == TRUNCATE;
+	}
+
+	/**
+	 * Writes a map of record numbers or slots to a stream.
+	 * 
+	 * @param out
+	 *            stream to write to
+	 * @param map
+	 *            map to be written
+	 * @throws IOException
+	 *             if the stream cannot be written
+	 */
+	private static void writeMap(DataOutput out, Map<Long, Long> map)
+			throws IOException {
+		out.writeInt(map.size());
+		for (final Map.Entry<Long, Long> entry : map.entrySet()) {
+			out.writeLong(entry.getKey());
+			out.writeLong(entry.getValue());
+		}
+	}
+
+	/**
+	 * Reads a map of record numbers or slots from a stream.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @return map read
+	 * @throws IOException
+	 *             if the stream cannot be read
+	 */
+	private static Map<Long, Long> readMap(DataInput in) throws IOException {
+		final int size = in.readInt();
+		if (size < 0) {
+			throw new IOException("Invalid log entry of the remapping");
+		}
+		final Map<Long, Long> map = new HashMap<Long, Long>();
+		for (int i = 0; i < size; i++) {
+			map.put(in.readLong(), in.readLong());
+		}
+		return map;
+	}
+}
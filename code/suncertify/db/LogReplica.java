@@ -0,0 +1,191 @@
+package suncertify.db;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import suncertify.db.event.ChangeNotifier;
+
+/**
+ * Keeps the data file of a replica server up to date with the data file of
+ * the primary server on the same host.
+ * <p>
+ * The replica connects to the {@code LogShipper} of the primary, receives a
+ * copy of all records and of the record remapping and then applies every
+ * write to the primary's file and every change of its remapping, each while
+ * holding the monitor of the Data class. The changes of records reported by
+ * the primary are reported to the listeners of the replica after the writes
+ * they result from, so that clients caching records of the replica see them.
+ * The data file of the replica is read-only for clients; searches and reads
+ * see the state of the primary with a short delay.
+ * <p>
+ * If the connection is lost, the replica reconnects after a pause and copies
+ * the file again. Until the copy is complete, clients may read records older
+ * than those of the primary. The records of the copy that differ from the
+ * previous copy of the replica are reported as changed.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class LogReplica {
+
+	/**
+	 * Pause in milliseconds before the replica reconnects
+	 */
+	private static final long RETRY_INTERVAL = 5000;
+
+	/**
+	 * Port of the log shipper of the primary
+	 */
+	private final int port;
+
+	/**
+	 * Component used for low-level file access
+	 */
+	private final FileAccess fileAccess = new FileAccess();
+
+	/**
+	 * Component used to notify listeners about changes of records
+	 */
+	private final ChangeNotifier changeNotifier = new ChangeNotifier();
+
+	/**
+	 * Background thread, or null if not started
+	 */
+	private Thread thread;
+
+	/**
+	 * Socket connected to the primary, or null if not connected
+	 */
+	private volatile Socket socket;
+
+	/**
+	 * Number of log entries applied since the replica was started
+	 */
+	private volatile long appliedEntries;
+
+	/**
+	 * Creates a new replica of the active data file.
+	 * 
+	 * @param port
+	 *            port of the log shipper of the primary
+	 */
+	public LogReplica(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Makes the data file read-only for clients and starts applying the log
+	 * of the primary in the background.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		Data.setReadOnly(true);
+		thread = new Thread("log replica") {
+			@Override
+			public void run() {
+				try {
+					while (!isInterrupted()) {
+						try {
+							replicate();
+						} catch (final IOException e) {
+							System.err.println("Replication interrupted: "
+									+ e.getMessage());
+						}
+						Thread.sleep(RETRY_INTERVAL);
+					}
+				} catch (final InterruptedException e) {
+					// stopped
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops applying the log of the primary.
+	 */
+	public synchronized void stop() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+			final Socket current = socket;
+			if (current != null) {
+				// unblocks the thread waiting for the next entry
+				close(current);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the replica is connected to the primary.
+	 * 
+	 * @return true if connected
+	 */
+	public boolean isConnected() {
+		return socket != null;
+	}
+
+	/**
+	 * Returns the number of log entries applied since the replica was
+	 * started.
+	 * 
+	 * @return number of applied entries
+	 */
+	public long getAppliedEntries() {
+		return appliedEntries;
+	}
+
+	/**
+	 * Connects to the primary and applies its log until the connection is
+	 * lost.
+	 * 
+	 * @throws IOException
+	 *             if the connection fails or the data file cannot be written
+	 */
+	private void replicate() throws IOException {
+		final Socket current = new Socket(InetAddress.getByName(null), port);
+		socket = current;
+		try {
+			final DataInputStream in = new DataInputStream(
+					new BufferedInputStream(current.getInputStream()));
+			boolean copied = false;
+			while (true) {
+				final LogEntry entry = LogEntry.read(in);
+				synchronized (Data.class) {
+					if (copied) {
+						entry.apply(fileAccess, changeNotifier);
+					} else {
+						entry.applyCopy(fileAccess, changeNotifier);
+						copied = entry.isTruncation();
+					}
+				}
+				appliedEntries++;
+			}
+		} catch (final EOFException e) {
+			throw new IOException("Connection closed by the primary");
+		} finally {
+			socket = null;
+			close(current);
+		}
+	}
+
+	/**
+	 * Closes a socket, ignoring errors.
+	 * 
+	 * @param socket
+	 *            socket to be closed
+	 */
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (final IOException ignored) {
+			System.err.println(ignored.getMessage());
+		}
+	}
+}
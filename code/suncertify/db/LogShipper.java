@@ -0,0 +1,328 @@
+package suncertify.db;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import suncertify.db.VersionStore.Snapshot;
+import suncertify.db.domain.DataRecord;
+import suncertify.db.domain.DataRecordState;
+import suncertify.db.event.ChangeNotifier;
+import suncertify.db.event.RecordChangeEvent;
+import suncertify.db.event.RecordChangeListener;
+
+/**
+ * Ships the change log of the data file of a primary server to its replicas.
+ * <p>
+ * The shipper accepts connections of {@code LogReplica} instances on a socket
+ * bound to the loopback address, so only replicas on the same host can
+ * connect. For each replica, a thread first sends the record remapping and all
+ * records of a snapshot of the data file, so that the replica's copy starts
+ * from a consistent state, and then every record written, every truncation and
+ * every change of the remapping after the snapshot, in the order of the
+ * writes. The changes of records reported to listeners are shipped after the
+ * writes they result from, so that the replica can report them to its own
+ * listeners.
+ * <p>
+ * The writes are queued while the copy is sent and while the replica falls
+ * behind. If the queue overflows, the replica is disconnected; it reconnects
+ * and copies the file again.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class LogShipper {
+
+	/**
+	 * Default port the replicas connect to
+	 */
+	public static final int DEFAULT_PORT = 1101;
+
+	/**
+	 * Maximum number of writes queued for one replica
+	 */
+	private static final int MAX_BACKLOG = 100000;
+
+	/**
+	 * Port the replicas connect to
+	 */
+	private final int port;
+
+	/**
+	 * Component used for low-level file access
+	 */
+	private final FileAccess fileAccess = new FileAccess();
+
+	/**
+	 * Component used to receive the changes of records
+	 */
+	private final ChangeNotifier changeNotifier = new ChangeNotifier();
+
+	/**
+	 * Threads shipping the log to the connected replicas
+	 */
+	private final List<Shipment> shipments = new ArrayList<Shipment>();
+
+	/**
+	 * Socket accepting the replicas, or null if not started
+	 */
+	private ServerSocket serverSocket;
+
+	/**
+	 * Creates a new shipper of the change log of the active data file.
+	 * 
+	 * @param port
+	 *            port the replicas connect to
+	 */
+	public LogShipper(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Starts accepting replicas in the background.
+	 * 
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public synchronized void start() throws IOException {
+		if (serverSocket != null) {
+			return;
+		}
+		serverSocket = new ServerSocket(port, 0, InetAddress.getByName(null));
+		final ServerSocket acceptor = serverSocket;
+		final Thread thread = new Thread("log shipper") {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						addShipment(acceptor.accept());
+					}
+				} catch (final IOException e) {
+					// stopped
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops accepting replicas and disconnects the connected ones.
+	 */
+	public synchronized void stop() {
+		if (serverSocket == null) {
+			return;
+		}
+		try {
+			serverSocket.close();
+		} catch (final IOException ignored) {
+			System.err.println(ignored.getMessage());
+		}
+		serverSocket = null;
+		for (final Shipment shipment : shipments) {
+			shipment.interrupt();
+		}
+	}
+
+	/**
+	 * Returns the number of connected replicas.
+	 * 
+	 * @return number of replicas
+	 */
+	public synchronized int getReplicaCount() {
+		return shipments.size();
+	}
+
+	/**
+	 * Starts shipping the log to a connected replica.
+	 * 
+	 * @param socket
+	 *            socket connected to the replica
+	 */
+	private synchronized void addShipment(Socket socket) {
+		if (serverSocket == null) {
+			close(socket);
+			return;
+		}
+		final Shipment shipment = new Shipment(socket);
+		shipments.add(shipment);
+		shipment.start();
+	}
+
+	/**
+	 * Removes a finished shipment.
+	 * 
+	 * @param shipment
+	 *            finished shipment
+	 */
+	private synchronized void removeShipment(Shipment shipment) {
+		shipments.remove(shipment);
+	}
+
+	/**
+	 * Closes a socket, ignoring errors.
+	 * 
+	 * @param socket
+	 *            socket to be closed
+	 */
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (final IOException ignored) {
+			System.err.println(ignored.getMessage());
+		}
+	}
+
+	/**
+	 * Thread shipping the log to one replica.
+	 */
+	private final class Shipment extends Thread implements FileWriteListener,
+			RecordChangeListener {
+
+		/**
+		 * Socket connected to the replica
+		 */
+		private final Socket socket;
+
+		/**
+		 * Writes not yet sent to the replica
+		 */
+		private final BlockingQueue<LogEntry> backlog = new LinkedBlockingQueue<LogEntry>(
+				MAX_BACKLOG);
+
+		/**
+		 * Creates a new shipment.
+		 * 
+		 * @param socket
+		 *            socket connected to the replica
+		 */
+		Shipment(Socket socket) {
+			super("log shipment to " + socket.getRemoteSocketAddress());
+			this.socket = socket;
+			setDaemon(true);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void recordWritten(long recNo, DataRecordState state,
+				String[] values) {
+			queue(LogEntry.written(recNo, state, values));
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void fileTruncated(int recordCount) {
+			queue(LogEntry.truncated(recordCount));
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void recordMoved(long from, long to) {
+			queue(LogEntry.moved(from, to));
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void slotReused(long slot) {
+			queue(LogEntry.reused(slot));
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void recordRemoved(long slot) {
+			queue(LogEntry.removed(slot));
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void recordChanged(RecordChangeEvent event) {
+			queue(LogEntry.changed(event));
+		}
+
+		/**
+		 * Queues a write. If the queue is full, the replica is disconnected,
+		 * as it cannot apply any later write without this one.
+		 * 
+		 * @param entry
+		 *            entry of the write
+		 */
+		private void queue(LogEntry entry) {
+			if (!backlog.offer(entry)) {
+				interrupt();
+			}
+		}
+
+		/**
+		 * Sends the records of a snapshot and then the queued writes, until
+		 * the replica disconnects or the shipper is stopped.
+		 */
+		@Override
+		public void run() {
+			try {
+				final DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(socket.getOutputStream()));
+				final Snapshot snapshot;
+				final LogEntry remapping;
+				// the remapping is only changed and changes are only reported
+				// while holding the monitor of the Data class, so both match
+				// the snapshot
+				synchronized (Data.class) {
+					changeNotifier.addListener(this);
+					snapshot = fileAccess.openSnapshot(this);
+					remapping = LogEntry.remapping();
+				}
+				try {
+					remapping.write(out);
+					final int recordCount = snapshot.getRecordCount();
+					for (int recNo = 0; recNo < recordCount; recNo++) {
+						final DataRecord record = fileAccess.readRecord(recNo,
+								snapshot);
+						if (record != null) {
+							LogEntry.written(recNo, record.getState(),
+									record.getData()).write(out);
+						}
+					}
+					LogEntry.truncated(recordCount).write(out);
+				} finally {
+					fileAccess.closeSnapshot(snapshot);
+				}
+
+				while (!isInterrupted()) {
+					LogEntry entry = backlog.poll();
+					if (entry == null) {
+						out.flush();
+						entry = backlog.take();
+					}
+					entry.write(out);
+				}
+			} catch (final InterruptedException e) {
+				// stopped or fallen behind
+			} catch (final IOException e) {
+				System.err.println("Log shipment failed: " + e.getMessage());
+			} finally {
+				fileAccess.removeWriteListener(this);
+				changeNotifier.removeListener(this);
+				close(socket);
+				removeShipment(this);
+			}
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package suncertify.db;
+
+/**
+ * Enumeration of the ways a criterion of a search can match a field value.
+ * <p>
+ * Field values are compared without their trailing blanks, as they are
+ * returned by {@code readRecord}.
+ * 
+ * @author Rasmus Kuschel
+ * @see MatchingDBAccess
+ */
+public enum MatchMode {
+
+	/**
+	 * Mode matching any field value that begins with the criterion, as
+	 * {@link DBAccess#findByCriteria(String[])} does
+	 */
+	PREFIX {
+		@Override
+		public boolean matches(String value, String criterion) {
+			return value.startsWith(criterion);
+		}
+	},
+	/**
+	 * Mode matching only a field value that equals the criterion
+	 */
+	EXACT {
+		@Override
+		public boolean matches(String value, String criterion) {
+			return value.equals(criterion);
+		}
+	},
+	/**
+	 * Mode matching only a field value that equals the criterion, ignoring
+	 * case
+	 */
+	IGNORE_CASE {
+		@Override
+		public boolean matches(String value, String criterion) {
+			return value.equalsIgnoreCase(criterion);
+		}
+	};
+
+	/**
+	 * Checks whether the specified field value matches the specified
+	 * criterion in this mode.
+	 * 
+	 * @param value
+	 *            field value without trailing blanks
+	 * @param criterion
+	 *            criterion, not null
+	 * @return true if the value matches the criterion
+	 */
+	public abstract boolean matches(String value, String criterion);
+}
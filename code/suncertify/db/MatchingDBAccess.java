@@ -0,0 +1,34 @@
+package suncertify.db;
+
+/**
+ * Extension of the {@code DBAccess} interface for searches that compare the
+ * criteria with the field values in other ways than by prefix.
+ * <p>
+ * Each criterion is given a {@code MatchMode}, so that e.g. an exact search is
+ * evaluated where the data is stored. Only the numbers of the records that
+ * actually match are returned, and a client does not need to read the other
+ * records just to discard them.
+ * 
+ * @author Rasmus Kuschel
+ */
+public interface MatchingDBAccess {
+
+	/**
+	 * Returns an array of record numbers that match the specified criteria.
+	 * Field n in the database file is described by criteria[n], which is
+	 * compared with the field value as specified by modes[n]. A null value in
+	 * criteria[n] matches any field value.
+	 * 
+	 * @param criteria
+	 *            criteria for the search
+	 * @param modes
+	 *            match mode of each criterion; if null, all criteria are
+	 *            matched by prefix
+	 * @return array of record numbers that match the specified criteria, in
+	 *         ascending order
+	 * @throws IllegalArgumentException
+	 *             if modes is not null and its length differs from the length
+	 *             of the criteria
+	 */
+	public long[] findByCriteria(String[] criteria, MatchMode[] modes);
+}
@@ -0,0 +1,125 @@
+package suncertify.db;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import suncertify.db.domain.DataRecord;
+
+/**
+ * Enumeration of the fields holding numeric values, that can be searched by
+ * range and sorted numerically.
+ * <p>
+ * As the data file stores all values as text, the values are parsed. They are
+ * represented as long values in the smallest unit of the field, e.g. cents for
+ * the rate, so that they can be compared exactly.
+ * 
+ * @author Rasmus Kuschel
+ * @see RecordQuery
+ */
+public enum NumericField {
+
+	/**
+	 * Number of workers (e.g. "6")
+	 */
+	SIZE(DataRecord.INDEX_SIZE, 0),
+
+	/**
+	 * Hourly charge in dollars (e.g. "$75.00"), represented in cents
+	 */
+	RATE(DataRecord.INDEX_RATE, 2);
+
+	/**
+	 * Position of the field in a record
+	 */
+	private final int field;
+
+	/**
+	 * Number of decimal places of the smallest unit of the field
+	 */
+	private final int scale;
+
+	/**
+	 * Constructor for NumericField.
+	 * 
+	 * @param field
+	 *            position of the field in a record
+	 * @param scale
+	 *            number of decimal places of the smallest unit
+	 */
+	NumericField(int field, int scale) {
+		this.field = field;
+		this.scale = scale;
+	}
+
+	/**
+	 * Returns the position of the field in a record.
+	 * 
+	 * @return position of the field
+	 */
+	public int getField() {
+		return field;
+	}
+
+	/**
+	 * Parses a value of this field. A leading dollar sign and surrounding
+	 * blanks are ignored.
+	 * 
+	 * @param value
+	 *            field value
+	 * @return value in the smallest unit of the field, or null if the value is
+	 *         not a number
+	 */
+	public Long parse(String value) {
+		String text = value.trim();
+		if (text.startsWith("$")) {
+			text = text.substring(1);
+		}
+		try {
+			return Long.valueOf(toUnits(new BigDecimal(text),
+					RoundingMode.HALF_UP));
+		} catch (final NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Converts a number to the smallest unit of this field.
+	 * 
+	 * @param value
+	 *            number, e.g. 59.99 for a rate
+	 * @param rounding
+	 *            rounding applied if the number has more decimal places than
+	 *            the smallest unit
+	 * @return value in the smallest unit, e.g. 5999
+	 */
+	public long toUnits(BigDecimal value, RoundingMode rounding) {
+		return value.movePointRight(scale).setScale(0, rounding).longValue();
+	}
+
+	/**
+	 * Converts a value in the smallest unit of this field to a number.
+	 * 
+	 * @param units
+	 *            value in the smallest unit, e.g. 5999 for a rate
+	 * @return number, e.g. 59.99
+	 */
+	public BigDecimal toDecimal(long units) {
+		return BigDecimal.valueOf(units, scale);
+	}
+
+	/**
+	 * Returns the numeric field at the specified position.
+	 * 
+	 * @param field
+	 *            position of the field in a record
+	 * @return numeric field, or null if the field is not numeric
+	 */
+	public static NumericField forField(int field) {
+		for (final NumericField numericField : values()) {
+			if (numericField.field == field) {
+				return numericField;
+			}
+		}
+		return null;
+	}
+}
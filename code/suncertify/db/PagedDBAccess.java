@@ -0,0 +1,70 @@
+package suncertify.db;
+
+/**
+ * Extension of the {@code DBAccess} interface for reading the result of a
+ * search page by page.
+ * <p>
+ * Instead of returning the numbers of all matching records at once, a search
+ * opens a cursor. The matching records, including their field values, are then
+ * fetched in pages of limited size. This allows a client to display the first
+ * records of a large result quickly, without holding the complete result in
+ * memory.
+ * <p>
+ * Cursors hold resources of the implementation and must be closed when they
+ * are no longer needed.
+ * 
+ * @author Rasmus Kuschel
+ */
+public interface PagedDBAccess {
+
+	/**
+	 * Opens a cursor over the records that match the specified criteria. The
+	 * criteria have the same meaning as in
+	 * {@link DBAccess#findByCriteria(String[])}.
+	 * 
+	 * @param criteria
+	 *            criteria for the search
+	 * @return id of the cursor
+	 */
+	public long openCursor(String[] criteria);
+
+	/**
+	 * Opens a cursor over the records that match the specified query, in the
+	 * order and up to the limit specified by the query. The query is
+	 * evaluated as in {@link QueryDBAccess#findByQuery(RecordQuery)}, so the
+	 * records are sorted by the implementation and only the requested pages
+	 * are transferred.
+	 * 
+	 * @param query
+	 *            query to be evaluated
+	 * @return id of the cursor
+	 * @throws UnsupportedRequestException
+	 *             if the implementation cannot evaluate queries
+	 */
+	public long openCursor(RecordQuery query);
+
+	/**
+	 * Fetches the next page of records from the specified cursor. Records
+	 * deleted since the cursor was opened are skipped, so the page may contain
+	 * fewer records than requested even if it is not the last one.
+	 * 
+	 * @param cursorId
+	 *            id of the cursor
+	 * @param maxRecords
+	 *            maximum number of records in the page
+	 * @return next page of records
+	 * @throws CursorExpiredException
+	 *             if the cursor is not open, e.g. because it was closed to
+	 *             open another one
+	 */
+	public RecordPage fetchPage(long cursorId, int maxRecords);
+
+	/**
+	 * Closes the specified cursor. Closing a cursor that is not open has no
+	 * effect.
+	 * 
+	 * @param cursorId
+	 *            id of the cursor
+	 */
+	public void closeCursor(long cursorId);
+}
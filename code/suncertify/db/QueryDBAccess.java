@@ -0,0 +1,25 @@
+package suncertify.db;
+
+/**
+ * Extension of the {@code DBAccess} interface for searches selecting records
+ * by numeric ranges, in a specified order and up to a maximum number of
+ * records.
+ * <p>
+ * The query is evaluated where the data is stored, so that e.g. the ten
+ * cheapest contractors in a location are found without transferring all
+ * records of this location to the client.
+ * 
+ * @author Rasmus Kuschel
+ */
+public interface QueryDBAccess {
+
+	/**
+	 * Returns the numbers of the records that match the specified query, in
+	 * the order and up to the limit specified by the query.
+	 * 
+	 * @param query
+	 *            query to be evaluated
+	 * @return numbers of the matching records
+	 */
+	public long[] findByQuery(RecordQuery query);
+}
@@ -0,0 +1,36 @@
+package suncertify.db;
+
+/**
+ * Exception thrown if a client tries to create, modify or lock a record on a
+ * replica server, whose data file is only written by the log of the primary
+ * server.
+ * <p>
+ * The request has not been executed. Clients must send it to the primary
+ * server instead.
+ * 
+ * @author Rasmus Kuschel
+ */
+public class ReadOnlyReplicaException extends TechnicalErrorException {
+
+	/**
+	 * Serial version UID
+	 */
+	private static final long serialVersionUID = -5207731548862910364L;
+
+	/**
+	 * Creates a new exception instance.
+	 */
+	public ReadOnlyReplicaException() {
+		super();
+	}
+
+	/**
+	 * Creates a new exception instance with the specified description.
+	 * 
+	 * @param description
+	 *            description of the exception
+	 */
+	public ReadOnlyReplicaException(String description) {
+		super(description);
+	}
+}
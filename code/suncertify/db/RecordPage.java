@@ -0,0 +1,208 @@
+package suncertify.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Page of records fetched from a cursor of a {@code PagedDBAccess}.
+ * <p>
+ * A page contains the numbers and the field values of the records, so that
+ * they do not need to be read one by one.
+ * <p>
+ * As pages are sent over the network in bulk, they are serialized in a compact
+ * encoding instead of as nested arrays: the record numbers, followed by the
+ * field values written in modified UTF-8. If compression is enabled, the
+ * encoded records are additionally compressed with the deflate algorithm,
+ * which is effective as field values (e.g. locations, specialties) repeat
+ * frequently.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class RecordPage implements Serializable {
+
+	/**
+	 * Serial version UID
+	 */
+	private static final long serialVersionUID = 4617225340981765342L;
+
+	/**
+	 * Numbers of the records in the page. Serialized by writeObject.
+	 */
+	private transient long[] recNos;
+
+	/**
+	 * Field values of the records in the page, in the same order as the
+	 * record numbers. Serialized by writeObject.
+	 */
+	private transient String[][] data;
+
+	/**
+	 * Flag signifying whether the cursor has no more records after this page.
+	 */
+	private final boolean last;
+
+	/**
+	 * Flag signifying whether the records are compressed when the page is
+	 * serialized.
+	 */
+	private boolean compressed;
+
+	/**
+	 * Creates a new page.
+	 * 
+	 * @param recNos
+	 *            numbers of the records
+	 * @param data
+	 *            field values of the records
+	 * @param last
+	 *            true if the cursor has no more records
+	 */
+	public RecordPage(long[] recNos, String[][] data, boolean last) {
+		this.recNos = recNos;
+		this.data = data;
+		this.last = last;
+	}
+
+	/**
+	 * Returns the number of records in the page.
+	 * 
+	 * @return number of records
+	 */
+	public int size() {
+		return recNos.length;
+	}
+
+	/**
+	 * Returns the number of the record at the specified position.
+	 * 
+	 * @param index
+	 *            position in the page
+	 * @return record number
+	 */
+	public long getRecNo(int index) {
+		return recNos[index];
+	}
+
+	/**
+	 * Returns the field values of the record at the specified position.
+	 * 
+	 * @param index
+	 *            position in the page
+	 * @return field values of the record
+	 */
+	public String[] getData(int index) {
+		return data[index];
+	}
+
+	/**
+	 * Returns whether the cursor has no more records after this page.
+	 * 
+	 * @return true if this is the last page
+	 */
+	public boolean isLast() {
+		return last;
+	}
+
+	/**
+	 * Returns whether the records are compressed when the page is serialized.
+	 * 
+	 * @return true if compression is enabled
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Enables or disables the compression of the records when the page is
+	 * serialized.
+	 * 
+	 * @param compressed
+	 *            true to enable compression
+	 */
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+
+	/**
+	 * Writes the page in the compact encoding.
+	 * 
+	 * @param out
+	 *            stream to write to
+	 * @throws IOException
+	 *             if the page cannot be written
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		OutputStream encoded = buffer;
+		Deflater deflater = null;
+		if (compressed) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			encoded = new DeflaterOutputStream(buffer, deflater);
+		}
+
+		final DataOutputStream dataOut = new DataOutputStream(encoded);
+		dataOut.writeInt(recNos.length);
+		for (int i = 0; i < recNos.length; i++) {
+			dataOut.writeLong(recNos[i]);
+			dataOut.writeShort(data[i].length);
+			for (final String value : data[i]) {
+				dataOut.writeUTF(value != null ? value : "");
+			}
+		}
+		dataOut.close();
+		if (deflater != null) {
+			deflater.end();
+		}
+
+		out.writeInt(buffer.size());
+		buffer.writeTo(out);
+	}
+
+	/**
+	 * Reads a page written in the compact encoding.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @throws IOException
+	 *             if the page cannot be read
+	 * @throws ClassNotFoundException
+	 *             if a class of the serialized page cannot be found
+	 */
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		InputStream encoded = new ByteArrayInputStream(bytes);
+		if (compressed) {
+			encoded = new InflaterInputStream(encoded);
+		}
+
+		final DataInputStream dataIn = new DataInputStream(encoded);
+		final int size = dataIn.readInt();
+		recNos = new long[size];
+		data = new String[size][];
+		for (int i = 0; i < size; i++) {
+			recNos[i] = dataIn.readLong();
+			data[i] = new String[dataIn.readShort()];
+			for (int j = 0; j < data[i].length; j++) {
+				data[i][j] = dataIn.readUTF();
+			}
+		}
+		dataIn.close();
+	}
+}
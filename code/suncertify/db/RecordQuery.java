@@ -0,0 +1,414 @@
+package suncertify.db;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import suncertify.db.domain.DataRecord;
+import suncertify.db.domain.FileMetaData;
+import suncertify.db.index.TokenIndex;
+
+/**
+ * Query selecting records by criteria and numeric ranges, in a specified order
+ * and up to a maximum number of records.
+ * <p>
+ * Field n is compared with criteria[n] as specified by modes[n], as in
+ * {@link MatchingDBAccess#findByCriteria(String[], MatchMode[])}. In addition,
+ * the value of each {@code NumericField} may be restricted to a range; records
+ * whose value is not a number never match a range. The specialties may be
+ * required to contain any or all of a set of specialties, wherever they appear
+ * in the comma-separated list, ignoring case.
+ * <p>
+ * The records are returned in ascending order of their numbers, unless sort
+ * keys are specified. The records are then sorted by the first key, records
+ * with the same value by the next key, and so on; records with the same values
+ * of all keys are returned in ascending order of their numbers. If a limit is
+ * specified, only the first records in this order are returned (top-k).
+ * 
+ * @author Rasmus Kuschel
+ * @see QueryDBAccess
+ */
+public final class RecordQuery implements Serializable {
+
+	/**
+	 * Serial version UID
+	 */
+	private static final long serialVersionUID = -3125618872613394405L;
+
+	/**
+	 * Value of the sort field if the records are sorted by number
+	 */
+	public static final int NO_SORT_FIELD = -1;
+
+	/**
+	 * Value of the limit if all matching records are returned
+	 */
+	public static final int NO_LIMIT = 0;
+
+	/**
+	 * Criteria for the fields, null for any value
+	 */
+	private final String[] criteria;
+
+	/**
+	 * Match mode of each criterion, or null if all criteria are matched by
+	 * prefix
+	 */
+	private final MatchMode[] modes;
+
+	/**
+	 * Minimum value of each numeric field in its smallest unit, by ordinal of
+	 * the NumericField
+	 */
+	private final long[] minimums;
+
+	/**
+	 * Maximum value of each numeric field in its smallest unit, by ordinal of
+	 * the NumericField
+	 */
+	private final long[] maximums;
+
+	/**
+	 * Specialties of which any or all must be contained in the specialties of
+	 * a record, in the form returned by {@code TokenIndex.tokenize}, or null
+	 */
+	private String[] specialties;
+
+	/**
+	 * Flag signifying whether a record must contain all specialties
+	 */
+	private boolean allSpecialties;
+
+	/**
+	 * Keys the records are sorted by, most significant first
+	 */
+	private SortKey[] sortKeys = new SortKey[0];
+
+	/**
+	 * Maximum number of records returned
+	 */
+	private int limit = NO_LIMIT;
+
+	/**
+	 * Creates a query with the specified criteria, without ranges, sort order
+	 * and limit.
+	 * 
+	 * @param criteria
+	 *            criteria for the fields, null elements match any value; if
+	 *            null, all records match
+	 * @param modes
+	 *            match mode of each criterion; if null, all criteria are
+	 *            matched by prefix
+	 * @throws IllegalArgumentException
+	 *             if the number of criteria or modes differs from the number
+	 *             of fields
+	 */
+	public RecordQuery(String[] criteria, MatchMode[] modes) {
+		final int fieldCount = FileMetaData.EXPECTED_FIELD_COUNT;
+		if (criteria != null && criteria.length != fieldCount) {
+			throw new IllegalArgumentException("Expected " + fieldCount
+					+ " criteria, got " + criteria.length);
+		}
+		if (modes != null && modes.length != fieldCount) {
+			throw new IllegalArgumentException("Expected " + fieldCount
+					+ " match modes, got " + modes.length);
+		}
+
+		this.criteria = criteria == null ? new String[fieldCount] : criteria
+				.clone();
+		this.modes = modes == null ? null : modes.clone();
+		this.minimums = new long[NumericField.values().length];
+		this.maximums = new long[NumericField.values().length];
+		Arrays.fill(minimums, Long.MIN_VALUE);
+		Arrays.fill(maximums, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the criteria for the fields.
+	 * 
+	 * @return criteria, null elements match any value
+	 */
+	public String[] getCriteria() {
+		return criteria.clone();
+	}
+
+	/**
+	 * Returns the match modes of the criteria.
+	 * 
+	 * @return match mode of each criterion, or null if all criteria are
+	 *         matched by prefix
+	 */
+	public MatchMode[] getModes() {
+		return modes == null ? null : modes.clone();
+	}
+
+	/**
+	 * Restricts the value of the specified field to a range. Bounds with more
+	 * decimal places than the smallest unit of the field are rounded into the
+	 * range.
+	 * 
+	 * @param field
+	 *            numeric field
+	 * @param minimum
+	 *            smallest matching value, or null for no lower bound
+	 * @param maximum
+	 *            largest matching value, or null for no upper bound
+	 */
+	public void setRange(NumericField field, BigDecimal minimum,
+			BigDecimal maximum) {
+		minimums[field.ordinal()] = minimum == null ? Long.MIN_VALUE : field
+				.toUnits(minimum, RoundingMode.CEILING);
+		maximums[field.ordinal()] = maximum == null ? Long.MAX_VALUE : field
+				.toUnits(maximum, RoundingMode.FLOOR);
+	}
+
+	/**
+	 * Checks whether the value of the specified field is restricted to a
+	 * range.
+	 * 
+	 * @param field
+	 *            numeric field
+	 * @return true if the field has a lower or upper bound
+	 */
+	public boolean hasRange(NumericField field) {
+		return minimums[field.ordinal()] != Long.MIN_VALUE
+				|| maximums[field.ordinal()] != Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the smallest matching value of the specified field.
+	 * 
+	 * @param field
+	 *            numeric field
+	 * @return smallest matching value in the smallest unit of the field, or
+	 *         {@code Long.MIN_VALUE} if there is no lower bound
+	 */
+	public long getMinimum(NumericField field) {
+		return minimums[field.ordinal()];
+	}
+
+	/**
+	 * Returns the largest matching value of the specified field.
+	 * 
+	 * @param field
+	 *            numeric field
+	 * @return largest matching value in the smallest unit of the field, or
+	 *         {@code Long.MAX_VALUE} if there is no upper bound
+	 */
+	public long getMaximum(NumericField field) {
+		return maximums[field.ordinal()];
+	}
+
+	/**
+	 * Requires the specialties of a record to contain any or all of the
+	 * specified specialties. Each element may itself be a comma-separated
+	 * list.
+	 * 
+	 * @param specialties
+	 *            specialties to be contained, null elements are ignored; null
+	 *            for any specialties
+	 * @param all
+	 *            true if all specialties must be contained, false if at least
+	 *            one of them must be contained
+	 */
+	public void setSpecialties(String[] specialties, boolean all) {
+		if (specialties == null) {
+			this.specialties = null;
+		} else {
+			final StringBuilder list = new StringBuilder();
+			for (final String specialty : specialties) {
+				if (specialty != null) {
+					list.append(specialty).append(',');
+				}
+			}
+			this.specialties = TokenIndex.tokenize(list.toString());
+		}
+		this.allSpecialties = all;
+	}
+
+	/**
+	 * Returns the specialties of which any or all must be contained in the
+	 * specialties of a record.
+	 * 
+	 * @return specialties in lower case, or null for any specialties
+	 */
+	public String[] getSpecialties() {
+		return specialties == null ? null : specialties.clone();
+	}
+
+	/**
+	 * Checks whether all specialties must be contained in the specialties of a
+	 * record.
+	 * 
+	 * @return true if all specialties must be contained, false if at least
+	 *         one of them must be contained
+	 */
+	public boolean isAllSpecialties() {
+		return allSpecialties;
+	}
+
+	/**
+	 * Sets the order in which the records are returned to a single field.
+	 * 
+	 * @param field
+	 *            position of the field the records are sorted by, or
+	 *            {@code NO_SORT_FIELD} to sort them by number
+	 * @param descending
+	 *            true to sort the records in descending order of the field
+	 * @throws IllegalArgumentException
+	 *             if the field does not exist
+	 */
+	public void setSortOrder(int field, boolean descending) {
+		if (field == NO_SORT_FIELD) {
+			setSortOrder();
+		} else {
+			setSortOrder(new SortKey(field, descending));
+		}
+	}
+
+	/**
+	 * Sets the order in which the records are returned.
+	 * 
+	 * @param sortKeys
+	 *            keys the records are sorted by, most significant first; none
+	 *            to sort them by number
+	 * @throws IllegalArgumentException
+	 *             if a field does not exist or is used by more than one key
+	 */
+	public void setSortOrder(SortKey... sortKeys) {
+		final Set<Integer> fields = new HashSet<Integer>();
+		for (final SortKey sortKey : sortKeys) {
+			if (sortKey.getField() >= criteria.length
+					|| !fields.add(sortKey.getField())) {
+				throw new IllegalArgumentException("Invalid sort field "
+						+ sortKey.getField());
+			}
+		}
+		this.sortKeys = sortKeys.clone();
+	}
+
+	/**
+	 * Returns the keys the records are sorted by.
+	 * 
+	 * @return sort keys, most significant first; empty if the records are
+	 *         sorted by number
+	 */
+	public SortKey[] getSortKeys() {
+		return sortKeys.clone();
+	}
+
+	/**
+	 * Returns the position of the field the records are sorted by first.
+	 * 
+	 * @return position of the field of the first sort key, or
+	 *         {@code NO_SORT_FIELD}
+	 */
+	public int getSortField() {
+		return sortKeys.length == 0 ? NO_SORT_FIELD : sortKeys[0].getField();
+	}
+
+	/**
+	 * Checks whether the records are sorted in descending order of the first
+	 * sort key.
+	 * 
+	 * @return true if the first sort key is descending
+	 */
+	public boolean isDescending() {
+		return sortKeys.length != 0 && sortKeys[0].isDescending();
+	}
+
+	/**
+	 * Sets the maximum number of records returned.
+	 * 
+	 * @param limit
+	 *            maximum number of records, or {@code NO_LIMIT}
+	 * @throws IllegalArgumentException
+	 *             if the limit is negative
+	 */
+	public void setLimit(int limit) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("Invalid limit " + limit);
+		}
+		this.limit = limit;
+	}
+
+	/**
+	 * Returns the maximum number of records returned.
+	 * 
+	 * @return maximum number of records, or {@code NO_LIMIT}
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Checks whether a record with the specified field values matches the
+	 * criteria and ranges of this query.
+	 * 
+	 * @param data
+	 *            field values without trailing blanks
+	 * @return true if the record matches
+	 */
+	public boolean matches(String[] data) {
+		for (int i = 0; i < criteria.length; i++) {
+			if (criteria[i] != null) {
+				MatchMode mode = MatchMode.PREFIX;
+				if (modes != null && modes[i] != null) {
+					mode = modes[i];
+				}
+				if (!mode.matches(data[i], criteria[i])) {
+					return false;
+				}
+			}
+		}
+
+		for (final NumericField field : NumericField.values()) {
+			if (hasRange(field)) {
+				final Long value = field.parse(data[field.getField()]);
+				if (value == null || value < getMinimum(field)
+						|| value > getMaximum(field)) {
+					return false;
+				}
+			}
+		}
+
+		if (specialties != null) {
+			final Set<String> contained = new HashSet<String>(Arrays
+					.asList(TokenIndex
+							.tokenize(data[DataRecord.INDEX_SPECIALTIES])));
+			int count = 0;
+			for (final String specialty : specialties) {
+				if (contained.contains(specialty)) {
+					count++;
+				}
+			}
+			if (allSpecialties ? count < specialties.length : count == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compares two records by the sort keys of this query.
+	 * 
+	 * @param data1
+	 *            field values of the first record
+	 * @param data2
+	 *            field values of the second record
+	 * @return a negative number, zero or a positive number if the first record
+	 *         is returned before, with or after the second record
+	 */
+	public int compare(String[] data1, String[] data2) {
+		for (final SortKey sortKey : sortKeys) {
+			final int result = sortKey.compare(data1, data2);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,35 @@
+package suncertify.db;
+
+/**
+ * Exception thrown if the server rejects a request because it is saturated,
+ * i.e. too many requests of the same kind are executing or waiting.
+ * <p>
+ * The request has not been executed. As the rejection is immediate, clients
+ * may retry the operation after a short delay.
+ * 
+ * @author Rasmus Kuschel
+ */
+public class ServerBusyException extends TechnicalErrorException {
+
+	/**
+	 * Serial version UID
+	 */
+	private static final long serialVersionUID = 8164013596274318752L;
+
+	/**
+	 * Creates a new exception instance.
+	 */
+	public ServerBusyException() {
+		super();
+	}
+
+	/**
+	 * Creates a new exception instance with the specified description.
+	 * 
+	 * @param description
+	 *            description of the exception
+	 */
+	public ServerBusyException(String description) {
+		super(description);
+	}
+}
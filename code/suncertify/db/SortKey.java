@@ -0,0 +1,126 @@
+package suncertify.db;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+/**
+ * Key of the order in which the records found by a {@code RecordQuery} are
+ * returned: a field and a direction.
+ * <p>
+ * Numeric fields are compared numerically, values that are not numbers are
+ * sorted last in both directions. All other fields are compared by their text,
+ * ignoring case; this is the order of the {@code FieldIndex} of the field.
+ * 
+ * @author Rasmus Kuschel
+ * @see RecordQuery#setSortOrder(SortKey[])
+ */
+public final class SortKey implements Serializable {
+
+	/**
+	 * Serial version UID
+	 */
+	private static final long serialVersionUID = 6204513918764830712L;
+
+	/**
+	 * Position of the field the records are sorted by
+	 */
+	private final int field;
+
+	/**
+	 * Flag signifying whether the records are sorted in descending order
+	 */
+	private final boolean descending;
+
+	/**
+	 * Creates a new sort key.
+	 * 
+	 * @param field
+	 *            position of the field the records are sorted by
+	 * @param descending
+	 *            true to sort the records in descending order of the field
+	 * @throws IllegalArgumentException
+	 *             if the field position is negative
+	 */
+	public SortKey(int field, boolean descending) {
+		if (field < 0) {
+			throw new IllegalArgumentException("Invalid sort field " + field);
+		}
+		this.field = field;
+		this.descending = descending;
+	}
+
+	/**
+	 * Returns the position of the field the records are sorted by.
+	 * 
+	 * @return position of the field
+	 */
+	public int getField() {
+		return field;
+	}
+
+	/**
+	 * Checks whether the records are sorted in descending order.
+	 * 
+	 * @return true if the records are sorted in descending order
+	 */
+	public boolean isDescending() {
+		return descending;
+	}
+
+	/**
+	 * Returns a key of the same field in the opposite direction.
+	 * 
+	 * @return reversed sort key
+	 */
+	public SortKey reverse() {
+		return new SortKey(field, !descending);
+	}
+
+	/**
+	 * Compares two records by the field of this key.
+	 * 
+	 * @param data1
+	 *            field values of the first record
+	 * @param data2
+	 *            field values of the second record
+	 * @return a negative number, zero or a positive number if the first record
+	 *         is sorted before, with or after the second record
+	 */
+	public int compare(String[] data1, String[] data2) {
+		final NumericField numericField = NumericField.forField(field);
+		if (numericField == null) {
+			final int result = data1[field].toLowerCase(Locale.ENGLISH)
+					.compareTo(data2[field].toLowerCase(Locale.ENGLISH));
+			return descending ? -result : result;
+		}
+
+		final Long value1 = numericField.parse(data1[field]);
+		final Long value2 = numericField.parse(data2[field]);
+		if (value1 == null || value2 == null) {
+			// values that are not numbers are sorted last
+			return (value1 == null ? 1 : 0) - (value2 == null ? 1 : 0);
+		}
+		final int result = value1.compareTo(value2);
+		return descending ? -result : result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SortKey)) {
+			return false;
+		}
+		final SortKey other = (SortKey) obj;
+		return field == other.field && descending == other.descending;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int hashCode() {
+		return descending ? -field - 1 : field;
+	}
+}
@@ -0,0 +1,36 @@
+package suncertify.db;
+
+/**
+ * Exception thrown if the server receives a request it cannot execute, because
+ * the {@code DBAccess} instance it wraps does not support it, e.g. a search
+ * with match modes if it is not a {@code MatchingDBAccess}.
+ * <p>
+ * The request has not been executed. Clients may repeat it in a form the
+ * server supports.
+ * 
+ * @author Rasmus Kuschel
+ */
+public class UnsupportedRequestException extends TechnicalErrorException {
+
+	/**
+	 * Serial version UID
+	 */
+	private static final long serialVersionUID = 3928154061178420597L;
+
+	/**
+	 * Creates a new exception instance.
+	 */
+	public UnsupportedRequestException() {
+		super();
+	}
+
+	/**
+	 * Creates a new exception instance with the specified description.
+	 * 
+	 * @param description
+	 *            description of the exception
+	 */
+	public UnsupportedRequestException(String description) {
+		super(description);
+	}
+}
@@ -0,0 +1,254 @@
+package suncertify.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import suncertify.db.domain.DataRecord;
+
+/**
+ * Old versions of the records of the data file, retained for searches that
+ * read a snapshot of the file.
+ * <p>
+ * Every write of a record increments the version of the file. A search opens a
+ * snapshot at the current version and then reads the records as they were at
+ * this version, while other clients continue to write. Before a record is
+ * overwritten while a snapshot is open, its old content is retained together
+ * with the version of the write. Old contents are discarded as soon as no open
+ * snapshot is older than the write that replaced them.
+ * <p>
+ * All methods are synchronized. {@code FileAccess} retains the old content of
+ * a record and writes the new one while holding the lock on the data file, so
+ * that a reader holding this lock sees either both or neither.
+ * 
+ * @author Rasmus Kuschel
+ */
+final class VersionStore {
+
+	/**
+	 * Version of the data file: the number of records written since it was
+	 * opened
+	 */
+	private long version;
+
+	/**
+	 * Number of open snapshots by their version
+	 */
+	private final TreeMap<Long, Integer> snapshots = new TreeMap<Long, Integer>();
+
+	/**
+	 * Retained contents of each overwritten record by record number, in
+	 * ascending order of the versions of the writes that replaced them
+	 */
+	private final Map<Long, List<RecordVersion>> retained = new HashMap<Long, List<RecordVersion>>();
+
+	/**
+	 * Opens a snapshot at the current version.
+	 * 
+	 * @param recordCount
+	 *            number of records in the data file
+	 * @return snapshot, which must be closed when it is no longer read
+	 */
+	synchronized Snapshot open(int recordCount) {
+		final Integer count = snapshots.get(version);
+		snapshots.put(version, count == null ? 1 : count + 1);
+		return new Snapshot(version, recordCount);
+	}
+
+	/**
+	 * Closes the specified snapshot. Old contents no longer needed by any open
+	 * snapshot are discarded.
+	 * 
+	 * @param snapshot
+	 *            snapshot to be closed
+	 */
+	synchronized void close(Snapshot snapshot) {
+		final Integer count = snapshots.get(snapshot.version);
+		if (count == null) {
+			return;
+		}
+		if (count == 1) {
+			snapshots.remove(snapshot.version);
+		} else {
+			snapshots.put(snapshot.version, count - 1);
+		}
+		discard();
+	}
+
+	/**
+	 * Checks whether old contents of records must be retained, i.e. whether
+	 * a snapshot is open.
+	 * 
+	 * @return true if a snapshot is open
+	 */
+	synchronized boolean isRetaining() {
+		return !snapshots.isEmpty();
+	}
+
+	/**
+	 * Increments the version after a record has been written. If a snapshot is
+	 * open, the previous content of the record is retained.
+	 * 
+	 * @param recNo
+	 *            number of the written record
+	 * @param previous
+	 *            content of the record before it was written, or null if it
+	 *            did not exist or no snapshot is open
+	 */
+	synchronized void recordWritten(long recNo, DataRecord previous) {
+		version++;
+		if (previous == null || snapshots.isEmpty()) {
+			return;
+		}
+
+		List<RecordVersion> versions = retained.get(recNo);
+		if (versions == null) {
+			versions = new ArrayList<RecordVersion>(1);
+			retained.put(recNo, versions);
+		}
+		versions.add(new RecordVersion(version, previous));
+	}
+
+	/**
+	 * Returns the content the specified record had at the version of the
+	 * specified snapshot, if it has been overwritten since.
+	 * 
+	 * @param recNo
+	 *            number of the record
+	 * @param snapshot
+	 *            open snapshot
+	 * @return content of the record at the snapshot, or null if the record
+	 *         has not been written since
+	 */
+	synchronized DataRecord read(long recNo, Snapshot snapshot) {
+		final List<RecordVersion> versions = retained.get(recNo);
+		if (versions != null) {
+			// The first write after the snapshot replaced its content
+			for (final RecordVersion recordVersion : versions) {
+				if (recordVersion.replacedBy > snapshot.version) {
+					return recordVersion.record;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the numbers of the records written since the specified snapshot
+	 * was opened.
+	 * 
+	 * @param snapshot
+	 *            open snapshot
+	 * @return numbers of the written records in ascending order
+	 */
+	synchronized long[] writtenSince(Snapshot snapshot) {
+		final long[] result = new long[retained.size()];
+		int count = 0;
+		for (final Map.Entry<Long, List<RecordVersion>> entry : retained
+				.entrySet()) {
+			final List<RecordVersion> versions = entry.getValue();
+			final RecordVersion latest = versions.get(versions.size() - 1);
+			if (latest.replacedBy > snapshot.version) {
+				result[count++] = entry.getKey();
+			}
+		}
+		Arrays.sort(result, 0, count);
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Discards the old contents that no open snapshot can read, i.e. those
+	 * replaced by a write not later than the oldest open snapshot.
+	 */
+	private void discard() {
+		if (snapshots.isEmpty()) {
+			retained.clear();
+			return;
+		}
+
+		final long oldest = snapshots.firstKey();
+		for (final Iterator<List<RecordVersion>> i = retained.values()
+				.iterator(); i.hasNext();) {
+			final List<RecordVersion> versions = i.next();
+			while (!versions.isEmpty()
+					&& versions.get(0).replacedBy <= oldest) {
+				versions.remove(0);
+			}
+			if (versions.isEmpty()) {
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Point in time view of the data file, read by a search.
+	 */
+	static final class Snapshot {
+
+		/**
+		 * Version of the data file when the snapshot was opened
+		 */
+		private final long version;
+
+		/**
+		 * Number of records in the data file when the snapshot was opened
+		 */
+		private final int recordCount;
+
+		/**
+		 * Creates a new snapshot.
+		 * 
+		 * @param version
+		 *            version of the data file
+		 * @param recordCount
+		 *            number of records in the data file
+		 */
+		private Snapshot(long version, int recordCount) {
+			this.version = version;
+			this.recordCount = recordCount;
+		}
+
+		/**
+		 * Returns the number of records in the data file when the snapshot
+		 * was opened.
+		 * 
+		 * @return number of records
+		 */
+		int getRecordCount() {
+			return recordCount;
+		}
+	}
+
+	/**
+	 * Old content of a record.
+	 */
+	private static final class RecordVersion {
+
+		/**
+		 * Version of the write that replaced the content
+		 */
+		private final long replacedBy;
+
+		/**
+		 * Content of the record before the write
+		 */
+		private final DataRecord record;
+
+		/**
+		 * Creates a new old content.
+		 * 
+		 * @param replacedBy
+		 *            version of the write that replaced the content
+		 * @param record
+		 *            content of the record before the write
+		 */
+		RecordVersion(long replacedBy, DataRecord record) {
+			this.replacedBy = replacedBy;
+			this.record = record;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package suncertify.db.event;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Component for the notification of listeners about changes of data records.
+ * <p>
+ * The Data implementation reports each change to an instance of this class.
+ * Internally, the listeners are stored in a static list, so that they are
+ * notified about changes made through any Data instance.
+ * <p>
+ * Changes are reported from within blocks synchronized on the Data class.
+ * Listeners are therefore not notified on the reporting thread, but on a
+ * single dispatcher thread, in the order in which the changes were reported.
+ * Listeners must not block for a long time, as this would delay the
+ * notification of all other listeners.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class ChangeNotifier {
+
+	/**
+	 * All registered listeners.
+	 */
+	private static final List<RecordChangeListener> LISTENERS = new CopyOnWriteArrayList<RecordChangeListener>();
+
+	/**
+	 * Single thread notifying the listeners.
+	 */
+	private static final ExecutorService DISPATCHER = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable,
+							"record-change-dispatcher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Registers a listener to be notified about all changes of data records.
+	 * 
+	 * @param listener
+	 *            listener to be registered
+	 */
+	public void addListener(RecordChangeListener listener) {
+		LISTENERS.add(listener);
+	}
+
+	/**
+	 * Removes a registered listener.
+	 * 
+	 * @param listener
+	 *            listener to be removed
+	 */
+	public void removeListener(RecordChangeListener listener) {
+		LISTENERS.remove(listener);
+	}
+
+	/**
+	 * Reports a change. All registered listeners are notified asynchronously.
+	 * 
+	 * @param type
+	 *            kind of the change
+	 * @param recNo
+	 *            number of the changed record
+	 * @param data
+	 *            new field values of the record, or null if it was deleted
+	 */
+	public void fireRecordChanged(RecordChangeType type, long recNo,
+			String[] data) {
+		if (LISTENERS.isEmpty()) {
+			return;
+		}
+
+		final RecordChangeEvent event = new RecordChangeEvent(type, recNo,
+				data);
+		DISPATCHER.execute(new Runnable() {
+			@Override
+			public void run() {
+				for (final RecordChangeListener listener : LISTENERS) {
+					try {
+						listener.recordChanged(event);
+					} catch (final RuntimeException e) {
+						// A failing listener must not prevent the notification
+						// of the other listeners.
+						System.err.println("Record change listener failed: "
+								+ e.getMessage());
+					}
+				}
+			}
+		});
+	}
+}
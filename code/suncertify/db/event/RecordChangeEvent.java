@@ -0,0 +1,88 @@
+package suncertify.db.event;
+
+import java.io.Serializable;
+
+/**
+ * Describes a change of a data record, i.e. the kind of change, the number of
+ * the record and its new field values.
+ * <p>
+ * Instances are immutable and serializable, so that they can be sent to
+ * remote listeners.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class RecordChangeEvent implements Serializable {
+
+	/**
+	 * Serial version UID
+	 */
+	private static final long serialVersionUID = 2754219083127495606L;
+
+	/**
+	 * Kind of the change
+	 */
+	private final RecordChangeType type;
+
+	/**
+	 * Number of the changed record
+	 */
+	private final long recNo;
+
+	/**
+	 * New field values of the record, or null if it was deleted
+	 */
+	private final String[] data;
+
+	/**
+	 * Creates a new event.
+	 * 
+	 * @param type
+	 *            kind of the change
+	 * @param recNo
+	 *            number of the changed record
+	 * @param data
+	 *            new field values of the record, or null if it was deleted
+	 */
+	public RecordChangeEvent(RecordChangeType type, long recNo, String[] data) {
+		this.type = type;
+		this.recNo = recNo;
+		this.data = data == null ? null : data.clone();
+	}
+
+	/**
+	 * Returns the kind of the change.
+	 * 
+	 * @return kind of the change
+	 */
+	public RecordChangeType getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the number of the changed record.
+	 * 
+	 * @return record number
+	 */
+	public long getRecNo() {
+		return recNo;
+	}
+
+	/**
+	 * Returns the new field values of the record, or null if it was deleted.
+	 * 
+	 * @return new field values
+	 */
+	public String[] getData() {
+		return data == null ? null : data.clone();
+	}
+
+	/**
+	 * Returns a String representation of this event.
+	 * 
+	 * @return String representation of this event
+	 */
+	@Override
+	public String toString() {
+		return "[" + type + " recNo: " + recNo + "]";
+	}
+}
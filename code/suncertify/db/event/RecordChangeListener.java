@@ -0,0 +1,19 @@
+package suncertify.db.event;
+
+import java.util.EventListener;
+
+/**
+ * Interface of listeners that are notified about changes of data records.
+ * 
+ * @author Rasmus Kuschel
+ */
+public interface RecordChangeListener extends EventListener {
+
+	/**
+	 * Invoked after a data record has been created, updated or deleted.
+	 * 
+	 * @param event
+	 *            description of the change
+	 */
+	public void recordChanged(RecordChangeEvent event);
+}
@@ -0,0 +1,26 @@
+package suncertify.db.event;
+
+/**
+ * Interface of components with which listeners can register to be notified
+ * about changes of data records.
+ * 
+ * @author Rasmus Kuschel
+ */
+public interface RecordChangeSource {
+
+	/**
+	 * Registers a listener to be notified about all changes of data records.
+	 * 
+	 * @param listener
+	 *            listener to be registered
+	 */
+	public void addRecordChangeListener(RecordChangeListener listener);
+
+	/**
+	 * Removes a registered listener.
+	 * 
+	 * @param listener
+	 *            listener to be removed
+	 */
+	public void removeRecordChangeListener(RecordChangeListener listener);
+}
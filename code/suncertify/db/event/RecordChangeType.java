@@ -0,0 +1,22 @@
+package suncertify.db.event;
+
+/**
+ * Enumeration of the kinds of changes of a data record.
+ * 
+ * @author Rasmus Kuschel
+ */
+public enum RecordChangeType {
+
+	/**
+	 * A record was created (possibly in a slot of a deleted record)
+	 */
+	CREATED,
+	/**
+	 * The fields of a record were updated
+	 */
+	UPDATED,
+	/**
+	 * A record was deleted
+	 */
+	DELETED;
+}
@@ -0,0 +1,240 @@
+package suncertify.db.index;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * In-memory sorted index of the values of one field of the data file.
+ * <p>
+ * The index maps the value of the field, ignoring case and trailing blanks, to
+ * the numbers of the live records having this value. It is used to find the
+ * candidates of an exact or case-insensitive search without reading the data
+ * file; as case is ignored, the candidates of an exact search still need to be
+ * compared with the criterion. As the values are kept in order, it is also
+ * used to read records sorted by the field. It is kept up to date by
+ * {@code FileAccess}, which reports every record it writes.
+ * <p>
+ * All methods are synchronized, so the index may be read while it is updated.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class FieldIndex {
+
+	/**
+	 * Position of the indexed field in a record
+	 */
+	private final int field;
+
+	/**
+	 * Numbers of the live records by key of their field value
+	 */
+	private final TreeMap<String, Set<Long>> records = new TreeMap<String, Set<Long>>();
+
+	/**
+	 * Key of each live record by record number, null for deleted records. Used
+	 * to remove the old value when a record is overwritten.
+	 */
+	private String[] keys = new String[1024];
+
+	/**
+	 * Creates an empty index of the specified field.
+	 * 
+	 * @param field
+	 *            position of the indexed field in a record
+	 */
+	public FieldIndex(int field) {
+		this.field = field;
+	}
+
+	/**
+	 * Returns the position of the indexed field in a record.
+	 * 
+	 * @return position of the indexed field
+	 */
+	public int getField() {
+		return field;
+	}
+
+	/**
+	 * Updates the index after a record has been written.
+	 * 
+	 * @param recNo
+	 *            number of the written record
+	 * @param value
+	 *            value of the indexed field as written to the data file
+	 * @param isDeleted
+	 *            true if the record was written as deleted
+	 */
+	public synchronized void recordWritten(long recNo, String value,
+			boolean isDeleted) {
+		final int slot = (int) recNo;
+		if (slot >= keys.length) {
+			keys = Arrays.copyOf(keys, Math.max(slot + 1, keys.length * 2));
+		}
+
+		remove(slot);
+		if (!isDeleted) {
+			final String key = keyOf(value);
+			Set<Long> recNos = records.get(key);
+			if (recNos == null) {
+				recNos = new TreeSet<Long>();
+				records.put(key, recNos);
+			}
+			recNos.add(recNo);
+			keys[slot] = key;
+		}
+	}
+
+	/**
+	 * Updates the index after the data file has been truncated.
+	 * 
+	 * @param count
+	 *            new number of records
+	 */
+	public synchronized void truncate(int count) {
+		for (int slot = count; slot < keys.length; slot++) {
+			remove(slot);
+		}
+	}
+
+	/**
+	 * Returns the numbers of the live records whose field value equals the
+	 * specified value, ignoring case and trailing blanks.
+	 * 
+	 * @param value
+	 *            value to look up
+	 * @return numbers of the matching records in ascending order
+	 */
+	public synchronized long[] lookup(String value) {
+		final Set<Long> recNos = records.get(keyOf(value));
+		if (recNos == null) {
+			return new long[0];
+		}
+
+		final long[] result = new long[recNos.size()];
+		int i = 0;
+		for (final Long recNo : recNos) {
+			result[i++] = recNo;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the numbers of all live records in the order of their field
+	 * values, ignoring case and trailing blanks. Records with the same value
+	 * are returned in ascending order of their numbers.
+	 * 
+	 * @param descending
+	 *            true to return the records in descending order of their
+	 *            values
+	 * @return numbers of the live records
+	 */
+	public synchronized long[] ordered(boolean descending) {
+		NavigableMap<String, Set<Long>> ordered = records;
+		if (descending) {
+			ordered = ordered.descendingMap();
+		}
+
+		int count = 0;
+		for (final Set<Long> recNos : ordered.values()) {
+			count += recNos.size();
+		}
+		final long[] result = new long[count];
+		int i = 0;
+		for (final Set<Long> recNos : ordered.values()) {
+			for (final Long recNo : recNos) {
+				result[i++] = recNo;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the field and the key of each live record to a stream, e.g. to
+	 * an {@code IndexSnapshot}.
+	 * 
+	 * @param out
+	 *            stream to write to
+	 * @throws IOException
+	 *             if the stream cannot be written
+	 */
+	synchronized void write(DataOutput out) throws IOException {
+		int count = 0;
+		for (final String key : keys) {
+			if (key != null) {
+				count++;
+			}
+		}
+		out.writeInt(field);
+		out.writeInt(count);
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] != null) {
+				out.writeInt(slot);
+				out.writeUTF(keys[slot]);
+			}
+		}
+	}
+
+	/**
+	 * Creates an index from a stream written by {@link #write(DataOutput)}.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @param recordCount
+	 *            number of records of the data file
+	 * @return index
+	 * @throws IOException
+	 *             if the stream cannot be read or contains an invalid record
+	 *             number
+	 */
+	static FieldIndex read(DataInput in, int recordCount) throws IOException {
+		final FieldIndex index = new FieldIndex(in.readInt());
+		final int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			final int slot = IndexSnapshot.readSlot(in, recordCount);
+			// keys are field values without trailing blanks in lower case
+			index.recordWritten(slot, in.readUTF(), false);
+		}
+		return index;
+	}
+
+	/**
+	 * Removes the record at the specified slot from the index.
+	 * 
+	 * @param slot
+	 *            number of the record
+	 */
+	private void remove(int slot) {
+		final String key = keys[slot];
+		if (key != null) {
+			final Set<Long> recNos = records.get(key);
+			recNos.remove(Long.valueOf(slot));
+			if (recNos.isEmpty()) {
+				records.remove(key);
+			}
+			keys[slot] = null;
+		}
+	}
+
+	/**
+	 * Returns the key of the specified field value.
+	 * 
+	 * @param value
+	 *            field value
+	 * @return value in lower case without trailing blanks
+	 */
+	private static String keyOf(String value) {
+		int end = value.length();
+		while (end > 0 && value.charAt(end - 1) == ' ') {
+			end--;
+		}
+		return value.substring(0, end).toLowerCase(Locale.ENGLISH);
+	}
+}
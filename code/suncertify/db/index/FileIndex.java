@@ -0,0 +1,165 @@
+package suncertify.db.index;
+
+import java.util.BitSet;
+
+/**
+ * In-memory index of the data file: the number of records and the set of
+ * deleted slots.
+ * <p>
+ * The index allows to check whether a record is deleted and to find a free
+ * slot for a new record without reading the data file. It is kept up to date
+ * by {@code FileAccess}, which reports every record it writes.
+ * <p>
+ * All methods are synchronized, so the index may be read while it is updated.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class FileIndex {
+
+	/**
+	 * Number of records (slots) in the data file
+	 */
+	private int recordCount;
+
+	/**
+	 * Numbers of the deleted records
+	 */
+	private final BitSet deleted = new BitSet();
+
+	/**
+	 * Creates an empty index.
+	 */
+	public FileIndex() {
+		this.recordCount = 0;
+	}
+
+	/**
+	 * Updates the index after a record has been written.
+	 * 
+	 * @param recNo
+	 *            number of the written record
+	 * @param isDeleted
+	 *            true if the record was written as deleted
+	 */
+	public synchronized void recordWritten(long recNo, boolean isDeleted) {
+		if (recNo >= recordCount) {
+			recordCount = (int) recNo + 1;
+		}
+		deleted.set((int) recNo, isDeleted);
+	}
+
+	/**
+	 * Returns the number of records in the data file, including deleted
+	 * records.
+	 * 
+	 * @return number of records
+	 */
+	public synchronized int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Returns the number of deleted records.
+	 * 
+	 * @return number of deleted records
+	 */
+	public synchronized int getDeletedCount() {
+		return deleted.cardinality();
+	}
+
+	/**
+	 * Checks whether the record with the specified number is deleted. Numbers
+	 * outside of the data file are reported as deleted.
+	 * 
+	 * @param recNo
+	 *            number of the record
+	 * @return true if the record is deleted or does not exist
+	 */
+	public synchronized boolean isDeleted(long recNo) {
+		if (recNo < 0 || recNo >= recordCount) {
+			return true;
+		}
+		return deleted.get((int) recNo);
+	}
+
+	/**
+	 * Returns the number of the first deleted record, i.e. the first slot that
+	 * can be reused for a new record.
+	 * 
+	 * @return number of the first deleted record, or -1 if no record is
+	 *         deleted
+	 */
+	public synchronized long getFirstFreeSlot() {
+		final int slot = deleted.nextSetBit(0);
+		return slot >= 0 && slot < recordCount ? slot : -1;
+	}
+
+	/**
+	 * Returns the number of the last record that is not deleted.
+	 * 
+	 * @return number of the last live record, or -1 if all records are
+	 *         deleted
+	 */
+	public synchronized long getLastLiveSlot() {
+		int slot = recordCount - 1;
+		while (slot >= 0 && deleted.get(slot)) {
+			slot--;
+		}
+		return slot;
+	}
+
+	/**
+	 * Updates the index after the data file has been truncated.
+	 * 
+	 * @param count
+	 *            new number of records
+	 */
+	public synchronized void truncate(int count) {
+		if (count < recordCount) {
+			deleted.clear(count, recordCount);
+			recordCount = count;
+		}
+	}
+
+	/**
+	 * Returns the set of deleted records as a bitmap, one bit per record, the
+	 * lowest bit of the first byte for record 0.
+	 * 
+	 * @return bitmap of the deleted records
+	 */
+	synchronized byte[] toBitmap() {
+		final byte[] bitmap = new byte[(recordCount + 7) / 8];
+		int i = deleted.nextSetBit(0);
+		while (i >= 0 && i < recordCount) {
+			bitmap[i / 8] |= 1 << (i % 8);
+			i = deleted.nextSetBit(i + 1);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Creates an index from the number of records and the bitmap of the
+	 * deleted records.
+	 * 
+	 * @param recordCount
+	 *            number of records
+	 * @param bitmap
+	 *            bitmap of the deleted records, as returned by
+	 *            {@link #toBitmap()}
+	 * @return index
+	 */
+	static FileIndex fromBitmap(int recordCount, byte[] bitmap) {
+		final FileIndex index = new FileIndex();
+		index.recordCount = recordCount;
+		for (int i = 0; i < bitmap.length; i++) {
+			if (bitmap[i] != 0) {
+				for (int bit = 0; bit < 8; bit++) {
+					if ((bitmap[i] & (1 << bit)) != 0) {
+						index.deleted.set(i * 8 + bit);
+					}
+				}
+			}
+		}
+		return index;
+	}
+}
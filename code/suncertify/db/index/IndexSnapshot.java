@@ -0,0 +1,342 @@
+package suncertify.db.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Persists a {@code FileIndex} and, if they have been built, the indexes of
+ * the field values in a snapshot file next to the data file, so that the
+ * indexes do not need to be rebuilt by reading the whole data file on
+ * startup.
+ * <p>
+ * The snapshot file has the name of the data file with the extension ".idx"
+ * appended. Besides the index, it contains the length and the modification
+ * time of the data file when the snapshot was written, and a CRC32 checksum.
+ * A snapshot is only loaded if its checksum is correct and the data file has
+ * not been modified since; otherwise it is considered stale.
+ * <p>
+ * The indexes of the field values follow with a checksum of their own, so
+ * that the index of the data file can be loaded without reading them, and
+ * they can be loaded in the background.
+ * <p>
+ * The snapshot is written to a temporary file first, which then replaces the
+ * previous snapshot, so a snapshot is never read while partially written.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class IndexSnapshot {
+
+	/**
+	 * Value identifying a snapshot file
+	 */
+	private static final int MAGIC = 0x53494458;
+
+	/**
+	 * Version of the snapshot format
+	 */
+	private static final int VERSION = 2;
+
+	/**
+	 * Extension of the snapshot file
+	 */
+	private static final String EXTENSION = ".idx";
+
+	/**
+	 * Hidden constructor, this class provides static methods only.
+	 */
+	private IndexSnapshot() {
+	}
+
+	/**
+	 * Returns the snapshot file of the specified data file.
+	 * 
+	 * @param dataFile
+	 *            data file
+	 * @return snapshot file
+	 */
+	public static File getSnapshotFile(File dataFile) {
+		return new File(dataFile.getPath() + EXTENSION);
+	}
+
+	/**
+	 * Loads the snapshot of the specified data file.
+	 * 
+	 * @param dataFile
+	 *            data file
+	 * @param recordCount
+	 *            current number of records in the data file
+	 * @return index of the data file, or null if there is no snapshot or if
+	 *         it is corrupt or stale
+	 */
+	public static FileIndex load(File dataFile, int recordCount) {
+		final File snapshotFile = getSnapshotFile(dataFile);
+		if (!snapshotFile.isFile()) {
+			return null;
+		}
+
+		try {
+			final CheckedInputStream checked = new CheckedInputStream(
+					new BufferedInputStream(new FileInputStream(snapshotFile)),
+					new CRC32());
+			final DataInputStream in = new DataInputStream(checked);
+			try {
+				final byte[] bitmap = readIndex(in, checked, dataFile,
+						recordCount);
+				if (bitmap == null) {
+					return null;
+				}
+				return FileIndex.fromBitmap(recordCount, bitmap);
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			System.err.println("Cannot read index snapshot: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Loads the indexes of the field values from the snapshot of the specified
+	 * data file. This may take a while, as the indexes contain all field
+	 * values.
+	 * 
+	 * @param dataFile
+	 *            data file
+	 * @param recordCount
+	 *            current number of records in the data file
+	 * @return indexes of the field values, or null if there is no snapshot,
+	 *         if it does not contain them or if it is corrupt or stale
+	 */
+	public static ValueIndexes loadValueIndexes(File dataFile,
+			int recordCount) {
+		final File snapshotFile = getSnapshotFile(dataFile);
+		if (!snapshotFile.isFile()) {
+			return null;
+		}
+
+		try {
+			final CheckedInputStream checked = new CheckedInputStream(
+					new BufferedInputStream(new FileInputStream(snapshotFile)),
+					new CRC32());
+			final DataInputStream in = new DataInputStream(checked);
+			try {
+				if (readIndex(in, checked, dataFile, recordCount) == null) {
+					return null;
+				}
+				checked.getChecksum().reset();
+				if (!in.readBoolean()) {
+					return null;
+				}
+
+				final FieldIndex[] fields = new FieldIndex[readLength(in)];
+				for (int i = 0; i < fields.length; i++) {
+					fields[i] = FieldIndex.read(in, recordCount);
+				}
+				final NumericIndex[] numerics = new NumericIndex[
+						readLength(in)];
+				for (int i = 0; i < numerics.length; i++) {
+					numerics[i] = NumericIndex.read(in, recordCount);
+				}
+				final TokenIndex specialties = TokenIndex.read(in,
+						recordCount);
+
+				final long checksum = checked.getChecksum().getValue();
+				if (in.readLong() != checksum) {
+					System.err.println("Index snapshot is corrupt: "
+							+ snapshotFile);
+					return null;
+				}
+				return new ValueIndexes(fields, numerics, specialties);
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			System.err.println("Cannot read index snapshot: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the header and the index of the data file from a snapshot and
+	 * verifies their checksum.
+	 * 
+	 * @param in
+	 *            stream reading the snapshot file
+	 * @param checked
+	 *            stream computing the checksum, underlying the first stream
+	 * @param dataFile
+	 *            data file
+	 * @param recordCount
+	 *            current number of records in the data file
+	 * @return bitmap of the deleted records, or null if the snapshot is
+	 *         corrupt or stale
+	 * @throws IOException
+	 *             if the snapshot cannot be read
+	 */
+	private static byte[] readIndex(DataInputStream in,
+			CheckedInputStream checked, File dataFile, int recordCount)
+			throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			return null;
+		}
+		final long length = in.readLong();
+		final long lastModified = in.readLong();
+		final int count = in.readInt();
+		final byte[] bitmap = new byte[in.readInt()];
+		in.readFully(bitmap);
+
+		final long checksum = checked.getChecksum().getValue();
+		if (in.readLong() != checksum) {
+			System.err.println("Index snapshot is corrupt: "
+					+ getSnapshotFile(dataFile));
+			return null;
+		}
+		if (length != dataFile.length()
+				|| lastModified != dataFile.lastModified()
+				|| count != recordCount) {
+			// the data file was modified after the snapshot
+			return null;
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Writes a snapshot of the specified indexes of the specified data file.
+	 * <p>
+	 * The data file must not be modified while the snapshot is written.
+	 * 
+	 * @param index
+	 *            index of the data file
+	 * @param fieldIndexes
+	 *            indexes of the values of the indexed fields, or null if
+	 *            they have not been built
+	 * @param numericIndexes
+	 *            indexes of the values of the numeric fields, or null
+	 * @param specialtiesIndex
+	 *            index of the tokens of the specialties, or null
+	 * @param dataFile
+	 *            data file
+	 * @throws IOException
+	 *             if the snapshot cannot be written
+	 */
+	public static void save(FileIndex index, FieldIndex[] fieldIndexes,
+			NumericIndex[] numericIndexes, TokenIndex specialtiesIndex,
+			File dataFile) throws IOException {
+		final File snapshotFile = getSnapshotFile(dataFile);
+		final File tempFile = new File(snapshotFile.getPath() + ".tmp");
+
+		final FileOutputStream file = new FileOutputStream(tempFile);
+		final BufferedOutputStream buffered = new BufferedOutputStream(file);
+		final CheckedOutputStream checked = new CheckedOutputStream(buffered,
+				new CRC32());
+		final DataOutputStream out = new DataOutputStream(checked);
+		try {
+			final int recordCount = index.getRecordCount();
+			final byte[] bitmap = index.toBitmap();
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(dataFile.length());
+			out.writeLong(dataFile.lastModified());
+			out.writeInt(recordCount);
+			out.writeInt(bitmap.length);
+			out.write(bitmap);
+			out.flush();
+
+			// the checksum itself is not part of the checksum
+			final DataOutputStream unchecked = new DataOutputStream(buffered);
+			unchecked.writeLong(checked.getChecksum().getValue());
+
+			checked.getChecksum().reset();
+			out.writeBoolean(fieldIndexes != null);
+			if (fieldIndexes != null) {
+				out.writeInt(fieldIndexes.length);
+				for (final FieldIndex fieldIndex : fieldIndexes) {
+					fieldIndex.write(out);
+				}
+				out.writeInt(numericIndexes.length);
+				for (final NumericIndex numericIndex : numericIndexes) {
+					numericIndex.write(out);
+				}
+				specialtiesIndex.write(out);
+			}
+			out.flush();
+			unchecked.writeLong(checked.getChecksum().getValue());
+			buffered.flush();
+			file.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		if (!tempFile.renameTo(snapshotFile)) {
+			// renameTo does not replace existing files on all platforms
+			snapshotFile.delete();
+			if (!tempFile.renameTo(snapshotFile)) {
+				throw new FileNotFoundException("Cannot replace "
+						+ snapshotFile);
+			}
+		}
+	}
+
+	/**
+	 * Reads the number of indexes of a kind from a snapshot.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @return number of indexes
+	 * @throws IOException
+	 *             if the stream cannot be read or the number is negative
+	 */
+	private static int readLength(DataInput in) throws IOException {
+		final int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Invalid number of indexes " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * Reads the number of a record of an index from a snapshot.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @param recordCount
+	 *            number of records of the data file
+	 * @return number of the record
+	 * @throws IOException
+	 *             if the stream cannot be read or the number is not within
+	 *             the data file
+	 */
+	static int readSlot(DataInput in, int recordCount) throws IOException {
+		final int slot = in.readInt();
+		if (slot < 0 || slot >= recordCount) {
+			throw new IOException("Invalid record number " + slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * Deletes the snapshot of the specified data file, e.g. because the data
+	 * file is about to be modified.
+	 * 
+	 * @param dataFile
+	 *            data file
+	 */
+	public static void delete(File dataFile) {
+		final File snapshotFile = getSnapshotFile(dataFile);
+		if (snapshotFile.exists() && !snapshotFile.delete()) {
+			System.err.println("Cannot delete index snapshot: "
+					+ snapshotFile);
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package suncertify.db.index;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * In-memory sorted index of the parsed numeric values of one field of the data
+ * file.
+ * <p>
+ * The index maps each value to the numbers of the live records having this
+ * value, in ascending order of the values. It is used to find the records in a
+ * range of values, and to read records in the order of their values, so that
+ * a search for the first records in this order can stop early. Records whose
+ * value is not a number are kept separately.
+ * <p>
+ * It is kept up to date by {@code FileAccess}, which reports every record it
+ * writes. All methods are synchronized, so the index may be read while it is
+ * updated.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class NumericIndex {
+
+	/**
+	 * Numbers of the live records by their value
+	 */
+	private final TreeMap<Long, Set<Long>> records = new TreeMap<Long, Set<Long>>();
+
+	/**
+	 * Numbers of the live records whose value is not a number
+	 */
+	private final BitSet unparsed = new BitSet();
+
+	/**
+	 * Value of each live record by record number, null for deleted records and
+	 * values that are not numbers. Used to remove the old value when a record
+	 * is overwritten.
+	 */
+	private Long[] values = new Long[1024];
+
+	/**
+	 * Updates the index after a record has been written.
+	 * 
+	 * @param recNo
+	 *            number of the written record
+	 * @param value
+	 *            parsed value of the field, or null if it is not a number
+	 * @param isDeleted
+	 *            true if the record was written as deleted
+	 */
+	public synchronized void recordWritten(long recNo, Long value,
+			boolean isDeleted) {
+		final int slot = (int) recNo;
+		if (slot >= values.length) {
+			values = Arrays.copyOf(values, Math.max(slot + 1,
+					values.length * 2));
+		}
+
+		remove(slot);
+		if (isDeleted) {
+			return;
+		}
+		if (value == null) {
+			unparsed.set(slot);
+		} else {
+			Set<Long> recNos = records.get(value);
+			if (recNos == null) {
+				recNos = new TreeSet<Long>();
+				records.put(value, recNos);
+			}
+			recNos.add(recNo);
+			values[slot] = value;
+		}
+	}
+
+	/**
+	 * Updates the index after the data file has been truncated.
+	 * 
+	 * @param count
+	 *            new number of records
+	 */
+	public synchronized void truncate(int count) {
+		for (int slot = count; slot < values.length; slot++) {
+			remove(slot);
+		}
+	}
+
+	/**
+	 * Returns the numbers of the live records whose value is in the specified
+	 * range, in the order of their values. Records with the same value are
+	 * returned in ascending order of their numbers.
+	 * 
+	 * @param minimum
+	 *            smallest value in the range
+	 * @param maximum
+	 *            largest value in the range
+	 * @param descending
+	 *            true to return the records in descending order of their
+	 *            values
+	 * @return numbers of the records in the range
+	 */
+	public synchronized long[] range(long minimum, long maximum,
+			boolean descending) {
+		if (minimum > maximum) {
+			return new long[0];
+		}
+
+		NavigableMap<Long, Set<Long>> range = records.subMap(minimum, true,
+				maximum, true);
+		if (descending) {
+			range = range.descendingMap();
+		}
+
+		int count = 0;
+		for (final Set<Long> recNos : range.values()) {
+			count += recNos.size();
+		}
+		final long[] result = new long[count];
+		int i = 0;
+		for (final Set<Long> recNos : range.values()) {
+			for (final Long recNo : recNos) {
+				result[i++] = recNo;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the numbers of the live records whose value is not a number.
+	 * 
+	 * @return numbers of the records in ascending order
+	 */
+	public synchronized long[] getUnparsed() {
+		final long[] result = new long[unparsed.cardinality()];
+		int i = 0;
+		for (int slot = unparsed.nextSetBit(0); slot >= 0; slot = unparsed
+				.nextSetBit(slot + 1)) {
+			result[i++] = slot;
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the value of each live record to a stream, e.g. to an {@code
+	 * IndexSnapshot}.
+	 * 
+	 * @param out
+	 *            stream to write to
+	 * @throws IOException
+	 *             if the stream cannot be written
+	 */
+	synchronized void write(DataOutput out) throws IOException {
+		int count = unparsed.cardinality();
+		for (final Long value : values) {
+			if (value != null) {
+				count++;
+			}
+		}
+		out.writeInt(count);
+		for (int slot = 0; slot < values.length; slot++) {
+			if (values[slot] != null) {
+				out.writeInt(slot);
+				out.writeBoolean(true);
+				out.writeLong(values[slot]);
+			} else if (unparsed.get(slot)) {
+				out.writeInt(slot);
+				out.writeBoolean(false);
+			}
+		}
+	}
+
+	/**
+	 * Creates an index from a stream written by {@link #write(DataOutput)}.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @param recordCount
+	 *            number of records of the data file
+	 * @return index
+	 * @throws IOException
+	 *             if the stream cannot be read or contains an invalid record
+	 *             number
+	 */
+	static NumericIndex read(DataInput in, int recordCount) throws IOException {
+		final NumericIndex index = new NumericIndex();
+		final int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			final int slot = IndexSnapshot.readSlot(in, recordCount);
+			final Long value = in.readBoolean() ? in.readLong() : null;
+			index.recordWritten(slot, value, false);
+		}
+		return index;
+	}
+
+	/**
+	 * Removes the record at the specified slot from the index.
+	 * 
+	 * @param slot
+	 *            number of the record
+	 */
+	private void remove(int slot) {
+		final Long value = values[slot];
+		if (value != null) {
+			final Set<Long> recNos = records.get(value);
+			recNos.remove(Long.valueOf(slot));
+			if (recNos.isEmpty()) {
+				records.remove(value);
+			}
+			values[slot] = null;
+		}
+		unparsed.clear(slot);
+	}
+}
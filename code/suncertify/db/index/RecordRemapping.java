@@ -0,0 +1,255 @@
+package suncertify.db.index;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import suncertify.db.RecordNotFoundException;
+
+/**
+ * Remapping of the numbers of records that were moved to another slot of the
+ * data file by the compaction.
+ * <p>
+ * Clients may still hold the number a record had before it was moved, e.g. in
+ * the result of a search. The Data class resolves every record number it
+ * receives with this remapping, so that these numbers keep referring to the
+ * same record. The remapping is static, as it belongs to the data file.
+ * <p>
+ * When the slot of an old number is used for another record, e.g. when a
+ * record is appended at the end of the compacted file, the old number must
+ * keep referring to the moved record. The slot then starts a new generation:
+ * the numbers of records in a slot of a later generation carry the generation
+ * in their upper 32 bits, so that they differ from the old number. A number of
+ * an earlier generation that is no longer remapped, e.g. because the moved
+ * record has been deleted, is stale and cannot be resolved. The numbers of
+ * slots that were never reused in this way equal their positions.
+ * <p>
+ * The remapping is not persisted: record numbers held by clients do not
+ * outlive the server. A replica server receives the remapping of its primary
+ * together with the writes to the data file.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class RecordRemapping {
+
+	/**
+	 * Number of bits the generation of a slot is shifted by in a record
+	 * number
+	 */
+	private static final int GENERATION_SHIFT = 32;
+
+	/**
+	 * Mask of the position of the slot in a record number
+	 */
+	private static final long SLOT_MASK = (1L << GENERATION_SHIFT) - 1;
+
+	/**
+	 * Mapping of old record numbers to the current slots of the records. Each
+	 * entry maps directly to the current slot, never to another old number.
+	 */
+	private static final Map<Long, Long> MAPPING = new HashMap<Long, Long>();
+
+	/**
+	 * Reverse index of the mapping: the old record numbers mapping to each
+	 * slot, so that the numbers of a moved or deleted record are found without
+	 * scanning the mapping. Guarded by the mapping.
+	 */
+	private static final Map<Long, Set<Long>> OLD_NUMBERS = new HashMap<Long, Set<Long>>();
+
+	/**
+	 * Generations of the slots that have been reused while an old number of
+	 * them was remapped. Guarded by the mapping.
+	 */
+	private static final Map<Long, Long> GENERATIONS = new HashMap<Long, Long>();
+
+	/**
+	 * Hidden constructor, this class provides static methods only.
+	 */
+	private RecordRemapping() {
+	}
+
+	/**
+	 * Returns the current slot of the record with the specified number.
+	 * 
+	 * @param recNo
+	 *            record number, possibly from before the record was moved
+	 * @return current slot of the record
+	 * @throws RecordNotFoundException
+	 *             if the number is stale, i.e. it refers to an earlier
+	 *             generation of its slot and is not remapped
+	 */
+	public static long resolve(long recNo) throws RecordNotFoundException {
+		synchronized (MAPPING) {
+			final Long current = MAPPING.get(recNo);
+			if (current != null) {
+				return current;
+			}
+			final long slot = recNo & SLOT_MASK;
+			if (recNo >>> GENERATION_SHIFT != generation(slot)) {
+				throw new RecordNotFoundException("Record " + recNo
+						+ " no longer exists");
+			}
+			return slot;
+		}
+	}
+
+	/**
+	 * Returns the number of the record in the specified slot, i.e. the number
+	 * clients use to refer to it.
+	 * 
+	 * @param slot
+	 *            slot of the record
+	 * @return record number
+	 */
+	public static long number(long slot) {
+		synchronized (MAPPING) {
+			return slot | generation(slot) << GENERATION_SHIFT;
+		}
+	}
+
+	/**
+	 * Records that the record in slot {@code from} has been moved to slot
+	 * {@code to}.
+	 * 
+	 * @param from
+	 *            previous slot of the record
+	 * @param to
+	 *            new slot of the record
+	 */
+	public static void moved(long from, long to) {
+		synchronized (MAPPING) {
+			// older numbers of the moved record now map to the new slot
+			final Set<Long> numbers = OLD_NUMBERS.remove(from);
+			if (numbers != null) {
+				for (final Long number : numbers) {
+					map(number, to);
+				}
+			}
+			reused(to);
+			map(number(from), to);
+		}
+	}
+
+	/**
+	 * Records that the specified slot is used for another record. If the
+	 * number of the slot is remapped to a moved record, the slot starts a new
+	 * generation, so that the number keeps referring to the moved record.
+	 * 
+	 * @param slot
+	 *            reused slot
+	 */
+	public static void reused(long slot) {
+		synchronized (MAPPING) {
+			if (MAPPING.containsKey(number(slot))) {
+				GENERATIONS.put(slot, generation(slot) + 1);
+			}
+		}
+	}
+
+	/**
+	 * Removes all entries mapping to the specified record, e.g. because it has
+	 * been deleted.
+	 * 
+	 * @param slot
+	 *            current slot of the record
+	 */
+	public static void removed(long slot) {
+		synchronized (MAPPING) {
+			final Set<Long> numbers = OLD_NUMBERS.remove(slot);
+			if (numbers != null) {
+				for (final Long number : numbers) {
+					MAPPING.remove(number);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of old record numbers that are remapped.
+	 * 
+	 * @return number of entries
+	 */
+	public static int size() {
+		synchronized (MAPPING) {
+			return MAPPING.size();
+		}
+	}
+
+	/**
+	 * Copies the remapping, e.g. to ship it to a replica.
+	 * 
+	 * @param mapping
+	 *            map receiving the old record numbers and their current slots
+	 * @param generations
+	 *            map receiving the slots and their generations
+	 */
+	public static void copy(Map<Long, Long> mapping,
+			Map<Long, Long> generations) {
+		synchronized (MAPPING) {
+			mapping.putAll(MAPPING);
+			generations.putAll(GENERATIONS);
+		}
+	}
+
+	/**
+	 * Replaces the remapping with a copy of another one, e.g. of the primary
+	 * server of a replica.
+	 * 
+	 * @param mapping
+	 *            old record numbers and their current slots
+	 * @param generations
+	 *            slots and their generations
+	 */
+	public static void restore(Map<Long, Long> mapping,
+			Map<Long, Long> generations) {
+		synchronized (MAPPING) {
+			MAPPING.clear();
+			OLD_NUMBERS.clear();
+			for (final Map.Entry<Long, Long> entry : mapping.entrySet()) {
+				map(entry.getKey(), entry.getValue());
+			}
+			GENERATIONS.clear();
+			GENERATIONS.putAll(generations);
+		}
+	}
+
+	/**
+	 * Maps an old record number to the current slot of its record, updating
+	 * the reverse index. Must be called while holding the lock on the mapping.
+	 * 
+	 * @param number
+	 *            old record number
+	 * @param slot
+	 *            current slot of the record
+	 */
+	private static void map(long number, long slot) {
+		final Long previous = MAPPING.put(number, slot);
+		if (previous != null && previous != slot) {
+			final Set<Long> numbers = OLD_NUMBERS.get(previous);
+			numbers.remove(number);
+			if (numbers.isEmpty()) {
+				OLD_NUMBERS.remove(previous);
+			}
+		}
+		Set<Long> numbers = OLD_NUMBERS.get(slot);
+		if (numbers == null) {
+			numbers = new HashSet<Long>();
+			OLD_NUMBERS.put(slot, numbers);
+		}
+		numbers.add(number);
+	}
+
+	/**
+	 * Returns the current generation of the specified slot. Must be called
+	 * while holding the lock on the mapping.
+	 * 
+	 * @param slot
+	 *            slot of the data file
+	 * @return generation, 0 if the slot has never been reused
+	 */
+	private static long generation(long slot) {
+		final Long generation = GENERATIONS.get(slot);
+		return generation != null ? generation : 0;
+	}
+}
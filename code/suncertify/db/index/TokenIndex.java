@@ -0,0 +1,251 @@
+package suncertify.db.index;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory inverted index of the tokens of a field holding a comma-separated
+ * list, e.g. the specialties "Drywall, Painting".
+ * <p>
+ * The index maps each token, ignoring case and surrounding blanks, to the
+ * numbers of the live records whose list contains it. It is used to find the
+ * records containing any or all of a set of tokens, wherever the tokens appear
+ * in the list.
+ * <p>
+ * It is kept up to date by {@code FileAccess}, which reports every record it
+ * writes. All methods are synchronized, so the index may be read while it is
+ * updated.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class TokenIndex {
+
+	/**
+	 * Numbers of the live records by token
+	 */
+	private final Map<String, Set<Long>> records = new HashMap<String, Set<Long>>();
+
+	/**
+	 * Tokens of each live record by record number, null for deleted records.
+	 * Used to remove the old tokens when a record is overwritten.
+	 */
+	private String[][] tokens = new String[1024][];
+
+	/**
+	 * Updates the index after a record has been written.
+	 * 
+	 * @param recNo
+	 *            number of the written record
+	 * @param value
+	 *            value of the indexed field as written to the data file
+	 * @param isDeleted
+	 *            true if the record was written as deleted
+	 */
+	public synchronized void recordWritten(long recNo, String value,
+			boolean isDeleted) {
+		final int slot = (int) recNo;
+		if (slot >= tokens.length) {
+			tokens = Arrays.copyOf(tokens, Math.max(slot + 1,
+					tokens.length * 2));
+		}
+
+		remove(slot);
+		if (!isDeleted) {
+			final String[] recordTokens = tokenize(value);
+			for (final String token : recordTokens) {
+				Set<Long> recNos = records.get(token);
+				if (recNos == null) {
+					recNos = new HashSet<Long>();
+					records.put(token, recNos);
+				}
+				recNos.add(recNo);
+			}
+			tokens[slot] = recordTokens;
+		}
+	}
+
+	/**
+	 * Updates the index after the data file has been truncated.
+	 * 
+	 * @param count
+	 *            new number of records
+	 */
+	public synchronized void truncate(int count) {
+		for (int slot = count; slot < tokens.length; slot++) {
+			remove(slot);
+		}
+	}
+
+	/**
+	 * Returns the numbers of the live records containing any or all of the
+	 * specified tokens.
+	 * 
+	 * @param searched
+	 *            tokens in the form returned by {@link #tokenize(String)}
+	 * @param all
+	 *            true if a record must contain all tokens, false if it must
+	 *            contain at least one of them
+	 * @return numbers of the matching records in ascending order
+	 */
+	public synchronized long[] lookup(String[] searched, boolean all) {
+		final List<Set<Long>> sets = new ArrayList<Set<Long>>();
+		for (final String token : searched) {
+			final Set<Long> recNos = records.get(token);
+			if (recNos == null) {
+				if (all) {
+					return new long[0];
+				}
+			} else {
+				sets.add(recNos);
+			}
+		}
+
+		final BitSet found = new BitSet();
+		if (all && !sets.isEmpty()) {
+			// check the records of the smallest set against the others
+			Set<Long> smallest = sets.get(0);
+			for (final Set<Long> recNos : sets) {
+				if (recNos.size() < smallest.size()) {
+					smallest = recNos;
+				}
+			}
+			for (final Long recNo : smallest) {
+				boolean inAll = true;
+				for (final Set<Long> recNos : sets) {
+					inAll &= recNos.contains(recNo);
+				}
+				if (inAll) {
+					found.set(recNo.intValue());
+				}
+			}
+		} else if (all) {
+			// no tokens: every live record contains all of them
+			for (int slot = 0; slot < tokens.length; slot++) {
+				if (tokens[slot] != null) {
+					found.set(slot);
+				}
+			}
+		} else {
+			for (final Set<Long> recNos : sets) {
+				for (final Long recNo : recNos) {
+					found.set(recNo.intValue());
+				}
+			}
+		}
+
+		final long[] result = new long[found.cardinality()];
+		int i = 0;
+		for (int slot = found.nextSetBit(0); slot >= 0; slot = found
+				.nextSetBit(slot + 1)) {
+			result[i++] = slot;
+		}
+		return result;
+	}
+
+	/**
+	 * Splits a comma-separated list into its tokens. The tokens are converted
+	 * to lower case, surrounding blanks, empty tokens and duplicates are
+	 * removed.
+	 * 
+	 * @param value
+	 *            comma-separated list
+	 * @return tokens of the list
+	 */
+	public static String[] tokenize(String value) {
+		final Set<String> result = new LinkedHashSet<String>();
+		for (final String token : value.split(",")) {
+			final String trimmed = token.trim();
+			if (trimmed.length() > 0) {
+				result.add(trimmed.toLowerCase(Locale.ENGLISH));
+			}
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * Writes the tokens of each live record to a stream, e.g. to an {@code
+	 * IndexSnapshot}.
+	 * 
+	 * @param out
+	 *            stream to write to
+	 * @throws IOException
+	 *             if the stream cannot be written
+	 */
+	synchronized void write(DataOutput out) throws IOException {
+		int count = 0;
+		for (final String[] recordTokens : tokens) {
+			if (recordTokens != null) {
+				count++;
+			}
+		}
+		out.writeInt(count);
+		for (int slot = 0; slot < tokens.length; slot++) {
+			if (tokens[slot] != null) {
+				out.writeInt(slot);
+				out.writeShort(tokens[slot].length);
+				for (final String token : tokens[slot]) {
+					out.writeUTF(token);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates an index from a stream written by {@link #write(DataOutput)}.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @param recordCount
+	 *            number of records of the data file
+	 * @return index
+	 * @throws IOException
+	 *             if the stream cannot be read or contains an invalid record
+	 *             number
+	 */
+	static TokenIndex read(DataInput in, int recordCount) throws IOException {
+		final TokenIndex index = new TokenIndex();
+		final int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			final int slot = IndexSnapshot.readSlot(in, recordCount);
+			final StringBuilder value = new StringBuilder();
+			final int tokenCount = in.readUnsignedShort();
+			for (int j = 0; j < tokenCount; j++) {
+				// tokens contain no commas, so they are split again
+				value.append(in.readUTF()).append(',');
+			}
+			index.recordWritten(slot, value.toString(), false);
+		}
+		return index;
+	}
+
+	/**
+	 * Removes the record at the specified slot from the index.
+	 * 
+	 * @param slot
+	 *            number of the record
+	 */
+	private void remove(int slot) {
+		final String[] recordTokens = tokens[slot];
+		if (recordTokens != null) {
+			for (final String token : recordTokens) {
+				final Set<Long> recNos = records.get(token);
+				recNos.remove(Long.valueOf(slot));
+				if (recNos.isEmpty()) {
+					records.remove(token);
+				}
+			}
+			tokens[slot] = null;
+		}
+	}
+}
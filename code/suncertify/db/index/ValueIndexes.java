@@ -0,0 +1,71 @@
+package suncertify.db.index;
+
+/**
+ * Indexes of the field values of a data file, as loaded from an {@code
+ * IndexSnapshot}: the indexes of the indexed fields, of the numeric fields and
+ * of the tokens of the specialties.
+ * 
+ * @author Rasmus Kuschel
+ * @see IndexSnapshot#loadValueIndexes(java.io.File, int)
+ */
+public final class ValueIndexes {
+
+	/**
+	 * Indexes of the values of the indexed fields
+	 */
+	private final FieldIndex[] fieldIndexes;
+
+	/**
+	 * Indexes of the values of the numeric fields
+	 */
+	private final NumericIndex[] numericIndexes;
+
+	/**
+	 * Index of the tokens of the specialties
+	 */
+	private final TokenIndex specialtiesIndex;
+
+	/**
+	 * Creates a new instance.
+	 * 
+	 * @param fieldIndexes
+	 *            indexes of the values of the indexed fields
+	 * @param numericIndexes
+	 *            indexes of the values of the numeric fields
+	 * @param specialtiesIndex
+	 *            index of the tokens of the specialties
+	 */
+	ValueIndexes(FieldIndex[] fieldIndexes, NumericIndex[] numericIndexes,
+			TokenIndex specialtiesIndex) {
+		this.fieldIndexes = fieldIndexes;
+		this.numericIndexes = numericIndexes;
+		this.specialtiesIndex = specialtiesIndex;
+	}
+
+	/**
+	 * Returns the indexes of the values of the indexed fields.
+	 * 
+	 * @return indexes in the order they were saved
+	 */
+	public FieldIndex[] getFieldIndexes() {
+		return fieldIndexes.clone();
+	}
+
+	/**
+	 * Returns the indexes of the values of the numeric fields.
+	 * 
+	 * @return indexes in the order they were saved
+	 */
+	public NumericIndex[] getNumericIndexes() {
+		return numericIndexes.clone();
+	}
+
+	/**
+	 * Returns the index of the tokens of the specialties.
+	 * 
+	 * @return index of the specialties
+	 */
+	public TokenIndex getSpecialtiesIndex() {
+		return specialtiesIndex;
+	}
+}
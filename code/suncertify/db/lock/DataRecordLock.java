@@ -1,11 +1,16 @@
 package suncertify.db.lock;
 
+import java.util.LinkedList;
+import java.util.Queue;
 import java.util.Random;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import suncertify.db.LockCallback;
 import suncertify.db.SecurityException;
+import suncertify.db.metrics.Metrics;
+import suncertify.db.metrics.Operation;
 
 /**
  * Holds information about the lock on a data record, i.e. whether it is locked
@@ -13,11 +18,18 @@ import suncertify.db.SecurityException;
  * <p>
  * Provides methods to acquire and release this lock.
  * <p>
- * When a thread tries to acquire a lock that is already locked, it is blocked
- * on an internal condition variable.
+ * When a thread tries to acquire a lock that is already locked, it is queued
+ * and blocked on a condition variable of its own. Alternatively, a lock can be
+ * requested with a callback; then only the callback is queued and the calling
+ * thread returns immediately.
  * <p>
- * When a lock is released, threads waiting for its release are notified via the
- * condition variable.
+ * When a lock is released, it is handed over to the first queued waiter: a
+ * blocked thread is woken up via its condition variable, a callback is
+ * notified on the releasing thread. Waiters are served in the order they were
+ * queued, regardless of whether they block or not.
+ * <p>
+ * The time from acquiring until releasing the lock is measured as {@code
+ * Operation.LOCK_HOLD}.
  * 
  * @author Rasmus Kuschel
  */
@@ -45,10 +57,24 @@ public final class DataRecordLock {
 	private boolean locked;
 
 	/**
-	 * Condition variable used to synchronize threads that want to acquire this
-	 * lock.
+	 * Owner that currently holds this lock, or null if it is not locked.
+	 * <p>
+	 * The owner is only used to detect deadlocks. It is volatile, so that it
+	 * can be inspected without acquiring the internal lock.
+	 */
+	private volatile Object owner;
+
+	/**
+	 * Value of {@code System.nanoTime()} when the lock was acquired. Guarded by
+	 * the internal lock.
+	 */
+	private long lockedSince;
+
+	/**
+	 * Waiters for this lock, in the order they requested it. Guarded by the
+	 * internal lock.
 	 */
-	private final Condition lockReleased = lock.newCondition();
+	private final Queue<Waiter> waiters = new LinkedList<Waiter>();
 
 	/**
 	 * Creates a new DataRecordLock.
@@ -64,59 +90,125 @@ public final class DataRecordLock {
 	 * If the lock is not held by any thread, it is locked and a new cookie
 	 * value is generated and returned.
 	 * <p>
-	 * If the lock is already held, the current thread waits on the condition
-	 * variable until it is signalled that the lock is available. After being
-	 * woken up, the thread tries again to acquire the lock, until it is
-	 * successful.
+	 * If the lock is already held, the current thread is queued and waits on
+	 * its condition variable until the lock is handed over to it.
+	 * <p>
+	 * The specified owner is recorded as the holder of this lock until it is
+	 * released.
+	 * 
+	 * @param owner
+	 *            owner acquiring the lock
+	 * @return cookie value of the lock
 	 */
-	public long acquire() {
+	public long acquire(Object owner) {
 
 		lock.lock();
 		try {
-			// While the lock is not available, wait to be signalled about its
-			// release.
+			if (!locked) {
+				return grant(owner);
+			}
+
+			final Waiter waiter = new Waiter(owner, null, lock.newCondition());
+			waiters.add(waiter);
+
 			// We check the condition in a loop because the thread might
 			// have been reactivated by a "spurious wakeup".
-			// Therefore, we immediately recheck the condition after being
-			// notified.
-			while (locked) {
-				this.lockReleased.awaitUninterruptibly();
+			while (!waiter.granted) {
+				waiter.handedOver.awaitUninterruptibly();
 			}
 
-			this.locked = true;
-			this.lockCookie = RND.nextLong();
+			return waiter.cookie;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Requests this lock without blocking.
+	 * <p>
+	 * If the lock is not held, it is acquired and the callback is notified
+	 * before this method returns. Otherwise the callback is queued and notified
+	 * when the lock is handed over to it.
+	 * 
+	 * @param owner
+	 *            owner acquiring the lock
+	 * @param callback
+	 *            callback to be notified when the lock has been acquired
+	 */
+	public void acquire(Object owner, LockCallback callback) {
+		final long cookie;
 
-			return this.lockCookie;
+		lock.lock();
+		try {
+			if (locked) {
+				waiters.add(new Waiter(owner, callback, null));
+				return;
+			}
+			cookie = grant(owner);
 		} finally {
 			lock.unlock();
 		}
+
+		// The callback is notified without holding the internal lock, so that
+		// it may release the lock again.
+		callback.lockAcquired(cookie);
 	}
 
 	/**
 	 * Releases this lock.
 	 * <p>
-	 * If other threads are waiting for this lock, one of them is notified to
-	 * retry to aquire this lock.
+	 * If waiters are queued, the lock is handed over to the first of them.
 	 * 
 	 * @param lockCookie
 	 *            cookie value to authorize the release
 	 */
 	public void release(long lockCookie) throws SecurityException {
-		lock.lock();
+		Waiter next = null;
 
+		lock.lock();
 		try {
 			if (this.lockCookie != lockCookie) {
 				throw new SecurityException("Invalid lock cookie");
-			} else {
-				this.locked = false;
-				this.lockCookie = 0;
+			}
+
+			this.locked = false;
+			this.lockCookie = 0;
+			this.owner = null;
+			Metrics.record(Operation.LOCK_HOLD, lockedSince);
 
-				// notify waiting threads about this lock's release
-				this.lockReleased.signal();
+			// hand the lock over to the first waiter
+			next = waiters.poll();
+			if (next != null) {
+				next.cookie = grant(next.owner);
+				next.granted = true;
+				if (next.handedOver != null) {
+					next.handedOver.signal();
+				}
 			}
 		} finally {
 			lock.unlock();
 		}
+
+		if (next != null && next.callback != null) {
+			next.callback.lockAcquired(next.cookie);
+		}
+	}
+
+	/**
+	 * Locks this lock for the specified owner. Must be called while holding
+	 * the internal lock.
+	 * 
+	 * @param owner
+	 *            owner acquiring the lock
+	 * @return new cookie value
+	 */
+	private long grant(Object owner) {
+		this.locked = true;
+		this.lockCookie = RND.nextLong();
+		this.owner = owner;
+		this.lockedSince = System.nanoTime();
+
+		return this.lockCookie;
 	}
 
 	/**
@@ -127,4 +219,61 @@ public final class DataRecordLock {
 	public long getLockCookie() {
 		return this.lockCookie;
 	}
+
+	/**
+	 * Returns the owner currently holding this lock, or null if it is not
+	 * locked.
+	 * 
+	 * @return owner of the lock
+	 */
+	public Object getOwner() {
+		return this.owner;
+	}
+
+	/**
+	 * Entry of the waiter queue.
+	 */
+	private static final class Waiter {
+
+		/**
+		 * Owner waiting for the lock
+		 */
+		final Object owner;
+
+		/**
+		 * Callback to be notified, or null if a thread is blocked
+		 */
+		final LockCallback callback;
+
+		/**
+		 * Condition the blocked thread waits on, or null for a callback
+		 */
+		final Condition handedOver;
+
+		/**
+		 * Flag set when the lock has been handed over to this waiter
+		 */
+		boolean granted;
+
+		/**
+		 * Cookie value of the lock handed over to this waiter
+		 */
+		long cookie;
+
+		/**
+		 * Creates a new waiter.
+		 * 
+		 * @param owner
+		 *            owner waiting for the lock
+		 * @param callback
+		 *            callback to be notified, or null
+		 * @param handedOver
+		 *            condition the blocked thread waits on, or null
+		 */
+		Waiter(Object owner, LockCallback callback, Condition handedOver) {
+			this.owner = owner;
+			this.callback = callback;
+			this.handedOver = handedOver;
+		}
+	}
 }
@@ -1,9 +1,17 @@
 package suncertify.db.lock;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import suncertify.db.DeadlockException;
+import suncertify.db.LockCallback;
 import suncertify.db.SecurityException;
+import suncertify.db.metrics.Metrics;
+import suncertify.db.metrics.Operation;
 
 /**
  * Component for the management of record locks.
@@ -14,6 +22,16 @@ import suncertify.db.SecurityException;
  * needs to be static so that information about lock can be shared between
  * several Data instances. Access to the map needs to be appropriately
  * synchronized.
+ * <p>
+ * Each LockManager instance represents one lock owner, i.e. one client. The
+ * owner of each held lock and the records each owner is waiting for are kept
+ * in a static wait-for graph. Before a thread starts waiting for a lock, the
+ * graph is checked for a cycle leading back to the requesting owner. If such a
+ * cycle exists, waiting would result in a deadlock and the lock request fails
+ * with a {@code DeadlockException}.
+ * <p>
+ * The time spent waiting for a lock is measured as {@code Operation.LOCK_WAIT},
+ * including locks that are acquired without waiting.
  * 
  * @author Rasmus Kuschel
  */
@@ -24,6 +42,15 @@ public final class LockManager {
 	 */
 	private static Map<Long, DataRecordLock> lockMap = new HashMap<Long, DataRecordLock>();
 
+	/**
+	 * Mapping of each lock owner to the numbers of the records it is currently
+	 * waiting for (one entry per waiting thread).
+	 * <p>
+	 * Together with the owners stored in the DataRecordLock instances, this
+	 * forms the wait-for graph used to detect deadlocks.
+	 */
+	private static Map<Object, List<Long>> waitingMap = new HashMap<Object, List<Long>>();
+
 	/**
 	 * Acquires the lock on the record with the given index and returns the
 	 * value of the lock. This method blocks until the lock succeeds.
@@ -37,17 +64,91 @@ public final class LockManager {
 	 * does exist at all or whether it is deleted. It is possible to lock on any
 	 * index of a record, and it is the responsibility of the caller to ensure
 	 * that it is only called with valid indices.
+	 * <p>
+	 * If the record is locked by an owner that is (directly or indirectly)
+	 * waiting for a lock held by this owner, waiting would never end. In this
+	 * case a {@code DeadlockException} is thrown instead.
 	 * 
 	 * @param recNo
 	 *            index of the record to be locked
 	 * @return cookie value of the lock after it is acquired
+	 * @throws DeadlockException
+	 *             if waiting for the lock would result in a deadlock
 	 */
 	public long lock(long recNo) {
 
+		final long start = System.nanoTime();
+		final DataRecordLock recordLock = getLock(recNo);
+
+		// Detecting the deadlock and registering this owner as waiting must be
+		// handled atomically. Otherwise two owners could concurrently close a
+		// cycle without either of them detecting it.
+		synchronized (waitingMap) {
+			if (isDeadlock(recordLock.getOwner())) {
+				throw new DeadlockException("locking record " + recNo
+						+ " would result in a deadlock");
+			}
+			addWaiting(recNo);
+		}
+
+		try {
+			final long cookie = recordLock.acquire(this); // blocking
+
+			return cookie;
+		} finally {
+			synchronized (waitingMap) {
+				removeWaiting(recNo);
+			}
+			Metrics.record(Operation.LOCK_WAIT, start);
+		}
+	}
+
+	/**
+	 * Requests the lock on the record with the given index without blocking.
+	 * <p>
+	 * If the lock is available, the callback is notified before this method
+	 * returns. Otherwise the callback is queued with the corresponding
+	 * DataRecordLock instance and notified on the thread that releases the
+	 * lock. Until then, this owner is registered as waiting, just like a
+	 * blocked thread.
+	 * 
+	 * @param recNo
+	 *            index of the record to be locked
+	 * @param callback
+	 *            callback to be notified when the lock has been acquired; its
+	 *            lockFailed method is not called
+	 * @throws DeadlockException
+	 *             if waiting for the lock would result in a deadlock
+	 */
+	public void lock(final long recNo, final LockCallback callback) {
+
+		final long start = System.nanoTime();
 		final DataRecordLock recordLock = getLock(recNo);
-		final long cookie = recordLock.acquire(); // blocking
 
-		return cookie;
+		synchronized (waitingMap) {
+			if (isDeadlock(recordLock.getOwner())) {
+				throw new DeadlockException("locking record " + recNo
+						+ " would result in a deadlock");
+			}
+			addWaiting(recNo);
+		}
+
+		recordLock.acquire(this, new LockCallback() {
+			@Override
+			public void lockAcquired(long cookie) {
+				synchronized (waitingMap) {
+					removeWaiting(recNo);
+				}
+				Metrics.record(Operation.LOCK_WAIT, start);
+				callback.lockAcquired(cookie);
+			}
+
+			@Override
+			public void lockFailed(Exception exception) {
+				// not called by DataRecordLock
+				callback.lockFailed(exception);
+			}
+		});
 	}
 
 	/**
@@ -70,6 +171,22 @@ public final class LockManager {
 		lock.release(cookie);
 	}
 
+	/**
+	 * Checks whether the record with the specified number is locked by any
+	 * owner. A lock that is handed over to a waiter stays locked.
+	 * 
+	 * @param recNo
+	 *            number of the record
+	 * @return true if the record is locked
+	 */
+	public static boolean isLocked(long recNo) {
+		final DataRecordLock lock;
+		synchronized (lockMap) {
+			lock = lockMap.get(recNo);
+		}
+		return lock != null && lock.getOwner() != null;
+	}
+
 	/**
 	 * Checks if the record with the specified number is locked with the
 	 * specified cookie value. If the correct cookie value is used, the method
@@ -93,6 +210,90 @@ public final class LockManager {
 		}
 	}
 
+	/**
+	 * Checks whether the specified lock holder is (directly or indirectly)
+	 * waiting for a lock held by this owner, i.e. whether waiting for a lock
+	 * of the holder would close a cycle in the wait-for graph.
+	 * <p>
+	 * A holder that is this owner itself does not count as a deadlock, as the
+	 * lock may be held by another thread acting for the same client.
+	 * <p>
+	 * This method needs to be called from within a block synchronized on the
+	 * waitingMap.
+	 * 
+	 * @param holder
+	 *            owner currently holding the requested lock, may be null
+	 * @return true if waiting for the holder would result in a deadlock
+	 */
+	private boolean isDeadlock(Object holder) {
+		if (holder == null || holder == this) {
+			return false;
+		}
+
+		// Depth-first search from the holder along the wait-for edges
+		final Set<Object> visited = new HashSet<Object>();
+		final List<Object> pending = new ArrayList<Object>();
+		pending.add(holder);
+		while (!pending.isEmpty()) {
+			final Object owner = pending.remove(pending.size() - 1);
+			if (owner == this) {
+				return true;
+			}
+			if (visited.add(owner)) {
+				final List<Long> waitingFor = waitingMap.get(owner);
+				if (waitingFor != null) {
+					for (final Long waitingRecNo : waitingFor) {
+						final Object nextHolder = getLock(waitingRecNo)
+								.getOwner();
+						if (nextHolder != null) {
+							pending.add(nextHolder);
+						}
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Registers this owner as waiting for the record with the given number.
+	 * <p>
+	 * This method needs to be called from within a block synchronized on the
+	 * waitingMap.
+	 * 
+	 * @param recNo
+	 *            number of the record
+	 */
+	private void addWaiting(long recNo) {
+		List<Long> waitingFor = waitingMap.get(this);
+		if (waitingFor == null) {
+			waitingFor = new ArrayList<Long>();
+			waitingMap.put(this, waitingFor);
+		}
+		waitingFor.add(recNo);
+	}
+
+	/**
+	 * Removes one registration of this owner waiting for the record with the
+	 * given number.
+	 * <p>
+	 * This method needs to be called from within a block synchronized on the
+	 * waitingMap.
+	 * 
+	 * @param recNo
+	 *            number of the record
+	 */
+	private void removeWaiting(long recNo) {
+		final List<Long> waitingFor = waitingMap.get(this);
+		if (waitingFor != null) {
+			waitingFor.remove(Long.valueOf(recNo));
+			if (waitingFor.isEmpty()) {
+				waitingMap.remove(this);
+			}
+		}
+	}
+
 	/**
 	 * Returns the DataRecordLock instance for the record with the given
 	 * instance, lazily creating one if necessary.
@@ -0,0 +1,170 @@
+package suncertify.db.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Central registry of the latency statistics of all operations.
+ * <p>
+ * Components measure an operation by taking {@code System.nanoTime()} before
+ * executing it and passing this start time to {@link #record}, usually from a
+ * finally block, so that failed executions are measured as well.
+ * <p>
+ * The statistics are always collected. They can be exported as MBeans of the
+ * platform MBean server, so that they can be inspected with any JMX console,
+ * and can be written to the standard output periodically.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class Metrics {
+
+	/**
+	 * Domain of the object names of the exported MBeans
+	 */
+	public static final String DOMAIN = "suncertify";
+
+	/**
+	 * Statistics of each operation. The map is filled once and not modified
+	 * afterwards, so it can be read without synchronization.
+	 */
+	private static final Map<Operation, OperationStats> STATS = new EnumMap<Operation, OperationStats>(
+			Operation.class);
+
+	static {
+		for (final Operation operation : Operation.values()) {
+			STATS.put(operation, new OperationStats(operation));
+		}
+	}
+
+	/**
+	 * Timer writing the statistics periodically, or null if not started
+	 */
+	private static Timer logTimer;
+
+	/**
+	 * Hidden constructor, this class provides static methods only.
+	 */
+	private Metrics() {
+	}
+
+	/**
+	 * Records one execution of an operation that started at the specified
+	 * time and ends now.
+	 * 
+	 * @param operation
+	 *            executed operation
+	 * @param startNanos
+	 *            value of {@code System.nanoTime()} when the execution started
+	 */
+	public static void record(Operation operation, long startNanos) {
+		STATS.get(operation).record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Returns the statistics of the specified operation.
+	 * 
+	 * @param operation
+	 *            measured operation
+	 * @return statistics of the operation
+	 */
+	public static OperationStats getStats(Operation operation) {
+		return STATS.get(operation);
+	}
+
+	/**
+	 * Registers the statistics of all operations with the platform MBean
+	 * server. Their object names are of the form
+	 * {@code suncertify:type=OperationStats,component=db,name=read}.
+	 * <p>
+	 * Calling this method more than once has no further effect.
+	 */
+	public static void registerMBeans() {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (final Map.Entry<Operation, OperationStats> entry : STATS
+				.entrySet()) {
+			final Operation operation = entry.getKey();
+			try {
+				server.registerMBean(entry.getValue(),
+						getObjectName(operation));
+			} catch (final InstanceAlreadyExistsException ignored) {
+				// already registered
+			} catch (final JMException e) {
+				System.err.println("Cannot register statistics of "
+						+ operation + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Returns the object name the statistics of the specified operation are
+	 * registered with.
+	 * 
+	 * @param operation
+	 *            measured operation
+	 * @return object name of the MBean
+	 * @throws JMException
+	 *             if the object name is malformed
+	 */
+	public static ObjectName getObjectName(Operation operation)
+			throws JMException {
+		return new ObjectName(DOMAIN + ":type=OperationStats,component="
+				+ operation.getComponent() + ",name="
+				+ operation.getOperationName());
+	}
+
+	/**
+	 * Starts writing the statistics of all operations executed at least once
+	 * to the standard output at the specified interval.
+	 * <p>
+	 * If the statistics are already written periodically, the interval is
+	 * changed.
+	 * 
+	 * @param intervalMillis
+	 *            interval in milliseconds
+	 */
+	public static synchronized void startLogging(long intervalMillis) {
+		stopLogging();
+		logTimer = new Timer("metrics-log", true);
+		logTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				System.out.print(getSummary());
+			}
+		}, intervalMillis, intervalMillis);
+	}
+
+	/**
+	 * Stops writing the statistics periodically.
+	 */
+	public static synchronized void stopLogging() {
+		if (logTimer != null) {
+			logTimer.cancel();
+			logTimer = null;
+		}
+	}
+
+	/**
+	 * Returns a summary of the statistics of all operations executed at least
+	 * once, one line per operation.
+	 * 
+	 * @return summary of the statistics
+	 */
+	public static String getSummary() {
+		final StringBuilder summary = new StringBuilder();
+		for (final OperationStats stats : STATS.values()) {
+			if (stats.getCount() > 0) {
+				summary.append(stats.getSummary()).append(
+						System.getProperty("line.separator"));
+			}
+		}
+		return summary.toString();
+	}
+}
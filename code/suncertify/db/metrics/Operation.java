@@ -0,0 +1,138 @@
+package suncertify.db.metrics;
+
+/**
+ * Operations whose latency is measured.
+ * <p>
+ * Each operation belongs to a component, i.e. the layer it is measured in. The
+ * same operation is measured in several components, e.g. a read is measured by
+ * the session of a remote client, including the time it waited for admission,
+ * and by the database itself.
+ * 
+ * @author Rasmus Kuschel
+ */
+public enum Operation {
+
+	/**
+	 * Reading a record from the data file
+	 */
+	READ("db", "read"),
+
+	/**
+	 * Updating a record in the data file
+	 */
+	UPDATE("db", "update"),
+
+	/**
+	 * Deleting a record from the data file
+	 */
+	DELETE("db", "delete"),
+
+	/**
+	 * Searching records in the data file
+	 */
+	FIND("db", "find"),
+
+	/**
+	 * Creating a record in the data file
+	 */
+	CREATE("db", "create"),
+
+	/**
+	 * Waiting for a record lock, from the request until it is acquired
+	 */
+	LOCK_WAIT("lock", "wait"),
+
+	/**
+	 * Holding a record lock, from its acquisition until it is released
+	 */
+	LOCK_HOLD("lock", "hold"),
+
+	/**
+	 * Reading a record via a remote session
+	 */
+	REMOTE_READ("remote", "read"),
+
+	/**
+	 * Updating a record via a remote session
+	 */
+	REMOTE_UPDATE("remote", "update"),
+
+	/**
+	 * Deleting a record via a remote session
+	 */
+	REMOTE_DELETE("remote", "delete"),
+
+	/**
+	 * Searching records via a remote session
+	 */
+	REMOTE_FIND("remote", "find"),
+
+	/**
+	 * Creating a record via a remote session
+	 */
+	REMOTE_CREATE("remote", "create"),
+
+	/**
+	 * Locking a record via a remote session
+	 */
+	REMOTE_LOCK("remote", "lock"),
+
+	/**
+	 * Opening a search cursor via a remote session
+	 */
+	REMOTE_OPEN_CURSOR("remote", "openCursor"),
+
+	/**
+	 * Fetching a page of a search cursor via a remote session
+	 */
+	REMOTE_FETCH_PAGE("remote", "fetchPage");
+
+	/**
+	 * Component the operation is measured in
+	 */
+	private final String component;
+
+	/**
+	 * Name of the operation within its component
+	 */
+	private final String operationName;
+
+	/**
+	 * Creates a new operation.
+	 * 
+	 * @param component
+	 *            component the operation is measured in
+	 * @param operationName
+	 *            name of the operation within its component
+	 */
+	private Operation(String component, String operationName) {
+		this.component = component;
+		this.operationName = operationName;
+	}
+
+	/**
+	 * Returns the component the operation is measured in.
+	 * 
+	 * @return component name
+	 */
+	public String getComponent() {
+		return component;
+	}
+
+	/**
+	 * Returns the name of the operation within its component.
+	 * 
+	 * @return operation name
+	 */
+	public String getOperationName() {
+		return operationName;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return component + "." + operationName;
+	}
+}
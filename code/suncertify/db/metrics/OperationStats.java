@@ -0,0 +1,251 @@
+package suncertify.db.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency statistics of one operation.
+ * <p>
+ * Latencies are counted in a histogram of buckets doubling in width, so that
+ * recording a measurement costs a few atomic increments only and the memory
+ * used does not grow with the number of measurements. Besides the histogram,
+ * the exact number, sum and maximum of the latencies are kept.
+ * <p>
+ * Measurements may be recorded concurrently by any number of threads. Reading
+ * the statistics while measurements are recorded may yield values that are
+ * slightly inconsistent with each other.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class OperationStats implements OperationStatsMBean {
+
+	/**
+	 * Number of histogram buckets. The last bucket starts at 2^30 microseconds,
+	 * i.e. about 18 minutes.
+	 */
+	private static final int BUCKET_COUNT = 32;
+
+	/**
+	 * Name of the measured operation
+	 */
+	private final String name;
+
+	/**
+	 * Counts of the histogram buckets
+	 */
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+	/**
+	 * Number of measurements
+	 */
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * Sum of all latencies in nanoseconds
+	 */
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	/**
+	 * Maximum latency in nanoseconds
+	 */
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Creates new statistics for the specified operation.
+	 * 
+	 * @param operation
+	 *            measured operation
+	 */
+	public OperationStats(Operation operation) {
+		this(operation.toString());
+	}
+
+	/**
+	 * Creates new statistics for an operation with the specified name, e.g.
+	 * an operation measured by a client.
+	 * 
+	 * @param name
+	 *            name of the measured operation
+	 */
+	public OperationStats(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Records one execution of the operation.
+	 * 
+	 * @param nanos
+	 *            latency of the execution in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			// System.nanoTime is not guaranteed to be monotonic on all systems
+			nanos = 0;
+		}
+		buckets.incrementAndGet(bucketOf(nanos / 1000));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getOperation() {
+		return name;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double getMeanMicros() {
+		final long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		return totalNanos.get() / 1000.0 / n;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getMaxMicros() {
+		return maxNanos.get() / 1000;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getMedianMicros() {
+		return getPercentileMicros(0.5);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getPercentile95Micros() {
+		return getPercentileMicros(0.95);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getPercentile99Micros() {
+		return getPercentileMicros(0.99);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long[] getHistogram() {
+		final long[] result = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			result[i] = buckets.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	/**
+	 * Estimates a percentile of the latency as the upper bound of the bucket
+	 * containing it, limited to the maximum latency.
+	 * 
+	 * @param fraction
+	 *            fraction of the executions at or below the percentile, e.g.
+	 *            0.99 for the 99th percentile
+	 * @return estimated percentile in microseconds, or 0 if nothing was
+	 *         measured
+	 */
+	public long getPercentileMicros(double fraction) {
+		final long[] histogram = getHistogram();
+		long total = 0;
+		for (final long bucketCount : histogram) {
+			total += bucketCount;
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		final long rank = (long) Math.ceil(total * fraction);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += histogram[i];
+			if (seen >= rank) {
+				// the bound of the bucket may exceed the longest execution
+				return Math.min(upperBoundOf(i), getMaxMicros());
+			}
+		}
+		return getMaxMicros();
+	}
+
+	/**
+	 * Returns a one line summary of the statistics.
+	 * 
+	 * @return summary of the statistics
+	 */
+	public String getSummary() {
+		return String.format("%s: count=%d, mean=%.1fus, p50=%dus, "
+				+ "p95=%dus, p99=%dus, max=%dus", getOperation(),
+				getCount(), getMeanMicros(), getMedianMicros(),
+				getPercentile95Micros(), getPercentile99Micros(),
+				getMaxMicros());
+	}
+
+	/**
+	 * Returns the index of the bucket counting the specified latency.
+	 * 
+	 * @param micros
+	 *            latency in microseconds
+	 * @return bucket index
+	 */
+	private static int bucketOf(long micros) {
+		if (micros <= 0) {
+			return 0;
+		}
+		final int bucket = Long.SIZE - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, BUCKET_COUNT - 1);
+	}
+
+	/**
+	 * Returns the upper bound of the latencies counted in the specified
+	 * bucket.
+	 * 
+	 * @param bucket
+	 *            bucket index
+	 * @return upper bound in microseconds
+	 */
+	private static long upperBoundOf(int bucket) {
+		return 1L << bucket;
+	}
+}
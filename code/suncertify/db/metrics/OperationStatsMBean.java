@@ -0,0 +1,77 @@
+package suncertify.db.metrics;
+
+/**
+ * Management interface of the latency statistics of one operation.
+ * <p>
+ * All latencies are given in microseconds. Percentiles are estimated from a
+ * histogram whose buckets double in width, i.e. they are reported as the upper
+ * bound of the bucket containing the percentile, limited to the maximum, and
+ * may be up to twice the exact value.
+ * 
+ * @author Rasmus Kuschel
+ */
+public interface OperationStatsMBean {
+
+	/**
+	 * Returns the name of the measured operation.
+	 * 
+	 * @return operation name, qualified by its component
+	 */
+	String getOperation();
+
+	/**
+	 * Returns the number of measured executions.
+	 * 
+	 * @return number of executions
+	 */
+	long getCount();
+
+	/**
+	 * Returns the mean latency.
+	 * 
+	 * @return mean latency in microseconds, or 0 if nothing was measured
+	 */
+	double getMeanMicros();
+
+	/**
+	 * Returns the maximum latency.
+	 * 
+	 * @return maximum latency in microseconds
+	 */
+	long getMaxMicros();
+
+	/**
+	 * Returns the estimated median latency.
+	 * 
+	 * @return median latency in microseconds
+	 */
+	long getMedianMicros();
+
+	/**
+	 * Returns the estimated 95th percentile of the latency.
+	 * 
+	 * @return 95th percentile in microseconds
+	 */
+	long getPercentile95Micros();
+
+	/**
+	 * Returns the estimated 99th percentile of the latency.
+	 * 
+	 * @return 99th percentile in microseconds
+	 */
+	long getPercentile99Micros();
+
+	/**
+	 * Returns the counts of the histogram buckets. Bucket 0 counts latencies
+	 * below one microsecond, bucket i latencies of at least 2^(i-1) and below
+	 * 2^i microseconds. The last bucket also counts all longer latencies.
+	 * 
+	 * @return bucket counts
+	 */
+	long[] getHistogram();
+
+	/**
+	 * Discards all measurements.
+	 */
+	void reset();
+}
@@ -0,0 +1,228 @@
+package suncertify.remote;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import suncertify.db.ServerBusyException;
+
+/**
+ * Limits the number of requests the server executes concurrently.
+ * <p>
+ * Requests are divided into two kinds of workload, each with a limit of its
+ * own: scans (searches and pages of search results), which read the whole
+ * data file under the global lock, and record operations (reading, updating,
+ * deleting and creating single records), which bookings consist of. As the
+ * limits are separate, the share of the record operations is reserved and a
+ * burst of scans cannot starve bookings.
+ * <p>
+ * If the limit of a workload is reached, requests wait in a bounded queue for
+ * a limited time. A request is rejected with a {@code ServerBusyException} if
+ * the queue is full or if the wait times out.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class AdmissionController {
+
+	/**
+	 * Kinds of workload with separate limits.
+	 */
+	public enum Workload {
+
+		/**
+		 * Searches and pages of search results.
+		 */
+		SCAN,
+
+		/**
+		 * Operations on single records.
+		 */
+		RECORD
+	}
+
+	/**
+	 * Default number of concurrently executing scans.
+	 */
+	public static final int DEFAULT_MAX_SCANS = 4;
+
+	/**
+	 * Default number of concurrently executing record operations.
+	 */
+	public static final int DEFAULT_MAX_RECORD_OPERATIONS = 16;
+
+	/**
+	 * Default number of requests of one workload waiting to be executed.
+	 */
+	public static final int DEFAULT_MAX_QUEUED = 32;
+
+	/**
+	 * Default time (in milliseconds) a request waits to be executed.
+	 */
+	public static final long DEFAULT_MAX_WAIT = 2 * 1000;
+
+	/**
+	 * Limiter of the scans.
+	 */
+	private final Limiter scans;
+
+	/**
+	 * Limiter of the record operations.
+	 */
+	private final Limiter recordOperations;
+
+	/**
+	 * Number of rejected requests.
+	 */
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	/**
+	 * Creates a new admission controller with the default limits.
+	 */
+	public AdmissionController() {
+		this(DEFAULT_MAX_SCANS, DEFAULT_MAX_RECORD_OPERATIONS,
+				DEFAULT_MAX_QUEUED, DEFAULT_MAX_WAIT);
+	}
+
+	/**
+	 * Creates a new admission controller with the specified limits.
+	 * 
+	 * @param maxScans
+	 *            number of concurrently executing scans
+	 * @param maxRecordOperations
+	 *            number of concurrently executing record operations
+	 * @param maxQueued
+	 *            number of requests of one workload waiting to be executed
+	 * @param maxWait
+	 *            time (in milliseconds) a request waits to be executed
+	 */
+	public AdmissionController(int maxScans, int maxRecordOperations,
+			int maxQueued, long maxWait) {
+		this.scans = new Limiter(maxScans, maxQueued, maxWait);
+		this.recordOperations = new Limiter(maxRecordOperations, maxQueued,
+				maxWait);
+	}
+
+	/**
+	 * Admits a request of the specified workload, waiting if necessary. Each
+	 * admitted request must be followed by a call to
+	 * {@link #leave(Workload)}.
+	 * 
+	 * @param workload
+	 *            workload of the request
+	 * @throws ServerBusyException
+	 *             if the request is rejected
+	 */
+	public void enter(Workload workload) {
+		if (!getLimiter(workload).enter()) {
+			rejectedCount.incrementAndGet();
+			throw new ServerBusyException("Server busy, too many "
+					+ workload.name().toLowerCase()
+					+ " requests. Please retry later.");
+		}
+	}
+
+	/**
+	 * Signals that an admitted request of the specified workload has
+	 * completed.
+	 * 
+	 * @param workload
+	 *            workload of the request
+	 */
+	public void leave(Workload workload) {
+		getLimiter(workload).leave();
+	}
+
+	/**
+	 * Returns the number of rejected requests.
+	 * 
+	 * @return number of rejected requests
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Returns the limiter of the specified workload.
+	 * 
+	 * @param workload
+	 *            workload
+	 * @return limiter
+	 */
+	private Limiter getLimiter(Workload workload) {
+		return workload == Workload.SCAN ? scans : recordOperations;
+	}
+
+	/**
+	 * Limits the concurrently executing requests of one workload.
+	 */
+	private static final class Limiter {
+
+		/**
+		 * Permits for executing requests
+		 */
+		private final Semaphore permits;
+
+		/**
+		 * Number of requests waiting for a permit
+		 */
+		private final AtomicInteger queued = new AtomicInteger();
+
+		/**
+		 * Maximum number of waiting requests
+		 */
+		private final int maxQueued;
+
+		/**
+		 * Maximum time (in milliseconds) to wait for a permit
+		 */
+		private final long maxWait;
+
+		/**
+		 * Creates a new limiter.
+		 * 
+		 * @param maxConcurrent
+		 *            number of concurrently executing requests
+		 * @param maxQueued
+		 *            maximum number of waiting requests
+		 * @param maxWait
+		 *            maximum time (in milliseconds) to wait for a permit
+		 */
+		Limiter(int maxConcurrent, int maxQueued, long maxWait) {
+			this.permits = new Semaphore(maxConcurrent, true);
+			this.maxQueued = maxQueued;
+			this.maxWait = maxWait;
+		}
+
+		/**
+		 * Acquires a permit, waiting if necessary.
+		 * 
+		 * @return false if the queue is full or the wait timed out
+		 */
+		boolean enter() {
+			if (permits.tryAcquire()) {
+				return true;
+			}
+
+			if (queued.incrementAndGet() > maxQueued) {
+				queued.decrementAndGet();
+				return false;
+			}
+			try {
+				return permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			} finally {
+				queued.decrementAndGet();
+			}
+		}
+
+		/**
+		 * Releases a permit.
+		 */
+		void leave() {
+			permits.release();
+		}
+	}
+}
@@ -4,7 +4,10 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 
 import suncertify.db.DuplicateKeyException;
+import suncertify.db.MatchMode;
 import suncertify.db.RecordNotFoundException;
+import suncertify.db.RecordPage;
+import suncertify.db.RecordQuery;
 import suncertify.db.SecurityException;
 
 /**
@@ -17,6 +20,14 @@ import suncertify.db.SecurityException;
  * Each method corresponds to a method from the {@code DBAccess} interface with
  * the same signature, except that it declares a {@code RemoteException} may be
  * thrown.
+ * <p>
+ * In addition, clients may register a listener to be notified about changes
+ * of data records made by any client, read the result of a search page by
+ * page through a cursor, search with other match modes than by prefix, and
+ * evaluate queries with numeric ranges, sort order and limit.
+ * <p>
+ * If the server is saturated, a method may fail with a
+ * {@code ServerBusyException} without being executed.
  * 
  * @author Rasmus Kuschel
  */
@@ -100,6 +111,36 @@ public interface RemoteDBAccess extends Remote {
 	 */
 	public long[] findByCriteria(String[] criteria) throws RemoteException;
 
+	/**
+	 * Returns an array of record numbers that match the specified criteria,
+	 * each compared with the field value as specified by its match mode.
+	 * 
+	 * @param criteria
+	 *            criteria for the search
+	 * @param modes
+	 *            match mode of each criterion, may be null
+	 * @return array of record numbers that match the specified criteria
+	 * @throws RemoteException
+	 *             if an error occurs concering the networking
+	 * @see suncertify.db.MatchingDBAccess#findByCriteria(String[],
+	 *      MatchMode[])
+	 */
+	public long[] findByCriteria(String[] criteria, MatchMode[] modes)
+			throws RemoteException;
+
+	/**
+	 * Returns the numbers of the records that match the specified query, in
+	 * the order and up to the limit specified by the query.
+	 * 
+	 * @param query
+	 *            query to be evaluated
+	 * @return numbers of the matching records
+	 * @throws RemoteException
+	 *             if an error occurs concering the networking
+	 * @see suncertify.db.QueryDBAccess#findByQuery(RecordQuery)
+	 */
+	public long[] findByQuery(RecordQuery query) throws RemoteException;
+
 	/**
 	 * Creates a new record in the database (possibly reusing a deleted entry).
 	 * Inserts the given data, and returns the record number of the new record.
@@ -151,4 +192,96 @@ public interface RemoteDBAccess extends Remote {
 	 */
 	public void unlock(long recNo, long cookie) throws SecurityException,
 			RemoteException;
+
+	/**
+	 * Registers a listener to be notified about all changes of data records.
+	 * The listener is unregistered automatically when it cannot be reached.
+	 * 
+	 * @param listener
+	 *            listener exported by the client
+	 * @return true if the listener was registered, false if the server does
+	 *         not support change notifications
+	 * @throws RemoteException
+	 *             if an error occurs concering the networking
+	 */
+	public boolean addRecordChangeListener(RemoteRecordChangeListener listener)
+			throws RemoteException;
+
+	/**
+	 * Removes a registered listener.
+	 * 
+	 * @param listener
+	 *            listener to be removed
+	 * @throws RemoteException
+	 *             if an error occurs concering the networking
+	 */
+	public void removeRecordChangeListener(RemoteRecordChangeListener listener)
+			throws RemoteException;
+
+	/**
+	 * Opens a cursor over the records that match the specified criteria.
+	 * 
+	 * @param criteria
+	 *            criteria for the search
+	 * @return id of the cursor
+	 * @throws RemoteException
+	 *             if an error occurs concering the networking
+	 * @see suncertify.db.PagedDBAccess#openCursor(String[])
+	 */
+	public long openCursor(String[] criteria) throws RemoteException;
+
+	/**
+	 * Opens a cursor over the records that match the specified query, in the
+	 * order and up to the limit specified by the query.
+	 * 
+	 * @param query
+	 *            query to be evaluated
+	 * @return id of the cursor
+	 * @throws RemoteException
+	 *             if an error occurs concering the networking
+	 * @see suncertify.db.PagedDBAccess#openCursor(RecordQuery)
+	 */
+	public long openCursor(RecordQuery query) throws RemoteException;
+
+	/**
+	 * Fetches the next page of records from the specified cursor.
+	 * 
+	 * @param cursorId
+	 *            id of the cursor
+	 * @param maxRecords
+	 *            maximum number of records in the page
+	 * @return next page of records
+	 * @throws suncertify.db.CursorExpiredException
+	 *             if the cursor is not open, e.g. because it was closed to
+	 *             open another one
+	 * @throws RemoteException
+	 *             if an error occurs concering the networking
+	 * @see suncertify.db.PagedDBAccess#fetchPage(long, int)
+	 */
+	public RecordPage fetchPage(long cursorId, int maxRecords)
+			throws RemoteException;
+
+	/**
+	 * Closes the specified cursor.
+	 * 
+	 * @param cursorId
+	 *            id of the cursor
+	 * @throws RemoteException
+	 *             if an error occurs concering the networking
+	 * @see suncertify.db.PagedDBAccess#closeCursor(long)
+	 */
+	public void closeCursor(long cursorId) throws RemoteException;
+
+	/**
+	 * Requests the compression of bulk results (pages of records) sent to
+	 * this client. Compression saves bandwidth at the expense of CPU time on
+	 * both sides and is therefore only worthwhile on slow network links.
+	 * 
+	 * @param enabled
+	 *            true to request compression, false to disable it
+	 * @return true if bulk results are compressed from now on
+	 * @throws RemoteException
+	 *             if an error occurs concering the networking
+	 */
+	public boolean requestCompression(boolean enabled) throws RemoteException;
 }
@@ -1,9 +1,18 @@
 package suncertify.remote;
 
 import java.io.Serializable;
+import java.rmi.NoSuchObjectException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import suncertify.db.DBAccess;
 import suncertify.db.Data;
@@ -13,6 +22,25 @@ import suncertify.db.Data;
  * that directly wrap a DBAccess instance.
  * <p>
  * The DBAccess instance is created on the specified database location.
+ * <p>
+ * Each created RemoteDBAccess instance represents a client session. All
+ * sessions share the same storage engine, i.e. the data file and the lock
+ * table that are held statically by {@code FileAccess} and {@code LockManager}.
+ * Each session wraps its own lightweight {@code Data} instance, as a Data
+ * instance identifies the owner of record locks.
+ * <p>
+ * The factory keeps track of all open sessions. A session is closed and
+ * unexported when the client no longer references it, i.e. when the client's
+ * DGC lease has expired. If an idle timeout is configured, a session is also
+ * closed when it has been idle for longer than the timeout. As a client cannot
+ * reopen a closed session, an idle timeout is only suitable for clients that
+ * are not kept running between uses; by default, there is none.
+ * <p>
+ * The factory and all sessions are exported on the same port with the same
+ * socket factories, so that they can share one server socket.
+ * <p>
+ * All sessions share one {@code AdmissionController}, which limits the number
+ * of requests the server executes concurrently.
  * 
  * @author Rasmus Kuschel
  */
@@ -24,13 +52,80 @@ public final class RemoteDBAccessFactoryImpl extends UnicastRemoteObject
 	 */
 	private static final long serialVersionUID = -4736665265281321470L;
 
+	/**
+	 * Idle timeout signifying that idle sessions are not closed.
+	 */
+	public static final long NO_IDLE_TIMEOUT = 0;
+
+	/**
+	 * Default time (in milliseconds) after which an idle session is closed.
+	 * Sessions of running clients are idle while their users do not search
+	 * or book, so idle sessions are not closed by default.
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = NO_IDLE_TIMEOUT;
+
+	/**
+	 * Interval (in milliseconds) in which sessions are checked for idleness.
+	 */
+	private static final long IDLE_CHECK_INTERVAL = 60 * 1000;
+
 	/**
 	 * Database location for the wrapped DBAccess instances.
 	 */
 	private transient final String databaseLocation;
 
+	/**
+	 * Time (in milliseconds) after which an idle session is closed, or
+	 * {@code NO_IDLE_TIMEOUT}.
+	 */
+	private transient final long idleTimeout;
+
+	/**
+	 * All sessions that are currently open.
+	 */
+	private transient final Set<RemoteData> sessions = new HashSet<RemoteData>();
+
+	/**
+	 * Number of sessions created since this factory was started.
+	 */
+	private transient long createdSessionCount;
+
+	/**
+	 * Number of sessions closed since this factory was started.
+	 */
+	private transient long closedSessionCount;
+
+	/**
+	 * Timer used to close idle sessions, null if there is no idle timeout.
+	 */
+	private transient final Timer idleTimer;
+
+	/**
+	 * Admission controller shared by all sessions.
+	 */
+	private transient final AdmissionController admissionController = new AdmissionController();
+
+	/**
+	 * Port the factory and the sessions are exported on, 0 for an anonymous
+	 * port.
+	 */
+	private transient final int exportPort;
+
+	/**
+	 * Client socket factory of the factory and the sessions, null for the
+	 * default.
+	 */
+	private transient final RMIClientSocketFactory clientSocketFactory;
+
+	/**
+	 * Server socket factory of the factory and the sessions, null for the
+	 * default.
+	 */
+	private transient final RMIServerSocketFactory serverSocketFactory;
+
 	/**
 	 * Creates a new factory instance with the specified database location.
+	 * Idle sessions are not closed.
 	 * 
 	 * @param databaseLocation
 	 *            database location for the wrapped DBAccess instances.
@@ -39,7 +134,113 @@ public final class RemoteDBAccessFactoryImpl extends UnicastRemoteObject
 	 */
 	public RemoteDBAccessFactoryImpl(String databaseLocation)
 			throws RemoteException {
+		this(databaseLocation, DEFAULT_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * Creates a new factory instance with the specified database location and
+	 * idle timeout.
+	 * 
+	 * @param databaseLocation
+	 *            database location for the wrapped DBAccess instances.
+	 * @param idleTimeout
+	 *            time (in milliseconds) after which an idle session is
+	 *            closed, or {@code NO_IDLE_TIMEOUT}
+	 * @throws RemoteException
+	 *             if a networking error occurs
+	 */
+	public RemoteDBAccessFactoryImpl(String databaseLocation, long idleTimeout)
+			throws RemoteException {
+		this(databaseLocation, idleTimeout, 0, null, null);
+	}
+
+	/**
+	 * Creates a new factory instance with the specified database location and
+	 * idle timeout, which exports itself and the sessions it creates on the
+	 * specified port with the specified socket factories.
+	 * 
+	 * @param databaseLocation
+	 *            database location for the wrapped DBAccess instances.
+	 * @param idleTimeout
+	 *            time (in milliseconds) after which an idle session is
+	 *            closed, or {@code NO_IDLE_TIMEOUT}
+	 * @param exportPort
+	 *            port the objects are exported on, 0 for an anonymous port
+	 * @param clientSocketFactory
+	 *            client socket factory, null for the default
+	 * @param serverSocketFactory
+	 *            server socket factory, null for the default
+	 * @throws RemoteException
+	 *             if a networking error occurs
+	 */
+	public RemoteDBAccessFactoryImpl(String databaseLocation,
+			long idleTimeout, int exportPort,
+			RMIClientSocketFactory clientSocketFactory,
+			RMIServerSocketFactory serverSocketFactory) throws RemoteException {
+		super(exportPort, clientSocketFactory, serverSocketFactory);
+		this.exportPort = exportPort;
+		this.clientSocketFactory = clientSocketFactory;
+		this.serverSocketFactory = serverSocketFactory;
 		this.databaseLocation = databaseLocation;
+		this.idleTimeout = idleTimeout;
+
+		if (idleTimeout == NO_IDLE_TIMEOUT) {
+			this.idleTimer = null;
+			return;
+		}
+		this.idleTimer = new Timer("idle session check", true);
+		final long interval = Math.min(IDLE_CHECK_INTERVAL, idleTimeout);
+		this.idleTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				closeIdleSessions();
+			}
+		}, interval, interval);
+	}
+
+	/**
+	 * Returns the admission controller shared by all sessions.
+	 * 
+	 * @return admission controller
+	 */
+	AdmissionController getAdmissionController() {
+		return admissionController;
+	}
+
+	/**
+	 * Returns the number of requests rejected because the server was busy.
+	 * 
+	 * @return number of rejected requests
+	 */
+	public long getRejectedRequestCount() {
+		return admissionController.getRejectedCount();
+	}
+
+	/**
+	 * Returns the port the sessions are exported on.
+	 * 
+	 * @return port, 0 for an anonymous port
+	 */
+	int getExportPort() {
+		return exportPort;
+	}
+
+	/**
+	 * Returns the client socket factory of the sessions.
+	 * 
+	 * @return client socket factory, null for the default
+	 */
+	RMIClientSocketFactory getClientSocketFactory() {
+		return clientSocketFactory;
+	}
+
+	/**
+	 * Returns the server socket factory of the sessions.
+	 * 
+	 * @return server socket factory, null for the default
+	 */
+	RMIServerSocketFactory getServerSocketFactory() {
+		return serverSocketFactory;
 	}
 
 	/**
@@ -53,8 +254,109 @@ public final class RemoteDBAccessFactoryImpl extends UnicastRemoteObject
 	public RemoteDBAccess createRemoteDBAccess() throws RemoteException {
 
 		final DBAccess dbAccess = new Data(databaseLocation);
-		final RemoteDBAccess remoteDBAccess = new RemoteData(dbAccess);
+		final RemoteData session = new RemoteData(dbAccess, this);
+
+		synchronized (sessions) {
+			sessions.add(session);
+			createdSessionCount++;
+		}
+
+		return session;
+	}
 
-		return remoteDBAccess;
+	/**
+	 * Closes the specified session, i.e. removes it from the open sessions and
+	 * unexports it, so that it can no longer be called remotely.
+	 * <p>
+	 * Closing a session that is already closed has no effect.
+	 * 
+	 * @param session
+	 *            session to be closed
+	 */
+	void closeSession(RemoteData session) {
+		synchronized (sessions) {
+			if (!sessions.remove(session)) {
+				return;
+			}
+			closedSessionCount++;
+		}
+
+		session.close();
+		try {
+			UnicastRemoteObject.unexportObject(session, true);
+		} catch (final NoSuchObjectException ignored) {
+			// The session is not exported (anymore). Nothing left to do.
+		}
+	}
+
+	/**
+	 * Closes all sessions that have not been accessed for longer than the idle
+	 * timeout.
+	 */
+	private void closeIdleSessions() {
+		final long now = System.currentTimeMillis();
+		final List<RemoteData> idleSessions = new ArrayList<RemoteData>();
+		synchronized (sessions) {
+			for (final RemoteData session : sessions) {
+				if (now - session.getLastAccessTime() > idleTimeout) {
+					idleSessions.add(session);
+				}
+			}
+		}
+
+		// Unexporting is done outside of the synchronized block
+		for (final RemoteData session : idleSessions) {
+			closeSession(session);
+		}
+	}
+
+	/**
+	 * Closes all open sessions and stops checking for idle sessions.
+	 */
+	public void closeAllSessions() {
+		if (idleTimer != null) {
+			idleTimer.cancel();
+		}
+
+		final List<RemoteData> openSessions;
+		synchronized (sessions) {
+			openSessions = new ArrayList<RemoteData>(sessions);
+		}
+		for (final RemoteData session : openSessions) {
+			closeSession(session);
+		}
+	}
+
+	/**
+	 * Returns the number of currently open sessions.
+	 * 
+	 * @return number of open sessions
+	 */
+	public int getOpenSessionCount() {
+		synchronized (sessions) {
+			return sessions.size();
+		}
+	}
+
+	/**
+	 * Returns the number of sessions created since this factory was started.
+	 * 
+	 * @return number of created sessions
+	 */
+	public long getCreatedSessionCount() {
+		synchronized (sessions) {
+			return createdSessionCount;
+		}
+	}
+
+	/**
+	 * Returns the number of sessions closed since this factory was started.
+	 * 
+	 * @return number of closed sessions
+	 */
+	public long getClosedSessionCount() {
+		synchronized (sessions) {
+			return closedSessionCount;
+		}
 	}
 }
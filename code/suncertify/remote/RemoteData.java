@@ -4,11 +4,29 @@ import java.io.Serializable;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.rmi.server.Unreferenced;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import suncertify.db.CursorExpiredException;
 import suncertify.db.DBAccess;
 import suncertify.db.DuplicateKeyException;
+import suncertify.db.MatchMode;
+import suncertify.db.MatchingDBAccess;
+import suncertify.db.QueryDBAccess;
 import suncertify.db.RecordNotFoundException;
+import suncertify.db.RecordPage;
+import suncertify.db.RecordQuery;
 import suncertify.db.SecurityException;
+import suncertify.db.TechnicalErrorException;
+import suncertify.db.UnsupportedRequestException;
+import suncertify.db.event.RecordChangeSource;
+import suncertify.db.metrics.Metrics;
+import suncertify.db.metrics.Operation;
+import suncertify.remote.AdmissionController.Workload;
 
 /**
  * Implementation of the {@code RemoteDBAccess} interface.
@@ -19,11 +37,37 @@ import suncertify.db.SecurityException;
  * <p>
  * It extends {@code UnicastRemoteObject} and can be published in an RMI
  * registry.
+ * <p>
+ * Each instance represents the session of one client. It records the time of
+ * its last access, so that idle sessions can be detected, and implements
+ * {@code Unreferenced} so that the session is closed by the factory that
+ * created it, when the client no longer holds a reference to it.
+ * <p>
+ * Remote listeners registered by the client are attached to the wrapped
+ * DBAccess, if it is a {@code RecordChangeSource}, and detached again when
+ * the session is closed.
+ * <p>
+ * The session keeps the cookies of the records locked by the client. When the
+ * session is closed, e.g. because the client died, the records still locked
+ * are unlocked, so that other clients can book them.
+ * <p>
+ * The session also holds the cursors opened by the client. To bound the memory
+ * used by clients that do not close their cursors, only the most recently
+ * opened cursors are kept open.
+ * <p>
+ * Searches and record operations are only executed when admitted by the
+ * {@code AdmissionController} of the factory; otherwise a
+ * {@code ServerBusyException} is thrown. Locking and unlocking records is
+ * always admitted: waiting for a lock does not load the server, and unlocking
+ * must never fail, as the lock could not be released otherwise.
+ * <p>
+ * The latency of each request, including the time spent waiting for admission,
+ * is measured as the corresponding remote {@code Operation}.
  * 
  * @author Rasmus Kuschel
  */
 public final class RemoteData extends UnicastRemoteObject implements
-		Serializable, Remote, RemoteDBAccess {
+		Serializable, Remote, RemoteDBAccess, Unreferenced {
 
 	/**
 	 * Serial version UID
@@ -39,6 +83,67 @@ public final class RemoteData extends UnicastRemoteObject implements
 	 */
 	private transient final DBAccess dbAccess;
 
+	/**
+	 * Factory that created this session and that is notified when the session
+	 * is no longer referenced. May be null.
+	 */
+	private transient final RemoteDBAccessFactoryImpl factory;
+
+	/**
+	 * Time (in milliseconds) of the last access to this session.
+	 */
+	private transient volatile long lastAccessTime;
+
+	/**
+	 * Forwarders of the remote listeners registered by the client.
+	 */
+	private transient final List<RemoteListenerForwarder> forwarders = new CopyOnWriteArrayList<RemoteListenerForwarder>();
+
+	/**
+	 * Cookies of the records locked by the client by record number. Guarded
+	 * by itself.
+	 */
+	private transient final Map<Long, Long> lockCookies = new HashMap<Long, Long>();
+
+	/**
+	 * Flag signifying whether the session has been closed. Guarded by the
+	 * lock cookies.
+	 */
+	private transient boolean closed;
+
+	/**
+	 * Maximum number of cursors a session keeps open.
+	 */
+	private static final int MAX_OPEN_CURSORS = 16;
+
+	/**
+	 * Maximum number of records in a page.
+	 */
+	private static final int MAX_PAGE_SIZE = 1000;
+
+	/**
+	 * Open cursors by id, in the order they were opened. Guarded by itself.
+	 */
+	private transient final Map<Long, SearchCursor> cursors = new LinkedHashMap<Long, SearchCursor>() {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, SearchCursor> eldest) {
+			return size() > MAX_OPEN_CURSORS;
+		}
+	};
+
+	/**
+	 * Id of the next cursor to be opened. Guarded by the cursors map.
+	 */
+	private transient long nextCursorId;
+
+	/**
+	 * Flag signifying whether the client requested compressed bulk results.
+	 */
+	private transient volatile boolean compression;
+
 	/**
 	 * Creates a new RemoteData instance that wraps the specified DBAccess.
 	 * 
@@ -48,8 +153,259 @@ public final class RemoteData extends UnicastRemoteObject implements
 	 *             if a networking error occurs
 	 */
 	protected RemoteData(DBAccess dbAccess) throws RemoteException {
-		super();
+		this(dbAccess, null);
+	}
+
+	/**
+	 * Creates a new RemoteData instance that wraps the specified DBAccess and
+	 * whose lifecycle is managed by the specified factory. The instance is
+	 * exported on the port and with the socket factories of the factory.
+	 * 
+	 * @param dbAccess
+	 *            wrapped DBAccess
+	 * @param factory
+	 *            factory managing this session, may be null
+	 * @throws RemoteException
+	 *             if a networking error occurs
+	 */
+	RemoteData(DBAccess dbAccess, RemoteDBAccessFactoryImpl factory)
+			throws RemoteException {
+		// Sessions are exported like the factory that creates them.
+		super(factory != null ? factory.getExportPort() : 0,
+				factory != null ? factory.getClientSocketFactory() : null,
+				factory != null ? factory.getServerSocketFactory() : null);
 		this.dbAccess = dbAccess;
+		this.factory = factory;
+		this.lastAccessTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns the time (in milliseconds) of the last access to this session.
+	 * 
+	 * @return time of the last access
+	 */
+	long getLastAccessTime() {
+		return lastAccessTime;
+	}
+
+	/**
+	 * Admits a request of the specified workload, if the session is managed
+	 * by a factory.
+	 * 
+	 * @param workload
+	 *            workload of the request
+	 * @throws suncertify.db.ServerBusyException
+	 *             if the request is rejected
+	 */
+	private void enter(Workload workload) {
+		if (factory != null) {
+			factory.getAdmissionController().enter(workload);
+		}
+	}
+
+	/**
+	 * Signals the completion of an admitted request.
+	 * 
+	 * @param workload
+	 *            workload of the request
+	 */
+	private void leave(Workload workload) {
+		if (factory != null) {
+			factory.getAdmissionController().leave(workload);
+		}
+	}
+
+	/**
+	 * Records an access to this session.
+	 */
+	private void touch() {
+		lastAccessTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Called by the RMI runtime when no more clients hold a reference to this
+	 * session. The factory managing this session is notified to close it.
+	 */
+	@Override
+	public void unreferenced() {
+		if (factory != null) {
+			factory.closeSession(this);
+		}
+	}
+
+	/**
+	 * Detaches all listeners registered by the client and unlocks all records
+	 * still locked by the client. Called by the factory when the session is
+	 * closed.
+	 */
+	void close() {
+		final Map<Long, Long> locked;
+		synchronized (lockCookies) {
+			closed = true;
+			locked = new HashMap<Long, Long>(lockCookies);
+			lockCookies.clear();
+		}
+		for (final Map.Entry<Long, Long> lock : locked.entrySet()) {
+			release(lock.getKey(), lock.getValue());
+		}
+
+		if (dbAccess instanceof RecordChangeSource) {
+			for (final RemoteListenerForwarder forwarder : forwarders) {
+				((RecordChangeSource) dbAccess)
+						.removeRecordChangeListener(forwarder);
+			}
+		}
+		forwarders.clear();
+
+		synchronized (cursors) {
+			cursors.clear();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long openCursor(String[] criteria) throws RemoteException {
+		touch();
+		final SearchCursor cursor;
+		final long start = System.nanoTime();
+		enter(Workload.SCAN);
+		try {
+			cursor = new SearchCursor(dbAccess, dbAccess
+					.findByCriteria(criteria));
+		} finally {
+			leave(Workload.SCAN);
+			Metrics.record(Operation.REMOTE_OPEN_CURSOR, start);
+		}
+		return addCursor(cursor);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws UnsupportedRequestException
+	 *             if the wrapped DBAccess is not a {@code QueryDBAccess}
+	 */
+	@Override
+	public long openCursor(RecordQuery query) throws RemoteException {
+		touch();
+		if (!(dbAccess instanceof QueryDBAccess)) {
+			throw new UnsupportedRequestException(
+					"Queries are not supported by the server");
+		}
+
+		final SearchCursor cursor;
+		final long start = System.nanoTime();
+		enter(Workload.SCAN);
+		try {
+			cursor = new SearchCursor(dbAccess, ((QueryDBAccess) dbAccess)
+					.findByQuery(query));
+		} finally {
+			leave(Workload.SCAN);
+			Metrics.record(Operation.REMOTE_OPEN_CURSOR, start);
+		}
+		return addCursor(cursor);
+	}
+
+	/**
+	 * Adds a cursor to the open cursors of the session.
+	 * 
+	 * @param cursor
+	 *            cursor to be added
+	 * @return id of the cursor
+	 */
+	private long addCursor(SearchCursor cursor) {
+		synchronized (cursors) {
+			final long cursorId = nextCursorId++;
+			cursors.put(cursorId, cursor);
+			return cursorId;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public RecordPage fetchPage(long cursorId, int maxRecords)
+			throws RemoteException {
+		touch();
+		final SearchCursor cursor;
+		synchronized (cursors) {
+			cursor = cursors.get(cursorId);
+		}
+		if (cursor == null) {
+			throw new CursorExpiredException("Cursor " + cursorId
+					+ " is not open");
+		}
+		final RecordPage page;
+		final long start = System.nanoTime();
+		enter(Workload.SCAN);
+		try {
+			page = cursor.nextPage(Math.max(1, Math.min(maxRecords,
+					MAX_PAGE_SIZE)));
+		} finally {
+			leave(Workload.SCAN);
+			Metrics.record(Operation.REMOTE_FETCH_PAGE, start);
+		}
+		page.setCompressed(compression);
+		return page;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean requestCompression(boolean enabled) throws RemoteException {
+		touch();
+		compression = enabled;
+		return compression;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void closeCursor(long cursorId) throws RemoteException {
+		touch();
+		synchronized (cursors) {
+			cursors.remove(cursorId);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean addRecordChangeListener(RemoteRecordChangeListener listener)
+			throws RemoteException {
+		touch();
+		if (!(dbAccess instanceof RecordChangeSource)) {
+			return false;
+		}
+
+		final RecordChangeSource source = (RecordChangeSource) dbAccess;
+		final RemoteListenerForwarder forwarder = new RemoteListenerForwarder(
+				source, listener, forwarders);
+		forwarders.add(forwarder);
+		source.addRecordChangeListener(forwarder);
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void removeRecordChangeListener(RemoteRecordChangeListener listener)
+			throws RemoteException {
+		touch();
+		for (final RemoteListenerForwarder forwarder : forwarders) {
+			if (forwarder.getRemoteListener().equals(listener)) {
+				forwarders.remove(forwarder);
+				((RecordChangeSource) dbAccess)
+						.removeRecordChangeListener(forwarder);
+			}
+		}
 	}
 
 	/**
@@ -58,7 +414,15 @@ public final class RemoteData extends UnicastRemoteObject implements
 	@Override
 	public long createRecord(String[] data) throws DuplicateKeyException,
 			RemoteException {
-		return dbAccess.createRecord(data);
+		touch();
+		final long start = System.nanoTime();
+		enter(Workload.RECORD);
+		try {
+			return dbAccess.createRecord(data);
+		} finally {
+			leave(Workload.RECORD);
+			Metrics.record(Operation.REMOTE_CREATE, start);
+		}
 	}
 
 	/**
@@ -67,7 +431,15 @@ public final class RemoteData extends UnicastRemoteObject implements
 	@Override
 	public void deleteRecord(long recNo, long lockCookie)
 			throws RecordNotFoundException, SecurityException, RemoteException {
-		dbAccess.deleteRecord(recNo, lockCookie);
+		touch();
+		final long start = System.nanoTime();
+		enter(Workload.RECORD);
+		try {
+			dbAccess.deleteRecord(recNo, lockCookie);
+		} finally {
+			leave(Workload.RECORD);
+			Metrics.record(Operation.REMOTE_DELETE, start);
+		}
 	}
 
 	/**
@@ -75,7 +447,65 @@ public final class RemoteData extends UnicastRemoteObject implements
 	 */
 	@Override
 	public long[] findByCriteria(String[] criteria) throws RemoteException {
-		return dbAccess.findByCriteria(criteria);
+		touch();
+		final long start = System.nanoTime();
+		enter(Workload.SCAN);
+		try {
+			return dbAccess.findByCriteria(criteria);
+		} finally {
+			leave(Workload.SCAN);
+			Metrics.record(Operation.REMOTE_FIND, start);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws UnsupportedRequestException
+	 *             if the wrapped DBAccess is not a {@code MatchingDBAccess}
+	 */
+	@Override
+	public long[] findByCriteria(String[] criteria, MatchMode[] modes)
+			throws RemoteException {
+		touch();
+		if (!(dbAccess instanceof MatchingDBAccess)) {
+			throw new UnsupportedRequestException(
+					"Match modes are not supported by the server");
+		}
+
+		final long start = System.nanoTime();
+		enter(Workload.SCAN);
+		try {
+			return ((MatchingDBAccess) dbAccess).findByCriteria(criteria,
+					modes);
+		} finally {
+			leave(Workload.SCAN);
+			Metrics.record(Operation.REMOTE_FIND, start);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws UnsupportedRequestException
+	 *             if the wrapped DBAccess is not a {@code QueryDBAccess}
+	 */
+	@Override
+	public long[] findByQuery(RecordQuery query) throws RemoteException {
+		touch();
+		if (!(dbAccess instanceof QueryDBAccess)) {
+			throw new UnsupportedRequestException(
+					"Queries are not supported by the server");
+		}
+
+		final long start = System.nanoTime();
+		enter(Workload.SCAN);
+		try {
+			return ((QueryDBAccess) dbAccess).findByQuery(query);
+		} finally {
+			leave(Workload.SCAN);
+			Metrics.record(Operation.REMOTE_FIND, start);
+		}
 	}
 
 	/**
@@ -84,7 +514,44 @@ public final class RemoteData extends UnicastRemoteObject implements
 	@Override
 	public long lockRecord(long recNo) throws RecordNotFoundException,
 			RemoteException {
-		return dbAccess.lockRecord(recNo);
+		touch();
+		final long start = System.nanoTime();
+		try {
+			final long cookie = dbAccess.lockRecord(recNo);
+			synchronized (lockCookies) {
+				if (!closed) {
+					lockCookies.put(recNo, cookie);
+					return cookie;
+				}
+			}
+
+			// The session was closed while the client waited for the lock
+			release(recNo, cookie);
+			throw new TechnicalErrorException("Session is closed");
+		} finally {
+			Metrics.record(Operation.REMOTE_LOCK, start);
+		}
+	}
+
+	/**
+	 * Unlocks a record locked by the client of a closed session. Errors are
+	 * reported, but not thrown, as the client can no longer be informed.
+	 * 
+	 * @param recNo
+	 *            number of the record
+	 * @param cookie
+	 *            cookie of the lock
+	 */
+	private void release(long recNo, long cookie) {
+		try {
+			dbAccess.unlock(recNo, cookie);
+		} catch (final SecurityException e) {
+			System.err.println("Cannot unlock record " + recNo + ": "
+					+ e.getMessage());
+		} catch (final TechnicalErrorException e) {
+			System.err.println("Cannot unlock record " + recNo + ": "
+					+ e.getMessage());
+		}
 	}
 
 	/**
@@ -93,7 +560,15 @@ public final class RemoteData extends UnicastRemoteObject implements
 	@Override
 	public String[] readRecord(long recNo) throws RecordNotFoundException,
 			RemoteException {
-		return dbAccess.readRecord(recNo);
+		touch();
+		final long start = System.nanoTime();
+		enter(Workload.RECORD);
+		try {
+			return dbAccess.readRecord(recNo);
+		} finally {
+			leave(Workload.RECORD);
+			Metrics.record(Operation.REMOTE_READ, start);
+		}
 	}
 
 	/**
@@ -102,7 +577,11 @@ public final class RemoteData extends UnicastRemoteObject implements
 	@Override
 	public void unlock(long recNo, long cookie) throws SecurityException,
 			RemoteException {
+		touch();
 		dbAccess.unlock(recNo, cookie);
+		synchronized (lockCookies) {
+			lockCookies.remove(recNo);
+		}
 	}
 
 	/**
@@ -111,6 +590,14 @@ public final class RemoteData extends UnicastRemoteObject implements
 	@Override
 	public void updateRecord(long recNo, String[] data, long lockCookie)
 			throws RecordNotFoundException, SecurityException, RemoteException {
-		dbAccess.updateRecord(recNo, data, lockCookie);
+		touch();
+		final long start = System.nanoTime();
+		enter(Workload.RECORD);
+		try {
+			dbAccess.updateRecord(recNo, data, lockCookie);
+		} finally {
+			leave(Workload.RECORD);
+			Metrics.record(Operation.REMOTE_UPDATE, start);
+		}
 	}
 }
@@ -1,12 +1,29 @@
 package suncertify.remote;
 
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import suncertify.db.DBAccess;
 import suncertify.db.DuplicateKeyException;
+import suncertify.db.MatchMode;
+import suncertify.db.MatchingDBAccess;
 import suncertify.db.NetworkErrorException;
+import suncertify.db.PagedDBAccess;
+import suncertify.db.QueryDBAccess;
 import suncertify.db.RecordNotFoundException;
+import suncertify.db.RecordPage;
+import suncertify.db.RecordQuery;
 import suncertify.db.SecurityException;
+import suncertify.db.event.RecordChangeEvent;
+import suncertify.db.event.RecordChangeListener;
+import suncertify.db.event.RecordChangeSource;
 
 /**
  * Adapter that wraps a RemoteDBAccess instance and exposes all its methods via
@@ -14,16 +31,80 @@ import suncertify.db.SecurityException;
  * <p>
  * {@code RemoteException} instances are caught and wrapped in a
  * NetworkErrorException and then rethrown.
+ * A {@code ServerBusyException}, thrown if the server rejects a request, is
+ * passed on unchanged, so that callers can distinguish it and retry later.
+ * <p>
+ * Records read from the server are cached. The adapter registers a remote
+ * listener with the server, so that cached records are invalidated as soon as
+ * any client changes them. As notifications can be lost (e.g. if the server
+ * cannot connect back to the client), cached records additionally expire
+ * after a short lifetime, and the least recently read records are evicted
+ * once the cache is full. Records locked by this client are always read from
+ * the server, so that a booking is never based on stale data. If the listener
+ * cannot be registered, records are not cached at all.
+ * <p>
+ * The change notifications received from the server are passed on to the
+ * listeners registered with the adapter. They are notified on an RMI thread.
  * 
  * @author Rasmus Kuschel
  */
-public final class RemoteDataAdapter implements DBAccess {
+public final class RemoteDataAdapter implements DBAccess, MatchingDBAccess,
+		QueryDBAccess, PagedDBAccess, RecordChangeSource {
 
 	/**
 	 * Wrapped RemoteDBAccess instance.
 	 */
 	private final RemoteDBAccess remoteDBAccess;
 
+	/**
+	 * Lifetime (in milliseconds) of a cached record.
+	 */
+	private static final long CACHE_ENTRY_LIFETIME = 10 * 1000;
+
+	/**
+	 * Maximum number of cached records.
+	 */
+	private static final int MAX_CACHE_ENTRIES = 10000;
+
+	/**
+	 * Cached records by record number, in the order they were last read. The
+	 * least recently read record is evicted if the cache is full or if it has
+	 * expired. Guarded by itself.
+	 */
+	private final Map<Long, CacheEntry> cache = new LinkedHashMap<Long, CacheEntry>(
+			16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, CacheEntry> eldest) {
+			return size() > MAX_CACHE_ENTRIES || eldest.getValue().isExpired();
+		}
+	};
+
+	/**
+	 * Number of invalidations so far, used to detect whether a record read
+	 * from the server has been invalidated while it was being read. Guarded by
+	 * the cache.
+	 */
+	private long invalidationCount;
+
+	/**
+	 * Numbers of the records locked by this client. Guarded by the cache.
+	 */
+	private final Set<Long> lockedRecords = new HashSet<Long>();
+
+	/**
+	 * Listener exported to receive change notifications from the server, or
+	 * null if caching is disabled.
+	 */
+	private final RemoteRecordChangeListener changeListener;
+
+	/**
+	 * Local listeners the change notifications are passed on to.
+	 */
+	private final List<RecordChangeListener> listeners = new CopyOnWriteArrayList<RecordChangeListener>();
+
 	/**
 	 * Creates a new RemoteAdapter instance wrapping the specified
 	 * RemoteDBAccess instance.
@@ -33,6 +114,131 @@ public final class RemoteDataAdapter implements DBAccess {
 	 */
 	public RemoteDataAdapter(RemoteDBAccess remoteDBAccess) {
 		this.remoteDBAccess = remoteDBAccess;
+		this.changeListener = registerChangeListener();
+	}
+
+	/**
+	 * Creates a new RemoteAdapter instance wrapping the specified
+	 * RemoteDBAccess instance and requests the compression of bulk results
+	 * from the server, if specified.
+	 * 
+	 * @param remoteDBAccess
+	 *            wrapped RemoteDBAccess instance
+	 * @param compression
+	 *            true to request compressed bulk results
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	public RemoteDataAdapter(RemoteDBAccess remoteDBAccess, boolean compression) {
+		this(remoteDBAccess);
+		if (compression) {
+			try {
+				remoteDBAccess.requestCompression(true);
+			} catch (final RemoteException remoteException) {
+				throw new NetworkErrorException(
+						"Cannot invoke requestCompression remotely",
+						remoteException);
+			}
+		}
+	}
+
+	/**
+	 * Exports a listener and registers it with the server.
+	 * 
+	 * @return exported listener, or null if the registration failed
+	 */
+	private RemoteRecordChangeListener registerChangeListener() {
+		final RemoteRecordChangeListener listener = new CacheInvalidator();
+		try {
+			UnicastRemoteObject.exportObject(listener, 0);
+		} catch (final RemoteException e) {
+			return null;
+		}
+
+		try {
+			if (remoteDBAccess.addRecordChangeListener(listener)) {
+				return listener;
+			}
+		} catch (final RemoteException e) {
+			// Fall through, the adapter works without cache.
+		}
+
+		unexport(listener);
+		return null;
+	}
+
+	/**
+	 * Unregisters the change listener from the server and stops caching
+	 * records. The adapter remains usable.
+	 */
+	public void close() {
+		if (changeListener == null) {
+			return;
+		}
+
+		try {
+			remoteDBAccess.removeRecordChangeListener(changeListener);
+		} catch (final RemoteException ignored) {
+			// The server drops the listener itself once it is unreachable.
+		}
+		unexport(changeListener);
+		invalidateAll();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Listeners are only notified if the adapter could register with the
+	 * server.
+	 */
+	@Override
+	public void addRecordChangeListener(RecordChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void removeRecordChangeListener(RecordChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Unexports the specified listener.
+	 * 
+	 * @param listener
+	 *            listener to unexport
+	 */
+	private static void unexport(RemoteRecordChangeListener listener) {
+		try {
+			UnicastRemoteObject.unexportObject(listener, true);
+		} catch (final NoSuchObjectException ignored) {
+			// Not exported (anymore), nothing left to do.
+		}
+	}
+
+	/**
+	 * Removes the record with the specified number from the cache.
+	 * 
+	 * @param recNo
+	 *            number of the record
+	 */
+	private void invalidate(long recNo) {
+		synchronized (cache) {
+			cache.remove(recNo);
+			invalidationCount++;
+		}
+	}
+
+	/**
+	 * Removes all records from the cache.
+	 */
+	private void invalidateAll() {
+		synchronized (cache) {
+			cache.clear();
+			invalidationCount++;
+		}
 	}
 
 	/**
@@ -44,7 +250,9 @@ public final class RemoteDataAdapter implements DBAccess {
 	@Override
 	public long createRecord(String[] data) throws DuplicateKeyException {
 		try {
-			return remoteDBAccess.createRecord(data);
+			final long recNo = remoteDBAccess.createRecord(data);
+			invalidate(recNo);
+			return recNo;
 		} catch (final RemoteException remoteException) {
 			throw new NetworkErrorException(
 					"Cannot invoke createRecord remotely", remoteException);
@@ -65,6 +273,8 @@ public final class RemoteDataAdapter implements DBAccess {
 		} catch (final RemoteException remoteException) {
 			throw new NetworkErrorException(
 					"Cannot invoke deleteRecord remotely", remoteException);
+		} finally {
+			invalidate(recNo);
 		}
 	}
 
@@ -84,6 +294,102 @@ public final class RemoteDataAdapter implements DBAccess {
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public long[] findByCriteria(String[] criteria, MatchMode[] modes) {
+		try {
+			return remoteDBAccess.findByCriteria(criteria, modes);
+		} catch (final RemoteException remoteException) {
+			throw new NetworkErrorException(
+					"Cannot invoke findByCriteria remotely", remoteException);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public long[] findByQuery(RecordQuery query) {
+		try {
+			return remoteDBAccess.findByQuery(query);
+		} catch (final RemoteException remoteException) {
+			throw new NetworkErrorException(
+					"Cannot invoke findByQuery remotely", remoteException);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public long openCursor(String[] criteria) {
+		try {
+			return remoteDBAccess.openCursor(criteria);
+		} catch (final RemoteException remoteException) {
+			throw new NetworkErrorException(
+					"Cannot invoke openCursor remotely", remoteException);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public long openCursor(RecordQuery query) {
+		try {
+			return remoteDBAccess.openCursor(query);
+		} catch (final RemoteException remoteException) {
+			throw new NetworkErrorException(
+					"Cannot invoke openCursor remotely", remoteException);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public RecordPage fetchPage(long cursorId, int maxRecords) {
+		try {
+			return remoteDBAccess.fetchPage(cursorId, maxRecords);
+		} catch (final RemoteException remoteException) {
+			throw new NetworkErrorException(
+					"Cannot invoke fetchPage remotely", remoteException);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public void closeCursor(long cursorId) {
+		try {
+			remoteDBAccess.closeCursor(cursorId);
+		} catch (final RemoteException remoteException) {
+			throw new NetworkErrorException(
+					"Cannot invoke closeCursor remotely", remoteException);
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * 
@@ -93,7 +399,11 @@ public final class RemoteDataAdapter implements DBAccess {
 	@Override
 	public long lockRecord(long recNo) throws RecordNotFoundException {
 		try {
-			return remoteDBAccess.lockRecord(recNo);
+			final long cookie = remoteDBAccess.lockRecord(recNo);
+			synchronized (cache) {
+				lockedRecords.add(recNo);
+			}
+			return cookie;
 		} catch (final RemoteException remoteException) {
 			throw new NetworkErrorException(
 					"Cannot invoke lockRecord remotely", remoteException);
@@ -108,8 +418,31 @@ public final class RemoteDataAdapter implements DBAccess {
 	 */
 	@Override
 	public String[] readRecord(long recNo) throws RecordNotFoundException {
+		final long invalidationsBefore;
+		synchronized (cache) {
+			if (changeListener != null && !lockedRecords.contains(recNo)) {
+				final CacheEntry entry = cache.get(recNo);
+				if (entry != null) {
+					if (!entry.isExpired()) {
+						return entry.getData();
+					}
+					cache.remove(recNo);
+				}
+			}
+			invalidationsBefore = invalidationCount;
+		}
+
 		try {
-			return remoteDBAccess.readRecord(recNo);
+			final String[] data = remoteDBAccess.readRecord(recNo);
+			synchronized (cache) {
+				// Do not cache the record if it might have been changed
+				// while it was being read.
+				if (changeListener != null
+						&& invalidationCount == invalidationsBefore) {
+					cache.put(recNo, new CacheEntry(data));
+				}
+			}
+			return data;
 		} catch (final RemoteException remoteException) {
 			throw new NetworkErrorException(
 					"Cannot invoke readRecord remotely", remoteException);
@@ -126,6 +459,9 @@ public final class RemoteDataAdapter implements DBAccess {
 	public void unlock(long recNo, long cookie) throws SecurityException {
 		try {
 			remoteDBAccess.unlock(recNo, cookie);
+			synchronized (cache) {
+				lockedRecords.remove(recNo);
+			}
 		} catch (final RemoteException remoteException) {
 			throw new NetworkErrorException("Cannot invoke unlock remotely",
 					remoteException);
@@ -146,6 +482,72 @@ public final class RemoteDataAdapter implements DBAccess {
 		} catch (final RemoteException remoteException) {
 			throw new NetworkErrorException(
 					"Cannot invoke updateRecord remotely", remoteException);
+		} finally {
+			invalidate(recNo);
+		}
+	}
+
+	/**
+	 * Cached field values of a record.
+	 */
+	private static final class CacheEntry {
+
+		/**
+		 * Field values of the record.
+		 */
+		private final String[] data;
+
+		/**
+		 * Time (in milliseconds) after which the entry must not be used.
+		 */
+		private final long expirationTime;
+
+		/**
+		 * Creates a new cache entry.
+		 * 
+		 * @param data
+		 *            field values of the record
+		 */
+		CacheEntry(String[] data) {
+			this.data = data.clone();
+			this.expirationTime = System.currentTimeMillis()
+					+ CACHE_ENTRY_LIFETIME;
+		}
+
+		/**
+		 * Returns a copy of the field values.
+		 * 
+		 * @return field values of the record
+		 */
+		String[] getData() {
+			return data.clone();
+		}
+
+		/**
+		 * Returns whether the entry has expired.
+		 * 
+		 * @return true if the entry has expired
+		 */
+		boolean isExpired() {
+			return System.currentTimeMillis() > expirationTime;
+		}
+	}
+
+	/**
+	 * Remote listener invalidating cached records that were changed on the
+	 * server and passing the notifications on to the local listeners.
+	 */
+	private final class CacheInvalidator implements RemoteRecordChangeListener {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void recordChanged(RecordChangeEvent event) {
+			invalidate(event.getRecNo());
+			for (final RecordChangeListener listener : listeners) {
+				listener.recordChanged(event);
+			}
 		}
 	}
 }
@@ -0,0 +1,140 @@
+package suncertify.remote;
+
+import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import suncertify.db.event.RecordChangeEvent;
+import suncertify.db.event.RecordChangeListener;
+import suncertify.db.event.RecordChangeSource;
+
+/**
+ * Server side listener that forwards record change events to a remote listener
+ * of a client.
+ * <p>
+ * Events are queued and delivered by a pooled thread, so that a slow or
+ * unreachable client does not delay the notification of other clients. Events
+ * for one client are delivered in order. If the delivery fails, the forwarder
+ * unregisters itself and removes itself from the forwarders of the session,
+ * as the client can no longer be reached.
+ * 
+ * @author Rasmus Kuschel
+ */
+final class RemoteListenerForwarder implements RecordChangeListener {
+
+	/**
+	 * Threads delivering the events to the clients.
+	 */
+	private static final ExecutorService DELIVERY = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					final Thread thread = new Thread(runnable,
+							"record-change-delivery");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Source the forwarder is registered with.
+	 */
+	private final RecordChangeSource source;
+
+	/**
+	 * Remote listener of the client.
+	 */
+	private final RemoteRecordChangeListener remoteListener;
+
+	/**
+	 * Forwarders of the session the forwarder belongs to.
+	 */
+	private final Collection<RemoteListenerForwarder> forwarders;
+
+	/**
+	 * Events not yet delivered.
+	 */
+	private final Queue<RecordChangeEvent> pendingEvents = new ConcurrentLinkedQueue<RecordChangeEvent>();
+
+	/**
+	 * Flag signifying whether a delivery task is scheduled or running.
+	 */
+	private final AtomicBoolean delivering = new AtomicBoolean();
+
+	/**
+	 * Creates a new forwarder.
+	 * 
+	 * @param source
+	 *            source the forwarder is registered with
+	 * @param remoteListener
+	 *            remote listener the events are forwarded to
+	 * @param forwarders
+	 *            forwarders of the session, the forwarder is removed from
+	 *            when it unregisters itself
+	 */
+	RemoteListenerForwarder(RecordChangeSource source,
+			RemoteRecordChangeListener remoteListener,
+			Collection<RemoteListenerForwarder> forwarders) {
+		this.source = source;
+		this.remoteListener = remoteListener;
+		this.forwarders = forwarders;
+	}
+
+	/**
+	 * Returns the remote listener the events are forwarded to.
+	 * 
+	 * @return remote listener
+	 */
+	RemoteRecordChangeListener getRemoteListener() {
+		return remoteListener;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void recordChanged(RecordChangeEvent event) {
+		pendingEvents.add(event);
+		if (delivering.compareAndSet(false, true)) {
+			DELIVERY.execute(new Runnable() {
+				@Override
+				public void run() {
+					deliverPendingEvents();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Delivers all queued events to the remote listener.
+	 */
+	private void deliverPendingEvents() {
+		while (true) {
+			RecordChangeEvent event;
+			while ((event = pendingEvents.poll()) != null) {
+				try {
+					remoteListener.recordChanged(event);
+				} catch (final RemoteException e) {
+					source.removeRecordChangeListener(this);
+					forwarders.remove(this);
+					pendingEvents.clear();
+					return;
+				}
+			}
+
+			delivering.set(false);
+
+			// Events might have been added after the queue was found empty,
+			// but before the flag was reset.
+			if (pendingEvents.isEmpty()
+					|| !delivering.compareAndSet(false, true)) {
+				return;
+			}
+		}
+	}
+}
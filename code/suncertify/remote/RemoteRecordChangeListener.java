@@ -0,0 +1,28 @@
+package suncertify.remote;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import suncertify.db.event.RecordChangeEvent;
+
+/**
+ * Listener interface that is implemented by clients to be notified by the
+ * server about changes of data records.
+ * <p>
+ * The interface extends {@code java.rmi.Remote}, so that implementations can
+ * be exported by the client and called back by the server.
+ * 
+ * @author Rasmus Kuschel
+ */
+public interface RemoteRecordChangeListener extends Remote {
+
+	/**
+	 * Called when a data record was created, updated or deleted.
+	 * 
+	 * @param event
+	 *            event describing the change
+	 * @throws RemoteException
+	 *             if an error occurs concering the networking
+	 */
+	public void recordChanged(RecordChangeEvent event) throws RemoteException;
+}
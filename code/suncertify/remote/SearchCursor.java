@@ -0,0 +1,79 @@
+package suncertify.remote;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import suncertify.db.DBAccess;
+import suncertify.db.RecordNotFoundException;
+import suncertify.db.RecordPage;
+
+/**
+ * Server side cursor over the result of a search.
+ * <p>
+ * The cursor holds the numbers of the matching records only. The field values
+ * are read when a page is fetched, so that pages reflect changes made after
+ * the search. Records deleted in the meantime are skipped. The records are
+ * returned in the order of the search result, so the pages of a sorted query
+ * are sorted as well.
+ * 
+ * @author Rasmus Kuschel
+ */
+final class SearchCursor {
+
+	/**
+	 * DBAccess used to read the records.
+	 */
+	private final DBAccess dbAccess;
+
+	/**
+	 * Numbers of the matching records.
+	 */
+	private final long[] recNos;
+
+	/**
+	 * Position of the next record to be fetched.
+	 */
+	private int position;
+
+	/**
+	 * Creates a new cursor over the specified records.
+	 * 
+	 * @param dbAccess
+	 *            DBAccess used to read the records
+	 * @param recNos
+	 *            numbers of the matching records
+	 */
+	SearchCursor(DBAccess dbAccess, long[] recNos) {
+		this.dbAccess = dbAccess;
+		this.recNos = recNos != null ? recNos : new long[0];
+	}
+
+	/**
+	 * Reads the next page of records.
+	 * 
+	 * @param maxRecords
+	 *            maximum number of records in the page
+	 * @return next page
+	 */
+	synchronized RecordPage nextPage(int maxRecords) {
+		final List<Long> pageRecNos = new ArrayList<Long>(maxRecords);
+		final List<String[]> pageData = new ArrayList<String[]>(maxRecords);
+
+		final int end = Math.min(recNos.length, position + maxRecords);
+		for (; position < end; position++) {
+			try {
+				pageData.add(dbAccess.readRecord(recNos[position]));
+				pageRecNos.add(recNos[position]);
+			} catch (final RecordNotFoundException ignored) {
+				// The record was deleted after the search, skip it.
+			}
+		}
+
+		final long[] resultRecNos = new long[pageRecNos.size()];
+		for (int i = 0; i < resultRecNos.length; i++) {
+			resultRecNos[i] = pageRecNos.get(i);
+		}
+		return new RecordPage(resultRecNos, pageData
+				.toArray(new String[pageData.size()][]), position >= recNos.length);
+	}
+}
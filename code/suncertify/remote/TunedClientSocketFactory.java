@@ -0,0 +1,167 @@
+package suncertify.remote;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+
+/**
+ * Client socket factory for RMI connections to the server.
+ * <p>
+ * The factory is created on the server and sent to the clients as part of the
+ * stubs of the exported objects. The sockets it creates have Nagle's algorithm
+ * disabled (TCP_NODELAY), as RMI calls consist of small messages for which the
+ * delay of Nagle's algorithm dominates the round trip time. Keepalive is
+ * enabled by default, so that broken connections are detected, and the buffer
+ * sizes as well as connect and read timeouts can be configured.
+ * <p>
+ * RMI reuses connections for stubs with equal socket factories, so the
+ * factory implements {@code equals} and {@code hashCode}.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class TunedClientSocketFactory implements RMIClientSocketFactory,
+		Serializable {
+
+	/**
+	 * Serial version UID
+	 */
+	private static final long serialVersionUID = 6218475093347612281L;
+
+	/**
+	 * Default timeout (in milliseconds) for establishing a connection.
+	 */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+
+	/**
+	 * Default read timeout (in milliseconds). Reads do not time out by
+	 * default, as calls like lockRecord may block for an arbitrary time.
+	 */
+	public static final int DEFAULT_READ_TIMEOUT = 0;
+
+	/**
+	 * Default size (in bytes) of the send and receive buffers.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Default keepalive setting. Keepalive is enabled, so that connections to
+	 * crashed peers are detected.
+	 */
+	public static final boolean DEFAULT_KEEP_ALIVE = true;
+
+	/**
+	 * Timeout (in milliseconds) for establishing a connection, 0 for none.
+	 */
+	private final int connectTimeout;
+
+	/**
+	 * Read timeout (in milliseconds), 0 for none.
+	 */
+	private final int readTimeout;
+
+	/**
+	 * Size (in bytes) of the send and receive buffers, 0 for the system
+	 * default.
+	 */
+	private final int bufferSize;
+
+	/**
+	 * Flag signifying whether keepalive is enabled.
+	 */
+	private final boolean keepAlive;
+
+	/**
+	 * Creates a new factory with the default settings.
+	 */
+	public TunedClientSocketFactory() {
+		this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a new factory with the specified settings.
+	 * 
+	 * @param connectTimeout
+	 *            timeout (in milliseconds) for establishing a connection, 0
+	 *            for none
+	 * @param readTimeout
+	 *            read timeout (in milliseconds), 0 for none
+	 * @param bufferSize
+	 *            size (in bytes) of the send and receive buffers, 0 for the
+	 *            system default
+	 */
+	public TunedClientSocketFactory(int connectTimeout, int readTimeout,
+			int bufferSize) {
+		this(connectTimeout, readTimeout, bufferSize, DEFAULT_KEEP_ALIVE);
+	}
+
+	/**
+	 * Creates a new factory with the specified settings.
+	 * 
+	 * @param connectTimeout
+	 *            timeout (in milliseconds) for establishing a connection, 0
+	 *            for none
+	 * @param readTimeout
+	 *            read timeout (in milliseconds), 0 for none
+	 * @param bufferSize
+	 *            size (in bytes) of the send and receive buffers, 0 for the
+	 *            system default
+	 * @param keepAlive
+	 *            true to enable keepalive
+	 */
+	public TunedClientSocketFactory(int connectTimeout, int readTimeout,
+			int bufferSize, boolean keepAlive) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.bufferSize = bufferSize;
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		final Socket socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.setKeepAlive(keepAlive);
+		if (bufferSize > 0) {
+			socket.setSendBufferSize(bufferSize);
+			socket.setReceiveBufferSize(bufferSize);
+		}
+		socket.setSoTimeout(readTimeout);
+		socket.connect(new InetSocketAddress(host, port), connectTimeout);
+		return socket;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof TunedClientSocketFactory)) {
+			return false;
+		}
+		final TunedClientSocketFactory other = (TunedClientSocketFactory) obj;
+		return connectTimeout == other.connectTimeout
+				&& readTimeout == other.readTimeout
+				&& bufferSize == other.bufferSize
+				&& keepAlive == other.keepAlive;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int hashCode() {
+		int hash = connectTimeout;
+		hash = 31 * hash + readTimeout;
+		hash = 31 * hash + bufferSize;
+		hash = 31 * hash + (keepAlive ? 1 : 0);
+		return hash;
+	}
+}
@@ -0,0 +1,112 @@
+package suncertify.remote;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIServerSocketFactory;
+
+/**
+ * Server socket factory for the RMI endpoints of the server.
+ * <p>
+ * Accepted sockets are configured like the sockets of the
+ * {@code TunedClientSocketFactory}: Nagle's algorithm is disabled, and
+ * keepalive and the buffer sizes can be configured. The receive buffer size
+ * is set on the server socket before it is bound, so that it applies to the
+ * TCP window of accepted connections.
+ * <p>
+ * RMI shares server sockets between objects exported on the same port with
+ * equal socket factories, so the factory implements {@code equals} and
+ * {@code hashCode}.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class TunedServerSocketFactory implements RMIServerSocketFactory {
+
+	/**
+	 * Size (in bytes) of the send and receive buffers, 0 for the system
+	 * default.
+	 */
+	private final int bufferSize;
+
+	/**
+	 * Flag signifying whether keepalive is enabled.
+	 */
+	private final boolean keepAlive;
+
+	/**
+	 * Creates a new factory with the default buffer size.
+	 */
+	public TunedServerSocketFactory() {
+		this(TunedClientSocketFactory.DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a new factory with the specified buffer size.
+	 * 
+	 * @param bufferSize
+	 *            size (in bytes) of the send and receive buffers, 0 for the
+	 *            system default
+	 */
+	public TunedServerSocketFactory(int bufferSize) {
+		this(bufferSize, TunedClientSocketFactory.DEFAULT_KEEP_ALIVE);
+	}
+
+	/**
+	 * Creates a new factory with the specified settings.
+	 * 
+	 * @param bufferSize
+	 *            size (in bytes) of the send and receive buffers, 0 for the
+	 *            system default
+	 * @param keepAlive
+	 *            true to enable keepalive
+	 */
+	public TunedServerSocketFactory(int bufferSize, boolean keepAlive) {
+		this.bufferSize = bufferSize;
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ServerSocket createServerSocket(int port) throws IOException {
+		final ServerSocket serverSocket = new ServerSocket() {
+			@Override
+			public Socket accept() throws IOException {
+				final Socket socket = super.accept();
+				socket.setTcpNoDelay(true);
+				socket.setKeepAlive(keepAlive);
+				if (bufferSize > 0) {
+					socket.setSendBufferSize(bufferSize);
+				}
+				return socket;
+			}
+		};
+		if (bufferSize > 0) {
+			serverSocket.setReceiveBufferSize(bufferSize);
+		}
+		serverSocket.bind(new InetSocketAddress(port));
+		return serverSocket;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof TunedServerSocketFactory)) {
+			return false;
+		}
+		final TunedServerSocketFactory other = (TunedServerSocketFactory) obj;
+		return bufferSize == other.bufferSize && keepAlive == other.keepAlive;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int hashCode() {
+		return 31 * bufferSize + (keepAlive ? 1 : 0);
+	}
+}
@@ -0,0 +1,179 @@
+package suncertify.remote.nio;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import suncertify.db.NetworkErrorException;
+
+/**
+ * Client side of a connection to a {@code NioServer}.
+ * <p>
+ * Requests can be sent by any number of threads concurrently. Each request is
+ * assigned a unique request id and written to the channel immediately, without
+ * waiting for the responses to earlier requests. A reader thread receives the
+ * responses and completes the corresponding {@code ResponseFuture}. This
+ * allows many requests to be in flight on a single connection.
+ * 
+ * @author Rasmus Kuschel
+ */
+final class NioClient {
+
+	/**
+	 * Channel of the connection, used in blocking mode
+	 */
+	private final SocketChannel channel;
+
+	/**
+	 * Requests that have been sent and are not yet answered, by request id
+	 */
+	private final Map<Integer, ResponseFuture> pendingRequests = new ConcurrentHashMap<Integer, ResponseFuture>();
+
+	/**
+	 * Generator of request ids
+	 */
+	private final AtomicInteger nextRequestId = new AtomicInteger();
+
+	/**
+	 * Lock object used to serialize writing frames to the channel
+	 */
+	private final Object writeLock = new Object();
+
+	/**
+	 * Exception that terminated the connection, or null while it is open
+	 */
+	private volatile IOException failure;
+
+	/**
+	 * Opens a connection to the server at the specified address and starts
+	 * the reader thread.
+	 * 
+	 * @param serverAddress
+	 *            address of the server
+	 * @param serverPort
+	 *            port of the server
+	 * @throws IOException
+	 *             if the connection cannot be opened
+	 */
+	NioClient(String serverAddress, int serverPort) throws IOException {
+		channel = SocketChannel.open(new InetSocketAddress(serverAddress,
+				serverPort));
+		channel.socket().setTcpNoDelay(true);
+
+		final Thread readerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readResponses();
+			}
+		}, "nio-client-reader");
+		readerThread.setDaemon(true);
+		readerThread.start();
+	}
+
+	/**
+	 * Sends a request with the specified operation code and body and returns
+	 * the future of its response.
+	 * 
+	 * @param opcode
+	 *            operation code
+	 * @param body
+	 *            encoded request body
+	 * @return future of the response
+	 * @throws NetworkErrorException
+	 *             if the request cannot be sent
+	 */
+	ResponseFuture send(byte opcode, byte[] body) throws NetworkErrorException {
+		final int requestId = nextRequestId.incrementAndGet();
+		final ResponseFuture future = new ResponseFuture();
+		pendingRequests.put(requestId, future);
+
+		final ByteBuffer frame = Protocol.createFrame(requestId, opcode, body);
+		try {
+			synchronized (writeLock) {
+				if (failure != null) {
+					throw failure;
+				}
+				while (frame.hasRemaining()) {
+					channel.write(frame);
+				}
+			}
+		} catch (final IOException e) {
+			pendingRequests.remove(requestId);
+			throw new NetworkErrorException("Cannot send request to server", e);
+		}
+
+		return future;
+	}
+
+	/**
+	 * Closes the connection. Requests still waiting for their response fail.
+	 */
+	void close() {
+		try {
+			channel.close();
+		} catch (final IOException ignored) {
+			// The connection is discarded anyway
+		}
+	}
+
+	/**
+	 * Main loop of the reader thread. Reads response frames and completes the
+	 * corresponding futures until the connection is closed.
+	 */
+	private void readResponses() {
+		try {
+			final DataInputStream in = new DataInputStream(
+					new BufferedInputStream(Channels.newInputStream(channel)));
+			while (true) {
+				final int frameLength = in.readInt();
+				if (frameLength < Protocol.HEADER_LENGTH
+						|| frameLength > Protocol.MAX_FRAME_LENGTH) {
+					throw new IOException("invalid frame length "
+							+ frameLength);
+				}
+				final int requestId = in.readInt();
+				final byte status = in.readByte();
+				final byte[] body = new byte[frameLength
+						- Protocol.HEADER_LENGTH];
+				in.readFully(body);
+
+				final ResponseFuture future = pendingRequests.remove(requestId);
+				if (future != null) {
+					future.complete(new Response(status, body));
+				}
+			}
+		} catch (final IOException e) {
+			failAll(e);
+		}
+	}
+
+	/**
+	 * Marks the connection as failed and fails all pending requests.
+	 * 
+	 * @param e
+	 *            exception that terminated the connection
+	 */
+	private void failAll(IOException e) {
+		synchronized (writeLock) {
+			failure = e;
+		}
+		final List<Integer> requestIds = new ArrayList<Integer>(
+				pendingRequests.keySet());
+		for (final Integer requestId : requestIds) {
+			final ResponseFuture future = pendingRequests.remove(requestId);
+			if (future != null) {
+				future.fail(e);
+			}
+		}
+		close();
+	}
+}
@@ -0,0 +1,254 @@
+package suncertify.remote.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import suncertify.db.DBAccess;
+import suncertify.db.SecurityException;
+import suncertify.db.TechnicalErrorException;
+
+/**
+ * State of one client connection of the {@code NioServer}.
+ * <p>
+ * Each connection represents the session of one client and has its own
+ * {@code DBAccess} instance, which identifies the owner of record locks. The
+ * connection keeps the cookies of the records locked by the client, and
+ * unlocks the records still locked when it is closed, so that a client that
+ * disconnects while booking does not leave a record locked forever.
+ * <p>
+ * Incoming bytes are accumulated in a read buffer until complete frames are
+ * available. Outgoing response frames are queued until the channel is ready
+ * for writing. The read buffer is only accessed by the selector thread, the
+ * write queue is accessed by worker threads as well and is synchronized.
+ * 
+ * @author Rasmus Kuschel
+ */
+final class NioConnection {
+
+	/**
+	 * Initial size of the read buffer.
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * Channel of the connection
+	 */
+	private final SocketChannel channel;
+
+	/**
+	 * DBAccess instance on which the requests of this connection are executed
+	 */
+	private final DBAccess dbAccess;
+
+	/**
+	 * Buffer accumulating incoming bytes. Is in write mode between calls.
+	 */
+	private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	/**
+	 * Response frames waiting to be written to the channel.
+	 */
+	private final Queue<ByteBuffer> writeQueue = new LinkedList<ByteBuffer>();
+
+	/**
+	 * Cookies of the records locked by the client by record number. Guarded
+	 * by itself.
+	 */
+	private final Map<Long, Long> lockCookies = new HashMap<Long, Long>();
+
+	/**
+	 * Flag signifying whether the connection has been closed. Guarded by the
+	 * lock cookies.
+	 */
+	private boolean closed;
+
+	/**
+	 * Creates a new connection for the specified channel.
+	 * 
+	 * @param channel
+	 *            channel of the connection
+	 * @param dbAccess
+	 *            DBAccess instance of the connection
+	 */
+	NioConnection(SocketChannel channel, DBAccess dbAccess) {
+		this.channel = channel;
+		this.dbAccess = dbAccess;
+	}
+
+	/**
+	 * Returns the channel of this connection.
+	 * 
+	 * @return channel
+	 */
+	SocketChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Returns the DBAccess instance of this connection.
+	 * 
+	 * @return DBAccess instance
+	 */
+	DBAccess getDBAccess() {
+		return dbAccess;
+	}
+
+	/**
+	 * Reads the available bytes from the channel and returns all frames that
+	 * have been completely received, without their frame length field.
+	 * 
+	 * @param frames
+	 *            list to which the complete frames are added
+	 * @return false if the end of the stream has been reached
+	 * @throws IOException
+	 *             if an I/O error occurs or a frame is invalid
+	 */
+	boolean readFrames(List<ByteBuffer> frames) throws IOException {
+		final int read = channel.read(readBuffer);
+
+		readBuffer.flip();
+		while (readBuffer.remaining() >= Protocol.LENGTH_FIELD_LENGTH) {
+			final int frameLength = readBuffer.getInt(readBuffer.position());
+			if (frameLength < Protocol.HEADER_LENGTH
+					|| frameLength > Protocol.MAX_FRAME_LENGTH) {
+				throw new IOException("invalid frame length " + frameLength);
+			}
+			if (readBuffer.remaining() < Protocol.LENGTH_FIELD_LENGTH
+					+ frameLength) {
+				break;
+			}
+
+			readBuffer.getInt();
+			final byte[] frame = new byte[frameLength];
+			readBuffer.get(frame);
+			frames.add(ByteBuffer.wrap(frame));
+		}
+		readBuffer.compact();
+
+		// Grow the buffer, if the next frame does not fit into it
+		if (readBuffer.position() >= Protocol.LENGTH_FIELD_LENGTH) {
+			final int required = Protocol.LENGTH_FIELD_LENGTH
+					+ readBuffer.getInt(0);
+			if (required > readBuffer.capacity()) {
+				final ByteBuffer grown = ByteBuffer.allocate(required);
+				readBuffer.flip();
+				grown.put(readBuffer);
+				readBuffer = grown;
+			}
+		}
+
+		return read >= 0;
+	}
+
+	/**
+	 * Queues the specified response frame for writing.
+	 * 
+	 * @param frame
+	 *            response frame
+	 */
+	void enqueue(ByteBuffer frame) {
+		synchronized (writeQueue) {
+			writeQueue.add(frame);
+		}
+	}
+
+	/**
+	 * Writes as many queued frames to the channel as it accepts without
+	 * blocking.
+	 * 
+	 * @return true if all queued frames have been written
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	boolean writeQueued() throws IOException {
+		synchronized (writeQueue) {
+			while (!writeQueue.isEmpty()) {
+				final ByteBuffer frame = writeQueue.peek();
+				channel.write(frame);
+				if (frame.hasRemaining()) {
+					return false;
+				}
+				writeQueue.remove();
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Returns whether the connection is still open.
+	 * 
+	 * @return true if the channel is open
+	 */
+	boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	/**
+	 * Records that the client has locked the specified record.
+	 * 
+	 * @param recNo
+	 *            number of the locked record
+	 * @param cookie
+	 *            cookie of the lock
+	 * @return false if the connection is already closed, so that the caller
+	 *         must unlock the record itself
+	 */
+	boolean lockGranted(long recNo, long cookie) {
+		synchronized (lockCookies) {
+			if (closed) {
+				return false;
+			}
+			lockCookies.put(recNo, cookie);
+			return true;
+		}
+	}
+
+	/**
+	 * Records that the client has unlocked the specified record.
+	 * 
+	 * @param recNo
+	 *            number of the unlocked record
+	 * @return true if the record was locked by the client
+	 */
+	boolean lockReleased(long recNo) {
+		synchronized (lockCookies) {
+			return lockCookies.remove(recNo) != null;
+		}
+	}
+
+	/**
+	 * Closes the channel of this connection and unlocks the records still
+	 * locked by the client.
+	 */
+	void close() {
+		try {
+			channel.close();
+		} catch (final IOException ignored) {
+			// The connection is discarded anyway
+		}
+
+		final Map<Long, Long> locked;
+		synchronized (lockCookies) {
+			closed = true;
+			locked = new HashMap<Long, Long>(lockCookies);
+			lockCookies.clear();
+		}
+		for (final Map.Entry<Long, Long> lock : locked.entrySet()) {
+			try {
+				dbAccess.unlock(lock.getKey(), lock.getValue());
+			} catch (final SecurityException e) {
+				System.err.println("Cannot unlock record " + lock.getKey()
+						+ ": " + e.getMessage());
+			} catch (final TechnicalErrorException e) {
+				System.err.println("Cannot unlock record " + lock.getKey()
+						+ ": " + e.getMessage());
+			}
+		}
+	}
+}
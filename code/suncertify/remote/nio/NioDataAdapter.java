@@ -0,0 +1,447 @@
+package suncertify.remote.nio;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import suncertify.db.AsyncDBAccess;
+import suncertify.db.DBAccess;
+import suncertify.db.DuplicateKeyException;
+import suncertify.db.MatchMode;
+import suncertify.db.MatchingDBAccess;
+import suncertify.db.NetworkErrorException;
+import suncertify.db.QueryDBAccess;
+import suncertify.db.RecordNotFoundException;
+import suncertify.db.RecordQuery;
+import suncertify.db.SecurityException;
+import suncertify.db.TechnicalErrorException;
+
+/**
+ * Implementation of the DBAccess, AsyncDBAccess, MatchingDBAccess and
+ * QueryDBAccess interfaces that accesses a {@code NioServer} via the binary
+ * protocol.
+ * <p>
+ * Each asynchronous method encodes its parameters, sends the request over the
+ * wrapped {@code NioClient} and returns the future of the result without
+ * waiting for the response. Any number of requests may be in flight on the
+ * connection at the same time.
+ * <p>
+ * The synchronous DBAccess methods send the request the same way and wait for
+ * its result. Several threads may use the same instance concurrently; their
+ * requests are multiplexed over one connection.
+ * <p>
+ * Exceptions reported by the server are rethrown as the corresponding
+ * exceptions. I/O errors are wrapped in a {@code NetworkErrorException}.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class NioDataAdapter implements DBAccess, AsyncDBAccess,
+		MatchingDBAccess, QueryDBAccess {
+
+	/**
+	 * Decoder of responses without result value
+	 */
+	private static final ResultFuture.Decoder<Void> VOID_DECODER = new ResultFuture.Decoder<Void>() {
+		@Override
+		public Void decode(DataInputStream body) {
+			return null;
+		}
+	};
+
+	/**
+	 * Decoder of responses containing a single long value
+	 */
+	private static final ResultFuture.Decoder<Long> LONG_DECODER = new ResultFuture.Decoder<Long>() {
+		@Override
+		public Long decode(DataInputStream body) throws IOException {
+			return body.readLong();
+		}
+	};
+
+	/**
+	 * Decoder of responses containing an array of long values
+	 */
+	private static final ResultFuture.Decoder<long[]> LONGS_DECODER = new ResultFuture.Decoder<long[]>() {
+		@Override
+		public long[] decode(DataInputStream body) throws IOException {
+			return Protocol.readLongs(body);
+		}
+	};
+
+	/**
+	 * Decoder of responses containing an array of String values
+	 */
+	private static final ResultFuture.Decoder<String[]> STRINGS_DECODER = new ResultFuture.Decoder<String[]>() {
+		@Override
+		public String[] decode(DataInputStream body) throws IOException {
+			return Protocol.readStrings(body);
+		}
+	};
+
+	/**
+	 * Connection to the server
+	 */
+	private final NioClient client;
+
+	/**
+	 * Creates a new instance connected to the server at the specified
+	 * address.
+	 * 
+	 * @param serverAddress
+	 *            address of the server
+	 * @param serverPort
+	 *            port of the server
+	 * @throws NetworkErrorException
+	 *             if the connection cannot be opened
+	 */
+	public NioDataAdapter(String serverAddress, int serverPort)
+			throws NetworkErrorException {
+		try {
+			this.client = new NioClient(serverAddress, serverPort);
+		} catch (final IOException e) {
+			throw new NetworkErrorException(
+					"Connection to server not possible", e);
+		}
+	}
+
+	/**
+	 * Closes the connection to the server.
+	 */
+	public void close() {
+		client.close();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public Future<String[]> readRecordAsync(long recNo) {
+		final RequestBody request = new RequestBody();
+		request.writeLong(recNo);
+
+		return send(Protocol.OP_READ, request, STRINGS_DECODER);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public Future<Void> updateRecordAsync(long recNo, String[] data,
+			long lockCookie) {
+		final RequestBody request = new RequestBody();
+		request.writeLong(recNo);
+		request.writeLong(lockCookie);
+		request.writeStrings(data);
+
+		return send(Protocol.OP_UPDATE, request, VOID_DECODER);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public Future<Void> deleteRecordAsync(long recNo, long lockCookie) {
+		final RequestBody request = new RequestBody();
+		request.writeLong(recNo);
+		request.writeLong(lockCookie);
+
+		return send(Protocol.OP_DELETE, request, VOID_DECODER);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public Future<long[]> findByCriteriaAsync(String[] criteria) {
+		final RequestBody request = new RequestBody();
+		request.writeStrings(criteria);
+
+		return send(Protocol.OP_FIND, request, LONGS_DECODER);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public Future<Long> createRecordAsync(String[] data) {
+		final RequestBody request = new RequestBody();
+		request.writeStrings(data);
+
+		return send(Protocol.OP_CREATE, request, LONG_DECODER);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public Future<Long> lockRecordAsync(long recNo) {
+		final RequestBody request = new RequestBody();
+		request.writeLong(recNo);
+
+		return send(Protocol.OP_LOCK, request, LONG_DECODER);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public Future<Void> unlockAsync(long recNo, long cookie) {
+		final RequestBody request = new RequestBody();
+		request.writeLong(recNo);
+		request.writeLong(cookie);
+
+		return send(Protocol.OP_UNLOCK, request, VOID_DECODER);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public String[] readRecord(long recNo) throws RecordNotFoundException {
+		try {
+			return await(readRecordAsync(recNo));
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RecordNotFoundException) {
+				throw (RecordNotFoundException) e.getCause();
+			}
+			throw unexpected(e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public void updateRecord(long recNo, String[] data, long lockCookie)
+			throws RecordNotFoundException, SecurityException {
+		try {
+			await(updateRecordAsync(recNo, data, lockCookie));
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RecordNotFoundException) {
+				throw (RecordNotFoundException) e.getCause();
+			}
+			if (e.getCause() instanceof SecurityException) {
+				throw (SecurityException) e.getCause();
+			}
+			throw unexpected(e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public void deleteRecord(long recNo, long lockCookie)
+			throws RecordNotFoundException, SecurityException {
+		try {
+			await(deleteRecordAsync(recNo, lockCookie));
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RecordNotFoundException) {
+				throw (RecordNotFoundException) e.getCause();
+			}
+			if (e.getCause() instanceof SecurityException) {
+				throw (SecurityException) e.getCause();
+			}
+			throw unexpected(e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public long[] findByCriteria(String[] criteria) {
+		try {
+			return await(findByCriteriaAsync(criteria));
+		} catch (final ExecutionException e) {
+			throw unexpected(e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public long[] findByCriteria(String[] criteria, MatchMode[] modes) {
+		final RequestBody request = new RequestBody();
+		request.writeStrings(criteria);
+		request.writeModes(modes);
+
+		try {
+			return await(send(Protocol.OP_FIND_MATCHING, request,
+					LONGS_DECODER));
+		} catch (final ExecutionException e) {
+			throw unexpected(e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public long[] findByQuery(RecordQuery query) {
+		final RequestBody request = new RequestBody();
+		request.writeQuery(query);
+
+		try {
+			return await(send(Protocol.OP_QUERY, request, LONGS_DECODER));
+		} catch (final ExecutionException e) {
+			throw unexpected(e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public long createRecord(String[] data) throws DuplicateKeyException {
+		try {
+			return await(createRecordAsync(data));
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof DuplicateKeyException) {
+				throw (DuplicateKeyException) e.getCause();
+			}
+			throw unexpected(e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public long lockRecord(long recNo) throws RecordNotFoundException {
+		try {
+			return await(lockRecordAsync(recNo));
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RecordNotFoundException) {
+				throw (RecordNotFoundException) e.getCause();
+			}
+			throw unexpected(e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws NetworkErrorException
+	 *             if a networking error occurs
+	 */
+	@Override
+	public void unlock(long recNo, long cookie) throws SecurityException {
+		try {
+			await(unlockAsync(recNo, cookie));
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof SecurityException) {
+				throw (SecurityException) e.getCause();
+			}
+			throw unexpected(e);
+		}
+	}
+
+	/**
+	 * Sends a request and returns the future of its result.
+	 * 
+	 * @param <T>
+	 *            type of the result value
+	 * @param opcode
+	 *            operation code
+	 * @param request
+	 *            request body
+	 * @param decoder
+	 *            decoder of the result value
+	 * @return future of the result
+	 * @throws NetworkErrorException
+	 *             if the request cannot be sent
+	 */
+	private <T> Future<T> send(byte opcode, RequestBody request,
+			ResultFuture.Decoder<T> decoder) throws NetworkErrorException {
+		final ResponseFuture responseFuture = client.send(opcode, request
+				.toByteArray());
+		return new ResultFuture<T>(responseFuture, decoder);
+	}
+
+	/**
+	 * Waits for the result of the specified future.
+	 * 
+	 * @param <T>
+	 *            type of the result value
+	 * @param future
+	 *            future of the result
+	 * @return result value
+	 * @throws ExecutionException
+	 *             wrapping the exception reported for the operation
+	 * @throws NetworkErrorException
+	 *             if the waiting thread is interrupted
+	 */
+	private static <T> T await(Future<T> future) throws ExecutionException {
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NetworkErrorException(
+					"Interrupted while waiting for the server", e);
+		}
+	}
+
+	/**
+	 * Returns the runtime exception to be thrown for an exception reported for
+	 * an operation, that is not declared by the corresponding DBAccess method.
+	 * 
+	 * @param e
+	 *            exception wrapping the reported exception
+	 * @return runtime exception to be thrown
+	 */
+	private static RuntimeException unexpected(ExecutionException e) {
+		if (e.getCause() instanceof RuntimeException) {
+			return (RuntimeException) e.getCause();
+		}
+		return new TechnicalErrorException("Unexpected error on server", e
+				.getCause());
+	}
+}
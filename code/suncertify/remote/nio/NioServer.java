@@ -0,0 +1,346 @@
+package suncertify.remote.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import suncertify.db.Data;
+
+/**
+ * Server providing access to the data file via the binary protocol described
+ * in {@code Protocol}.
+ * <p>
+ * A single selector thread accepts connections, reads incoming frames and
+ * writes queued responses, using non-blocking channels. Complete request
+ * frames are handed to a fixed pool of worker threads, which execute them on
+ * the {@code Data} instance of the connection. Lock requests are executed with
+ * a callback, so that a client waiting for a lock occupies a queue entry
+ * instead of a worker thread; its response is sent when the lock has been
+ * acquired.
+ * <p>
+ * Requests received on one connection are executed concurrently and their
+ * responses may be sent in a different order. Clients match responses to
+ * requests by the request id.
+ * 
+ * @author Rasmus Kuschel
+ */
+public final class NioServer {
+
+	/**
+	 * Default port of the server.
+	 */
+	public static final int DEFAULT_PORT = 1100;
+
+	/**
+	 * Number of worker threads. Lock requests do not occupy a worker while
+	 * they wait, so the workers only execute short file operations.
+	 */
+	private static final int WORKER_THREADS = Math.max(4, 2 * Runtime
+			.getRuntime().availableProcessors());
+
+	/**
+	 * Path to the data file.
+	 */
+	private final String databaseLocation;
+
+	/**
+	 * Port the server listens on.
+	 */
+	private final int port;
+
+	/**
+	 * Worker threads executing the requests.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Connections that have new responses queued, for which the selector
+	 * thread needs to register interest in writing.
+	 */
+	private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<NioConnection>();
+
+	/**
+	 * Number of open connections.
+	 */
+	private final AtomicInteger connectionCount = new AtomicInteger();
+
+	/**
+	 * Selector used by the selector thread.
+	 */
+	private Selector selector;
+
+	/**
+	 * Channel accepting new connections.
+	 */
+	private ServerSocketChannel serverChannel;
+
+	/**
+	 * Flag set while the server is running.
+	 */
+	private volatile boolean running;
+
+	/**
+	 * Creates a new server for the specified data file and port. The server is
+	 * not started before its {@code start} method is called.
+	 * 
+	 * @param databaseLocation
+	 *            path to the data file
+	 * @param port
+	 *            port the server listens on
+	 */
+	public NioServer(String databaseLocation, int port) {
+		this.databaseLocation = databaseLocation;
+		this.port = port;
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(WORKER_THREADS,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						final Thread thread = new Thread(runnable,
+								"nio-worker-" + threadCount.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Starts the server, i.e. binds the server socket and starts the selector
+	 * thread.
+	 * 
+	 * @throws IOException
+	 *             if the server socket cannot be bound
+	 */
+	public void start() throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(port));
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		running = true;
+		final Thread selectorThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runSelectorLoop();
+			}
+		}, "nio-selector");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+	}
+
+	/**
+	 * Stops the server. All connections are closed.
+	 */
+	public void stop() {
+		running = false;
+		if (selector != null) {
+			selector.wakeup();
+		}
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the number of open connections.
+	 * 
+	 * @return number of open connections
+	 */
+	public int getConnectionCount() {
+		return connectionCount.get();
+	}
+
+	/**
+	 * Main loop of the selector thread.
+	 */
+	private void runSelectorLoop() {
+		try {
+			while (running) {
+				selector.select();
+				registerPendingWrites();
+
+				final Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (key.isValid() && key.isAcceptable()) {
+							accept();
+						}
+						if (key.isValid() && key.isReadable()) {
+							read(key);
+						}
+						if (key.isValid() && key.isWritable()) {
+							write(key);
+						}
+					} catch (final IOException e) {
+						close(key);
+					}
+				}
+			}
+		} catch (final IOException e) {
+			System.err.println("NIO server stopped: " + e.getMessage());
+		} finally {
+			for (final SelectionKey key : selector.keys()) {
+				close(key);
+			}
+			try {
+				selector.close();
+			} catch (final IOException ignored) {
+				// The server is stopped anyway
+			}
+		}
+	}
+
+	/**
+	 * Registers interest in writing for all connections that have new
+	 * responses queued.
+	 */
+	private void registerPendingWrites() {
+		NioConnection connection;
+		while ((connection = pendingWrites.poll()) != null) {
+			final SelectionKey key = connection.getChannel().keyFor(selector);
+			if (key != null && key.isValid()) {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	/**
+	 * Accepts a new connection. Each connection receives its own Data
+	 * instance.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private void accept() throws IOException {
+		final SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+
+		final NioConnection connection = new NioConnection(channel, new Data(
+				databaseLocation));
+		channel.register(selector, SelectionKey.OP_READ, connection);
+		connectionCount.incrementAndGet();
+	}
+
+	/**
+	 * Reads from the channel of the specified key and dispatches all complete
+	 * request frames to the worker threads.
+	 * 
+	 * @param key
+	 *            selection key of the connection
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private void read(SelectionKey key) throws IOException {
+		final NioConnection connection = (NioConnection) key.attachment();
+		final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+		final boolean open = connection.readFrames(frames);
+
+		for (final ByteBuffer frame : frames) {
+			dispatch(connection, frame);
+		}
+
+		if (!open) {
+			close(key);
+		}
+	}
+
+	/**
+	 * Writes queued responses to the channel of the specified key. When all
+	 * responses are written, the interest in writing is removed.
+	 * 
+	 * @param key
+	 *            selection key of the connection
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private void write(SelectionKey key) throws IOException {
+		final NioConnection connection = (NioConnection) key.attachment();
+		if (connection.writeQueued()) {
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * Hands the specified request frame to a worker thread. The response is
+	 * queued on the connection and the selector thread is woken up to write
+	 * it.
+	 * 
+	 * @param connection
+	 *            connection the request was received on
+	 * @param frame
+	 *            request frame without its frame length field
+	 */
+	private void dispatch(final NioConnection connection,
+			final ByteBuffer frame) {
+		final int requestId = frame.getInt();
+		final byte opcode = frame.get();
+		final byte[] body = new byte[frame.remaining()];
+		frame.get(body);
+
+		final RequestHandler.Responder responder = new RequestHandler.Responder() {
+			@Override
+			public boolean respond(ByteBuffer response) {
+				if (!connection.isOpen()) {
+					return false;
+				}
+				connection.enqueue(response);
+				pendingWrites.add(connection);
+				selector.wakeup();
+				return true;
+			}
+		};
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				RequestHandler.handle(connection, requestId, opcode, body,
+						responder);
+			}
+		});
+	}
+
+	/**
+	 * Closes the connection of the specified key.
+	 * 
+	 * @param key
+	 *            selection key of the connection
+	 */
+	private void close(SelectionKey key) {
+		if (!key.isValid()) {
+			// already closed
+			return;
+		}
+		key.cancel();
+		if (key.attachment() instanceof NioConnection) {
+			((NioConnection) key.attachment()).close();
+			connectionCount.decrementAndGet();
+		} else {
+			try {
+				key.channel().close();
+			} catch (final IOException ignored) {
+				// The channel is discarded anyway
+			}
+		}
+	}
+}
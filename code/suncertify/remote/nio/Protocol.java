@@ -0,0 +1,407 @@
+package suncertify.remote.nio;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import suncertify.db.MatchMode;
+import suncertify.db.NumericField;
+import suncertify.db.RecordQuery;
+import suncertify.db.SortKey;
+import suncertify.db.domain.FileMetaData;
+
+/**
+ * Constants and encoding helpers of the binary protocol used between
+ * {@code NioServer} and {@code NioClient}.
+ * <p>
+ * All messages are sent as frames. A frame consists of a header and a body:
+ * <ul>
+ * <li>frame length (int): number of bytes following this field</li>
+ * <li>request id (int): chosen by the client, echoed in the response</li>
+ * <li>code (byte): operation code in a request, status code in a response</li>
+ * <li>body: operation parameters or result values</li>
+ * </ul>
+ * The request id allows a client to send several requests without waiting for
+ * the responses (pipelining) and to match responses that arrive in a different
+ * order than the requests were sent (multiplexing).
+ * <p>
+ * Values in the body are written in the format of the {@code DataOutputStream}
+ * class. Strings are preceded by a flag signifying whether they are null,
+ * arrays are preceded by their length (-1 for null).
+ * 
+ * @author Rasmus Kuschel
+ */
+final class Protocol {
+
+	/**
+	 * Length (number of bytes) of the frame length field.
+	 */
+	static final int LENGTH_FIELD_LENGTH = 4;
+
+	/**
+	 * Length (number of bytes) of the frame header following the frame length
+	 * field, i.e. request id and code.
+	 */
+	static final int HEADER_LENGTH = 5;
+
+	/**
+	 * Maximum accepted frame length. Longer frames are considered a protocol
+	 * error.
+	 */
+	static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+	/**
+	 * Operation code of the readRecord method
+	 */
+	static final byte OP_READ = 1;
+
+	/**
+	 * Operation code of the updateRecord method
+	 */
+	static final byte OP_UPDATE = 2;
+
+	/**
+	 * Operation code of the deleteRecord method
+	 */
+	static final byte OP_DELETE = 3;
+
+	/**
+	 * Operation code of the findByCriteria method
+	 */
+	static final byte OP_FIND = 4;
+
+	/**
+	 * Operation code of the createRecord method
+	 */
+	static final byte OP_CREATE = 5;
+
+	/**
+	 * Operation code of the lockRecord method
+	 */
+	static final byte OP_LOCK = 6;
+
+	/**
+	 * Operation code of the unlock method
+	 */
+	static final byte OP_UNLOCK = 7;
+
+	/**
+	 * Operation code of the findByCriteria method with match modes
+	 */
+	static final byte OP_FIND_MATCHING = 8;
+
+	/**
+	 * Operation code of the findByQuery method
+	 */
+	static final byte OP_QUERY = 9;
+
+	/**
+	 * Status code of a successfully executed operation
+	 */
+	static final byte STATUS_OK = 0;
+
+	/**
+	 * Status code signifying a RecordNotFoundException
+	 */
+	static final byte STATUS_RECORD_NOT_FOUND = 1;
+
+	/**
+	 * Status code signifying a SecurityException
+	 */
+	static final byte STATUS_SECURITY = 2;
+
+	/**
+	 * Status code signifying a DuplicateKeyException
+	 */
+	static final byte STATUS_DUPLICATE_KEY = 3;
+
+	/**
+	 * Status code signifying a DeadlockException
+	 */
+	static final byte STATUS_DEADLOCK = 4;
+
+	/**
+	 * Status code signifying an IllegalArgumentException
+	 */
+	static final byte STATUS_ILLEGAL_ARGUMENT = 5;
+
+	/**
+	 * Status code signifying any other error on the server
+	 */
+	static final byte STATUS_TECHNICAL_ERROR = 6;
+
+	/**
+	 * Private constructor to prevent instance creation.
+	 */
+	private Protocol() {
+	}
+
+	/**
+	 * Creates a complete frame with the specified header values and body.
+	 * <p>
+	 * The returned buffer is ready to be written to a channel.
+	 * 
+	 * @param requestId
+	 *            request id
+	 * @param code
+	 *            operation or status code
+	 * @param body
+	 *            encoded body
+	 * @return frame
+	 */
+	static ByteBuffer createFrame(int requestId, byte code, byte[] body) {
+		final ByteBuffer frame = ByteBuffer.allocate(LENGTH_FIELD_LENGTH
+				+ HEADER_LENGTH + body.length);
+		frame.putInt(HEADER_LENGTH + body.length);
+		frame.putInt(requestId);
+		frame.put(code);
+		frame.put(body);
+		frame.flip();
+
+		return frame;
+	}
+
+	/**
+	 * Writes a String value that may be null.
+	 * 
+	 * @param out
+	 *            stream to write to
+	 * @param value
+	 *            value to write
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static void writeString(DataOutputStream out, String value)
+			throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	/**
+	 * Reads a String value that may be null.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @return value read
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static String readString(DataInputStream in) throws IOException {
+		if (in.readBoolean()) {
+			return in.readUTF();
+		}
+		return null;
+	}
+
+	/**
+	 * Writes an array of String values. The array and its elements may be
+	 * null.
+	 * 
+	 * @param out
+	 *            stream to write to
+	 * @param values
+	 *            values to write
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static void writeStrings(DataOutputStream out, String[] values)
+			throws IOException {
+		if (values == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(values.length);
+			for (final String value : values) {
+				writeString(out, value);
+			}
+		}
+	}
+
+	/**
+	 * Reads an array of String values. The array and its elements may be
+	 * null.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @return values read
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static String[] readStrings(DataInputStream in) throws IOException {
+		final int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		final String[] values = new String[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = readString(in);
+		}
+		return values;
+	}
+
+	/**
+	 * Writes an array of match modes as their ordinals. The array and its
+	 * elements may be null.
+	 * 
+	 * @param out
+	 *            stream to write to
+	 * @param modes
+	 *            modes to write
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static void writeModes(DataOutputStream out, MatchMode[] modes)
+			throws IOException {
+		if (modes == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(modes.length);
+			for (final MatchMode mode : modes) {
+				out.writeByte(mode == null ? -1 : mode.ordinal());
+			}
+		}
+	}
+
+	/**
+	 * Reads an array of match modes. The array and its elements may be null.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @return modes read
+	 * @throws IOException
+	 *             if an I/O error occurs or an ordinal is invalid
+	 */
+	static MatchMode[] readModes(DataInputStream in) throws IOException {
+		final int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		final MatchMode[] all = MatchMode.values();
+		final MatchMode[] modes = new MatchMode[length];
+		for (int i = 0; i < length; i++) {
+			final byte ordinal = in.readByte();
+			if (ordinal >= all.length) {
+				throw new IOException("invalid match mode " + ordinal);
+			}
+			modes[i] = ordinal < 0 ? null : all[ordinal];
+		}
+		return modes;
+	}
+
+	/**
+	 * Writes a query: its criteria and match modes, the bounds of each numeric
+	 * field in the order of the NumericField constants, the number of sort keys
+	 * followed by the field and direction of each key, the limit and the
+	 * specialties.
+	 * 
+	 * @param out
+	 *            stream to write to
+	 * @param query
+	 *            query to write
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static void writeQuery(DataOutputStream out, RecordQuery query)
+			throws IOException {
+		writeStrings(out, query.getCriteria());
+		writeModes(out, query.getModes());
+		for (final NumericField field : NumericField.values()) {
+			out.writeLong(query.getMinimum(field));
+			out.writeLong(query.getMaximum(field));
+		}
+		final SortKey[] sortKeys = query.getSortKeys();
+		out.writeInt(sortKeys.length);
+		for (final SortKey sortKey : sortKeys) {
+			out.writeInt(sortKey.getField());
+			out.writeBoolean(sortKey.isDescending());
+		}
+		out.writeInt(query.getLimit());
+		writeStrings(out, query.getSpecialties());
+		out.writeBoolean(query.isAllSpecialties());
+	}
+
+	/**
+	 * Reads a query.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @return query read
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws IllegalArgumentException
+	 *             if a value of the query is invalid
+	 */
+	static RecordQuery readQuery(DataInputStream in) throws IOException {
+		final RecordQuery query = new RecordQuery(readStrings(in),
+				readModes(in));
+		for (final NumericField field : NumericField.values()) {
+			final long minimum = in.readLong();
+			final long maximum = in.readLong();
+			if (minimum != Long.MIN_VALUE || maximum != Long.MAX_VALUE) {
+				query.setRange(field, minimum == Long.MIN_VALUE ? null : field
+						.toDecimal(minimum), maximum == Long.MAX_VALUE ? null
+						: field.toDecimal(maximum));
+			}
+		}
+		final int sortKeyCount = in.readInt();
+		if (sortKeyCount < 0
+				|| sortKeyCount > FileMetaData.EXPECTED_FIELD_COUNT) {
+			throw new IllegalArgumentException("Invalid number of sort keys "
+					+ sortKeyCount);
+		}
+		final SortKey[] sortKeys = new SortKey[sortKeyCount];
+		for (int i = 0; i < sortKeys.length; i++) {
+			sortKeys[i] = new SortKey(in.readInt(), in.readBoolean());
+		}
+		query.setSortOrder(sortKeys);
+		query.setLimit(in.readInt());
+		final String[] specialties = readStrings(in);
+		query.setSpecialties(specialties, in.readBoolean());
+		return query;
+	}
+
+	/**
+	 * Writes an array of long values. The array may be null.
+	 * 
+	 * @param out
+	 *            stream to write to
+	 * @param values
+	 *            values to write
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static void writeLongs(DataOutputStream out, long[] values)
+			throws IOException {
+		if (values == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(values.length);
+			for (final long value : values) {
+				out.writeLong(value);
+			}
+		}
+	}
+
+	/**
+	 * Reads an array of long values. The array may be null.
+	 * 
+	 * @param in
+	 *            stream to read from
+	 * @return values read
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static long[] readLongs(DataInputStream in) throws IOException {
+		final int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		final long[] values = new long[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = in.readLong();
+		}
+		return values;
+	}
+}
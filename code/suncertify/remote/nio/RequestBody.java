@@ -0,0 +1,95 @@
+package suncertify.remote.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import suncertify.db.MatchMode;
+import suncertify.db.RecordQuery;
+import suncertify.db.TechnicalErrorException;
+
+/**
+ * Buffer in which a request body is encoded.
+ * <p>
+ * Writing to a byte array cannot fail, so the I/O exceptions declared by
+ * the DataOutputStream are converted to runtime exceptions.
+ * 
+ * @author Rasmus Kuschel
+ */
+final class RequestBody {
+
+	/**
+	 * Encoded bytes
+	 */
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+	/**
+	 * Stream writing to the encoded bytes
+	 */
+	private final DataOutputStream out = new DataOutputStream(bytes);
+
+	/**
+	 * Writes a long value.
+	 * 
+	 * @param value
+	 *            value to write
+	 */
+	void writeLong(long value) {
+		try {
+			out.writeLong(value);
+		} catch (final IOException e) {
+			throw new TechnicalErrorException("Cannot encode request", e);
+		}
+	}
+
+	/**
+	 * Writes an array of String values.
+	 * 
+	 * @param values
+	 *            values to write
+	 */
+	void writeStrings(String[] values) {
+		try {
+			Protocol.writeStrings(out, values);
+		} catch (final IOException e) {
+			throw new TechnicalErrorException("Cannot encode request", e);
+		}
+	}
+
+	/**
+	 * Writes an array of match modes.
+	 * 
+	 * @param modes
+	 *            modes to write
+	 */
+	void writeModes(MatchMode[] modes) {
+		try {
+			Protocol.writeModes(out, modes);
+		} catch (final IOException e) {
+			throw new TechnicalErrorException("Cannot encode request", e);
+		}
+	}
+
+	/**
+	 * Writes a query.
+	 * 
+	 * @param query
+	 *            query to write
+	 */
+	void writeQuery(RecordQuery query) {
+		try {
+			Protocol.writeQuery(out, query);
+		} catch (final IOException e) {
+			throw new TechnicalErrorException("Cannot encode request", e);
+		}
+	}
+
+	/**
+	 * Returns the encoded bytes.
+	 * 
+	 * @return encoded bytes
+	 */
+	byte[] toByteArray() {
+		return bytes.toByteArray();
+	}
+}
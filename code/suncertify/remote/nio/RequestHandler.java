@@ -0,0 +1,335 @@
+package suncertify.remote.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import suncertify.db.CallbackDBAccess;
+import suncertify.db.DBAccess;
+import suncertify.db.DeadlockException;
+import suncertify.db.DuplicateKeyException;
+import suncertify.db.LockCallback;
+import suncertify.db.MatchMode;
+import suncertify.db.MatchingDBAccess;
+import suncertify.db.QueryDBAccess;
+import suncertify.db.RecordNotFoundException;
+import suncertify.db.RecordQuery;
+import suncertify.db.SecurityException;
+import suncertify.db.TechnicalErrorException;
+import suncertify.db.UnsupportedRequestException;
+
+/**
+ * Executes the requests received by the {@code NioServer} on the
+ * {@code DBAccess} instance of a connection.
+ * <p>
+ * The locks granted to and released by the client are recorded in the
+ * connection, which releases the locks still held when it is closed.
+ * <p>
+ * The request body is decoded, the corresponding DBAccess method is invoked
+ * and its result or exception is encoded in a response frame. Exceptions are
+ * not serialized, only their type (as status code) and their message are
+ * transmitted.
+ * <p>
+ * Lock requests are executed without blocking, if the DBAccess instance
+ * implements {@code CallbackDBAccess}: the response is sent when the lock has
+ * been acquired, and no thread waits in the meantime.
+ * 
+ * @author Rasmus Kuschel
+ */
+final class RequestHandler {
+
+	/**
+	 * Private constructor to prevent instance creation.
+	 */
+	private RequestHandler() {
+	}
+
+	/**
+	 * Receiver of response frames.
+	 */
+	interface Responder {
+
+		/**
+		 * Sends the specified response frame.
+		 * 
+		 * @param response
+		 *            response frame
+		 * @return false if the response cannot be sent, because the
+		 *         connection is closed
+		 */
+		boolean respond(ByteBuffer response);
+	}
+
+	/**
+	 * Executes the request with the specified operation code and body and
+	 * passes the response frame to the specified responder.
+	 * <p>
+	 * Lock requests on a {@code CallbackDBAccess} return immediately; the
+	 * response is passed on when the lock has been acquired, possibly on
+	 * another thread. If the connection has been closed by then, the lock is
+	 * released again.
+	 * 
+	 * @param connection
+	 *            connection the request was received on
+	 * @param requestId
+	 *            id of the request
+	 * @param opcode
+	 *            operation code of the request
+	 * @param body
+	 *            encoded request body
+	 * @param responder
+	 *            receiver of the response frame
+	 */
+	static void handle(final NioConnection connection, final int requestId,
+			byte opcode, byte[] body, final Responder responder) {
+
+		final DBAccess dbAccess = connection.getDBAccess();
+		if (opcode != Protocol.OP_LOCK
+				|| !(dbAccess instanceof CallbackDBAccess)) {
+			responder.respond(handle(connection, requestId, opcode, body));
+			return;
+		}
+
+		final long recNo;
+		try {
+			recNo = new DataInputStream(new ByteArrayInputStream(body))
+					.readLong();
+		} catch (final IOException e) {
+			responder.respond(createErrorResponse(requestId, e));
+			return;
+		}
+
+		((CallbackDBAccess) dbAccess).lockRecord(recNo, new LockCallback() {
+			@Override
+			public void lockAcquired(long cookie) {
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				try {
+					new DataOutputStream(bytes).writeLong(cookie);
+				} catch (final IOException ignored) {
+					// cannot happen when writing to a byte array
+				}
+
+				if (!connection.lockGranted(recNo, cookie)) {
+					// Nobody can unlock the record anymore
+					release(dbAccess, recNo, cookie);
+					return;
+				}
+				if (!responder.respond(Protocol.createFrame(requestId,
+						Protocol.STATUS_OK, bytes.toByteArray()))
+						&& connection.lockReleased(recNo)) {
+					// Closed in the meantime, but after the lock was recorded
+					release(dbAccess, recNo, cookie);
+				}
+			}
+
+			@Override
+			public void lockFailed(Exception exception) {
+				responder.respond(createErrorResponse(requestId, exception));
+			}
+		});
+	}
+
+	/**
+	 * Releases a lock that cannot be released by the client anymore.
+	 * 
+	 * @param dbAccess
+	 *            DBAccess instance holding the lock
+	 * @param recNo
+	 *            number of the locked record
+	 * @param cookie
+	 *            cookie of the lock
+	 */
+	private static void release(DBAccess dbAccess, long recNo, long cookie) {
+		try {
+			dbAccess.unlock(recNo, cookie);
+		} catch (final SecurityException ignored) {
+			// The lock was already released
+		}
+	}
+
+	/**
+	 * Executes the request with the specified operation code and body and
+	 * returns the response frame.
+	 * 
+	 * @param connection
+	 *            connection the request was received on
+	 * @param requestId
+	 *            id of the request
+	 * @param opcode
+	 *            operation code of the request
+	 * @param body
+	 *            encoded request body
+	 * @return response frame
+	 */
+	static ByteBuffer handle(NioConnection connection, int requestId,
+			byte opcode, byte[] body) {
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+
+		try {
+			final DataInputStream in = new DataInputStream(
+					new ByteArrayInputStream(body));
+			execute(connection, opcode, in, out);
+		} catch (final Exception e) {
+			return createErrorResponse(requestId, e);
+		}
+
+		return Protocol.createFrame(requestId, Protocol.STATUS_OK, bytes
+				.toByteArray());
+	}
+
+	/**
+	 * Creates the response frame for a request that failed with the specified
+	 * exception.
+	 * 
+	 * @param requestId
+	 *            id of the request
+	 * @param e
+	 *            exception the request failed with
+	 * @return response frame
+	 */
+	private static ByteBuffer createErrorResponse(int requestId, Exception e) {
+		final byte status;
+		if (e instanceof RecordNotFoundException) {
+			status = Protocol.STATUS_RECORD_NOT_FOUND;
+		} else if (e instanceof SecurityException) {
+			status = Protocol.STATUS_SECURITY;
+		} else if (e instanceof DuplicateKeyException) {
+			status = Protocol.STATUS_DUPLICATE_KEY;
+		} else if (e instanceof DeadlockException) {
+			status = Protocol.STATUS_DEADLOCK;
+		} else if (e instanceof IllegalArgumentException
+				|| e instanceof IOException) {
+			// IOException: the request body cannot be decoded
+			status = Protocol.STATUS_ILLEGAL_ARGUMENT;
+		} else {
+			status = Protocol.STATUS_TECHNICAL_ERROR;
+		}
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		writeError(bytes, e);
+		return Protocol.createFrame(requestId, status, bytes.toByteArray());
+	}
+
+	/**
+	 * Decodes the parameters, invokes the DBAccess method corresponding to the
+	 * operation code and encodes its result.
+	 * 
+	 * @param connection
+	 *            connection the request was received on
+	 * @param opcode
+	 *            operation code of the request
+	 * @param in
+	 *            stream to read the request parameters from
+	 * @param out
+	 *            stream to write the result to
+	 * @throws IOException
+	 *             if the request body cannot be decoded
+	 * @throws RecordNotFoundException
+	 *             if thrown by the DBAccess method
+	 * @throws SecurityException
+	 *             if thrown by the DBAccess method
+	 * @throws DuplicateKeyException
+	 *             if thrown by the DBAccess method
+	 */
+	private static void execute(NioConnection connection, byte opcode,
+			DataInputStream in, DataOutputStream out) throws IOException,
+			RecordNotFoundException, SecurityException, DuplicateKeyException {
+
+		final DBAccess dbAccess = connection.getDBAccess();
+		switch (opcode) {
+		case Protocol.OP_READ: {
+			final long recNo = in.readLong();
+			Protocol.writeStrings(out, dbAccess.readRecord(recNo));
+			break;
+		}
+		case Protocol.OP_UPDATE: {
+			final long recNo = in.readLong();
+			final long cookie = in.readLong();
+			final String[] data = Protocol.readStrings(in);
+			dbAccess.updateRecord(recNo, data, cookie);
+			break;
+		}
+		case Protocol.OP_DELETE: {
+			final long recNo = in.readLong();
+			final long cookie = in.readLong();
+			dbAccess.deleteRecord(recNo, cookie);
+			break;
+		}
+		case Protocol.OP_FIND: {
+			final String[] criteria = Protocol.readStrings(in);
+			Protocol.writeLongs(out, dbAccess.findByCriteria(criteria));
+			break;
+		}
+		case Protocol.OP_FIND_MATCHING: {
+			final String[] criteria = Protocol.readStrings(in);
+			final MatchMode[] modes = Protocol.readModes(in);
+			if (!(dbAccess instanceof MatchingDBAccess)) {
+				throw new UnsupportedRequestException(
+						"Match modes are not supported by the server");
+			}
+			Protocol.writeLongs(out, ((MatchingDBAccess) dbAccess)
+					.findByCriteria(criteria, modes));
+			break;
+		}
+		case Protocol.OP_QUERY: {
+			final RecordQuery query = Protocol.readQuery(in);
+			if (!(dbAccess instanceof QueryDBAccess)) {
+				throw new UnsupportedRequestException(
+						"Queries are not supported by the server");
+			}
+			Protocol.writeLongs(out, ((QueryDBAccess) dbAccess)
+					.findByQuery(query));
+			break;
+		}
+		case Protocol.OP_CREATE: {
+			final String[] data = Protocol.readStrings(in);
+			out.writeLong(dbAccess.createRecord(data));
+			break;
+		}
+		case Protocol.OP_LOCK: {
+			final long recNo = in.readLong();
+			final long cookie = dbAccess.lockRecord(recNo);
+			if (!connection.lockGranted(recNo, cookie)) {
+				release(dbAccess, recNo, cookie);
+				throw new TechnicalErrorException("Connection is closed");
+			}
+			out.writeLong(cookie);
+			break;
+		}
+		case Protocol.OP_UNLOCK: {
+			final long recNo = in.readLong();
+			final long cookie = in.readLong();
+			dbAccess.unlock(recNo, cookie);
+			connection.lockReleased(recNo);
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("unknown operation code "
+					+ opcode);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Replaces any partial result in the specified buffer with the message of
+	 * the specified exception.
+	 * 
+	 * @param bytes
+	 *            buffer of the response body
+	 * @param e
+	 *            exception to be transmitted
+	 */
+	private static void writeError(ByteArrayOutputStream bytes, Exception e) {
+		bytes.reset();
+		try {
+			Protocol.writeString(new DataOutputStream(bytes), e.getMessage());
+		} catch (final IOException ignored) {
+			// cannot happen when writing to a byte array
+		}
+	}
+}
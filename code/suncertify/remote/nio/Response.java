@@ -0,0 +1,100 @@
+package suncertify.remote.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import suncertify.db.DeadlockException;
+import suncertify.db.DuplicateKeyException;
+import suncertify.db.RecordNotFoundException;
+import suncertify.db.SecurityException;
+import suncertify.db.TechnicalErrorException;
+
+/**
+ * Response received by a {@code NioClient} for one request.
+ * <p>
+ * Consists of the status code and the encoded body, which contains either the
+ * result values or, if the status is not OK, the error message.
+ * 
+ * @author Rasmus Kuschel
+ */
+final class Response {
+
+	/**
+	 * Status code of the response
+	 */
+	private final byte status;
+
+	/**
+	 * Encoded body of the response
+	 */
+	private final byte[] body;
+
+	/**
+	 * Creates a new response.
+	 * 
+	 * @param status
+	 *            status code
+	 * @param body
+	 *            encoded body
+	 */
+	Response(byte status, byte[] body) {
+		this.status = status;
+		this.body = body;
+	}
+
+	/**
+	 * Checks whether the request was executed successfully.
+	 * 
+	 * @return true if the status is OK
+	 */
+	boolean isOk() {
+		return status == Protocol.STATUS_OK;
+	}
+
+	/**
+	 * Returns a stream to read the values of the body from.
+	 * 
+	 * @return stream on the body
+	 */
+	DataInputStream getBody() {
+		return new DataInputStream(new ByteArrayInputStream(body));
+	}
+
+	/**
+	 * Returns the error message transmitted in the body of an unsuccessful
+	 * response.
+	 * 
+	 * @return error message, may be null
+	 */
+	String getErrorMessage() {
+		try {
+			return Protocol.readString(getBody());
+		} catch (final IOException e) {
+			return "invalid error response";
+		}
+	}
+
+	/**
+	 * Creates the exception reported by an unsuccessful response.
+	 * 
+	 * @return exception corresponding to the status code
+	 */
+	Exception toException() {
+		final String message = getErrorMessage();
+		switch (status) {
+		case Protocol.STATUS_RECORD_NOT_FOUND:
+			return new RecordNotFoundException(message);
+		case Protocol.STATUS_SECURITY:
+			return new SecurityException(message);
+		case Protocol.STATUS_DUPLICATE_KEY:
+			return new DuplicateKeyException(message);
+		case Protocol.STATUS_DEADLOCK:
+			return new DeadlockException(message);
+		case Protocol.STATUS_ILLEGAL_ARGUMENT:
+			return new IllegalArgumentException(message);
+		default:
+			return new TechnicalErrorException(message);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package suncertify.remote.nio;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import suncertify.db.NetworkErrorException;
+
+/**
+ * Placeholder for the response of a request that has been sent by a
+ * {@code NioClient} and is not yet answered.
+ * <p>
+ * The future is completed either with the response received from the server
+ * or with the I/O exception that terminated the connection.
+ * 
+ * @author Rasmus Kuschel
+ */
+final class ResponseFuture {
+
+	/**
+	 * Latch released when this future is completed.
+	 */
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	/**
+	 * Received response
+	 */
+	private volatile Response response;
+
+	/**
+	 * Exception that terminated the connection
+	 */
+	private volatile IOException failure;
+
+	/**
+	 * Completes this future with the specified response.
+	 * 
+	 * @param response
+	 *            received response
+	 */
+	void complete(Response response) {
+		this.response = response;
+		done.countDown();
+	}
+
+	/**
+	 * Completes this future with the specified exception.
+	 * 
+	 * @param failure
+	 *            exception that terminated the connection
+	 */
+	void fail(IOException failure) {
+		this.failure = failure;
+		done.countDown();
+	}
+
+	/**
+	 * Checks whether this future is completed.
+	 * 
+	 * @return true if the response has been received or the connection failed
+	 */
+	boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * Waits until this future is completed and returns the response.
+	 * 
+	 * @return received response
+	 * @throws InterruptedException
+	 *             if the waiting thread is interrupted
+	 * @throws ExecutionException
+	 *             wrapping a NetworkErrorException if the connection failed
+	 */
+	Response get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getResponse();
+	}
+
+	/**
+	 * Waits at most the specified time until this future is completed and
+	 * returns the response.
+	 * 
+	 * @param timeout
+	 *            maximum time to wait
+	 * @param unit
+	 *            unit of the timeout argument
+	 * @return received response
+	 * @throws InterruptedException
+	 *             if the waiting thread is interrupted
+	 * @throws ExecutionException
+	 *             wrapping a NetworkErrorException if the connection failed
+	 * @throws TimeoutException
+	 *             if the wait timed out
+	 */
+	Response get(long timeout, TimeUnit unit) throws InterruptedException,
+			ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException("no response from server");
+		}
+		return getResponse();
+	}
+
+	/**
+	 * Returns the response of this completed future.
+	 * 
+	 * @return received response
+	 * @throws ExecutionException
+	 *             wrapping a NetworkErrorException if the connection failed
+	 */
+	private Response getResponse() throws ExecutionException {
+		if (failure != null) {
+			throw new ExecutionException(new NetworkErrorException(
+					"Connection to server failed", failure));
+		}
+		return response;
+	}
+}
@@ -0,0 +1,138 @@
+package suncertify.remote.nio;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import suncertify.db.NetworkErrorException;
+
+/**
+ * Future of the result of an operation sent to a {@code NioServer}.
+ * <p>
+ * Wraps the future of the raw response. When the response is retrieved, a
+ * successful response body is decoded into the result value; an unsuccessful
+ * response is converted to the exception reported by the server, which is
+ * thrown wrapped in an {@code ExecutionException}.
+ * <p>
+ * Requests that have already been sent cannot be cancelled.
+ * 
+ * @param <T>
+ *            type of the result value
+ * @author Rasmus Kuschel
+ */
+final class ResultFuture<T> implements Future<T> {
+
+	/**
+	 * Decodes the body of a successful response into a result value.
+	 * 
+	 * @param <T>
+	 *            type of the result value
+	 */
+	interface Decoder<T> {
+
+		/**
+		 * Decodes the result value from the specified response body.
+		 * 
+		 * @param body
+		 *            stream on the response body
+		 * @return result value
+		 * @throws IOException
+		 *             if the body cannot be decoded
+		 */
+		T decode(DataInputStream body) throws IOException;
+	}
+
+	/**
+	 * Future of the raw response
+	 */
+	private final ResponseFuture responseFuture;
+
+	/**
+	 * Decoder of the result value
+	 */
+	private final Decoder<T> decoder;
+
+	/**
+	 * Creates a new future decoding the result from the specified response
+	 * future.
+	 * 
+	 * @param responseFuture
+	 *            future of the raw response
+	 * @param decoder
+	 *            decoder of the result value
+	 */
+	ResultFuture(ResponseFuture responseFuture, Decoder<T> decoder) {
+		this.responseFuture = responseFuture;
+		this.decoder = decoder;
+	}
+
+	/**
+	 * Requests that have already been sent cannot be cancelled.
+	 * 
+	 * @param mayInterruptIfRunning
+	 *            ignored
+	 * @return false
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isDone() {
+		return responseFuture.isDone();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		return decode(responseFuture.get());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException,
+			ExecutionException, TimeoutException {
+		return decode(responseFuture.get(timeout, unit));
+	}
+
+	/**
+	 * Decodes the result value from the specified response or throws the
+	 * exception it reports.
+	 * 
+	 * @param response
+	 *            received response
+	 * @return result value
+	 * @throws ExecutionException
+	 *             wrapping the exception reported by the server
+	 */
+	private T decode(Response response) throws ExecutionException {
+		if (!response.isOk()) {
+			throw new ExecutionException(response.toException());
+		}
+		try {
+			return decoder.decode(response.getBody());
+		} catch (final IOException e) {
+			throw new ExecutionException(new NetworkErrorException(
+					"Invalid response from server", e));
+		}
+	}
+}
@@ -5,10 +5,17 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 
+import suncertify.db.Compactor;
 import suncertify.db.CorruptDatabaseException;
 import suncertify.db.FileAccess;
+import suncertify.db.LogReplica;
+import suncertify.db.LogShipper;
+import suncertify.db.metrics.Metrics;
 import suncertify.remote.RemoteDBAccessFactory;
 import suncertify.remote.RemoteDBAccessFactoryImpl;
+import suncertify.remote.TunedClientSocketFactory;
+import suncertify.remote.TunedServerSocketFactory;
+import suncertify.remote.nio.NioServer;
 
 /**
  * Controller for the server component of the application.
@@ -17,7 +24,19 @@ import suncertify.remote.RemoteDBAccessFactoryImpl;
  * starting a new server and stopping it.
  * 
  * Starting a server comprises setting up the RMI registry and publishing a
- * factory that clients can use to create connections.
+ * factory that clients can use to create connections. Additionally, a server
+ * for the binary protocol over NIO sockets is started, so that clients can
+ * choose either transport.
+ * 
+ * The registry and the exported objects use tuned socket factories (see
+ * {@code TunedClientSocketFactory}) and are bound to configurable ports, so
+ * that the server can be reached through firewalls.
+ * 
+ * A server is either a primary, which serves all requests and may ship the
+ * change log of its data file to replicas on the same host, or a replica,
+ * which keeps its own copy of the data file up to date with the log of the
+ * primary and serves reads only. A replica does not compact its file, as it
+ * receives the compaction of the primary.
  * 
  * @author Rasmus Kuschel
  */
@@ -29,13 +48,172 @@ public final class ServerController {
 	private final String databaseLocation;
 
 	/**
-	 * Creates a new ServerController instance.
+	 * Factory published in the RMI registry, or null if the server has not
+	 * been started.
+	 */
+	private RemoteDBAccessFactoryImpl remoteDBAccessFactory;
+
+	/**
+	 * Port of the RMI registry.
+	 */
+	private final int registryPort;
+
+	/**
+	 * Port the remote objects are exported on, 0 for an anonymous port.
+	 */
+	private final int exportPort;
+
+	/**
+	 * Port of the binary protocol server.
+	 */
+	private final int nioServerPort;
+
+	/**
+	 * Client socket factory of the RMI registry and the exported objects.
+	 */
+	private final TunedClientSocketFactory clientSocketFactory;
+
+	/**
+	 * Server socket factory of the RMI registry and the exported objects.
+	 */
+	private final TunedServerSocketFactory serverSocketFactory;
+
+	/**
+	 * Binary protocol server, or null if the server has not been started.
+	 */
+	private NioServer nioServer;
+
+	/**
+	 * Compactor of the data file, or null if the server has not been started.
+	 */
+	private Compactor compactor;
+
+	/**
+	 * Port of the log shipper of the primary, 0 if a primary ships no log
+	 */
+	private final int replicationPort;
+
+	/**
+	 * Flag signifying whether this server is a replica
+	 */
+	private final boolean replica;
+
+	/**
+	 * Shipper of the change log of a primary, or null if no log is shipped
+	 */
+	private LogShipper logShipper;
+
+	/**
+	 * Replica of the data file of the primary, or null if this server is a
+	 * primary
+	 */
+	private LogReplica logReplica;
+
+	/**
+	 * Creates a new ServerController instance. The binary protocol server uses
+	 * its default port.
 	 * 
 	 * @param databaseLocation
 	 *            path to the data file
 	 */
 	public ServerController(String databaseLocation) {
+		this(databaseLocation, NioServer.DEFAULT_PORT);
+	}
+
+	/**
+	 * Creates a new ServerController instance.
+	 * 
+	 * @param databaseLocation
+	 *            path to the data file
+	 * @param nioServerPort
+	 *            port of the binary protocol server
+	 */
+	public ServerController(String databaseLocation, int nioServerPort) {
+		this(databaseLocation, Registry.REGISTRY_PORT, 0, nioServerPort);
+	}
+
+	/**
+	 * Creates a new ServerController instance.
+	 * 
+	 * @param databaseLocation
+	 *            path to the data file
+	 * @param registryPort
+	 *            port of the RMI registry
+	 * @param exportPort
+	 *            port the remote objects are exported on, 0 for an anonymous
+	 *            port
+	 * @param nioServerPort
+	 *            port of the binary protocol server
+	 */
+	public ServerController(String databaseLocation, int registryPort,
+			int exportPort, int nioServerPort) {
+		this(databaseLocation, registryPort, exportPort, nioServerPort, 0,
+				false);
+	}
+
+	/**
+	 * Creates a new ServerController instance of a primary or a replica.
+	 * 
+	 * @param databaseLocation
+	 *            path to the data file, for a replica its own copy
+	 * @param registryPort
+	 *            port of the RMI registry
+	 * @param exportPort
+	 *            port the remote objects are exported on, 0 for an anonymous
+	 *            port
+	 * @param nioServerPort
+	 *            port of the binary protocol server
+	 * @param replicationPort
+	 *            port of the log shipper of the primary, 0 if a primary ships
+	 *            no log
+	 * @param replica
+	 *            true if the server is a replica
+	 */
+	public ServerController(String databaseLocation, int registryPort,
+			int exportPort, int nioServerPort, int replicationPort,
+			boolean replica) {
+		this(databaseLocation, registryPort, exportPort, nioServerPort,
+				replicationPort, replica, new TunedClientSocketFactory(),
+				new TunedServerSocketFactory());
+	}
+
+	/**
+	 * Creates a new ServerController instance of a primary or a replica with
+	 * the specified RMI socket factories.
+	 * 
+	 * @param databaseLocation
+	 *            path to the data file, for a replica its own copy
+	 * @param registryPort
+	 *            port of the RMI registry
+	 * @param exportPort
+	 *            port the remote objects are exported on, 0 for an anonymous
+	 *            port
+	 * @param nioServerPort
+	 *            port of the binary protocol server
+	 * @param replicationPort
+	 *            port of the log shipper of the primary, 0 if a primary ships
+	 *            no log
+	 * @param replica
+	 *            true if the server is a replica
+	 * @param clientSocketFactory
+	 *            client socket factory of the RMI registry and the exported
+	 *            objects, sent to the clients
+	 * @param serverSocketFactory
+	 *            server socket factory of the RMI registry and the exported
+	 *            objects
+	 */
+	public ServerController(String databaseLocation, int registryPort,
+			int exportPort, int nioServerPort, int replicationPort,
+			boolean replica, TunedClientSocketFactory clientSocketFactory,
+			TunedServerSocketFactory serverSocketFactory) {
 		this.databaseLocation = databaseLocation;
+		this.registryPort = registryPort;
+		this.exportPort = exportPort;
+		this.nioServerPort = nioServerPort;
+		this.replicationPort = replicationPort;
+		this.replica = replica;
+		this.clientSocketFactory = clientSocketFactory;
+		this.serverSocketFactory = serverSocketFactory;
 	}
 
 	/**
@@ -60,13 +238,39 @@ public final class ServerController {
 			return false;
 		}
 
+		// Export the operation statistics to JMX consoles
+		Metrics.registerMBeans();
+
+		if (replica) {
+			// Apply the log of the primary, clients may only read
+			logReplica = new LogReplica(replicationPort);
+			logReplica.start();
+		} else {
+			// Compact the data file in the background after heavy deletion
+			compactor = new Compactor(Compactor.DEFAULT_THRESHOLD,
+					Compactor.DEFAULT_PAUSE);
+			compactor.start();
+
+			// Ship the log to the replicas connecting to this server
+			if (replicationPort > 0) {
+				try {
+					logShipper = new LogShipper(replicationPort);
+					logShipper.start();
+				} catch (final IOException e) {
+					return false;
+				}
+			}
+		}
+
 		// Start an RMI registry and register a RemoteDBAccessFactory instance.
 		// Clients can use this factory to create connections to this server.
 		try {
-			final RemoteDBAccessFactory remoteDBAccessFactory = new RemoteDBAccessFactoryImpl(
-					databaseLocation);
-			final Registry registry = LocateRegistry
-					.createRegistry(Registry.REGISTRY_PORT);
+			remoteDBAccessFactory = new RemoteDBAccessFactoryImpl(
+					databaseLocation,
+					RemoteDBAccessFactoryImpl.DEFAULT_IDLE_TIMEOUT, exportPort,
+					clientSocketFactory, serverSocketFactory);
+			final Registry registry = LocateRegistry.createRegistry(
+					registryPort, clientSocketFactory, serverSocketFactory);
 
 			registry.rebind(RemoteDBAccessFactory.RMI_KEY,
 					remoteDBAccessFactory);
@@ -74,13 +278,68 @@ public final class ServerController {
 			return false;
 		}
 
+		// Start the binary protocol server as an alternative transport.
+		try {
+			nioServer = new NioServer(databaseLocation, nioServerPort);
+			nioServer.start();
+		} catch (final IOException e) {
+			return false;
+		}
+
 		return true;
 	}
 
+	/**
+	 * Returns a short description of the client sessions of this server, i.e.
+	 * the number of open, created and closed sessions and the number of
+	 * requests rejected because the server was busy.
+	 * 
+	 * @return description of the client sessions
+	 */
+	public String getSessionSummary() {
+		if (remoteDBAccessFactory == null) {
+			return "no sessions";
+		}
+		String summary = "sessions open: "
+				+ remoteDBAccessFactory.getOpenSessionCount() + ", created: "
+				+ remoteDBAccessFactory.getCreatedSessionCount()
+				+ ", closed: "
+				+ remoteDBAccessFactory.getClosedSessionCount()
+				+ ", rejected requests: "
+				+ remoteDBAccessFactory.getRejectedRequestCount();
+		if (nioServer != null) {
+			summary += ", nio connections: " + nioServer.getConnectionCount();
+		}
+		if (logShipper != null) {
+			summary += ", replicas: " + logShipper.getReplicaCount();
+		}
+		if (logReplica != null) {
+			summary += ", log entries applied: "
+					+ logReplica.getAppliedEntries()
+					+ (logReplica.isConnected() ? "" : " (disconnected)");
+		}
+		return summary;
+	}
+
 	/**
 	 * Stops the server and stops this application instance.
 	 */
 	public void stopServer() {
+		if (remoteDBAccessFactory != null) {
+			remoteDBAccessFactory.closeAllSessions();
+		}
+		if (nioServer != null) {
+			nioServer.stop();
+		}
+		if (compactor != null) {
+			compactor.stop();
+		}
+		if (logShipper != null) {
+			logShipper.stop();
+		}
+		if (logReplica != null) {
+			logReplica.stop();
+		}
 		// Releasing recources is done in the shutdown hook
 		System.exit(0);
 	}
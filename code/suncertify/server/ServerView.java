@@ -6,10 +6,13 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.SwingConstants;
+import javax.swing.Timer;
 
 /**
  * View of the server.
@@ -26,6 +29,11 @@ public final class ServerView extends JFrame implements ActionListener {
 	 */
 	private static final long serialVersionUID = -1096559810040837162L;
 
+	/**
+	 * Interval (in milliseconds) in which the session summary is refreshed.
+	 */
+	private static final int REFRESH_INTERVAL = 1000;
+
 	/**
 	 * Controller for this view.
 	 */
@@ -41,7 +49,7 @@ public final class ServerView extends JFrame implements ActionListener {
 		super("Server");
 
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		setBounds(new Rectangle(new Dimension(200, 50)));
+		setBounds(new Rectangle(new Dimension(600, 80)));
 
 		setJMenuBar(createMenuBar());
 
@@ -56,6 +64,21 @@ public final class ServerView extends JFrame implements ActionListener {
 			showMessage("Server started");
 		}
 
+		// Display the session summary and refresh it periodically
+		final JLabel sessionLabel = new JLabel(controller.getSessionSummary());
+		sessionLabel.setHorizontalAlignment(SwingConstants.CENTER);
+		add(sessionLabel);
+
+		final Timer refreshTimer = new Timer(REFRESH_INTERVAL,
+				new ActionListener() {
+					@Override
+					public void actionPerformed(ActionEvent e) {
+						sessionLabel.setText(ServerView.this.controller
+								.getSessionSummary());
+					}
+				});
+		refreshTimer.start();
+
 	}
 
 	/**